@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stores the out of band content of an OpenWireBlobMessage.
+ * <p>
+ * Blobs are content addressed, storing the same bytes more than once returns the same
+ * blob id and adds a reference to the existing blob instead of writing a second copy.
+ * A blob is removed once every reference to it has been released.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores the bytes read from the given channel until it reports end of stream.
+     *
+     * @param source
+     *        the channel to read the blob content from.
+     *
+     * @return the id of the stored blob.
+     *
+     * @throws IOException if an error occurs while storing the blob.
+     */
+    String store(ReadableByteChannel source) throws IOException;
+
+    /**
+     * Stores the bytes read from the given stream until it reports end of stream.
+     *
+     * @param source
+     *        the stream to read the blob content from.
+     *
+     * @return the id of the stored blob.
+     *
+     * @throws IOException if an error occurs while storing the blob.
+     */
+    String store(InputStream source) throws IOException;
+
+    /**
+     * Adds a reference to an existing blob.
+     *
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return the new reference count, or zero if the blob does not exist.
+     *
+     * @throws IOException if an error occurs while updating the reference count.
+     */
+    int retain(String blobId) throws IOException;
+
+    /**
+     * Releases a reference to a blob, the blob is deleted when the last reference is released.
+     *
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return the remaining reference count, zero once the blob has been deleted.
+     *
+     * @throws IOException if an error occurs while updating the reference count.
+     */
+    int release(String blobId) throws IOException;
+
+    /**
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return true if the blob exists in this store.
+     */
+    boolean exists(String blobId);
+
+    /**
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return the size of the blob in bytes.
+     *
+     * @throws IOException if the blob does not exist.
+     */
+    long size(String blobId) throws IOException;
+
+    /**
+     * Opens a stream that reads the content of the given blob.
+     *
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return an InputStream that reads the blob content.
+     *
+     * @throws IOException if the blob does not exist or cannot be opened.
+     */
+    InputStream openInputStream(String blobId) throws IOException;
+
+    /**
+     * Transfers a region of a blob to the given channel without copying it through the heap
+     * where the platform allows.
+     *
+     * @param blobId
+     *        the id of the blob.
+     * @param position
+     *        the offset in the blob to start from.
+     * @param count
+     *        the maximum number of bytes to transfer.
+     * @param target
+     *        the channel to write to.
+     *
+     * @return the number of bytes transferred.
+     *
+     * @throws IOException if the blob does not exist or an error occurs during the transfer.
+     */
+    long transferTo(String blobId, long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * Maps a region of a blob into memory, the returned buffer is read only.
+     *
+     * @param blobId
+     *        the id of the blob.
+     * @param position
+     *        the offset in the blob to start from.
+     * @param length
+     *        the number of bytes to map.
+     *
+     * @return a read only ByteBuffer over the requested region.
+     *
+     * @throws IOException if the blob does not exist or cannot be mapped.
+     */
+    ByteBuffer map(String blobId, long position, long length) throws IOException;
+
+    /**
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return the URL that identifies the blob, suitable for use as a remote blob URL.
+     *
+     * @throws IOException if the URL cannot be created.
+     */
+    URL getURL(String blobId) throws IOException;
+
+    /**
+     * @param url
+     *        a blob URL.
+     *
+     * @return the id of the blob the URL refers to or null if it does not refer to this store.
+     */
+    String getBlobId(URL url);
+
+}
@@ -0,0 +1,410 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.blob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A BlobStore that keeps each blob in its own file below a root directory.
+ * <p>
+ * Content is written into a temporary file using {@link FileChannel#transferFrom} and is then
+ * hashed through a memory mapping of that file, the SHA-256 of the content becomes the blob id
+ * and the file is moved into place under that name.  If a blob with the same content already
+ * exists the temporary file is dropped and a reference is added to the existing blob instead.
+ * Reference counts are kept in a small sidecar file next to each blob so they survive a restart.
+ * <p>
+ * Readers are served with {@link FileChannel#transferTo} or with read only memory mappings so
+ * that blob content does not need to pass through the Java heap.
+ */
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemBlobStore.class);
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final String REFERENCE_SUFFIX = ".ref";
+    private static final int BLOB_ID_LENGTH = 64;
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long DIGEST_REGION_SIZE = 64 * 1024 * 1024;
+    private static final int LOCK_STRIPES = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final Path tempDirectory;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Map<String, Integer> referenceCounts = new ConcurrentHashMap<String, Integer>();
+
+    private boolean syncOnStore;
+
+    /**
+     * Creates a blob store rooted at the given directory, creating it if needed.  Any
+     * temporary files left behind by an earlier instance are removed.
+     *
+     * @param directory
+     *        the directory that holds the stored blobs.
+     *
+     * @throws IOException if the directory cannot be created or cleaned.
+     */
+    public FileSystemBlobStore(File directory) throws IOException {
+        this.directory = directory.toPath().toAbsolutePath().normalize();
+        this.tempDirectory = this.directory.resolve(TEMP_DIRECTORY);
+
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new Object();
+        }
+
+        Files.createDirectories(tempDirectory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tempDirectory)) {
+            for (Path leftover : leftovers) {
+                LOG.debug("Removing incomplete blob file: {}", leftover);
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    @Override
+    public String store(InputStream source) throws IOException {
+        if (source instanceof FileInputStream) {
+            return store(((FileInputStream) source).getChannel());
+        }
+
+        return store(Channels.newChannel(source));
+    }
+
+    @Override
+    public String store(ReadableByteChannel source) throws IOException {
+        Path temp = Files.createTempFile(tempDirectory, "blob-", ".tmp");
+        try {
+            String blobId;
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long position = 0;
+                long transferred;
+                while ((transferred = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                    position += transferred;
+                }
+
+                if (syncOnStore) {
+                    target.force(true);
+                }
+
+                blobId = digest(target, position);
+            }
+
+            return commit(temp, blobId);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public int retain(String blobId) throws IOException {
+        synchronized (lockFor(blobId)) {
+            int count = getReferenceCount(blobId);
+            if (count == 0) {
+                return 0;
+            }
+
+            setReferenceCount(blobId, ++count);
+            return count;
+        }
+    }
+
+    @Override
+    public int release(String blobId) throws IOException {
+        synchronized (lockFor(blobId)) {
+            int count = getReferenceCount(blobId);
+            if (count == 0) {
+                return 0;
+            }
+
+            if (--count == 0) {
+                LOG.debug("Deleting blob {} after its last reference was released", blobId);
+                referenceCounts.remove(blobId);
+                Files.deleteIfExists(blobPath(blobId));
+                Files.deleteIfExists(referencePath(blobId));
+            } else {
+                setReferenceCount(blobId, count);
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return the number of references held on the blob, zero if it does not exist.
+     *
+     * @throws IOException if the reference count cannot be read.
+     */
+    public int getReferenceCount(String blobId) throws IOException {
+        Integer count = referenceCounts.get(blobId);
+        if (count != null) {
+            return count;
+        }
+
+        synchronized (lockFor(blobId)) {
+            if (!Files.exists(blobPath(blobId))) {
+                return 0;
+            }
+
+            try {
+                count = Integer.parseInt(new String(Files.readAllBytes(referencePath(blobId)), StandardCharsets.US_ASCII).trim());
+            } catch (NoSuchFileException | NumberFormatException ex) {
+                LOG.warn("Reference count for blob {} is missing, assuming a single reference", blobId);
+                count = 1;
+            }
+
+            referenceCounts.put(blobId, count);
+            return count;
+        }
+    }
+
+    @Override
+    public boolean exists(String blobId) {
+        return Files.exists(blobPath(blobId));
+    }
+
+    @Override
+    public long size(String blobId) throws IOException {
+        try {
+            return Files.size(blobPath(blobId));
+        } catch (NoSuchFileException ex) {
+            throw notFound(blobId);
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(String blobId) throws IOException {
+        return Channels.newInputStream(openChannel(blobId));
+    }
+
+    /**
+     * Opens a read only FileChannel over the given blob, the caller must close it.
+     *
+     * @param blobId
+     *        the id of the blob.
+     *
+     * @return a FileChannel that reads the blob content.
+     *
+     * @throws IOException if the blob does not exist or cannot be opened.
+     */
+    public FileChannel openChannel(String blobId) throws IOException {
+        try {
+            return FileChannel.open(blobPath(blobId), StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            throw notFound(blobId);
+        }
+    }
+
+    @Override
+    public long transferTo(String blobId, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = openChannel(blobId)) {
+            long end = Math.min(channel.size(), position + count);
+            long offset = position;
+            while (offset < end) {
+                long transferred = channel.transferTo(offset, end - offset, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                offset += transferred;
+            }
+
+            return offset - position;
+        }
+    }
+
+    @Override
+    public ByteBuffer map(String blobId, long position, long length) throws IOException {
+        try (FileChannel channel = openChannel(blobId)) {
+            if (position + length > channel.size()) {
+                throw new IOException("Region " + position + "+" + length + " is outside of blob " + blobId);
+            }
+
+            return channel.map(MapMode.READ_ONLY, position, length);
+        }
+    }
+
+    @Override
+    public URL getURL(String blobId) throws IOException {
+        return blobPath(blobId).toUri().toURL();
+    }
+
+    @Override
+    public String getBlobId(URL url) {
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        Path path;
+        try {
+            path = Paths.get(url.toURI()).toAbsolutePath().normalize();
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+
+        String name = path.getFileName().toString();
+        if (!isBlobId(name) || !path.equals(blobPath(name))) {
+            return null;
+        }
+
+        return name;
+    }
+
+    /**
+     * @return the root directory of this blob store.
+     */
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    /**
+     * @return true if stored blobs are forced to disk before the store call returns.
+     */
+    public boolean isSyncOnStore() {
+        return syncOnStore;
+    }
+
+    /**
+     * @param syncOnStore
+     *        true if stored blobs should be forced to disk before the store call returns.
+     */
+    public void setSyncOnStore(boolean syncOnStore) {
+        this.syncOnStore = syncOnStore;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSystemBlobStore{" + directory + "}";
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private String commit(Path temp, String blobId) throws IOException {
+        synchronized (lockFor(blobId)) {
+            Path blob = blobPath(blobId);
+            int count = getReferenceCount(blobId);
+            if (count > 0) {
+                LOG.trace("Blob {} already stored, adding a reference", blobId);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            setReferenceCount(blobId, count + 1);
+        }
+
+        return blobId;
+    }
+
+    private void setReferenceCount(String blobId, int count) throws IOException {
+        Path reference = referencePath(blobId);
+        Path update = reference.resolveSibling(reference.getFileName() + ".tmp");
+        Files.write(update, Integer.toString(count).getBytes(StandardCharsets.US_ASCII));
+        Files.move(update, reference, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        referenceCounts.put(blobId, count);
+    }
+
+    private static String digest(FileChannel channel, long length) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("Blob digest algorithm is not available: " + DIGEST_ALGORITHM, ex);
+        }
+
+        for (long position = 0; position < length; position += DIGEST_REGION_SIZE) {
+            MappedByteBuffer region = channel.map(MapMode.READ_ONLY, position, Math.min(DIGEST_REGION_SIZE, length - position));
+            digest.update(region);
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[hash[i] & 0x0F];
+        }
+
+        return new String(hex);
+    }
+
+    private Path blobPath(String blobId) {
+        if (!isBlobId(blobId)) {
+            throw new IllegalArgumentException("Not a valid blob id: " + blobId);
+        }
+
+        return directory.resolve(blobId.substring(0, 2)).resolve(blobId);
+    }
+
+    private Path referencePath(String blobId) {
+        Path blob = blobPath(blobId);
+        return blob.resolveSibling(blob.getFileName() + REFERENCE_SUFFIX);
+    }
+
+    private Object lockFor(String blobId) {
+        return locks[(blobId.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
+    private static boolean isBlobId(String value) {
+        if (value == null || value.length() != BLOB_ID_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static FileNotFoundException notFound(String blobId) {
+        return new FileNotFoundException("No blob stored with id: " + blobId);
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.broker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.codec.OpenWireFormatFactory;
+import org.apache.activemq.openwire.commands.BrokerId;
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+import org.apache.activemq.openwire.dispatch.DestinationTrie;
+import org.apache.activemq.openwire.transport.InVMTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal in-process OpenWire server for driving load at client code without a real broker.
+ * <p>
+ * Clients connect over a socket, see {@link #bind(int)}, or within the JVM using an
+ * {@link InVMTransport}, see {@link #connect(InVMTransport.Mode, OpenWireFormat)}.  Each
+ * connection negotiates its wire format from the client's WireFormatInfo, is sent a
+ * BrokerInfo and has every command that requires a response answered.  Messages sent to a
+ * queue are held in memory and dispatched to the queue's consumers within their prefetch,
+ * messages sent to a topic are dispatched at once to every consumer whose destination,
+ * wildcards included, matches.  Each message is stamped with its broker in and out times.
+ * <p>
+ * Nothing is persisted, transactions are answered but not honoured, messages in flight to a
+ * consumer that closes are dropped rather than redelivered and topic consumers are not held
+ * to their prefetch.  Commands are handled on the thread that received them and messages
+ * are dispatched without copying, so that the server costs as little as possible per message.
+ */
+public class StubBroker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StubBroker.class);
+
+    public static final String DEFAULT_BROKER_NAME = "stub-broker";
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 8192;
+
+    private final String brokerName;
+    private final BrokerId brokerId;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicLong connectionCounter = new AtomicLong();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder messagesDispatched = new LongAdder();
+
+    private final Set<StubBrokerConnection> connections =
+        ConcurrentHashMap.<StubBrokerConnection>newKeySet();
+    private final ConcurrentMap<OpenWireDestination, StubQueue> queues =
+        new ConcurrentHashMap<OpenWireDestination, StubQueue>();
+    private final ConcurrentMap<ConsumerId, Subscriber> subscribers =
+        new ConcurrentHashMap<ConsumerId, Subscriber>();
+    private final DestinationTrie<Subscriber> topics = new DestinationTrie<Subscriber>();
+
+    private OpenWireFormatFactory wireFormatFactory = new OpenWireFormatFactory();
+    private int writeQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+
+    /**
+     * Creates a stub broker named {@value #DEFAULT_BROKER_NAME}.
+     */
+    public StubBroker() {
+        this(DEFAULT_BROKER_NAME);
+    }
+
+    /**
+     * Creates a stub broker.
+     *
+     * @param brokerName
+     *        the name sent to clients in the BrokerInfo.
+     */
+    public StubBroker(String brokerName) {
+        this.brokerName = brokerName;
+        this.brokerId = new BrokerId("ID:" + brokerName + "-" + System.identityHashCode(this));
+    }
+
+    /**
+     * Starts accepting socket connections.
+     *
+     * @param port
+     *        the port to listen on, zero picks a free port.
+     *
+     * @return the port listened on.
+     *
+     * @throws IOException if the port cannot be bound.
+     */
+    public synchronized int bind(int port) throws IOException {
+        checkNotStopped();
+        if (serverSocket != null) {
+            throw new IllegalStateException("Broker " + brokerName + " is already bound to port " + serverSocket.getLocalPort());
+        }
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+
+        final ServerSocket server = serverSocket;
+        acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptLoop(server);
+            }
+        }, "OpenWire Stub Broker Acceptor: " + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return server.getLocalPort();
+    }
+
+    /**
+     * Creates a connection within the JVM, the client sets its listener on the returned end and
+     * starts it before sending its WireFormatInfo.
+     *
+     * @param mode
+     *        how commands are passed between the client and the broker.
+     * @param clientFormat
+     *        the OpenWireFormat used by the client's end of the transport.
+     *
+     * @return the client's end of the transport, not yet started.
+     */
+    public InVMTransport connect(InVMTransport.Mode mode, OpenWireFormat clientFormat) {
+        checkNotStopped();
+
+        OpenWireFormat brokerFormat = wireFormatFactory.createWireFormat();
+        InVMTransport[] pair = InVMTransport.createPair(mode, clientFormat, brokerFormat);
+        final InVMTransport brokerEnd = pair[1];
+
+        StubBrokerConnection connection = createConnection(brokerFormat, "vm://" + brokerName);
+        connection.setSender(new StubBrokerConnection.Sender() {
+
+            @Override
+            public void send(Object command) throws IOException {
+                brokerEnd.oneway(command);
+            }
+
+            @Override
+            public void close() {
+                try {
+                    brokerEnd.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        brokerEnd.setTransportListener(connection);
+        brokerEnd.start();
+        return pair[0];
+    }
+
+    /**
+     * Closes every connection and the server socket and discards all messages.
+     */
+    public void stop() {
+        if (stopped.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (serverSocket != null) {
+                    try {
+                        serverSocket.close();
+                    } catch (IOException e) {
+                        LOG.trace("Error closing server socket: {}", e.getMessage());
+                    }
+                }
+            }
+
+            for (StubBrokerConnection connection : connections) {
+                connection.close();
+            }
+
+            queues.clear();
+            subscribers.clear();
+            topics.clear();
+        }
+    }
+
+    public String getBrokerName() {
+        return brokerName;
+    }
+
+    public BrokerId getBrokerId() {
+        return brokerId;
+    }
+
+    public OpenWireFormatFactory getWireFormatFactory() {
+        return wireFormatFactory;
+    }
+
+    /**
+     * @param wireFormatFactory
+     *        creates the OpenWireFormat of each new connection, its settings are those the
+     *        broker prefers when negotiating.
+     */
+    public void setWireFormatFactory(OpenWireFormatFactory wireFormatFactory) {
+        this.wireFormatFactory = wireFormatFactory;
+    }
+
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    /**
+     * @param writeQueueCapacity
+     *        the number of commands queued for each socket connection before senders block.
+     */
+    public void setWriteQueueCapacity(int writeQueueCapacity) {
+        if (writeQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Write queue capacity must be positive: " + writeQueueCapacity);
+        }
+
+        this.writeQueueCapacity = writeQueueCapacity;
+    }
+
+    /**
+     * @return the number of open connections.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of messages received from producers.
+     */
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    /**
+     * @return the number of messages dispatched to consumers.
+     */
+    public long getMessagesDispatched() {
+        return messagesDispatched.sum();
+    }
+
+    /**
+     * @param destination
+     *        the queue to inspect.
+     *
+     * @return the number of messages waiting on the queue for a consumer.
+     */
+    public int getPendingCount(OpenWireDestination destination) {
+        StubQueue queue = queues.get(destination);
+        return queue != null ? queue.getPendingCount() : 0;
+    }
+
+    /**
+     * @return the number of topic subscriptions.
+     */
+    public int getTopicSubscriptionCount() {
+        return topics.size();
+    }
+
+    @Override
+    public String toString() {
+        return "StubBroker { " + brokerName + " }";
+    }
+
+    //----- Connection callbacks ---------------------------------------------//
+
+    /**
+     * Subscription of a topic consumer.
+     */
+    static final class Subscriber {
+
+        final ConsumerInfo info;
+        final StubBrokerConnection connection;
+
+        Subscriber(ConsumerInfo info, StubBrokerConnection connection) {
+            this.info = info;
+            this.connection = connection;
+        }
+    }
+
+    void route(Message message, List<Subscriber> matched) {
+        messagesReceived.increment();
+
+        OpenWireDestination destination = message.getDestination();
+        if (destination.isComposite()) {
+            for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                Message copy = message.copy();
+                copy.setDestination(component);
+                routeTo(copy, component, matched);
+            }
+        } else {
+            routeTo(message, destination, matched);
+        }
+    }
+
+    void addConsumer(ConsumerInfo info, StubBrokerConnection connection) {
+        OpenWireDestination destination = info.getDestination();
+        if (destination.isQueue()) {
+            if (destination.isComposite()) {
+                for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                    getQueue(component).addConsumer(info, connection);
+                }
+            } else {
+                getQueue(destination).addConsumer(info, connection);
+            }
+        } else {
+            Subscriber subscriber = new Subscriber(info, connection);
+            subscribers.put(info.getConsumerId(), subscriber);
+            topics.subscribe(destination, subscriber);
+        }
+    }
+
+    void removeConsumer(ConsumerInfo info, StubBrokerConnection connection) {
+        OpenWireDestination destination = info.getDestination();
+        if (destination.isQueue()) {
+            if (destination.isComposite()) {
+                for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                    removeQueueConsumer(component, info.getConsumerId());
+                }
+            } else {
+                removeQueueConsumer(destination, info.getConsumerId());
+            }
+        } else {
+            Subscriber subscriber = subscribers.remove(info.getConsumerId());
+            if (subscriber != null) {
+                topics.unsubscribe(destination, subscriber);
+            }
+        }
+    }
+
+    void acknowledge(MessageAck ack) {
+        OpenWireDestination destination = ack.getDestination();
+        if (destination != null && destination.isQueue()) {
+            StubQueue queue = queues.get(destination);
+            if (queue != null) {
+                queue.acknowledge(ack);
+            }
+        }
+    }
+
+    /**
+     * @return false if the pull asked not to wait and there is nothing to dispatch.
+     */
+    boolean pull(MessagePull pull) {
+        OpenWireDestination destination = pull.getDestination();
+        if (destination == null || !destination.isQueue()) {
+            return pull.getTimeout() >= 0;
+        }
+
+        return getQueue(destination).pull(pull);
+    }
+
+    void dispatched() {
+        messagesDispatched.increment();
+    }
+
+    void removeConnection(StubBrokerConnection connection) {
+        connections.remove(connection);
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void checkNotStopped() {
+        if (stopped.get()) {
+            throw new IllegalStateException("Broker " + brokerName + " is stopped");
+        }
+    }
+
+    private StubBrokerConnection createConnection(OpenWireFormat wireFormat, String brokerURL) {
+        StubBrokerConnection connection =
+            new StubBrokerConnection(this, wireFormat, brokerURL, connectionCounter.incrementAndGet());
+        connections.add(connection);
+        return connection;
+    }
+
+    private void acceptLoop(ServerSocket server) {
+        String brokerURL = "tcp://localhost:" + server.getLocalPort();
+        while (!stopped.get()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!stopped.get()) {
+                    LOG.warn("Broker {} stopped accepting connections: {}", brokerName, e.getMessage());
+                }
+                return;
+            }
+
+            StubBrokerConnection connection = createConnection(wireFormatFactory.createWireFormat(), brokerURL);
+            StubSocketTransport transport =
+                new StubSocketTransport(socket, connection.getWireFormat(), connection, writeQueueCapacity);
+            connection.setSender(transport);
+            try {
+                transport.start(connection.createWireFormatInfo());
+            } catch (IOException e) {
+                LOG.debug("Failed to start connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    private StubQueue getQueue(OpenWireDestination destination) {
+        StubQueue queue = queues.get(destination);
+        if (queue == null) {
+            StubQueue created = new StubQueue();
+            queue = queues.putIfAbsent(destination, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+
+        return queue;
+    }
+
+    private void removeQueueConsumer(OpenWireDestination destination, ConsumerId consumerId) {
+        StubQueue queue = queues.get(destination);
+        if (queue != null) {
+            queue.removeConsumer(consumerId);
+        }
+    }
+
+    private void routeTo(Message message, OpenWireDestination destination, List<Subscriber> matched) {
+        if (destination.isQueue()) {
+            getQueue(destination).enqueue(message);
+            return;
+        }
+
+        topics.match(destination, matched);
+        for (int i = 0; i < matched.size(); ++i) {
+            Subscriber subscriber = matched.get(i);
+            MessageDispatch dispatch = new MessageDispatch();
+            dispatch.setConsumerId(subscriber.info.getConsumerId());
+            dispatch.setDestination(destination);
+            dispatch.setMessage(message);
+            subscriber.connection.dispatch(dispatch);
+        }
+        matched.clear();
+    }
+}
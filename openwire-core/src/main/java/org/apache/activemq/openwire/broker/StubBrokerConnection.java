@@ -0,0 +1,353 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.broker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.BrokerInfo;
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.CommandVisitorAdapter;
+import org.apache.activemq.openwire.commands.ConnectionId;
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.ExceptionResponse;
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.ProducerAck;
+import org.apache.activemq.openwire.commands.ProducerId;
+import org.apache.activemq.openwire.commands.ProducerInfo;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.commands.SessionId;
+import org.apache.activemq.openwire.commands.ShutdownInfo;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.transport.TransportListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The broker side of one client connection to the {@link StubBroker}.
+ * <p>
+ * Commands from the client are delivered one at a time by the transport, messages dispatched
+ * to this connection's consumers may be sent from any thread.
+ */
+final class StubBrokerConnection extends CommandVisitorAdapter implements TransportListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StubBrokerConnection.class);
+
+    /**
+     * Sends commands to the client over whatever transport carries the connection.
+     */
+    interface Sender {
+
+        /**
+         * Sends a command to the client.
+         *
+         * @param command
+         *        the command to send.
+         *
+         * @throws IOException if the command cannot be sent.
+         */
+        void send(Object command) throws IOException;
+
+        /**
+         * Closes the transport, commands not yet sent are discarded.
+         */
+        void close();
+    }
+
+    private final StubBroker broker;
+    private final OpenWireFormat wireFormat;
+    private final String brokerURL;
+    private final long connectionNumber;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Sender sender;
+    private boolean wireFormatInfoSent;
+
+    // Concurrent as a failed dispatch from another thread may close the connection.
+    private final Map<ConsumerId, ConsumerInfo> consumers = new ConcurrentHashMap<ConsumerId, ConsumerInfo>();
+    private final Map<ProducerId, ProducerInfo> producers = new ConcurrentHashMap<ProducerId, ProducerInfo>();
+
+    // Only used by the thread delivering commands from the client.
+    private final List<StubBroker.Subscriber> matched = new ArrayList<StubBroker.Subscriber>();
+
+    StubBrokerConnection(StubBroker broker, OpenWireFormat wireFormat, String brokerURL, long connectionNumber) {
+        this.broker = broker;
+        this.wireFormat = wireFormat;
+        this.brokerURL = brokerURL;
+        this.connectionNumber = connectionNumber;
+    }
+
+    void setSender(Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Creates the WireFormatInfo that opens the handshake, a transport that can send it
+     * before reading from the client does so, otherwise it is sent in reply to the client's.
+     *
+     * @return a copy of the broker's preferred WireFormatInfo that the client may change.
+     *
+     * @throws IOException if the preferred properties cannot be copied.
+     */
+    WireFormatInfo createWireFormatInfo() throws IOException {
+        WireFormatInfo preferred = wireFormat.getPreferedWireFormatInfo();
+        WireFormatInfo info = new WireFormatInfo();
+        info.setVersion(preferred.getVersion());
+        for (Map.Entry<String, Object> property : preferred.getProperties().entrySet()) {
+            info.setProperty(property.getKey(), property.getValue());
+        }
+
+        wireFormatInfoSent = true;
+        return info;
+    }
+
+    @Override
+    public void onCommand(Object command) {
+        if (closed.get() || !(command instanceof Command)) {
+            return;
+        }
+
+        Command request = (Command) command;
+        Response response;
+        try {
+            response = request.visit(this);
+        } catch (Exception e) {
+            LOG.debug("Failed to process {}: {}", request, e.getMessage());
+            response = new ExceptionResponse(e);
+        }
+
+        if (request.isResponseRequired() && !closed.get()) {
+            if (response == null) {
+                response = new Response();
+            }
+            response.setCorrelationId(request.getCommandId());
+            send(response);
+        }
+    }
+
+    @Override
+    public void onException(IOException error) {
+        LOG.debug("Connection {} failed: {}", connectionNumber, error.getMessage());
+        close();
+    }
+
+    /**
+     * Sends a message to one of this connection's consumers, a failure to send closes the
+     * connection rather than failing the caller.
+     *
+     * @param dispatch
+     *        the dispatch to send.
+     */
+    void dispatch(MessageDispatch dispatch) {
+        Message message = dispatch.getMessage();
+        if (message != null) {
+            // A topic message is shared by its subscribers, each of which is written by its own
+            // connection, so the dispatch time goes on a copy of it.
+            message = message.copy();
+            message.setBrokerOutTime(System.currentTimeMillis());
+            dispatch.setMessage(message);
+        }
+        // Counted first so the statistic is current once the client sees the dispatch.
+        broker.dispatched();
+        send(dispatch);
+    }
+
+    /**
+     * Closes the connection removing its consumers, safe to call more than once.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            for (ConsumerInfo info : consumers.values()) {
+                broker.removeConsumer(info, this);
+            }
+            consumers.clear();
+            producers.clear();
+
+            broker.removeConnection(this);
+            if (sender != null) {
+                sender.close();
+            }
+        }
+    }
+
+    OpenWireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "StubBrokerConnection { " + brokerURL + " #" + connectionNumber + " }";
+    }
+
+    //----- Command handlers -------------------------------------------------//
+
+    @Override
+    public Response processWireFormat(WireFormatInfo info) throws Exception {
+        if (!wireFormatInfoSent) {
+            send(createWireFormatInfo());
+        }
+
+        // Held so that nothing is marshalled while the format changes.
+        synchronized (wireFormat) {
+            wireFormat.renegotiateWireFormat(info);
+        }
+
+        BrokerInfo brokerInfo = new BrokerInfo();
+        brokerInfo.setBrokerId(broker.getBrokerId());
+        brokerInfo.setBrokerName(broker.getBrokerName());
+        brokerInfo.setBrokerURL(brokerURL);
+        brokerInfo.setConnectionId(connectionNumber);
+        send(brokerInfo);
+
+        return null;
+    }
+
+    @Override
+    public Response processKeepAlive(KeepAliveInfo info) throws Exception {
+        if (info.isResponseRequired()) {
+            // Echoed as a KeepAliveInfo rather than answered with a Response.
+            info.setResponseRequired(false);
+            send(info);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Response processAddConsumer(ConsumerInfo info) throws Exception {
+        ConsumerInfo previous = consumers.put(info.getConsumerId(), info);
+        if (previous != null) {
+            broker.removeConsumer(previous, this);
+        }
+        broker.addConsumer(info, this);
+        return null;
+    }
+
+    @Override
+    public Response processRemoveConsumer(ConsumerId id, long lastDeliveredSequenceId) throws Exception {
+        ConsumerInfo info = consumers.remove(id);
+        if (info != null) {
+            broker.removeConsumer(info, this);
+        }
+        return null;
+    }
+
+    @Override
+    public Response processRemoveSession(SessionId id, long lastDeliveredSequenceId) throws Exception {
+        for (Iterator<ConsumerInfo> iterator = consumers.values().iterator(); iterator.hasNext();) {
+            ConsumerInfo info = iterator.next();
+            if (id.equals(info.getConsumerId().getParentId())) {
+                iterator.remove();
+                broker.removeConsumer(info, this);
+            }
+        }
+        for (Iterator<ProducerId> iterator = producers.keySet().iterator(); iterator.hasNext();) {
+            if (id.equals(iterator.next().getParentId())) {
+                iterator.remove();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Response processRemoveConnection(ConnectionId id, long lastDeliveredSequenceId) throws Exception {
+        for (ConsumerInfo info : consumers.values()) {
+            broker.removeConsumer(info, this);
+        }
+        consumers.clear();
+        producers.clear();
+        return null;
+    }
+
+    @Override
+    public Response processAddProducer(ProducerInfo info) throws Exception {
+        producers.put(info.getProducerId(), info);
+        return null;
+    }
+
+    @Override
+    public Response processRemoveProducer(ProducerId id) throws Exception {
+        producers.remove(id);
+        return null;
+    }
+
+    @Override
+    public Response processMessage(Message message) throws Exception {
+        // An in-VM producer in REFERENCE mode still holds the message it sent, leave it as sent.
+        Message received = message.copy();
+        received.setBrokerInTime(System.currentTimeMillis());
+        broker.route(received, matched);
+
+        if (!message.isResponseRequired()) {
+            ProducerInfo producer = producers.get(message.getProducerId());
+            if (producer != null && producer.getWindowSize() > 0) {
+                send(new ProducerAck(producer.getProducerId(), message.getSize()));
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Response processMessageAck(MessageAck ack) throws Exception {
+        broker.acknowledge(ack);
+        return null;
+    }
+
+    @Override
+    public Response processMessagePull(MessagePull pull) throws Exception {
+        if (!broker.pull(pull)) {
+            // Nothing to give a consumer that will not wait, tell it so.
+            MessageDispatch dispatch = new MessageDispatch();
+            dispatch.setConsumerId(pull.getConsumerId());
+            dispatch.setDestination(pull.getDestination());
+            send(dispatch);
+        }
+        return null;
+    }
+
+    @Override
+    public Response processShutdown(ShutdownInfo info) throws Exception {
+        close();
+        return null;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void send(Object command) {
+        if (closed.get()) {
+            return;
+        }
+
+        try {
+            sender.send(command);
+        } catch (IOException e) {
+            onException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.dispatch.ConsumerDispatcher;
+import org.apache.activemq.openwire.dispatch.PriorityMessageQueue;
+
+/**
+ * An in-memory queue of the {@link StubBroker}, pending messages are held in priority order
+ * and dispatched to the queue's consumers as their prefetch allows.
+ * <p>
+ * Any thread may add messages, consumers or acknowledgements, the thread that finds no other
+ * thread dispatching drains the queue and dispatches on behalf of the others so that each
+ * consumer receives its messages in order without the threads waiting on a lock.
+ */
+final class StubQueue {
+
+    private static final int DISPATCH_BATCH_SIZE = 256;
+
+    private final PriorityMessageQueue pending = new PriorityMessageQueue();
+    private final ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+    private final ConcurrentMap<ConsumerId, StubBrokerConnection> owners =
+        new ConcurrentHashMap<ConsumerId, StubBrokerConnection>();
+
+    // Work in progress counter, only the thread that raises it from zero dispatches.
+    private final AtomicInteger dispatchRequests = new AtomicInteger();
+    private final List<MessageDispatch> dispatches = new ArrayList<MessageDispatch>(DISPATCH_BATCH_SIZE);
+
+    void enqueue(Message message) {
+        pending.offer(message);
+        dispatch();
+    }
+
+    void addConsumer(ConsumerInfo info, StubBrokerConnection connection) {
+        owners.put(info.getConsumerId(), connection);
+        dispatcher.addConsumer(info);
+        dispatch();
+    }
+
+    /**
+     * Removes a consumer, messages in flight to it are discarded as the stub broker does not
+     * redeliver.
+     */
+    void removeConsumer(ConsumerId consumerId) {
+        dispatcher.removeConsumer(consumerId);
+        owners.remove(consumerId);
+    }
+
+    void acknowledge(MessageAck ack) {
+        dispatcher.acknowledge(ack);
+        dispatch();
+    }
+
+    /**
+     * @return false if the pull asked not to wait and the queue has nothing to dispatch.
+     */
+    boolean pull(MessagePull pull) {
+        if (pull.getTimeout() < 0 && pending.isEmpty()) {
+            return false;
+        }
+
+        dispatcher.pull(pull);
+        dispatch();
+        return true;
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void dispatch() {
+        if (dispatchRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (dispatcher.dispatch(pending, dispatches, DISPATCH_BATCH_SIZE) > 0) {
+                for (MessageDispatch dispatch : dispatches) {
+                    StubBrokerConnection owner = owners.get(dispatch.getConsumerId());
+                    if (owner != null) {
+                        owner.dispatch(dispatch);
+                    }
+                }
+                dispatches.clear();
+            }
+
+            missed = dispatchRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.broker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.transport.TransportListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries a {@link StubBroker} connection over a socket.
+ * <p>
+ * A reader thread unmarshals the commands from the client and hands them to the listener one
+ * at a time.  Commands sent to the client are queued for a writer thread that marshals all
+ * that are waiting and then flushes the socket once, so a busy connection pays for one write
+ * per batch rather than per command.  A full queue blocks the sender.
+ */
+final class StubSocketTransport implements StubBrokerConnection.Sender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StubSocketTransport.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_WRITE_BATCH = 1024;
+
+    private final Socket socket;
+    private final OpenWireFormat wireFormat;
+    private final TransportListener listener;
+    private final BlockingQueue<Object> outbound;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private DataOutputStream out;
+    private Thread reader;
+    private Thread writer;
+
+    StubSocketTransport(Socket socket, OpenWireFormat wireFormat, TransportListener listener, int writeQueueCapacity) {
+        this.socket = socket;
+        this.wireFormat = wireFormat;
+        this.listener = listener;
+        this.outbound = new ArrayBlockingQueue<Object>(writeQueueCapacity);
+    }
+
+    /**
+     * Writes the greeting and then starts reading and writing, the greeting is on the wire
+     * before anything received can change the wire format.
+     *
+     * @param greeting
+     *        the first command written to the client.
+     *
+     * @throws IOException if the greeting cannot be written.
+     */
+    void start(Object greeting) throws IOException {
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        wireFormat.marshal(greeting, out);
+        out.flush();
+
+        String name = String.valueOf(socket.getRemoteSocketAddress());
+        reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "OpenWire Stub Broker Reader: " + name);
+        writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "OpenWire Stub Broker Writer: " + name);
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        writer.start();
+        reader.start();
+    }
+
+    @Override
+    public void send(Object command) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Transport to " + socket.getRemoteSocketAddress() + " is closed");
+        }
+
+        try {
+            outbound.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending to " + socket.getRemoteSocketAddress());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.trace("Error closing socket: {}", e.getMessage());
+            }
+
+            Thread thread = writer;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            outbound.clear();
+        }
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void readLoop() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            while (!closed.get()) {
+                listener.onCommand(wireFormat.unmarshal(in));
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                listener.onException(e);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<Object>(MAX_WRITE_BATCH);
+        try {
+            while (!closed.get()) {
+                batch.add(outbound.take());
+                outbound.drainTo(batch, MAX_WRITE_BATCH - 1);
+                for (Object command : batch) {
+                    wireFormat.marshal(command, out);
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.trace("Writer for {} stopped", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed.get()) {
+                listener.onException(e);
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 
 import org.apache.activemq.openwire.commands.DataStructure;
+import org.apache.activemq.openwire.commands.Message;
 import org.fusesource.hawtbuf.Buffer;
 
 /**
@@ -168,7 +169,7 @@ public abstract class BaseDataStreamMarshaller implements DataStreamMarshaller {
 
     protected void tightMarshalCachedObject2(OpenWireFormat wireFormat, DataStructure o, DataOutput dataOut, BooleanStream bs) throws IOException {
         if (wireFormat.isCacheEnabled()) {
-            Short index = wireFormat.getMarshallCacheIndex(o);
+            Short index = wireFormat.lookupMarshallCacheIndex(o);
             if (bs.readBoolean()) {
                 dataOut.writeShort(index.shortValue());
                 wireFormat.tightMarshalNestedObject2(o, dataOut, bs);
@@ -417,6 +418,76 @@ public abstract class BaseDataStreamMarshaller implements DataStreamMarshaller {
         }
     }
 
+    /**
+     * Tight marshal first pass for the content of a Message, when the Message has a
+     * MessageBodySource its declared length is used in place of a content Buffer.
+     *
+     * @param info
+     *        the Message whose content is being marshalled.
+     * @param bs
+     *        the BooleanStream for the tight marshal.
+     *
+     * @return the number of bytes needed to encode the content.
+     *
+     * @throws IOException if the body source length cannot be encoded.
+     */
+    protected int tightMarshalContent1(Message info, BooleanStream bs) throws IOException {
+        MessageBodySource source = info.getBodySource();
+        if (source == null) {
+            return tightMarshalByteSequence1(info.getContent(), bs);
+        }
+
+        bs.writeBoolean(true);
+        return getBodySourceLength(source) + 4;
+    }
+
+    /**
+     * Tight marshal second pass for the content of a Message, a MessageBodySource is
+     * streamed directly into the output.
+     *
+     * @param info
+     *        the Message whose content is being marshalled.
+     * @param dataOut
+     *        the output to write the content to.
+     * @param bs
+     *        the BooleanStream for the tight marshal.
+     *
+     * @throws IOException if an error occurs while writing the content.
+     */
+    protected void tightMarshalContent2(Message info, DataOutput dataOut, BooleanStream bs) throws IOException {
+        MessageBodySource source = info.getBodySource();
+        if (source == null) {
+            tightMarshalByteSequence2(info.getContent(), dataOut, bs);
+        } else if (bs.readBoolean()) {
+            dataOut.writeInt(getBodySourceLength(source));
+            source.writeTo(dataOut);
+        }
+    }
+
+    /**
+     * Tight unmarshal of the content of a Message, when the OpenWireFormat has a direct content
+     * pool configured and the content is at least the direct content threshold in size the bytes
+     * are read into off heap storage and set as the message body source.
+     *
+     * @param wireFormat
+     *        the OpenWireFormat instance doing the unmarshal.
+     * @param info
+     *        the Message whose content is being unmarshalled.
+     * @param dataIn
+     *        the input to read the content from.
+     * @param bs
+     *        the BooleanStream for the tight unmarshal.
+     *
+     * @throws IOException if an error occurs while reading the content.
+     */
+    protected void tightUnmarshalContent(OpenWireFormat wireFormat, Message info, DataInput dataIn, BooleanStream bs) throws IOException {
+        if (bs.readBoolean()) {
+            unmarshalContent(wireFormat, info, dataIn);
+        } else {
+            info.setContent(null);
+        }
+    }
+
     protected Buffer tightUnmarshalByteSequence(DataInput dataIn, BooleanStream bs) throws IOException {
         Buffer rc = null;
         if (bs.readBoolean()) {
@@ -605,6 +676,71 @@ public abstract class BaseDataStreamMarshaller implements DataStreamMarshaller {
         }
     }
 
+    /**
+     * Loose marshal for the content of a Message, a MessageBodySource is streamed directly
+     * into the output.
+     *
+     * @param wireFormat
+     *        the OpenWireFormat instance doing the marshal.
+     * @param info
+     *        the Message whose content is being marshalled.
+     * @param dataOut
+     *        the output to write the content to.
+     *
+     * @throws IOException if an error occurs while writing the content.
+     */
+    protected void looseMarshalContent(OpenWireFormat wireFormat, Message info, DataOutput dataOut) throws IOException {
+        MessageBodySource source = info.getBodySource();
+        if (source == null) {
+            looseMarshalByteSequence(wireFormat, info.getContent(), dataOut);
+        } else {
+            dataOut.writeBoolean(true);
+            dataOut.writeInt(getBodySourceLength(source));
+            source.writeTo(dataOut);
+        }
+    }
+
+    private static int getBodySourceLength(MessageBodySource source) throws IOException {
+        long length = source.getLength();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Message body source length cannot be encoded: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Loose unmarshal of the content of a Message, see
+     * {@link #tightUnmarshalContent(OpenWireFormat, Message, DataInput, BooleanStream)}.
+     *
+     * @param wireFormat
+     *        the OpenWireFormat instance doing the unmarshal.
+     * @param info
+     *        the Message whose content is being unmarshalled.
+     * @param dataIn
+     *        the input to read the content from.
+     *
+     * @throws IOException if an error occurs while reading the content.
+     */
+    protected void looseUnmarshalContent(OpenWireFormat wireFormat, Message info, DataInput dataIn) throws IOException {
+        if (dataIn.readBoolean()) {
+            unmarshalContent(wireFormat, info, dataIn);
+        } else {
+            info.setContent(null);
+        }
+    }
+
+    private static void unmarshalContent(OpenWireFormat wireFormat, Message info, DataInput dataIn) throws IOException {
+        int size = dataIn.readInt();
+        DirectBufferPool pool = wireFormat.getDirectContentPool();
+        if (pool != null && size >= wireFormat.getDirectContentThreshold()) {
+            info.setBodySource(DirectContentBuffer.readFrom(pool, dataIn, size));
+        } else {
+            byte[] t = new byte[size];
+            dataIn.readFully(t);
+            info.setContent(new Buffer(t, 0, size));
+        }
+    }
+
     protected Buffer looseUnmarshalByteSequence(DataInput dataIn) throws IOException {
         Buffer rc = null;
         if (dataIn.readBoolean()) {
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A MessageBodySource that writes the remaining bytes of a list of ByteBuffers in order.
+ * <p>
+ * The buffers are duplicated when the source is created so their positions are not changed
+ * by writing and the source can be written any number of times.  Direct buffers are copied
+ * to the output through a small transfer array.
+ */
+public class ByteBufferBodySource implements MessageBodySource {
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    private final List<ByteBuffer> buffers;
+    private final long length;
+
+    public ByteBufferBodySource(ByteBuffer... buffers) {
+        this(Arrays.asList(buffers));
+    }
+
+    public ByteBufferBodySource(List<ByteBuffer> buffers) {
+        List<ByteBuffer> duplicates = new ArrayList<ByteBuffer>(buffers.size());
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            duplicates.add(buffer.duplicate());
+            total += buffer.remaining();
+        }
+
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Body length must be at most " + Integer.MAX_VALUE + ": " + total);
+        }
+
+        this.buffers = Collections.unmodifiableList(duplicates);
+        this.length = total;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        byte[] transfer = null;
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                if (transfer == null) {
+                    transfer = new byte[COPY_BUFFER_SIZE];
+                }
+
+                ByteBuffer source = buffer.duplicate();
+                while (source.hasRemaining()) {
+                    int chunk = Math.min(transfer.length, source.remaining());
+                    source.get(transfer, 0, chunk);
+                    out.write(transfer, 0, chunk);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferBodySource{buffers=" + buffers.size() + ", length=" + length + "}";
+    }
+}
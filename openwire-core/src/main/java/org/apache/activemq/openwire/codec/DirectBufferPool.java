@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed size direct ByteBuffer segments used to hold message content outside
+ * of the Java heap.
+ * <p>
+ * Released segments are kept for reuse up to the configured limit, segments released while
+ * the pool is full are dropped and left for the collector to reclaim the native memory.
+ */
+public class DirectBufferPool {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED_SEGMENTS = 1024;
+
+    private final int segmentSize;
+    private final int maxPooledSegments;
+    private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    private final AtomicLong allocatedCount = new AtomicLong();
+    private final AtomicLong outstandingCount = new AtomicLong();
+
+    public DirectBufferPool() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_POOLED_SEGMENTS);
+    }
+
+    public DirectBufferPool(int segmentSize, int maxPooledSegments) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+
+        this.segmentSize = segmentSize;
+        this.maxPooledSegments = Math.max(0, maxPooledSegments);
+    }
+
+    /**
+     * @return a cleared direct segment of {@link #getSegmentSize()} bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer segment = pooled.poll();
+        if (segment != null) {
+            pooledCount.decrementAndGet();
+            segment.clear();
+        } else {
+            segment = ByteBuffer.allocateDirect(segmentSize);
+            allocatedCount.incrementAndGet();
+        }
+
+        outstandingCount.incrementAndGet();
+        return segment;
+    }
+
+    /**
+     * Returns a segment to the pool, the caller must not use the segment afterwards.
+     *
+     * @param segment
+     *        a segment previously obtained from {@link #acquire()}.
+     */
+    public void release(ByteBuffer segment) {
+        outstandingCount.decrementAndGet();
+        if (pooledCount.incrementAndGet() <= maxPooledSegments) {
+            pooled.offer(segment);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the size in bytes of each segment handed out by this pool.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the maximum number of free segments retained for reuse.
+     */
+    public int getMaxPooledSegments() {
+        return maxPooledSegments;
+    }
+
+    /**
+     * @return the number of free segments currently held for reuse.
+     */
+    public int getPooledCount() {
+        return pooledCount.get();
+    }
+
+    /**
+     * @return the number of segments acquired and not yet released.
+     */
+    public long getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    /**
+     * @return the total number of segments allocated by this pool.
+     */
+    public long getAllocatedCount() {
+        return allocatedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectBufferPool{segmentSize=" + segmentSize + ", pooled=" + getPooledCount() +
+               ", outstanding=" + getOutstandingCount() + "}";
+    }
+}
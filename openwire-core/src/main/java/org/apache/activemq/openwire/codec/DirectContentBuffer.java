@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * Reference counted message content held in direct memory segments from a DirectBufferPool.
+ * <p>
+ * A new instance starts with a single reference, every {@link #retain()} must be matched by
+ * a {@link #release()} and the segments are returned to the pool when the count reaches zero.
+ * Message takes care of this when the buffer is set as its body source, copies of the message
+ * retain the buffer and clearing or replacing the body releases it.
+ * <p>
+ * Bytes are moved between the stream and the segments through a small per thread transfer
+ * array so that no heap copy of the whole body is ever created.
+ */
+public final class DirectContentBuffer implements MessageBodySource {
+
+    private static final int TRANSFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<byte[]> TRANSFER = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[TRANSFER_SIZE];
+        }
+    };
+
+    private final DirectBufferPool pool;
+    private final ByteBuffer[] segments;
+    private final int length;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private DirectContentBuffer(DirectBufferPool pool, int length) {
+        int segmentSize = pool.getSegmentSize();
+        int count = (int) ((length + (long) segmentSize - 1) / segmentSize);
+
+        this.pool = pool;
+        this.length = length;
+        this.segments = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            segments[i] = pool.acquire();
+        }
+    }
+
+    /**
+     * Reads exactly length bytes from the given input into new direct content.
+     *
+     * @param pool
+     *        the pool to take segments from.
+     * @param dataIn
+     *        the input to read from.
+     * @param length
+     *        the number of bytes to read.
+     *
+     * @return a new DirectContentBuffer holding a single reference.
+     *
+     * @throws IOException if the input cannot be read.
+     */
+    public static DirectContentBuffer readFrom(DirectBufferPool pool, DataInput dataIn, int length) throws IOException {
+        DirectContentBuffer content = new DirectContentBuffer(pool, length);
+        try {
+            byte[] transfer = TRANSFER.get();
+            int remaining = length;
+            for (ByteBuffer segment : content.segments) {
+                int fill = Math.min(segment.capacity(), remaining);
+                remaining -= fill;
+                while (fill > 0) {
+                    int chunk = Math.min(transfer.length, fill);
+                    dataIn.readFully(transfer, 0, chunk);
+                    segment.put(transfer, 0, chunk);
+                    fill -= chunk;
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            content.release();
+            throw ex;
+        }
+
+        return content;
+    }
+
+    /**
+     * Copies the given heap content into new direct content.
+     *
+     * @param pool
+     *        the pool to take segments from.
+     * @param content
+     *        the heap content to copy.
+     *
+     * @return a new DirectContentBuffer holding a single reference.
+     */
+    public static DirectContentBuffer copyOf(DirectBufferPool pool, Buffer content) {
+        DirectContentBuffer result = new DirectContentBuffer(pool, content.getLength());
+        int offset = content.getOffset();
+        int remaining = content.getLength();
+        for (ByteBuffer segment : result.segments) {
+            int chunk = Math.min(segment.capacity(), remaining);
+            segment.put(content.getData(), offset, chunk);
+            offset += chunk;
+            remaining -= chunk;
+        }
+
+        return result;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        if (references.get() <= 0) {
+            throw new IOException("Direct message content has already been released");
+        }
+
+        byte[] transfer = TRANSFER.get();
+        for (ByteBuffer segment : segments) {
+            ByteBuffer source = segment.duplicate();
+            source.flip();
+            while (source.hasRemaining()) {
+                int chunk = Math.min(transfer.length, source.remaining());
+                source.get(transfer, 0, chunk);
+                out.write(transfer, 0, chunk);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public DirectContentBuffer retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Direct message content has already been released");
+            }
+        } while (!references.compareAndSet(current, current + 1));
+
+        return this;
+    }
+
+    @Override
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            for (int i = 0; i < segments.length; ++i) {
+                pool.release(segments[i]);
+                segments[i] = null;
+            }
+        } else if (remaining < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Direct message content has already been released");
+        }
+    }
+
+    /**
+     * @return the number of references currently held on this content.
+     */
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Creates a heap copy of the content for code that needs the body as a Buffer.
+     *
+     * @return a new Buffer holding a copy of the content.
+     */
+    public Buffer toBuffer() {
+        if (references.get() <= 0) {
+            throw new IllegalStateException("Direct message content has already been released");
+        }
+
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            ByteBuffer source = segment.duplicate();
+            source.flip();
+            int chunk = source.remaining();
+            source.get(data, offset, chunk);
+            offset += chunk;
+        }
+
+        return new Buffer(data);
+    }
+
+    @Override
+    public String toString() {
+        return "DirectContentBuffer{length=" + length + ", references=" + references.get() + "}";
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A MessageBodySource that writes a region of a FileChannel.
+ * <p>
+ * Reads use positional access so the channel position is never changed and the same region
+ * can be written any number of times.  When the output is an OutputStream the region is
+ * moved using {@link FileChannel#transferTo(long, long, WritableByteChannel)} which lets the
+ * platform avoid copying through the Java heap where it can.
+ */
+public class FileChannelBodySource implements MessageBodySource {
+
+    public static final int DEFAULT_COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+
+    public FileChannelBodySource(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    public FileChannelBodySource(FileChannel channel, long position, long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Body length must be between 0 and " + Integer.MAX_VALUE + ": " + length);
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("Position cannot be negative: " + position);
+        }
+
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        if (out instanceof OutputStream) {
+            transfer((OutputStream) out);
+        } else {
+            copy(out);
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "FileChannelBodySource{position=" + position + ", length=" + length + "}";
+    }
+
+    private void transfer(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long offset = position;
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(offset, remaining, target);
+            if (transferred <= 0) {
+                if (offset >= channel.size()) {
+                    throw new EOFException("File region ended after " + (length - remaining) + " of " + length + " bytes");
+                }
+                continue;
+            }
+            offset += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private void copy(DataOutput out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(DEFAULT_COPY_BUFFER_SIZE, Math.max(1, length)));
+        long offset = position;
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("File region ended after " + (length - remaining) + " of " + length + " bytes");
+            }
+            out.write(buffer.array(), 0, read);
+            offset += read;
+            remaining -= read;
+        }
+    }
+}
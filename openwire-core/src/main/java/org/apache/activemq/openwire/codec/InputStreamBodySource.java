@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A MessageBodySource that copies a declared number of bytes from an InputStream, the
+ * stream can only be written once.
+ */
+public class InputStreamBodySource implements MessageBodySource {
+
+    public static final int DEFAULT_COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream stream;
+    private final long length;
+    private final int copyBufferSize;
+
+    private boolean consumed;
+
+    public InputStreamBodySource(InputStream stream, long length) {
+        this(stream, length, DEFAULT_COPY_BUFFER_SIZE);
+    }
+
+    public InputStreamBodySource(InputStream stream, long length, int copyBufferSize) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Body length must be between 0 and " + Integer.MAX_VALUE + ": " + length);
+        }
+
+        this.stream = stream;
+        this.length = length;
+        this.copyBufferSize = copyBufferSize;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        if (consumed) {
+            throw new IOException("The InputStream body source has already been written");
+        }
+        consumed = true;
+
+        byte[] buffer = new byte[(int) Math.min(copyBufferSize, Math.max(1, length))];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Body source ended after " + (length - remaining) + " of " + length + " bytes");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "InputStreamBodySource{length=" + length + "}";
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Supplies the body of a Message while it is being marshalled so that the body does not
+ * need to be held in memory as a single Buffer.
+ * <p>
+ * The declared length is written as the size of the message content and exactly that many
+ * bytes must then be written by {@link #writeTo(DataOutput)}.  Tight encoding, or loose
+ * encoding with the size prefix disabled, streams the body directly into the output while
+ * loose encoding with a size prefix must buffer the whole frame in order to compute its size.
+ */
+public interface MessageBodySource {
+
+    /**
+     * @return the number of bytes this source writes, at most Integer.MAX_VALUE.
+     */
+    long getLength();
+
+    /**
+     * Writes the body to the given output.
+     *
+     * @param out
+     *        the output that the marshalled message is being written to.
+     *
+     * @throws IOException if the body could not be read or written.
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+    /**
+     * @return true if {@link #writeTo(DataOutput)} can be called more than once.
+     */
+    boolean isRepeatable();
+
+    /**
+     * Adds a reference to this source, called when a Message holding the source is copied.
+     * Sources that do not hold releasable resources simply return themselves.
+     *
+     * @return this source.
+     */
+    default MessageBodySource retain() {
+        return this;
+    }
+
+    /**
+     * Releases a reference to this source, called when a Message drops the source because
+     * its body was cleared or replaced.
+     */
+    default void release() {
+    }
+
+}
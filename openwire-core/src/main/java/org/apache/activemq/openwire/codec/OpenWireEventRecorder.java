@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import org.apache.activemq.openwire.commands.DataStructure;
+
+/**
+ * Receives notice of codec activity that is worth recording in an external profiler.
+ * <p>
+ * Each operation is bracketed by a begin call, which returns an event token or null when
+ * nothing is currently being recorded, and an end call that is only made with a non-null
+ * token once the operation completes successfully.  When the recorder is idle the cost of
+ * an operation is therefore a single begin call.
+ * <p>
+ * The recorder in use is obtained from {@link OpenWireEvents#getRecorder()}, on Java 11 and
+ * later it is backed by Java Flight Recorder events.
+ */
+public interface OpenWireEventRecorder {
+
+    /**
+     * @return a token for a frame marshal that is about to start or null if not recording.
+     */
+    Object beginMarshal();
+
+    /**
+     * @param event
+     *        the token returned from {@link #beginMarshal()}.
+     * @param version
+     *        the OpenWire version the frame was encoded with.
+     * @param command
+     *        the command that was marshalled, may be null.
+     * @param frameSize
+     *        the number of bytes written including any size prefix.
+     */
+    void endMarshal(Object event, int version, DataStructure command, int frameSize);
+
+    /**
+     * @return a token for a frame unmarshal that is about to start or null if not recording.
+     */
+    Object beginUnmarshal();
+
+    /**
+     * @param event
+     *        the token returned from {@link #beginUnmarshal()}.
+     * @param version
+     *        the OpenWire version the frame was decoded with.
+     * @param command
+     *        the command that was unmarshalled, may be null.
+     * @param frameSize
+     *        the number of bytes read including any size prefix, or -1 if not known.
+     */
+    void endUnmarshal(Object event, int version, DataStructure command, int frameSize);
+
+    /**
+     * @return a token for a message body compression or decompression or null if not recording.
+     */
+    Object beginCompression();
+
+    /**
+     * @param event
+     *        the token returned from {@link #beginCompression()}.
+     * @param message
+     *        the message whose body was compressed or decompressed.
+     * @param compress
+     *        true if the body was compressed, false if it was decompressed.
+     * @param inputSize
+     *        the size in bytes of the body before the operation.
+     * @param outputSize
+     *        the size in bytes of the body after the operation.
+     */
+    void endCompression(Object event, DataStructure message, boolean compress, int inputSize, int outputSize);
+
+    /**
+     * @return a token for a wire format renegotiation or null if not recording.
+     */
+    Object beginRenegotiation();
+
+    /**
+     * @param event
+     *        the token returned from {@link #beginRenegotiation()}.
+     * @param previousVersion
+     *        the version the wire format was using before renegotiation.
+     * @param format
+     *        the wire format carrying the newly negotiated settings.
+     */
+    void endRenegotiation(Object event, int previousVersion, OpenWireFormat format);
+}
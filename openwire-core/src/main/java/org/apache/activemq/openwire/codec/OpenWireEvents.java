@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import org.apache.activemq.openwire.commands.DataStructure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the {@link OpenWireEventRecorder} used by the codec.
+ * <p>
+ * The Java Flight Recorder implementation is packaged in the Java 11 section of the multi-release
+ * jar and is used whenever it can be loaded, on older runtimes or when it is disabled with the
+ * {@value #DISABLE_EVENTS_PROPERTY} system property a recorder that records nothing is used.
+ */
+public final class OpenWireEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenWireEvents.class);
+
+    public static final String DISABLE_EVENTS_PROPERTY = "org.apache.activemq.openwire.events.disabled";
+
+    private static final String JFR_RECORDER = "org.apache.activemq.openwire.codec.jfr.JfrEventRecorder";
+    private static final OpenWireEventRecorder RECORDER = createRecorder();
+
+    private OpenWireEvents() {
+    }
+
+    /**
+     * @return the event recorder in use by this runtime, never null.
+     */
+    public static OpenWireEventRecorder getRecorder() {
+        return RECORDER;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private static OpenWireEventRecorder createRecorder() {
+        if (!Boolean.getBoolean(DISABLE_EVENTS_PROPERTY)) {
+            try {
+                return (OpenWireEventRecorder) Class.forName(JFR_RECORDER).newInstance();
+            } catch (Throwable e) {
+                LOG.debug("Codec events will not be recorded: {}", e.toString());
+            }
+        }
+
+        return new NoOpRecorder();
+    }
+
+    private static final class NoOpRecorder implements OpenWireEventRecorder {
+
+        @Override
+        public Object beginMarshal() {
+            return null;
+        }
+
+        @Override
+        public void endMarshal(Object event, int version, DataStructure command, int frameSize) {
+        }
+
+        @Override
+        public Object beginUnmarshal() {
+            return null;
+        }
+
+        @Override
+        public void endUnmarshal(Object event, int version, DataStructure command, int frameSize) {
+        }
+
+        @Override
+        public Object beginCompression() {
+            return null;
+        }
+
+        @Override
+        public void endCompression(Object event, DataStructure message, boolean compress, int inputSize, int outputSize) {
+        }
+
+        @Override
+        public Object beginRenegotiation() {
+            return null;
+        }
+
+        @Override
+        public void endRenegotiation(Object event, int previousVersion, OpenWireFormat format) {
+        }
+    }
+}
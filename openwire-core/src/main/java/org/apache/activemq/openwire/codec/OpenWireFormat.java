@@ -39,10 +39,12 @@ public final class OpenWireFormat {
     public static final int DEFAULT_WIRE_VERSION = CommandTypes.PROTOCOL_VERSION;
     public static final int DEFAULT_LEGACY_VERSION = CommandTypes.PROTOCOL_LEGACY_STORE_VERSION;
     public static final long DEFAULT_MAX_FRAME_SIZE = Long.MAX_VALUE;
+    public static final int DEFAULT_DIRECT_CONTENT_THRESHOLD = 64 * 1024;
 
     static final byte NULL_TYPE = CommandTypes.NULL;
     private static final int MARSHAL_CACHE_SIZE = Short.MAX_VALUE / 2;
     private static final int MARSHAL_CACHE_FREE_SPACE = 100;
+    private static final OpenWireEventRecorder EVENTS = OpenWireEvents.getRecorder();
 
     private DataStreamMarshaller dataMarshallers[];
     private int version;
@@ -52,6 +54,8 @@ public final class OpenWireFormat {
     private boolean tightEncodingEnabled;
     private boolean sizePrefixDisabled;
     private long maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private DirectBufferPool directContentPool;
+    private int directContentThreshold = DEFAULT_DIRECT_CONTENT_THRESHOLD;
 
     // The following fields are used for value caching
     private short nextMarshallCacheIndex;
@@ -62,6 +66,7 @@ public final class OpenWireFormat {
     private final DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
     private final DataByteArrayInputStream bytesIn = new DataByteArrayInputStream();
     private WireFormatInfo preferedWireFormatInfo;
+    private OpenWireFormatListener listener;
 
     public OpenWireFormat() {
         this(DEFAULT_STORE_VERSION);
@@ -85,6 +90,8 @@ public final class OpenWireFormat {
         answer.tightEncodingEnabled = tightEncodingEnabled;
         answer.sizePrefixDisabled = sizePrefixDisabled;
         answer.preferedWireFormatInfo = preferedWireFormatInfo;
+        answer.directContentPool = directContentPool;
+        answer.directContentThreshold = directContentThreshold;
         return answer;
     }
 
@@ -113,11 +120,16 @@ public final class OpenWireFormat {
             runMarshallCacheEvictionSweep();
         }
 
+        final OpenWireFormatListener listener = this.listener;
+        final long start = listener != null ? System.nanoTime() : 0;
+        final Object event = EVENTS.beginMarshal();
+
         Buffer sequence = null;
+        byte type = NULL_TYPE;
         int size = 1;
         if (command != null) {
             DataStructure c = (DataStructure) command;
-            byte type = c.getDataStructureType();
+            type = c.getDataStructureType();
             DataStreamMarshaller dsm = dataMarshallers[type & 0xFF];
             if (dsm == null) {
                 throw new IOException("Unknown data type: " + type);
@@ -163,10 +175,21 @@ public final class OpenWireFormat {
             sequence = bytesOut.toBuffer();
         }
 
+        if (listener != null) {
+            listener.onMarshal(type, sequence.getLength(), System.nanoTime() - start);
+        }
+        if (event != null) {
+            EVENTS.endMarshal(event, version, (DataStructure) command, sequence.getLength());
+        }
+
         return sequence;
     }
 
     public synchronized Object unmarshal(Buffer sequence) throws IOException {
+        final OpenWireFormatListener listener = this.listener;
+        final long start = listener != null ? System.nanoTime() : 0;
+        final Object event = EVENTS.beginUnmarshal();
+
         bytesIn.restart(sequence);
 
         if (!sizePrefixDisabled) {
@@ -177,6 +200,14 @@ public final class OpenWireFormat {
         }
 
         Object command = doUnmarshal(bytesIn);
+
+        if (listener != null) {
+            listener.onUnmarshal(typeOf(command), sequence.getLength(), System.nanoTime() - start);
+        }
+        if (event != null) {
+            EVENTS.endUnmarshal(event, version, (DataStructure) command, sequence.getLength());
+        }
+
         return command;
     }
 
@@ -186,11 +217,16 @@ public final class OpenWireFormat {
             runMarshallCacheEvictionSweep();
         }
 
+        final OpenWireFormatListener listener = this.listener;
+        final long start = listener != null ? System.nanoTime() : 0;
+        final Object event = EVENTS.beginMarshal();
+
+        byte type = NULL_TYPE;
         int size = 1;
         if (o != null) {
 
             DataStructure c = (DataStructure) o;
-            byte type = c.getDataStructureType();
+            type = c.getDataStructureType();
             DataStreamMarshaller dsm = dataMarshallers[type & 0xFF];
             if (dsm == null) {
                 throw new IOException("Unknown data type: " + type);
@@ -211,7 +247,8 @@ public final class OpenWireFormat {
             } else {
                 DataOutput looseOut = dataOut;
 
-                if (!sizePrefixDisabled) {
+                // When observed the frame is always buffered so that its size can be reported.
+                if (!sizePrefixDisabled || listener != null || event != null) {
                     bytesOut.restart();
                     looseOut = bytesOut;
                 }
@@ -219,12 +256,14 @@ public final class OpenWireFormat {
                 looseOut.writeByte(type);
                 dsm.looseMarshal(this, c, looseOut);
 
-                if (!sizePrefixDisabled) {
+                if (looseOut == bytesOut) {
                     Buffer sequence = bytesOut.toBuffer();
-                    dataOut.writeInt(sequence.getLength());
+                    size = sequence.getLength();
+                    if (!sizePrefixDisabled) {
+                        dataOut.writeInt(size);
+                    }
                     dataOut.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
                 }
-
             }
 
         } else {
@@ -233,17 +272,42 @@ public final class OpenWireFormat {
             }
             dataOut.writeByte(NULL_TYPE);
         }
+
+        final int frameSize = sizePrefixDisabled ? size : size + 4;
+        if (listener != null) {
+            listener.onMarshal(type, frameSize, System.nanoTime() - start);
+        }
+        if (event != null) {
+            EVENTS.endMarshal(event, version, (DataStructure) o, frameSize);
+        }
     }
 
     public Object unmarshal(DataInput dis) throws IOException {
         DataInput dataIn = dis;
+        int frameSize = -1;
         if (!sizePrefixDisabled) {
             int size = dis.readInt();
             if (size > maxFrameSize) {
                 throw new IOException("Frame size of " + (size / (1024 * 1024)) + " MB larger than max allowed " + (maxFrameSize / (1024 * 1024)) + " MB");
             }
+            frameSize = size + 4;
+        }
+
+        final OpenWireFormatListener listener = this.listener;
+        final Object event = EVENTS.beginUnmarshal();
+        if (listener == null && event == null) {
+            return doUnmarshal(dataIn);
+        }
+
+        final long start = listener != null ? System.nanoTime() : 0;
+        Object command = doUnmarshal(dataIn);
+        if (listener != null) {
+            listener.onUnmarshal(typeOf(command), frameSize, System.nanoTime() - start);
+        }
+        if (event != null) {
+            EVENTS.endUnmarshal(event, version, (DataStructure) command, frameSize);
         }
-        return doUnmarshal(dataIn);
+        return command;
     }
 
     /**
@@ -429,23 +493,46 @@ public final class OpenWireFormat {
     }
 
     public void runMarshallCacheEvictionSweep() {
+        int evicted = 0;
+
         // Do we need to start evicting??
         while (marshallCacheMap.size() > marshallCache.length - MARSHAL_CACHE_FREE_SPACE) {
             marshallCacheMap.remove(marshallCache[nextMarshallCacheEvictionIndex]);
             marshallCache[nextMarshallCacheEvictionIndex] = null;
+            evicted++;
 
             nextMarshallCacheEvictionIndex++;
             if (nextMarshallCacheEvictionIndex >= marshallCache.length) {
                 nextMarshallCacheEvictionIndex = 0;
             }
         }
+
+        if (evicted > 0 && listener != null) {
+            listener.onMarshallCacheEviction(evicted);
+        }
     }
 
     public Short getMarshallCacheIndex(DataStructure o) {
+        Short index = marshallCacheMap.get(o);
+        if (index != null && listener != null) {
+            listener.onMarshallCacheHit(typeOf(o));
+        }
+        return index;
+    }
+
+    /**
+     * Looks up the marshal cache index of a value without reporting a cache hit, used by the
+     * second pass of tight marshalling which re-reads the index assigned in the first pass.
+     */
+    Short lookupMarshallCacheIndex(DataStructure o) {
         return marshallCacheMap.get(o);
     }
 
     public Short addToMarshallCache(DataStructure o) {
+        if (listener != null) {
+            listener.onMarshallCacheMiss(typeOf(o));
+        }
+
         short i = nextMarshallCacheIndex++;
         if (nextMarshallCacheIndex >= marshallCache.length) {
             nextMarshallCacheIndex = 0;
@@ -532,15 +619,62 @@ public final class OpenWireFormat {
         return maxFrameSize;
     }
 
+    public OpenWireFormatListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener that is told about every frame marshalled or unmarshalled and about
+     * marshal cache activity, when null (the default) no timing or accounting is done.  The
+     * listener should be set before the wire format is put into use, it is not carried over
+     * by {@link #copy()}.
+     *
+     * @param listener
+     *        the listener to notify or null to disable instrumentation.
+     */
+    public void setListener(OpenWireFormatListener listener) {
+        this.listener = listener;
+    }
+
     public void setMaxFrameSize(long maxFrameSize) {
         this.maxFrameSize = maxFrameSize;
     }
 
+    public DirectBufferPool getDirectContentPool() {
+        return directContentPool;
+    }
+
+    /**
+     * Sets the pool used to hold unmarshalled message content off heap, when null (the default)
+     * all message content is unmarshalled into heap Buffers.
+     *
+     * @param directContentPool
+     *        the pool that provides direct memory segments for message content.
+     */
+    public void setDirectContentPool(DirectBufferPool directContentPool) {
+        this.directContentPool = directContentPool;
+    }
+
+    public int getDirectContentThreshold() {
+        return directContentThreshold;
+    }
+
+    /**
+     * @param directContentThreshold
+     *        the minimum content size in bytes that is unmarshalled into off heap storage.
+     */
+    public void setDirectContentThreshold(int directContentThreshold) {
+        this.directContentThreshold = directContentThreshold;
+    }
+
     public void renegotiateWireFormat(WireFormatInfo info) throws IOException {
         if (preferedWireFormatInfo == null) {
             throw new IllegalStateException("Wireformat cannot not be renegotiated.");
         }
 
+        final Object event = EVENTS.beginRenegotiation();
+        final int previousVersion = version;
+
         this.setVersion(min(preferedWireFormatInfo.getVersion(), info.getVersion()));
         info.setVersion(this.getVersion());
 
@@ -582,6 +716,14 @@ public final class OpenWireFormat {
             nextMarshallCacheEvictionIndex = 0;
             marshallCacheMap = null;
         }
+
+        if (event != null) {
+            EVENTS.endRenegotiation(event, previousVersion, this);
+        }
+    }
+
+    private static byte typeOf(Object command) {
+        return command != null ? ((DataStructure) command).getDataStructureType() : NULL_TYPE;
     }
 
     protected int min(int version1, int version2) {
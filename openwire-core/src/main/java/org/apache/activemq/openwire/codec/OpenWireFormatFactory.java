@@ -39,6 +39,7 @@ public class OpenWireFormatFactory {
     private int cacheSize = 1024;
     private long maxFrameSize = OpenWireFormat.DEFAULT_MAX_FRAME_SIZE;
     private String host = null;
+    private OpenWireFormatListener listener;
 
     public OpenWireFormat createWireFormat() {
         WireFormatInfo info = new WireFormatInfo();
@@ -66,6 +67,7 @@ public class OpenWireFormatFactory {
         OpenWireFormat f = new OpenWireFormat(version);
         f.setMaxFrameSize(maxFrameSize);
         f.setPreferedWireFormatInfo(info);
+        f.setListener(listener);
         return f;
     }
 
@@ -156,4 +158,16 @@ public class OpenWireFormatFactory {
     public void setHost(String host) {
         this.host = host;
     }
+
+    public OpenWireFormatListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener
+     *        the listener installed on every wire format created by this factory, or null for none.
+     */
+    public void setListener(OpenWireFormatListener listener) {
+        this.listener = listener;
+    }
 }
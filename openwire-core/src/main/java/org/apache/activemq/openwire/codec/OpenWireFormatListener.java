@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import org.apache.activemq.openwire.commands.CommandTypes;
+
+/**
+ * Callback interface used to observe the work done by an {@link OpenWireFormat}.
+ * <p>
+ * A listener is installed with {@link OpenWireFormat#setListener(OpenWireFormatListener)}; when
+ * none is set the codec performs no timing or accounting at all.  Callbacks are made on the thread
+ * that is marshalling or unmarshalling and, for the marshal side, while the wire format lock is
+ * held, so implementations must be thread safe and should return quickly.
+ * <p>
+ * Only the {@code marshal} and {@code unmarshal} entry points of the wire format report frames,
+ * the split {@link OpenWireFormat#tightMarshal1(Object, BooleanStream)} and
+ * {@link OpenWireFormat#tightMarshal2(Object, java.io.DataOutput, BooleanStream)} calls used by
+ * NIO transports report only marshal cache activity.
+ */
+public interface OpenWireFormatListener {
+
+    /**
+     * Called after a frame has been marshalled.
+     *
+     * @param type
+     *        the data structure type of the command, {@link CommandTypes#NULL} for a null command.
+     * @param frameSize
+     *        the number of bytes written including any size prefix.
+     * @param nanos
+     *        the time in nanoseconds taken to encode the frame.
+     */
+    void onMarshal(byte type, int frameSize, long nanos);
+
+    /**
+     * Called after a frame has been unmarshalled.
+     *
+     * @param type
+     *        the data structure type of the command, {@link CommandTypes#NULL} for a null command.
+     * @param frameSize
+     *        the number of bytes read including any size prefix, or -1 if the size is not known
+     *        because the size prefix is disabled and the frame was read from a stream.
+     * @param nanos
+     *        the time in nanoseconds taken to decode the frame once its size prefix was read.
+     */
+    void onUnmarshal(byte type, int frameSize, long nanos);
+
+    /**
+     * Called when a cached value is found in the marshal cache and is written as an index.
+     *
+     * @param type
+     *        the data structure type of the cached value, {@link CommandTypes#NULL} for a null value.
+     */
+    void onMarshallCacheHit(byte type);
+
+    /**
+     * Called when a cacheable value was not in the marshal cache and is written in full.
+     *
+     * @param type
+     *        the data structure type of the value, {@link CommandTypes#NULL} for a null value.
+     */
+    void onMarshallCacheMiss(byte type);
+
+    /**
+     * Called when entries are evicted from the marshal cache to make room for new values.
+     *
+     * @param count
+     *        the number of entries evicted by the sweep.
+     */
+    void onMarshallCacheEviction(int count);
+}
@@ -0,0 +1,366 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.activemq.openwire.commands.CommandTypes;
+
+/**
+ * An {@link OpenWireFormatListener} that collects per command type frame and byte counts in
+ * each direction, encode and decode time histograms, marshal cache effectiveness and the largest
+ * frames seen.  A single instance may be shared by any number of wire formats and can be
+ * registered with the platform MBeanServer to expose the values over JMX.
+ */
+public class OpenWireFormatStatistics implements OpenWireFormatListener, OpenWireFormatStatisticsMBean {
+
+    public static final String DEFAULT_DOMAIN = "org.apache.activemq.openwire";
+
+    private static final int TYPE_COUNT = 256;
+    private static final int HISTOGRAM_BUCKETS = 64;
+    private static final String[] TYPE_NAMES = new String[TYPE_COUNT];
+
+    static {
+        for (Field field : CommandTypes.class.getFields()) {
+            if (field.getType() == byte.class && Modifier.isStatic(field.getModifiers()) && !field.getName().startsWith("PROTOCOL_")) {
+                try {
+                    int type = field.getByte(null) & 0xFF;
+                    if (TYPE_NAMES[type] == null) {
+                        TYPE_NAMES[type] = field.getName();
+                    }
+                } catch (IllegalAccessException e) {
+                    // Interface constants are always accessible.
+                }
+            }
+        }
+    }
+
+    private final AtomicLongArray framesMarshalled = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray bytesMarshalled = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray framesUnmarshalled = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray bytesUnmarshalled = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray encodeTimes = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray decodeTimes = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLong largestMarshalledFrame = new AtomicLong();
+    private final AtomicLong largestUnmarshalledFrame = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cacheEvictions = new AtomicLong();
+
+    private ObjectName objectName;
+
+    @Override
+    public void onMarshal(byte type, int frameSize, long nanos) {
+        int index = type & 0xFF;
+        framesMarshalled.incrementAndGet(index);
+        bytesMarshalled.addAndGet(index, frameSize);
+        encodeTimes.incrementAndGet(bucketOf(nanos));
+        updateMax(largestMarshalledFrame, frameSize);
+    }
+
+    @Override
+    public void onUnmarshal(byte type, int frameSize, long nanos) {
+        int index = type & 0xFF;
+        framesUnmarshalled.incrementAndGet(index);
+        if (frameSize > 0) {
+            bytesUnmarshalled.addAndGet(index, frameSize);
+            updateMax(largestUnmarshalledFrame, frameSize);
+        }
+        decodeTimes.incrementAndGet(bucketOf(nanos));
+    }
+
+    @Override
+    public void onMarshallCacheHit(byte type) {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void onMarshallCacheMiss(byte type) {
+        cacheMisses.incrementAndGet();
+    }
+
+    @Override
+    public void onMarshallCacheEviction(int count) {
+        cacheEvictions.addAndGet(count);
+    }
+
+    //----- Per command type statistics -------------------------------------//
+
+    /**
+     * @param type
+     *        the data structure type to query.
+     *
+     * @return the number of frames of the given type marshalled.
+     */
+    public long getFramesMarshalled(byte type) {
+        return framesMarshalled.get(type & 0xFF);
+    }
+
+    /**
+     * @param type
+     *        the data structure type to query.
+     *
+     * @return the number of bytes marshalled in frames of the given type.
+     */
+    public long getBytesMarshalled(byte type) {
+        return bytesMarshalled.get(type & 0xFF);
+    }
+
+    /**
+     * @param type
+     *        the data structure type to query.
+     *
+     * @return the number of frames of the given type unmarshalled.
+     */
+    public long getFramesUnmarshalled(byte type) {
+        return framesUnmarshalled.get(type & 0xFF);
+    }
+
+    /**
+     * @param type
+     *        the data structure type to query.
+     *
+     * @return the number of bytes unmarshalled in frames of the given type.
+     */
+    public long getBytesUnmarshalled(byte type) {
+        return bytesUnmarshalled.get(type & 0xFF);
+    }
+
+    //----- OpenWireFormatStatisticsMBean implementation ---------------------//
+
+    @Override
+    public long getFramesMarshalled() {
+        return sum(framesMarshalled);
+    }
+
+    @Override
+    public long getBytesMarshalled() {
+        return sum(bytesMarshalled);
+    }
+
+    @Override
+    public long getFramesUnmarshalled() {
+        return sum(framesUnmarshalled);
+    }
+
+    @Override
+    public long getBytesUnmarshalled() {
+        return sum(bytesUnmarshalled);
+    }
+
+    @Override
+    public long getLargestMarshalledFrame() {
+        return largestMarshalledFrame.get();
+    }
+
+    @Override
+    public long getLargestUnmarshalledFrame() {
+        return largestUnmarshalledFrame.get();
+    }
+
+    @Override
+    public long getMarshallCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getMarshallCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getMarshallCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    @Override
+    public double getMarshallCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public long[] getEncodeTimeHistogram() {
+        return snapshot(encodeTimes);
+    }
+
+    @Override
+    public long[] getDecodeTimeHistogram() {
+        return snapshot(decodeTimes);
+    }
+
+    @Override
+    public String[] getCommandTypeSummary() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < TYPE_COUNT; ++i) {
+            long out = framesMarshalled.get(i);
+            long in = framesUnmarshalled.get(i);
+            if (out != 0 || in != 0) {
+                String name = TYPE_NAMES[i] != null ? TYPE_NAMES[i] : "TYPE_" + i;
+                lines.add(name + "{framesOut=" + out + ", bytesOut=" + bytesMarshalled.get(i) +
+                          ", framesIn=" + in + ", bytesIn=" + bytesUnmarshalled.get(i) + "}");
+            }
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public long getEncodeTimePercentile(double percentile) {
+        return percentileOf(encodeTimes, percentile);
+    }
+
+    @Override
+    public long getDecodeTimePercentile(double percentile) {
+        return percentileOf(decodeTimes, percentile);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < TYPE_COUNT; ++i) {
+            framesMarshalled.set(i, 0);
+            bytesMarshalled.set(i, 0);
+            framesUnmarshalled.set(i, 0);
+            bytesUnmarshalled.set(i, 0);
+        }
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            encodeTimes.set(i, 0);
+            decodeTimes.set(i, 0);
+        }
+
+        largestMarshalledFrame.set(0);
+        largestUnmarshalledFrame.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        cacheEvictions.set(0);
+    }
+
+    //----- JMX registration -------------------------------------------------//
+
+    /**
+     * Registers this instance with the platform MBeanServer under the name
+     * {@code org.apache.activemq.openwire:type=OpenWireFormatStatistics,name=<name>}.
+     *
+     * @param name
+     *        the value of the name key, typically identifying the connection or transport.
+     *
+     * @return the ObjectName this instance was registered under.
+     *
+     * @throws JMException if the MBean could not be registered.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("Statistics already registered as: " + objectName);
+        }
+
+        ObjectName candidate = new ObjectName(DEFAULT_DOMAIN + ":type=OpenWireFormatStatistics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+        objectName = candidate;
+        return objectName;
+    }
+
+    /**
+     * Removes this instance from the platform MBeanServer if it was registered.
+     *
+     * @throws JMException if the MBean could not be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } finally {
+                objectName = null;
+            }
+        }
+    }
+
+    /**
+     * @return the ObjectName this instance is registered under or null if not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private static int bucketOf(long nanos) {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static long sum(AtomicLongArray values) {
+        long total = 0;
+        for (int i = 0; i < values.length(); ++i) {
+            total += values.get(i);
+        }
+        return total;
+    }
+
+    private static long[] snapshot(AtomicLongArray values) {
+        long[] result = new long[values.length()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private static long percentileOf(AtomicLongArray histogram, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range [0, 100]: " + percentile);
+        }
+
+        long[] counts = snapshot(histogram);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                return i == 63 ? Long.MAX_VALUE : (2L << i) - 1;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+/**
+ * Management interface of the {@link OpenWireFormatStatistics}.
+ */
+public interface OpenWireFormatStatisticsMBean {
+
+    /**
+     * @return the total number of frames marshalled.
+     */
+    long getFramesMarshalled();
+
+    /**
+     * @return the total number of bytes marshalled including size prefixes.
+     */
+    long getBytesMarshalled();
+
+    /**
+     * @return the total number of frames unmarshalled.
+     */
+    long getFramesUnmarshalled();
+
+    /**
+     * @return the total number of bytes unmarshalled including size prefixes, frames of unknown size are not counted.
+     */
+    long getBytesUnmarshalled();
+
+    /**
+     * @return the size in bytes of the largest frame marshalled.
+     */
+    long getLargestMarshalledFrame();
+
+    /**
+     * @return the size in bytes of the largest frame unmarshalled.
+     */
+    long getLargestUnmarshalledFrame();
+
+    /**
+     * @return the number of values written as a marshal cache index.
+     */
+    long getMarshallCacheHits();
+
+    /**
+     * @return the number of cacheable values written in full.
+     */
+    long getMarshallCacheMisses();
+
+    /**
+     * @return the number of entries evicted from the marshal cache.
+     */
+    long getMarshallCacheEvictions();
+
+    /**
+     * @return the fraction of cacheable values written as a cache index, zero if none were written.
+     */
+    double getMarshallCacheHitRatio();
+
+    /**
+     * @return the encode time histogram, element i counts frames encoded in [2^i, 2^(i+1)) nanoseconds.
+     */
+    long[] getEncodeTimeHistogram();
+
+    /**
+     * @return the decode time histogram, element i counts frames decoded in [2^i, 2^(i+1)) nanoseconds.
+     */
+    long[] getDecodeTimeHistogram();
+
+    /**
+     * @return one line for each command type seen giving its frame and byte counts in each direction.
+     */
+    String[] getCommandTypeSummary();
+
+    /**
+     * Returns an upper bound on the encode time of the given percentile of frames.
+     *
+     * @param percentile
+     *        the percentile in the range [0, 100].
+     *
+     * @return the percentile encode time in nanoseconds.
+     */
+    long getEncodeTimePercentile(double percentile);
+
+    /**
+     * Returns an upper bound on the decode time of the given percentile of frames.
+     *
+     * @param percentile
+     *        the percentile in the range [0, 100].
+     *
+     * @return the percentile decode time in nanoseconds.
+     */
+    long getDecodeTimePercentile(double percentile);
+
+    /**
+     * Clears all the collected statistics.
+     */
+    void reset();
+}
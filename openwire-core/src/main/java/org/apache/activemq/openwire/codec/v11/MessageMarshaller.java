@@ -64,7 +64,7 @@ public abstract class MessageMarshaller extends BaseCommandMarshaller {
         info.setReplyTo((OpenWireDestination) tightUnmarsalNestedObject(wireFormat, dataIn, bs));
         info.setTimestamp(tightUnmarshalLong(wireFormat, dataIn, bs));
         info.setType(tightUnmarshalString(dataIn, bs));
-        info.setContent(tightUnmarshalByteSequence(dataIn, bs));
+        tightUnmarshalContent(wireFormat, info, dataIn, bs);
         info.setMarshalledProperties(tightUnmarshalByteSequence(dataIn, bs));
         info.setDataStructure(tightUnmarsalNestedObject(wireFormat, dataIn, bs));
         info.setTargetConsumerId((ConsumerId) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
@@ -127,7 +127,7 @@ public abstract class MessageMarshaller extends BaseCommandMarshaller {
         rc += tightMarshalNestedObject1(wireFormat, info.getReplyTo(), bs);
         rc += tightMarshalLong1(wireFormat, info.getTimestamp(), bs);
         rc += tightMarshalString1(info.getType(), bs);
-        rc += tightMarshalByteSequence1(info.getContent(), bs);
+        rc += tightMarshalContent1(info, bs);
         rc += tightMarshalByteSequence1(info.getMarshalledProperties(), bs);
         rc += tightMarshalNestedObject1(wireFormat, info.getDataStructure(), bs);
         rc += tightMarshalCachedObject1(wireFormat, info.getTargetConsumerId(), bs);
@@ -175,7 +175,7 @@ public abstract class MessageMarshaller extends BaseCommandMarshaller {
         tightMarshalNestedObject2(wireFormat, info.getReplyTo(), dataOut, bs);
         tightMarshalLong2(wireFormat, info.getTimestamp(), dataOut, bs);
         tightMarshalString2(info.getType(), dataOut, bs);
-        tightMarshalByteSequence2(info.getContent(), dataOut, bs);
+        tightMarshalContent2(info, dataOut, bs);
         tightMarshalByteSequence2(info.getMarshalledProperties(), dataOut, bs);
         tightMarshalNestedObject2(wireFormat, info.getDataStructure(), dataOut, bs);
         tightMarshalCachedObject2(wireFormat, info.getTargetConsumerId(), dataOut, bs);
@@ -226,7 +226,7 @@ public abstract class MessageMarshaller extends BaseCommandMarshaller {
         info.setReplyTo((OpenWireDestination) looseUnmarsalNestedObject(wireFormat, dataIn));
         info.setTimestamp(looseUnmarshalLong(wireFormat, dataIn));
         info.setType(looseUnmarshalString(dataIn));
-        info.setContent(looseUnmarshalByteSequence(dataIn));
+        looseUnmarshalContent(wireFormat, info, dataIn);
         info.setMarshalledProperties(looseUnmarshalByteSequence(dataIn));
         info.setDataStructure(looseUnmarsalNestedObject(wireFormat, dataIn));
         info.setTargetConsumerId((ConsumerId) looseUnmarsalCachedObject(wireFormat, dataIn));
@@ -290,7 +290,7 @@ public abstract class MessageMarshaller extends BaseCommandMarshaller {
         looseMarshalNestedObject(wireFormat, info.getReplyTo(), dataOut);
         looseMarshalLong(wireFormat, info.getTimestamp(), dataOut);
         looseMarshalString(info.getType(), dataOut);
-        looseMarshalByteSequence(wireFormat, info.getContent(), dataOut);
+        looseMarshalContent(wireFormat, info, dataOut);
         looseMarshalByteSequence(wireFormat, info.getMarshalledProperties(), dataOut);
         looseMarshalNestedObject(wireFormat, info.getDataStructure(), dataOut);
         looseMarshalCachedObject(wireFormat, info.getTargetConsumerId(), dataOut);
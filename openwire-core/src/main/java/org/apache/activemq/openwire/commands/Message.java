@@ -30,6 +30,11 @@ import java.util.zip.InflaterInputStream;
 
 import javax.jms.JMSException;
 
+import org.apache.activemq.openwire.codec.DirectBufferPool;
+import org.apache.activemq.openwire.codec.DirectContentBuffer;
+import org.apache.activemq.openwire.codec.MessageBodySource;
+import org.apache.activemq.openwire.codec.OpenWireEventRecorder;
+import org.apache.activemq.openwire.codec.OpenWireEvents;
 import org.apache.activemq.openwire.codec.OpenWireFormat;
 import org.apache.activemq.openwire.utils.ExceptionSupport;
 import org.apache.activemq.openwire.utils.OpenWireMarshallingSupport;
@@ -77,6 +82,7 @@ public abstract class Message extends BaseCommand implements MarshallAware {
     protected String userId;
 
     protected Buffer content;
+    protected transient MessageBodySource bodySource;
     protected Buffer marshalledProperties;
     protected DataStructure dataStructure;
     protected int redeliveryCounter;
@@ -131,6 +137,7 @@ public abstract class Message extends BaseCommand implements MarshallAware {
         }
 
         copy.content = content;
+        copy.bodySource = bodySource != null ? bodySource.retain() : null;
         copy.marshalledProperties = marshalledProperties;
         copy.dataStructure = dataStructure;
         copy.compressed = compressed;
@@ -410,19 +417,83 @@ public abstract class Message extends BaseCommand implements MarshallAware {
     }
 
     /**
+     * Returns the message body, a body held off heap is copied to the heap on each call and
+     * the copy is not retained by the message so callers should hold on to the result rather
+     * than call this repeatedly.
+     *
      * @openwire:property version=1
      */
     public Buffer getContent() {
+        if (content == null && bodySource instanceof DirectContentBuffer) {
+            return ((DirectContentBuffer) bodySource).toBuffer();
+        }
         return content;
     }
 
     public void setContent(Buffer content) {
         this.content = content;
+        releaseBodySource();
         if (content == null) {
             compressed = false;
         }
     }
 
+    /**
+     * @return the MessageBodySource that is streamed as the content of this message, or null.
+     */
+    public MessageBodySource getBodySource() {
+        return bodySource;
+    }
+
+    /**
+     * Sets a MessageBodySource whose bytes are written as the content of this message when it
+     * is marshalled, replacing any existing content.  The source is not compressed and is shared
+     * with any copy of this message so a source that is not repeatable should only be sent once.
+     * <p>
+     * The message takes ownership of the caller's reference on the source, copies of the message
+     * retain the source and it is released when the body is cleared or replaced.
+     *
+     * @param bodySource
+     *        the source of the message body or null to clear it.
+     */
+    public void setBodySource(MessageBodySource bodySource) {
+        if (this.bodySource != bodySource) {
+            releaseBodySource();
+        }
+        this.bodySource = bodySource;
+        this.content = null;
+        this.compressed = false;
+    }
+
+    /**
+     * Moves the current heap content of this message into off heap storage taken from the given
+     * pool, the heap Buffer is dropped once the copy has been made.  A message without content
+     * is left unchanged.
+     *
+     * @param pool
+     *        the pool that provides the direct memory segments.
+     *
+     * @return true if the content was moved off heap.
+     */
+    public boolean moveContentOffHeap(DirectBufferPool pool) {
+        if (content == null) {
+            return false;
+        }
+
+        boolean wasCompressed = compressed;
+        setBodySource(DirectContentBuffer.copyOf(pool, content));
+        compressed = wasCompressed;
+        return true;
+    }
+
+    private void releaseBodySource() {
+        MessageBodySource released = bodySource;
+        bodySource = null;
+        if (released != null) {
+            released.release();
+        }
+    }
+
     /**
      * @openwire:property version=1
      */
@@ -566,6 +637,8 @@ public abstract class Message extends BaseCommand implements MarshallAware {
             }
             if (content != null) {
                 size += content.getLength();
+            } else if (bodySource != null) {
+                size += (int) Math.min(Integer.MAX_VALUE - size, bodySource.getLength());
             }
         }
         return size;
@@ -652,15 +725,22 @@ public abstract class Message extends BaseCommand implements MarshallAware {
     /**
      * For a Message that is not currently using compression in its message body this
      * method will initiate a store of current content and then compress the data in
-     * the message body.
+     * the message body.  A message whose body is streamed from a MessageBodySource is
+     * left uncompressed.
      *
      * @throws IOException if an error occurs during the compression process.
      */
     public void compress() throws IOException {
-        if (!isCompressed()) {
+        if (!isCompressed() && bodySource == null) {
             storeContent();
             if (!isCompressed() && getContent() != null) {
+                OpenWireEventRecorder recorder = OpenWireEvents.getRecorder();
+                Object event = recorder.beginCompression();
+                int size = getContent().getLength();
                 doCompress();
+                if (event != null) {
+                    recorder.endCompression(event, this, true, size, getContent().getLength());
+                }
             }
         }
     }
@@ -676,14 +756,31 @@ public abstract class Message extends BaseCommand implements MarshallAware {
      */
     public Buffer decompress() throws IOException {
         if (isCompressed()) {
-            return doDecompress();
+            OpenWireEventRecorder recorder = OpenWireEvents.getRecorder();
+            Object event = recorder.beginCompression();
+            Buffer result = doDecompress();
+            if (event != null) {
+                recorder.endCompression(event, this, false, getContentLength(), result.getLength());
+            }
+            return result;
         } else {
-            return content;
+            return getContent();
+        }
+    }
+
+    /*
+     * The size of the body as held, read without copying a body that is held off heap.
+     */
+    private int getContentLength() {
+        if (content == null && bodySource != null) {
+            return (int) bodySource.getLength();
         }
+        return content != null ? content.getLength() : 0;
     }
 
     protected Buffer doDecompress() throws IOException {
-        ByteArrayInputStream input = new ByteArrayInputStream(this.content.getData(), this.content.getOffset(), this.content.getLength());
+        Buffer content = getContent();
+        ByteArrayInputStream input = new ByteArrayInputStream(content.getData(), content.getOffset(), content.getLength());
         InflaterInputStream inflater = new InflaterInputStream(input);
 
         ByteArrayOutputStream output = new ByteArrayOutputStream();
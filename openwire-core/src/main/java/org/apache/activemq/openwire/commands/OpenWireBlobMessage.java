@@ -23,6 +23,8 @@ import java.net.URL;
 
 import javax.jms.JMSException;
 
+import org.apache.activemq.openwire.blob.BlobStore;
+
 /**
  * An implementation of ActiveMQ's BlobMessage for out of band BLOB transfer
  *
@@ -40,6 +42,8 @@ public class OpenWireBlobMessage extends OpenWireMessage {
     private boolean deletedByBroker;
 
     private transient URL url;
+    private transient BlobStore blobStore;
+    private transient boolean blobReleased;
 
     @Override
     public OpenWireBlobMessage copy() {
@@ -54,6 +58,20 @@ public class OpenWireBlobMessage extends OpenWireMessage {
         copy.setMimeType(getMimeType());
         copy.setDeletedByBroker(isDeletedByBroker());
         copy.setName(getName());
+        copy.blobStore = blobStore;
+
+        // The copy holds a reference of its own so that each copy may delete its file.
+        copy.blobReleased = blobReleased;
+        if (blobStore != null && !blobReleased) {
+            try {
+                String blobId = blobStore.getBlobId(getURL());
+                if (blobId != null) {
+                    blobStore.retain(blobId);
+                }
+            } catch (IOException | JMSException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     @Override
@@ -71,6 +89,7 @@ public class OpenWireBlobMessage extends OpenWireMessage {
     public void setRemoteBlobUrl(String remoteBlobUrl) {
         this.remoteBlobUrl = remoteBlobUrl;
         url = null;
+        blobReleased = false;
     }
 
     /**
@@ -115,8 +134,29 @@ public class OpenWireBlobMessage extends OpenWireMessage {
         this.deletedByBroker = deletedByBroker;
     }
 
+    /**
+     * Opens a stream over the BLOB content, when the BLOB URL refers to the configured
+     * BlobStore the content is read directly from the store.
+     *
+     * @return an InputStream over the BLOB content or null if no BLOB URL is set.
+     *
+     * @throws IOException if the BLOB content cannot be opened.
+     * @throws JMSException if the BLOB URL is not valid.
+     */
     public InputStream getInputStream() throws IOException, JMSException {
-        return null;
+        URL value = getURL();
+        if (value == null) {
+            return null;
+        }
+
+        if (blobStore != null) {
+            String blobId = blobStore.getBlobId(value);
+            if (blobId != null) {
+                return blobStore.openInputStream(blobId);
+            }
+        }
+
+        return value.openStream();
     }
 
     public URL getURL() throws JMSException {
@@ -133,6 +173,37 @@ public class OpenWireBlobMessage extends OpenWireMessage {
     public void setURL(URL url) {
         this.url = url;
         remoteBlobUrl = url != null ? url.toExternalForm() : null;
+        blobReleased = false;
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Sets the BlobStore used to read and delete the BLOB content of this message, the
+     * store is not marshalled and must be set again on the receiving side.
+     *
+     * @param blobStore
+     *        the BlobStore that holds the content of this message.
+     */
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Points this message at a BLOB held in the given BlobStore.
+     *
+     * @param blobStore
+     *        the BlobStore that holds the content.
+     * @param blobId
+     *        the id of the BLOB in the store.
+     *
+     * @throws IOException if the BLOB URL cannot be created.
+     */
+    public void setBlob(BlobStore blobStore, String blobId) throws IOException {
+        this.blobStore = blobStore;
+        setURL(blobStore.getURL(blobId));
     }
 
     @Override
@@ -144,6 +215,21 @@ public class OpenWireBlobMessage extends OpenWireMessage {
         // TODO - Lets support this later.
     }
 
+    /**
+     * Releases this message's reference on its BLOB when it is held in the configured
+     * BlobStore, the store deletes the content once no references remain.  Each copy of the
+     * message holds its own reference and calling this more than once releases it only once.
+     *
+     * @throws IOException if the reference cannot be released.
+     * @throws JMSException if the BLOB URL is not valid.
+     */
     public void deleteFile() throws IOException, JMSException {
+        if (blobStore != null && !blobReleased) {
+            String blobId = blobStore.getBlobId(getURL());
+            if (blobId != null) {
+                blobStore.release(blobId);
+            }
+            blobReleased = true;
+        }
     }
 }
@@ -17,14 +17,13 @@
 package org.apache.activemq.openwire.commands;
 
 import java.net.URLDecoder;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -68,6 +67,9 @@ public abstract class OpenWireDestination implements Destination, DataStructure,
     protected transient int hashValue;
     protected Map<String, String> options;
 
+    private static final int MAX_CACHED_DESTINATION_PATHS = 8192;
+    private static final Map<String, String[]> DESTINATION_PATHS = new ConcurrentHashMap<String, String[]>();
+
     protected static UnresolvedDestinationTransformer unresolvableDestinationTransformer = new DefaultUnresolvedDestinationTransformer();
 
     public OpenWireDestination() {
@@ -274,27 +276,54 @@ public abstract class OpenWireDestination implements Destination, DataStructure,
         return createDestination(name, getDestinationType());
     }
 
+    /**
+     * Returns the segments of the physical name split on the path separator.  The segments
+     * for a name are shared between every destination with that name so the returned array
+     * must not be modified.
+     *
+     * @return the path segments of this destination's physical name.
+     */
     public String[] getDestinationPaths() {
-        if (destinationPaths != null) {
-            return destinationPaths;
+        String[] paths = destinationPaths;
+        if (paths != null) {
+            return paths;
         }
 
-        List<String> l = new ArrayList<String>();
-        StringBuilder level = new StringBuilder();
+        paths = DESTINATION_PATHS.get(physicalName);
+        if (paths == null) {
+            paths = splitPaths(physicalName);
+            if (DESTINATION_PATHS.size() >= MAX_CACHED_DESTINATION_PATHS) {
+                DESTINATION_PATHS.clear();
+            }
+            DESTINATION_PATHS.put(physicalName, paths);
+        }
+
+        destinationPaths = paths;
+        return paths;
+    }
+
+    private static String[] splitPaths(String name) {
         final char separator = PATH_SEPERATOR.charAt(0);
-        for (char c : physicalName.toCharArray()) {
-            if (c == separator) {
-                l.add(level.toString());
-                level.delete(0, level.length());
-            } else {
-                level.append(c);
+
+        int count = 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == separator) {
+                count++;
+            }
+        }
+
+        String[] paths = new String[count];
+        int start = 0;
+        int index = 0;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == separator) {
+                paths[index++] = name.substring(start, i);
+                start = i + 1;
             }
         }
-        l.add(level.toString());
+        paths[index] = name.substring(start);
 
-        destinationPaths = new String[l.size()];
-        l.toArray(destinationPaths);
-        return destinationPaths;
+        return paths;
     }
 
     public abstract byte getDestinationType();
@@ -0,0 +1,314 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.RemoveInfo;
+
+/**
+ * Chooses the consumer of a destination that each message is dispatched to, honouring the
+ * prefetch size, priority and exclusivity requested in each consumer's ConsumerInfo.
+ * <p>
+ * Every dispatched message counts against the prefetch of its consumer until a MessageAck
+ * that consumes it releases the credit, a STANDARD, INDIVIDUAL, POISON, EXPIRED or UNMATCHED
+ * ack releases its message count while DELIVERED and REDELIVERED acks do not.  Consumers with
+ * a prefetch of zero are dispatched a single message for each MessagePull.
+ * <p>
+ * While an exclusive consumer is present the highest priority exclusive consumer, the first
+ * added among equals, receives every message and the others receive nothing.  Otherwise the
+ * {@link DispatchPolicy} chooses between the consumers that have credit, by default taking
+ * turns between them.  Consumers without credit are not offered to the policy so choosing a
+ * consumer does not depend on the number of consumers that are full.
+ */
+public class ConsumerDispatcher {
+
+    private final DispatchPolicy policy;
+    private final Map<ConsumerId, ConsumerSubscription> subscriptions = new HashMap<ConsumerId, ConsumerSubscription>();
+
+    private ConsumerSubscription exclusiveOwner;
+    private long addedCount;
+    private int inFlightCount;
+
+    /**
+     * Creates a dispatcher using the {@link RoundRobinDispatchPolicy}.
+     */
+    public ConsumerDispatcher() {
+        this(new RoundRobinDispatchPolicy());
+    }
+
+    /**
+     * Creates a dispatcher using the given policy to choose between consumers.
+     *
+     * @param policy
+     *        the policy that chooses between the consumers with credit.
+     */
+    public ConsumerDispatcher(DispatchPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("A DispatchPolicy is required");
+        }
+
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a consumer, replacing any consumer already added with the same ConsumerId.
+     *
+     * @param info
+     *        the ConsumerInfo sent by the consumer.
+     *
+     * @return the subscription tracking the consumer.
+     */
+    public synchronized ConsumerSubscription addConsumer(ConsumerInfo info) {
+        removeConsumer(info.getConsumerId());
+
+        ConsumerSubscription subscription = new ConsumerSubscription(info, addedCount++);
+        subscriptions.put(info.getConsumerId(), subscription);
+        if (subscription.isExclusive()) {
+            selectExclusiveOwner();
+        } else {
+            offerIfReady(subscription);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Removes a consumer, messages still in flight to it are the caller's to redeliver.
+     *
+     * @param consumerId
+     *        the consumer to remove.
+     *
+     * @return the subscription of the removed consumer or null if it was not known.
+     */
+    public synchronized ConsumerSubscription removeConsumer(ConsumerId consumerId) {
+        ConsumerSubscription subscription = subscriptions.remove(consumerId);
+        if (subscription == null) {
+            return null;
+        }
+
+        // Left in the policy if offered, it is skipped once polled.
+        subscription.closed = true;
+        inFlightCount -= subscription.inFlight;
+        if (subscription == exclusiveOwner) {
+            selectExclusiveOwner();
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Removes the consumer named by a RemoveInfo, other RemoveInfo commands are ignored.
+     *
+     * @param info
+     *        the RemoveInfo received.
+     *
+     * @return the subscription of the removed consumer or null if none was removed.
+     */
+    public ConsumerSubscription process(RemoveInfo info) {
+        if (info.getObjectId() instanceof ConsumerId) {
+            return removeConsumer((ConsumerId) info.getObjectId());
+        }
+
+        return null;
+    }
+
+    /**
+     * Releases the credit of the messages consumed by an acknowledgement.
+     *
+     * @param ack
+     *        the MessageAck sent by a consumer.
+     */
+    public synchronized void acknowledge(MessageAck ack) {
+        ConsumerSubscription subscription = subscriptions.get(ack.getConsumerId());
+        if (subscription == null || ack.isDeliveredAck() || ack.isRedeliveredAck()) {
+            return;
+        }
+
+        int released = Math.min(Math.max(1, ack.getMessageCount()), subscription.inFlight);
+        subscription.inFlight -= released;
+        subscription.acknowledged += released;
+        inFlightCount -= released;
+
+        offerIfReady(subscription);
+    }
+
+    /**
+     * Grants a consumer with a prefetch of zero credit for one message.
+     *
+     * @param pull
+     *        the MessagePull sent by the consumer.
+     */
+    public synchronized void pull(MessagePull pull) {
+        ConsumerSubscription subscription = subscriptions.get(pull.getConsumerId());
+        if (subscription != null && subscription.getConsumerInfo().getPrefetchSize() <= 0) {
+            subscription.pullPending = true;
+            offerIfReady(subscription);
+        }
+    }
+
+    /**
+     * Dispatches a message to the next consumer chosen.
+     *
+     * @param message
+     *        the message to dispatch.
+     *
+     * @return the MessageDispatch for the chosen consumer or null if no consumer has credit.
+     */
+    public synchronized MessageDispatch dispatch(Message message) {
+        ConsumerSubscription subscription = next();
+        if (subscription == null) {
+            return null;
+        }
+
+        return createDispatch(subscription, message);
+    }
+
+    /**
+     * Dispatches messages taken from the pending queue for as long as consumers have credit.
+     *
+     * @param pending
+     *        the queue of messages waiting to be dispatched.
+     * @param target
+     *        the list the MessageDispatch commands are added to.
+     * @param maxMessages
+     *        the largest number of messages to dispatch.
+     *
+     * @return the number of messages dispatched.
+     */
+    public synchronized int dispatch(PriorityMessageQueue pending, List<MessageDispatch> target, int maxMessages) {
+        int dispatched = 0;
+        while (dispatched < maxMessages && !pending.isEmpty()) {
+            ConsumerSubscription subscription = next();
+            if (subscription == null) {
+                break;
+            }
+
+            Message message = pending.poll();
+            if (message == null) {
+                // Taken by another thread since the check, keep the consumer's turn.
+                offerIfReady(subscription);
+                break;
+            }
+
+            target.add(createDispatch(subscription, message));
+            dispatched++;
+        }
+
+        return dispatched;
+    }
+
+    /**
+     * @param consumerId
+     *        the consumer to look up.
+     *
+     * @return the subscription of the consumer or null if it is not known.
+     */
+    public synchronized ConsumerSubscription getSubscription(ConsumerId consumerId) {
+        return subscriptions.get(consumerId);
+    }
+
+    /**
+     * @return the exclusive consumer receiving every message, or null if there is none.
+     */
+    public synchronized ConsumerSubscription getExclusiveOwner() {
+        return exclusiveOwner;
+    }
+
+    /**
+     * @return the number of consumers.
+     */
+    public synchronized int getConsumerCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return the number of dispatched messages not yet acknowledged across all consumers.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public DispatchPolicy getPolicy() {
+        return policy;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private ConsumerSubscription next() {
+        if (exclusiveOwner != null) {
+            return exclusiveOwner.getAvailableCredit() > 0 ? exclusiveOwner : null;
+        }
+
+        ConsumerSubscription subscription;
+        while ((subscription = policy.poll()) != null) {
+            subscription.offered = false;
+            if (subscription.getAvailableCredit() > 0) {
+                return subscription;
+            }
+        }
+
+        return null;
+    }
+
+    private MessageDispatch createDispatch(ConsumerSubscription subscription, Message message) {
+        subscription.inFlight++;
+        subscription.dispatched++;
+        subscription.pullPending = false;
+        inFlightCount++;
+
+        if (subscription != exclusiveOwner) {
+            offerIfReady(subscription);
+        }
+
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(subscription.getConsumerId());
+        dispatch.setDestination(message.getDestination());
+        dispatch.setMessage(message);
+        dispatch.setRedeliveryCounter(message.getRedeliveryCounter());
+        return dispatch;
+    }
+
+    private void offerIfReady(ConsumerSubscription subscription) {
+        if (!subscription.offered && !subscription.isExclusive() && subscription.getAvailableCredit() > 0) {
+            subscription.offered = true;
+            policy.offer(subscription);
+        }
+    }
+
+    private void selectExclusiveOwner() {
+        ConsumerSubscription owner = null;
+        for (ConsumerSubscription subscription : subscriptions.values()) {
+            if (subscription.isExclusive() && (owner == null ||
+                subscription.getPriority() > owner.getPriority() ||
+                (subscription.getPriority() == owner.getPriority() && subscription.getOrder() < owner.getOrder()))) {
+
+                owner = subscription;
+            }
+        }
+
+        exclusiveOwner = owner;
+    }
+}
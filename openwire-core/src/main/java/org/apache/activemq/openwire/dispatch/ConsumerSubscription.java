@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+
+/**
+ * The dispatch state of one consumer held by a {@link ConsumerDispatcher}.
+ * <p>
+ * A consumer with a prefetch size can have that many dispatched messages in flight, a
+ * message stops being in flight once it is acknowledged.  A consumer with a prefetch of
+ * zero is only sent a message in answer to a MessagePull.
+ */
+public final class ConsumerSubscription {
+
+    private final ConsumerInfo info;
+    private final long order;
+
+    int inFlight;
+    boolean pullPending;
+    boolean offered;
+    boolean closed;
+    long dispatched;
+    long acknowledged;
+
+    ConsumerSubscription(ConsumerInfo info, long order) {
+        this.info = info;
+        this.order = order;
+    }
+
+    /**
+     * @return the number of further messages the consumer can be sent.
+     */
+    public int getAvailableCredit() {
+        if (closed) {
+            return 0;
+        }
+
+        int prefetch = info.getPrefetchSize();
+        if (prefetch > 0) {
+            return Math.max(0, prefetch - inFlight);
+        }
+
+        return pullPending ? 1 : 0;
+    }
+
+    public ConsumerInfo getConsumerInfo() {
+        return info;
+    }
+
+    public ConsumerId getConsumerId() {
+        return info.getConsumerId();
+    }
+
+    public byte getPriority() {
+        return info.getPriority();
+    }
+
+    public boolean isExclusive() {
+        return info.isExclusive();
+    }
+
+    /**
+     * @return the number of dispatched messages that have not been acknowledged.
+     */
+    public int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * @return the total number of messages dispatched to the consumer.
+     */
+    public long getDispatchedCount() {
+        return dispatched;
+    }
+
+    /**
+     * @return the total number of messages acknowledged by the consumer.
+     */
+    public long getAcknowledgedCount() {
+        return acknowledged;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    long getOrder() {
+        return order;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumerSubscription { " + info.getConsumerId() + ", inFlight = " + inFlight +
+               ", prefetch = " + info.getPrefetchSize() + " }";
+    }
+}
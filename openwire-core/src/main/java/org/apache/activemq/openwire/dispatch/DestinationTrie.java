@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+
+/**
+ * Matches destinations against a set of subscriptions that may use the ActiveMQ wildcards.
+ * <p>
+ * Subscriptions are held in a trie keyed on the path segments returned by
+ * {@link OpenWireDestination#getDestinationPaths()}, a {@code *} segment matches any one
+ * segment and a {@code >} segment matches all of the remaining segments, zero or more, so
+ * {@code A.>} matches {@code A} as well as its descendants.
+ * Segments following a {@code >} are ignored.  Queues, topics and their temporary forms are
+ * matched separately and a composite destination subscribes, or is matched, as each of its
+ * destinations.  The wildcard characters have no special meaning in a destination that is
+ * being matched.
+ * <p>
+ * Matching walks only the branches of the trie that the destination can reach and does not
+ * allocate, it is safe to match while other threads add and remove subscriptions.  Updates
+ * are serialized with each other.
+ *
+ * @param <T> the type of the subscribers held in the trie.
+ */
+public class DestinationTrie<T> {
+
+    public static final String ANY_CHILD = "*";
+    public static final String ANY_DESCENDENT = ">";
+
+    private static final Object[] EMPTY = new Object[0];
+
+    // One root per destination type, indexed by the type byte.
+    private final Node[] roots = new Node[8];
+    private int size;
+
+    public DestinationTrie() {
+        for (int i = 0; i < roots.length; ++i) {
+            roots[i] = new Node();
+        }
+    }
+
+    /**
+     * Adds a subscriber for the given destination, which may be a wildcard or composite.
+     *
+     * @param destination
+     *        the destination or pattern the subscriber is interested in.
+     * @param subscriber
+     *        the subscriber to add.
+     *
+     * @return true if the subscription was added, false if it already existed.
+     */
+    public synchronized boolean subscribe(OpenWireDestination destination, T subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber cannot be null");
+        }
+
+        if (destination.isComposite()) {
+            boolean added = false;
+            for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                added |= subscribe(component, subscriber);
+            }
+            return added;
+        }
+
+        Node node = rootFor(destination);
+        for (String path : destination.getDestinationPaths()) {
+            if (ANY_DESCENDENT.equals(path)) {
+                node = node.getOrCreateDescendants();
+                break;
+            }
+            node = ANY_CHILD.equals(path) ? node.getOrCreateAnyChild() : node.getOrCreateChild(path);
+        }
+
+        if (node.add(subscriber)) {
+            size++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes a subscriber added for the given destination.
+     *
+     * @param destination
+     *        the destination or pattern the subscriber was added with.
+     * @param subscriber
+     *        the subscriber to remove.
+     *
+     * @return true if the subscription was found and removed.
+     */
+    public synchronized boolean unsubscribe(OpenWireDestination destination, T subscriber) {
+        if (destination.isComposite()) {
+            boolean removed = false;
+            for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                removed |= unsubscribe(component, subscriber);
+            }
+            return removed;
+        }
+
+        String[] paths = destination.getDestinationPaths();
+        Node[] visited = new Node[paths.length + 1];
+        Node node = rootFor(destination);
+        visited[0] = node;
+
+        int depth = 0;
+        for (String path : paths) {
+            if (ANY_DESCENDENT.equals(path)) {
+                node = node.descendants;
+            } else if (ANY_CHILD.equals(path)) {
+                node = node.anyChild;
+            } else {
+                node = node.children != null ? node.children.get(path) : null;
+            }
+
+            if (node == null) {
+                return false;
+            }
+
+            visited[++depth] = node;
+            if (ANY_DESCENDENT.equals(path)) {
+                break;
+            }
+        }
+
+        if (!node.remove(subscriber)) {
+            return false;
+        }
+        size--;
+
+        // Prune the nodes left with nothing below them, readers still holding them see them empty.
+        for (int i = depth; i > 0 && visited[i].isEmpty(); --i) {
+            visited[i - 1].removeChild(visited[i]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds every subscriber whose subscription matches the given destination to the results.
+     * A subscriber that matches through more than one subscription is added once for each,
+     * pass a Set to collect each subscriber once.
+     *
+     * @param destination
+     *        the destination being published to, if composite each destination is matched.
+     * @param results
+     *        the collection the matching subscribers are added to.
+     *
+     * @return the number of matches added to the results.
+     */
+    public int match(OpenWireDestination destination, Collection<? super T> results) {
+        if (destination.isComposite()) {
+            int matched = 0;
+            for (OpenWireDestination component : destination.getCompositeDestinations()) {
+                matched += match(component, results);
+            }
+            return matched;
+        }
+
+        return match(rootFor(destination), destination.getDestinationPaths(), 0, results);
+    }
+
+    /**
+     * @param destination
+     *        the destination being published to.
+     *
+     * @return the distinct subscribers whose subscriptions match the destination.
+     */
+    public Set<T> get(OpenWireDestination destination) {
+        Set<T> results = new LinkedHashSet<T>();
+        match(destination, results);
+        return results;
+    }
+
+    /**
+     * @return the number of subscriptions held.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes every subscription.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < roots.length; ++i) {
+            roots[i] = new Node();
+        }
+        size = 0;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private Node rootFor(OpenWireDestination destination) {
+        return roots[destination.getDestinationType() & 0x07];
+    }
+
+    @SuppressWarnings("unchecked")
+    private int match(Node node, String[] paths, int depth, Collection<? super T> results) {
+        int matched = 0;
+        Node descendants = node.descendants;
+        if (descendants != null) {
+            Object[] values = descendants.values;
+            for (Object value : values) {
+                results.add((T) value);
+            }
+            matched += values.length;
+        }
+
+        if (depth == paths.length) {
+            Object[] values = node.values;
+            for (Object value : values) {
+                results.add((T) value);
+            }
+            return matched + values.length;
+        }
+
+        ConcurrentHashMap<String, Node> children = node.children;
+        if (children != null) {
+            Node child = children.get(paths[depth]);
+            if (child != null) {
+                matched += match(child, paths, depth + 1, results);
+            }
+        }
+
+        Node anyChild = node.anyChild;
+        if (anyChild != null) {
+            matched += match(anyChild, paths, depth + 1, results);
+        }
+
+        return matched;
+    }
+
+    /*
+     * Nodes are changed only while holding the trie lock, the fields are volatile so that
+     * matching threads see a consistent node without locking.
+     */
+    private static final class Node {
+
+        volatile ConcurrentHashMap<String, Node> children;
+        volatile Node anyChild;
+        volatile Node descendants;
+        volatile Object[] values = EMPTY;
+
+        String key;
+
+        Node getOrCreateChild(String path) {
+            if (children == null) {
+                children = new ConcurrentHashMap<String, Node>();
+            }
+
+            Node child = children.get(path);
+            if (child == null) {
+                child = new Node();
+                child.key = path;
+                children.put(path, child);
+            }
+            return child;
+        }
+
+        Node getOrCreateAnyChild() {
+            if (anyChild == null) {
+                anyChild = new Node();
+            }
+            return anyChild;
+        }
+
+        Node getOrCreateDescendants() {
+            if (descendants == null) {
+                descendants = new Node();
+            }
+            return descendants;
+        }
+
+        void removeChild(Node child) {
+            if (anyChild == child) {
+                anyChild = null;
+            } else if (descendants == child) {
+                descendants = null;
+            } else if (children != null && child.key != null) {
+                children.remove(child.key, child);
+            }
+        }
+
+        boolean add(Object value) {
+            Object[] current = values;
+            for (Object existing : current) {
+                if (existing.equals(value)) {
+                    return false;
+                }
+            }
+
+            Object[] updated = new Object[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = value;
+            values = updated;
+            return true;
+        }
+
+        boolean remove(Object value) {
+            Object[] current = values;
+            for (int i = 0; i < current.length; ++i) {
+                if (current[i].equals(value)) {
+                    if (current.length == 1) {
+                        values = EMPTY;
+                    } else {
+                        Object[] updated = new Object[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        values = updated;
+                    }
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        boolean isEmpty() {
+            return values.length == 0 && anyChild == null && descendants == null &&
+                   (children == null || children.isEmpty());
+        }
+    }
+}
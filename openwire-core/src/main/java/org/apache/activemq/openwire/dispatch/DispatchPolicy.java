@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+/**
+ * Chooses which of the consumers that can accept a message receives the next one.
+ * <p>
+ * The {@link ConsumerDispatcher} offers a subscription to the policy whenever it has credit
+ * for another message and polls the policy for the subscription to dispatch to, a polled
+ * subscription that still has credit after the dispatch is offered again.  The dispatcher
+ * serializes calls to the policy.
+ */
+public interface DispatchPolicy {
+
+    /**
+     * Adds a subscription to those the policy chooses from.
+     *
+     * @param subscription
+     *        a subscription with credit for at least one message.
+     */
+    void offer(ConsumerSubscription subscription);
+
+    /**
+     * Removes and returns the subscription that should receive the next message.  The result
+     * may be a subscription that has since been closed, the dispatcher skips those.
+     *
+     * @return the chosen subscription or null if none were offered.
+     */
+    ConsumerSubscription poll();
+
+    /**
+     * Removes every offered subscription.
+     */
+    void clear();
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A DispatchPolicy that prefers the consumers with the highest ConsumerInfo priority, taking
+ * turns between consumers of the same priority.  Lower priority consumers only receive
+ * messages while every higher priority consumer is out of credit.
+ */
+public class PriorityDispatchPolicy implements DispatchPolicy {
+
+    private final TreeMap<Byte, ArrayDeque<ConsumerSubscription>> ready = new TreeMap<Byte, ArrayDeque<ConsumerSubscription>>();
+
+    @Override
+    public void offer(ConsumerSubscription subscription) {
+        Byte priority = subscription.getPriority();
+        ArrayDeque<ConsumerSubscription> level = ready.get(priority);
+        if (level == null) {
+            level = new ArrayDeque<ConsumerSubscription>();
+            ready.put(priority, level);
+        }
+        level.addLast(subscription);
+    }
+
+    @Override
+    public ConsumerSubscription poll() {
+        Map.Entry<Byte, ArrayDeque<ConsumerSubscription>> highest = ready.lastEntry();
+        if (highest == null) {
+            return null;
+        }
+
+        ArrayDeque<ConsumerSubscription> level = highest.getValue();
+        ConsumerSubscription subscription = level.pollFirst();
+        if (level.isEmpty()) {
+            ready.remove(highest.getKey());
+        }
+
+        return subscription;
+    }
+
+    @Override
+    public void clear() {
+        ready.clear();
+    }
+}
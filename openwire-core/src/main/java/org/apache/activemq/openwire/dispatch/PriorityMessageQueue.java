@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+
+/**
+ * A queue of pending messages that are taken in priority order and in FIFO order within
+ * a priority.
+ * <p>
+ * Each of the ten JMS priorities has its own lock free FIFO lane and a bitmap records which
+ * lanes hold messages, so finding the highest priority message is a single bit scan.  Any
+ * number of threads may offer and poll concurrently.
+ * <p>
+ * With the default strict policy the highest priority message is always taken first, which
+ * can starve lower priorities while higher priority messages keep arriving.  The fair policy
+ * instead gives every lane a share of each round of polls weighted by its priority, a lane of
+ * priority p is served up to p + 1 times per round, while still preferring the highest lane
+ * that has a share left.  Under concurrent polling the fair shares are approximate.
+ */
+public class PriorityMessageQueue {
+
+    public static final int PRIORITY_LEVELS = 10;
+
+    private static final int ALL_LANES = (1 << PRIORITY_LEVELS) - 1;
+
+    private final ConcurrentLinkedQueue<Message>[] lanes;
+    private final AtomicInteger nonEmptyLanes = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final boolean fair;
+
+    // Fair policy state, the remaining share of the current round for each lane.
+    private final AtomicIntegerArray credits = new AtomicIntegerArray(PRIORITY_LEVELS);
+    private final AtomicInteger creditedLanes = new AtomicInteger(ALL_LANES);
+
+    /**
+     * Creates a queue using the strict priority policy.
+     */
+    public PriorityMessageQueue() {
+        this(false);
+    }
+
+    /**
+     * Creates a queue.
+     *
+     * @param fair
+     *        true to use the fair priority policy, false to always take the highest priority.
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityMessageQueue(boolean fair) {
+        this.fair = fair;
+        this.lanes = new ConcurrentLinkedQueue[PRIORITY_LEVELS];
+        for (int i = 0; i < PRIORITY_LEVELS; ++i) {
+            lanes[i] = new ConcurrentLinkedQueue<Message>();
+            credits.set(i, i + 1);
+        }
+    }
+
+    /**
+     * Adds a message to the lane for its priority.
+     *
+     * @param message
+     *        the message to add.
+     */
+    public void offer(Message message) {
+        int lane = laneOf(message);
+        size.incrementAndGet();
+        lanes[lane].offer(message);
+        setBit(nonEmptyLanes, lane);
+    }
+
+    /**
+     * Removes the next message according to the priority policy.
+     *
+     * @return the next message or null if the queue is empty.
+     */
+    public Message poll() {
+        for (;;) {
+            int lane = selectLane();
+            if (lane < 0) {
+                return null;
+            }
+
+            Message message = pollLane(lane);
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    /**
+     * Removes up to the given number of messages and adds them to the collection.
+     *
+     * @param target
+     *        the collection that receives the messages.
+     * @param maxMessages
+     *        the largest number of messages to remove.
+     *
+     * @return the number of messages removed.
+     */
+    public int drainTo(Collection<? super Message> target, int maxMessages) {
+        int drained = 0;
+        while (drained < maxMessages) {
+            Message message = poll();
+            if (message == null) {
+                break;
+            }
+            target.add(message);
+            drained++;
+        }
+
+        return drained;
+    }
+
+    /**
+     * Removes up to the given number of messages and adds a MessageDispatch for each to the
+     * list, ready to be sent to the given consumer.
+     *
+     * @param target
+     *        the list that receives the dispatches.
+     * @param consumerId
+     *        the consumer the messages are dispatched to.
+     * @param maxMessages
+     *        the largest number of messages to remove.
+     *
+     * @return the number of messages removed.
+     */
+    public int drainTo(List<MessageDispatch> target, ConsumerId consumerId, int maxMessages) {
+        int drained = 0;
+        while (drained < maxMessages) {
+            Message message = poll();
+            if (message == null) {
+                break;
+            }
+
+            MessageDispatch dispatch = new MessageDispatch();
+            dispatch.setConsumerId(consumerId);
+            dispatch.setDestination(message.getDestination());
+            dispatch.setMessage(message);
+            dispatch.setRedeliveryCounter(message.getRedeliveryCounter());
+            target.add(dispatch);
+            drained++;
+        }
+
+        return drained;
+    }
+
+    /**
+     * @return the highest priority that has a pending message, or -1 if the queue is empty.
+     */
+    public int getHighestPriority() {
+        return highestBit(nonEmptyLanes.get());
+    }
+
+    /**
+     * @param priority
+     *        the priority to check.
+     *
+     * @return the number of messages pending at the given priority.
+     */
+    public int size(int priority) {
+        return lanes[clamp(priority)].size();
+    }
+
+    /**
+     * @return the number of pending messages.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return nonEmptyLanes.get() == 0;
+    }
+
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * Removes every pending message.
+     */
+    public void clear() {
+        for (int i = 0; i < PRIORITY_LEVELS; ++i) {
+            while (pollLane(i) != null) {
+                // Discard the message.
+            }
+        }
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private int selectLane() {
+        int available = nonEmptyLanes.get();
+        if (available == 0) {
+            return -1;
+        }
+
+        if (!fair) {
+            return highestBit(available);
+        }
+
+        int lane = highestBit(available & creditedLanes.get());
+        if (lane < 0) {
+            // Every lane holding messages has used its share, start a new round.
+            for (int i = 0; i < PRIORITY_LEVELS; ++i) {
+                credits.set(i, i + 1);
+            }
+            creditedLanes.set(ALL_LANES);
+            lane = highestBit(available);
+        }
+
+        if (credits.decrementAndGet(lane) <= 0) {
+            clearBit(creditedLanes, lane);
+        }
+
+        return lane;
+    }
+
+    private Message pollLane(int lane) {
+        ConcurrentLinkedQueue<Message> queue = lanes[lane];
+        Message message = queue.poll();
+        if (message != null) {
+            size.decrementAndGet();
+        }
+
+        if (queue.isEmpty()) {
+            // A concurrent offer may add to the lane after it was seen empty, it sets the
+            // bit after adding so the lane only needs checking again once the bit is cleared.
+            clearBit(nonEmptyLanes, lane);
+            if (!queue.isEmpty()) {
+                setBit(nonEmptyLanes, lane);
+            }
+        }
+
+        return message;
+    }
+
+    private static int laneOf(Message message) {
+        return clamp(message.getPriority());
+    }
+
+    private static int clamp(int priority) {
+        return priority < 0 ? 0 : priority >= PRIORITY_LEVELS ? PRIORITY_LEVELS - 1 : priority;
+    }
+
+    private static int highestBit(int bits) {
+        return 31 - Integer.numberOfLeadingZeros(bits);
+    }
+
+    private static void setBit(AtomicInteger bits, int bit) {
+        int mask = 1 << bit;
+        for (;;) {
+            int current = bits.get();
+            if ((current & mask) != 0 || bits.compareAndSet(current, current | mask)) {
+                return;
+            }
+        }
+    }
+
+    private static void clearBit(AtomicInteger bits, int bit) {
+        int mask = 1 << bit;
+        for (;;) {
+            int current = bits.get();
+            if ((current & mask) == 0 || bits.compareAndSet(current, current & ~mask)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+
+/**
+ * A MessageGroupMap that remembers a bounded number of groups and forgets the least recently
+ * used group once full.  A forgotten group is assigned afresh by its next message, possibly
+ * to a different consumer, so the bound should exceed the number of groups that are active
+ * at once.
+ */
+public class CachedMessageGroupMap implements MessageGroupMap {
+
+    public static final int DEFAULT_MAX_GROUPS = 1024;
+
+    private final int maxGroups;
+    private final LinkedHashMap<String, ConsumerId> groups;
+    private long evictions;
+
+    /**
+     * Creates a map holding at most {@value #DEFAULT_MAX_GROUPS} groups.
+     */
+    public CachedMessageGroupMap() {
+        this(DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Creates a map holding at most the given number of groups.
+     *
+     * @param maxGroups
+     *        the number of groups remembered before the least recently used is forgotten.
+     */
+    public CachedMessageGroupMap(int maxGroups) {
+        if (maxGroups <= 0) {
+            throw new IllegalArgumentException("maxGroups must be greater than zero: " + maxGroups);
+        }
+
+        this.maxGroups = maxGroups;
+        this.groups = new LinkedHashMap<String, ConsumerId>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ConsumerId> eldest) {
+                if (size() > CachedMessageGroupMap.this.maxGroups) {
+                    evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public ConsumerId get(String groupId) {
+        return groups.get(groupId);
+    }
+
+    @Override
+    public void put(String groupId, ConsumerId consumerId) {
+        groups.put(groupId, consumerId);
+    }
+
+    @Override
+    public ConsumerId removeGroup(String groupId) {
+        return groups.remove(groupId);
+    }
+
+    @Override
+    public int removeConsumer(ConsumerId consumerId) {
+        int removed = 0;
+        Iterator<ConsumerId> iterator = groups.values().iterator();
+        while (iterator.hasNext()) {
+            if (consumerId.equals(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public void removeAll() {
+        groups.clear();
+    }
+
+    @Override
+    public int size() {
+        return groups.size();
+    }
+
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * @return the number of groups forgotten to stay within the maximum.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String getType() {
+        return "cached";
+    }
+
+    @Override
+    public String toString() {
+        return "CachedMessageGroupMap { groups = " + groups.size() + ", maxGroups = " + maxGroups + " }";
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.activemq.openwire.commands.ConnectionId;
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.DataStructure;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.RemoveInfo;
+import org.apache.activemq.openwire.commands.SessionId;
+
+/**
+ * Assigns the messages of a message group to the consumer that owns the group.
+ * <p>
+ * The first message of a group seen by the assigner makes the consumer chosen for it the
+ * owner of the group and is marked with the JMSXGroupFirstForConsumer flag, every later message
+ * of the group goes to the same consumer.  A message with a group sequence of -1 closes the
+ * group after it is assigned.  When the owning consumer goes away, signalled by a RemoveInfo
+ * for the consumer or its session or connection, its groups are released and move to the
+ * consumer chosen for their next message.
+ */
+public class MessageGroupAssigner {
+
+    public static final int CLOSE_GROUP_SEQUENCE = -1;
+
+    private final MessageGroupMap groups;
+
+    // Consumers that have been assigned a group, used to resolve session and connection removal.
+    private final Set<ConsumerId> owners = new HashSet<ConsumerId>();
+
+    /**
+     * Creates an assigner that uses a {@link SimpleMessageGroupMap}.
+     */
+    public MessageGroupAssigner() {
+        this(new SimpleMessageGroupMap());
+    }
+
+    /**
+     * Creates an assigner that records group ownership in the given map.
+     *
+     * @param groups
+     *        the map used to hold the group owners.
+     */
+    public MessageGroupAssigner(MessageGroupMap groups) {
+        if (groups == null) {
+            throw new IllegalArgumentException("A MessageGroupMap is required");
+        }
+
+        this.groups = groups;
+    }
+
+    /**
+     * Returns the consumer that should receive the given message.
+     *
+     * @param message
+     *        the message being dispatched.
+     * @param candidate
+     *        the consumer the message would go to if it were not grouped, it becomes the
+     *        owner of the group when the group is not yet assigned.
+     *
+     * @return the consumer for the message, the candidate when the message is not grouped.
+     */
+    public synchronized ConsumerId assign(Message message, ConsumerId candidate) {
+        String groupId = message.getGroupId();
+        if (groupId == null) {
+            return candidate;
+        }
+
+        ConsumerId owner = groups.get(groupId);
+        boolean first = false;
+        if (owner == null && candidate != null) {
+            owner = candidate;
+            first = true;
+            groups.put(groupId, owner);
+            owners.add(owner);
+        }
+        message.setJMSXGroupFirstForConsumer(first);
+
+        if (message.getGroupSequence() == CLOSE_GROUP_SEQUENCE) {
+            groups.removeGroup(groupId);
+        }
+
+        return owner;
+    }
+
+    /**
+     * @param groupId
+     *        the message group id.
+     *
+     * @return the consumer that owns the group or null if it is not assigned.
+     */
+    public synchronized ConsumerId getOwner(String groupId) {
+        return groups.get(groupId);
+    }
+
+    /**
+     * Closes a group so that its next message is assigned afresh.
+     *
+     * @param groupId
+     *        the message group id.
+     *
+     * @return the consumer that owned the group or null if it was not assigned.
+     */
+    public synchronized ConsumerId closeGroup(String groupId) {
+        return groups.removeGroup(groupId);
+    }
+
+    /**
+     * Releases the groups of the consumers removed by the given command, a RemoveInfo for a
+     * session or connection releases the groups of all of its consumers.
+     *
+     * @param info
+     *        the RemoveInfo sent for a consumer, session or connection.
+     *
+     * @return the number of group assignments released.
+     */
+    public synchronized int process(RemoveInfo info) {
+        DataStructure objectId = info.getObjectId();
+        if (objectId instanceof ConsumerId) {
+            return removeConsumer((ConsumerId) objectId);
+        }
+
+        int removed = 0;
+        Iterator<ConsumerId> iterator = owners.iterator();
+        while (iterator.hasNext()) {
+            ConsumerId consumerId = iterator.next();
+            if (isParent(objectId, consumerId)) {
+                iterator.remove();
+                removed += groups.removeConsumer(consumerId);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Releases the groups owned by a consumer.
+     *
+     * @param consumerId
+     *        the consumer that has gone.
+     *
+     * @return the number of group assignments released.
+     */
+    public synchronized int removeConsumer(ConsumerId consumerId) {
+        if (!owners.remove(consumerId)) {
+            return 0;
+        }
+
+        return groups.removeConsumer(consumerId);
+    }
+
+    /**
+     * Releases every group.
+     */
+    public synchronized void clear() {
+        groups.removeAll();
+        owners.clear();
+    }
+
+    /**
+     * @return the number of group assignments held by the map.
+     */
+    public synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    public MessageGroupMap getGroupMap() {
+        return groups;
+    }
+
+    private static boolean isParent(DataStructure objectId, ConsumerId consumerId) {
+        if (objectId instanceof SessionId) {
+            return objectId.equals(consumerId.getParentId());
+        } else if (objectId instanceof ConnectionId) {
+            return ((ConnectionId) objectId).getValue().equals(consumerId.getConnectionId());
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+
+/**
+ * A MessageGroupMap that hashes group ids into a fixed number of buckets, each bucket has a
+ * single owner shared by every group that hashes to it.  Memory use is fixed however many
+ * groups are open, at the cost that groups sharing a bucket are always owned by the same
+ * consumer and closing one group releases the others in its bucket.
+ */
+public class MessageGroupHashBucket implements MessageGroupMap {
+
+    public static final int DEFAULT_BUCKET_COUNT = 1024;
+
+    private final ConsumerId[] buckets;
+    private int size;
+
+    /**
+     * Creates a map with {@value #DEFAULT_BUCKET_COUNT} buckets.
+     */
+    public MessageGroupHashBucket() {
+        this(DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * Creates a map with the given number of buckets.
+     *
+     * @param bucketCount
+     *        the number of buckets that group ids are hashed into.
+     */
+    public MessageGroupHashBucket(int bucketCount) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketCount must be greater than zero: " + bucketCount);
+        }
+
+        this.buckets = new ConsumerId[bucketCount];
+    }
+
+    @Override
+    public ConsumerId get(String groupId) {
+        return buckets[bucket(groupId)];
+    }
+
+    @Override
+    public void put(String groupId, ConsumerId consumerId) {
+        int bucket = bucket(groupId);
+        if (buckets[bucket] == null) {
+            size++;
+        }
+        buckets[bucket] = consumerId;
+    }
+
+    @Override
+    public ConsumerId removeGroup(String groupId) {
+        int bucket = bucket(groupId);
+        ConsumerId owner = buckets[bucket];
+        if (owner != null) {
+            buckets[bucket] = null;
+            size--;
+        }
+
+        return owner;
+    }
+
+    @Override
+    public int removeConsumer(ConsumerId consumerId) {
+        int removed = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            if (consumerId.equals(buckets[i])) {
+                buckets[i] = null;
+                removed++;
+            }
+        }
+
+        size -= removed;
+        return removed;
+    }
+
+    @Override
+    public void removeAll() {
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the number of buckets that have an owner.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    @Override
+    public String getType() {
+        return "bucket";
+    }
+
+    @Override
+    public String toString() {
+        return "MessageGroupHashBucket { buckets = " + buckets.length + ", owned = " + size + " }";
+    }
+
+    private int bucket(String groupId) {
+        int hash = groupId.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % buckets.length;
+    }
+}
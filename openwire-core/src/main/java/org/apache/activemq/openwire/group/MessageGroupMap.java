@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+
+/**
+ * Maps message group ids to the consumer that owns the group.
+ * <p>
+ * Implementations trade accuracy for memory in different ways, all of them look up the
+ * owner of a group in constant time.  Implementations are not thread safe, the
+ * {@link MessageGroupAssigner} guards the map it is given.
+ */
+public interface MessageGroupMap {
+
+    /**
+     * @param groupId
+     *        the message group id.
+     *
+     * @return the consumer that owns the group or null if the group is not assigned.
+     */
+    ConsumerId get(String groupId);
+
+    /**
+     * Assigns a group to a consumer.
+     *
+     * @param groupId
+     *        the message group id.
+     * @param consumerId
+     *        the consumer that now owns the group.
+     */
+    void put(String groupId, ConsumerId consumerId);
+
+    /**
+     * Closes a group so that its next message is assigned afresh.
+     *
+     * @param groupId
+     *        the message group id.
+     *
+     * @return the consumer that owned the group or null if the group was not assigned.
+     */
+    ConsumerId removeGroup(String groupId);
+
+    /**
+     * Releases every group owned by a consumer.
+     *
+     * @param consumerId
+     *        the consumer that has gone.
+     *
+     * @return the number of group assignments released.
+     */
+    int removeConsumer(ConsumerId consumerId);
+
+    /**
+     * Releases every group.
+     */
+    void removeAll();
+
+    /**
+     * @return the number of group assignments held.
+     */
+    int size();
+
+    /**
+     * @return a short name for the type of map.
+     */
+    String getType();
+
+}
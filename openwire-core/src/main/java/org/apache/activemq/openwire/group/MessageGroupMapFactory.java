@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+/**
+ * Creates MessageGroupMap instances by type name so the implementation can be chosen from
+ * configuration.
+ */
+public final class MessageGroupMapFactory {
+
+    private MessageGroupMapFactory() {
+    }
+
+    /**
+     * Creates a new map of the given type using its default size.
+     *
+     * @param type
+     *        one of "simple", "bucket" or "cached".
+     *
+     * @return a new empty map of the given type.
+     *
+     * @throws IllegalArgumentException if the type is not known.
+     */
+    public static MessageGroupMap create(String type) {
+        if ("simple".equalsIgnoreCase(type)) {
+            return new SimpleMessageGroupMap();
+        } else if ("bucket".equalsIgnoreCase(type)) {
+            return new MessageGroupHashBucket();
+        } else if ("cached".equalsIgnoreCase(type)) {
+            return new CachedMessageGroupMap();
+        }
+
+        throw new IllegalArgumentException("Unknown message group map type: " + type);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+
+/**
+ * A MessageGroupMap that remembers every group in a hash map, exact but with memory use that
+ * grows with the number of open groups.  The groups owned by each consumer are also indexed
+ * so removing a consumer costs the number of groups it owned rather than a scan of them all.
+ */
+public class SimpleMessageGroupMap implements MessageGroupMap {
+
+    private final Map<String, ConsumerId> groups = new HashMap<String, ConsumerId>();
+    private final Map<ConsumerId, Set<String>> owners = new HashMap<ConsumerId, Set<String>>();
+
+    @Override
+    public ConsumerId get(String groupId) {
+        return groups.get(groupId);
+    }
+
+    @Override
+    public void put(String groupId, ConsumerId consumerId) {
+        ConsumerId previous = groups.put(groupId, consumerId);
+        if (consumerId.equals(previous)) {
+            return;
+        }
+
+        if (previous != null) {
+            removeOwnership(previous, groupId);
+        }
+
+        Set<String> owned = owners.get(consumerId);
+        if (owned == null) {
+            owned = new HashSet<String>();
+            owners.put(consumerId, owned);
+        }
+        owned.add(groupId);
+    }
+
+    @Override
+    public ConsumerId removeGroup(String groupId) {
+        ConsumerId removed = groups.remove(groupId);
+        if (removed != null) {
+            removeOwnership(removed, groupId);
+        }
+
+        return removed;
+    }
+
+    @Override
+    public int removeConsumer(ConsumerId consumerId) {
+        Set<String> owned = owners.remove(consumerId);
+        if (owned == null) {
+            return 0;
+        }
+
+        for (String groupId : owned) {
+            groups.remove(groupId);
+        }
+
+        return owned.size();
+    }
+
+    @Override
+    public void removeAll() {
+        groups.clear();
+        owners.clear();
+    }
+
+    @Override
+    public int size() {
+        return groups.size();
+    }
+
+    @Override
+    public String getType() {
+        return "simple";
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleMessageGroupMap { groups = " + groups.size() + " }";
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void removeOwnership(ConsumerId consumerId, String groupId) {
+        Set<String> owned = owners.get(consumerId);
+        if (owned != null && owned.remove(groupId) && owned.isEmpty()) {
+            owners.remove(consumerId);
+        }
+    }
+}
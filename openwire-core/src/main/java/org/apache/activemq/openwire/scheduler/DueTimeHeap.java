@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.scheduler;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of due times held in primitive long arrays.
+ * <p>
+ * Each entry carries a due time and an opaque long reference, entries with the same due
+ * time are removed in the order they were added.  The heap is not thread safe.
+ */
+final class DueTimeHeap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private long[] references = new long[INITIAL_CAPACITY];
+    private int size;
+    private long nextSequence;
+
+    void add(long time, long reference) {
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            references = Arrays.copyOf(references, capacity);
+        }
+
+        int index = size++;
+        long sequence = nextSequence++;
+
+        // Sift up
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(time, sequence, times[parent], sequences[parent])) {
+                break;
+            }
+            move(parent, index);
+            index = parent;
+        }
+
+        set(index, time, sequence, reference);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the earliest due time, only valid when the heap is not empty.
+     */
+    long peekTime() {
+        return times[0];
+    }
+
+    /**
+     * @return the reference of the earliest entry, only valid when the heap is not empty.
+     */
+    long peekReference() {
+        return references[0];
+    }
+
+    /**
+     * Removes the earliest entry, only valid when the heap is not empty.
+     */
+    void remove() {
+        int last = --size;
+        if (last == 0) {
+            return;
+        }
+
+        long time = times[last];
+        long sequence = sequences[last];
+        long reference = references[last];
+
+        // Sift down
+        int index = 0;
+        int half = last >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < last && before(times[right], sequences[right], times[child], sequences[child])) {
+                child = right;
+            }
+            if (!before(times[child], sequences[child], time, sequence)) {
+                break;
+            }
+            move(child, index);
+            index = child;
+        }
+
+        set(index, time, sequence, reference);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+        return time < otherTime || (time == otherTime && sequence < otherSequence);
+    }
+
+    private void move(int from, int to) {
+        times[to] = times[from];
+        sequences[to] = sequences[from];
+        references[to] = references[from];
+    }
+
+    private void set(int index, long time, long sequence, long reference) {
+        times[index] = time;
+        sequences[index] = sequence;
+        references[index] = reference;
+    }
+}
@@ -0,0 +1,762 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.scheduler;
+
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_CRON;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_DELAY;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_ID;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_PERIOD;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_REPEAT;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.ProducerId;
+import org.apache.activemq.openwire.utils.CronExpression;
+import org.apache.activemq.openwire.utils.CronParser;
+import org.apache.activemq.openwire.utils.ExceptionSupport;
+import org.apache.activemq.openwire.utils.OpenWireIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds messages that carry the ActiveMQ scheduling properties and releases them when
+ * they become due.
+ * <p>
+ * A message is scheduled when it has an {@code AMQ_SCHEDULED_DELAY},
+ * {@code AMQ_SCHEDULED_PERIOD}, {@code AMQ_SCHEDULED_REPEAT} or {@code AMQ_SCHEDULED_CRON}
+ * property.  Without a cron entry it is first released after the delay and then
+ * released again every period until it has repeated the requested number of times.  A
+ * cron entry releases the message at every time the entry fires, the other properties are
+ * ignored for cron scheduled messages.
+ * <p>
+ * Due times are kept in a binary heap of primitive longs.  Released messages are copies of
+ * the scheduled message with the scheduling properties removed and the {@code scheduledJobId}
+ * property set, each release of a recurring job is given a new MessageId.  Messages are
+ * either collected by calling {@link #releaseDue(long)} or, once {@link #start()} has been
+ * called, delivered in batches to a {@link ScheduledDeliveryListener} from a scheduler thread.
+ * <p>
+ * When an overflow directory is configured, jobs scheduled while the in memory limit is
+ * reached are marshalled into a memory mapped overflow file and only their due time stays
+ * on the heap.  The overflow file is not a persistent store and is removed on stop.
+ */
+public class MessageScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageScheduler.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    public static final int DEFAULT_MAX_IN_MEMORY_JOBS = 100000;
+    public static final int DEFAULT_OVERFLOW_REGION_SIZE = 64 * 1024 * 1024;
+
+    private static final AtomicLong OVERFLOW_FILE_COUNT = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeup = lock.newCondition();
+    private final DueTimeHeap heap = new DueTimeHeap();
+    private final ScheduledDeliveryListener listener;
+    private final String schedulerId;
+    private final ProducerId producerId;
+    private final AtomicLong messageSequence = new AtomicLong();
+
+    private Job[] jobs = new Job[64];
+    private int[] generations = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int nextSlot;
+    private int inMemoryCount;
+
+    // Overflow jobs whose next run was moved back into memory, keyed by their job id.
+    private final Map<String, Long> relocated = new HashMap<String, Long>();
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int maxInMemoryJobs = DEFAULT_MAX_IN_MEMORY_JOBS;
+    private int overflowRegionSize = DEFAULT_OVERFLOW_REGION_SIZE;
+    private File overflowDirectory;
+    private ScheduleOverflowFile overflow;
+    private OpenWireFormat overflowFormat;
+    private int overflowCount;
+    private int overflowHeapEntries;
+
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Creates a scheduler whose due messages are collected with {@link #releaseDue(long)}.
+     */
+    public MessageScheduler() {
+        this(null);
+    }
+
+    /**
+     * Creates a scheduler that delivers due messages to the given listener once started.
+     *
+     * @param listener
+     *        the listener that receives released messages.
+     */
+    public MessageScheduler(ScheduledDeliveryListener listener) {
+        this.listener = listener;
+        this.schedulerId = new OpenWireIdGenerator("ID:scheduler").generateSanitizedId();
+        this.producerId = new ProducerId(schedulerId + ":1:1");
+    }
+
+    /**
+     * @param message
+     *        the message to check.
+     *
+     * @return true if the message carries any of the scheduling properties.
+     *
+     * @throws JMSException if the message properties cannot be read.
+     */
+    public static boolean isScheduled(Message message) throws JMSException {
+        String cron = getCron(message);
+        return (cron != null && !cron.isEmpty()) ||
+               getLong(message, AMQ_SCHEDULED_DELAY) > 0 ||
+               getLong(message, AMQ_SCHEDULED_PERIOD) > 0 ||
+               getLong(message, AMQ_SCHEDULED_REPEAT) > 0;
+    }
+
+    /**
+     * Schedules the given message using its scheduling properties and the current time.
+     *
+     * @param message
+     *        the message to schedule.
+     *
+     * @return the id of the scheduled job.
+     *
+     * @throws JMSException if the scheduling properties are not valid.
+     * @throws IOException if the job cannot be written to the overflow file.
+     */
+    public String schedule(Message message) throws JMSException, IOException {
+        return schedule(message, System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules the given message using its scheduling properties.
+     *
+     * @param message
+     *        the message to schedule.
+     * @param now
+     *        the time the delay and cron entry are applied from.
+     *
+     * @return the id of the scheduled job.
+     *
+     * @throws JMSException if the scheduling properties are not valid.
+     * @throws IOException if the job cannot be written to the overflow file.
+     */
+    public String schedule(Message message, long now) throws JMSException, IOException {
+        String cronEntry = getCron(message);
+        long delay = Math.max(0, getLong(message, AMQ_SCHEDULED_DELAY));
+        long period = Math.max(0, getLong(message, AMQ_SCHEDULED_PERIOD));
+        int repeat = (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLong(message, AMQ_SCHEDULED_REPEAT)));
+
+        CronExpression cron = null;
+        long due;
+        if (cronEntry != null && !cronEntry.isEmpty()) {
+            cron = CronParser.compile(cronEntry);
+            due = cron.getNextFireTime(now);
+        } else {
+            due = now + delay;
+        }
+
+        lock.lock();
+        try {
+            if (shouldOverflow()) {
+                // A new overflow record takes its job id from its own offset.
+                long offset = overflow().append("", period, repeat, cronEntry, overflowFormat.marshal(message));
+                overflowCount++;
+                addToHeap(due, overflowReference(offset));
+                return toJobId(overflowReference(offset));
+            }
+
+            Job job = new Job(message, period, repeat, cron);
+            long reference = allocate(job);
+            job.jobId = toJobId(reference);
+            addToHeap(due, reference);
+            return job.jobId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancels a scheduled job.
+     *
+     * @param jobId
+     *        the id returned when the job was scheduled.
+     *
+     * @return true if the job was found and cancelled.
+     *
+     * @throws IOException if the overflow file cannot be updated.
+     */
+    public boolean cancel(String jobId) throws IOException {
+        long reference = fromJobId(jobId);
+        if (reference == Long.MIN_VALUE) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            // A recurring overflow job may have moved, follow it to its latest location.
+            Long moved = relocated.get(jobId);
+            if (moved != null) {
+                reference = moved;
+            }
+
+            for (int hops = 0; hops < 64; ++hops) {
+                if (reference >= 0) {
+                    Job job = lookup(reference);
+                    if (job == null || !jobId.equals(job.jobId)) {
+                        return false;
+                    }
+                    free(reference);
+                    return true;
+                }
+
+                if (overflow == null) {
+                    return false;
+                }
+
+                ScheduleOverflowFile.Record record = overflow.read(overflowOffset(reference));
+                if (record == null || !jobId.equals(getJobId(record))) {
+                    return false;
+                }
+
+                if (record.state == ScheduleOverflowFile.LIVE) {
+                    overflow.setState(record.offset, ScheduleOverflowFile.CANCELLED);
+                    overflowCount--;
+                    return true;
+                } else if (record.state == ScheduleOverflowFile.FORWARDED) {
+                    reference = record.forward;
+                } else {
+                    return false;
+                }
+            }
+
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the messages that are due at the given time, at most the configured
+     * maximum batch size of messages is returned by one call.
+     *
+     * @param now
+     *        the current time.
+     *
+     * @return the released messages in due time order, empty if none are due.
+     *
+     * @throws IOException if a job cannot be read from the overflow file.
+     */
+    public List<Message> releaseDue(long now) throws IOException {
+        lock.lock();
+        try {
+            return doReleaseDue(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the due time of the earliest scheduled job or -1 if nothing is scheduled.
+     *
+     * @throws IOException if the overflow file cannot be read.
+     */
+    public long getNextDueTime() throws IOException {
+        lock.lock();
+        try {
+            return peekValidDueTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of scheduled jobs.
+     */
+    public int getScheduledCount() {
+        lock.lock();
+        try {
+            return inMemoryCount + overflowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of scheduled jobs held in the overflow file.
+     */
+    public int getOverflowCount() {
+        lock.lock();
+        try {
+            return overflowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the scheduler thread which delivers due messages to the listener.
+     */
+    public void start() {
+        if (listener == null) {
+            throw new IllegalStateException("A ScheduledDeliveryListener is required to start the scheduler");
+        }
+
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+
+            running = true;
+            thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    runDelivery();
+                }
+            }, "OpenWire Message Scheduler");
+            thread.setDaemon(true);
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the scheduler thread, drops every scheduled job and removes the overflow file.
+     *
+     * @throws InterruptedException if interrupted while waiting for the thread to stop.
+     */
+    public void stop() throws InterruptedException {
+        Thread stopping;
+        lock.lock();
+        try {
+            running = false;
+            stopping = thread;
+            thread = null;
+            wakeup.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (stopping != null && stopping != Thread.currentThread()) {
+            stopping.join();
+        }
+
+        lock.lock();
+        try {
+            heap.clear();
+            for (int slot = 0; slot < nextSlot; ++slot) {
+                generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+            }
+            Arrays.fill(jobs, null);
+            relocated.clear();
+            freeCount = 0;
+            nextSlot = 0;
+            inMemoryCount = 0;
+            overflowCount = 0;
+            overflowHeapEntries = 0;
+            if (overflow != null) {
+                try {
+                    overflow.close();
+                } catch (IOException e) {
+                    LOG.debug("Error closing scheduler overflow file: {}", e.getMessage());
+                }
+                overflow = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *        the maximum number of messages released in one batch.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getMaxInMemoryJobs() {
+        return maxInMemoryJobs;
+    }
+
+    /**
+     * @param maxInMemoryJobs
+     *        the number of jobs held in memory before new jobs go to the overflow file, only
+     *        applies when an overflow directory is configured.
+     */
+    public void setMaxInMemoryJobs(int maxInMemoryJobs) {
+        this.maxInMemoryJobs = maxInMemoryJobs;
+    }
+
+    public File getOverflowDirectory() {
+        return overflowDirectory;
+    }
+
+    /**
+     * @param overflowDirectory
+     *        the directory for the overflow file, or null to keep every job in memory.
+     */
+    public void setOverflowDirectory(File overflowDirectory) {
+        this.overflowDirectory = overflowDirectory;
+    }
+
+    public int getOverflowRegionSize() {
+        return overflowRegionSize;
+    }
+
+    /**
+     * @param overflowRegionSize
+     *        the size of each mapped region of the overflow file, which is also the largest
+     *        job that can be written to it.
+     */
+    public void setOverflowRegionSize(int overflowRegionSize) {
+        this.overflowRegionSize = overflowRegionSize;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private static final class Job {
+
+        final Message message;
+        final long period;
+        final CronExpression cron;
+
+        String jobId;
+        int remaining;
+        long deliveries;
+        boolean relocated;
+
+        Job(Message message, long period, int remaining, CronExpression cron) {
+            this.message = message;
+            this.period = period;
+            this.remaining = remaining;
+            this.cron = cron;
+        }
+    }
+
+    private void runDelivery() {
+        while (running) {
+            List<Message> batch = null;
+
+            lock.lock();
+            try {
+                long due = peekValidDueTime();
+                long now = System.currentTimeMillis();
+                if (due < 0) {
+                    wakeup.await();
+                } else if (due > now) {
+                    wakeup.await(due - now, TimeUnit.MILLISECONDS);
+                } else {
+                    batch = doReleaseDue(now);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                LOG.warn("Error releasing scheduled messages: {}", e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+
+            if (batch != null && !batch.isEmpty()) {
+                try {
+                    listener.onScheduledDelivery(batch);
+                } catch (RuntimeException e) {
+                    LOG.warn("Scheduled delivery listener failed: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private List<Message> doReleaseDue(long now) throws IOException {
+        List<Message> released = new ArrayList<Message>();
+        while (released.size() < maxBatchSize && !heap.isEmpty() && heap.peekTime() <= now) {
+            long due = heap.peekTime();
+            long reference = heap.peekReference();
+            heap.remove();
+
+            if (reference >= 0) {
+                releaseInMemory(reference, due, released);
+            } else {
+                overflowHeapEntries--;
+                releaseOverflow(reference, due, released);
+                if (overflowHeapEntries == 0 && overflow != null) {
+                    overflow.reset();
+                }
+            }
+        }
+
+        return released;
+    }
+
+    private void releaseInMemory(long reference, long due, List<Message> released) throws IOException {
+        Job job = lookup(reference);
+        if (job == null) {
+            return;
+        }
+
+        boolean recurring = job.cron != null || job.remaining > 0 || job.deliveries > 0;
+        released.add(createDelivery(job.message, job.jobId, recurring));
+        job.deliveries++;
+
+        if (job.cron != null) {
+            addToHeap(job.cron.getNextFireTime(due), reference);
+        } else if (job.remaining > 0) {
+            job.remaining--;
+            addToHeap(due + job.period, reference);
+        } else {
+            free(reference);
+        }
+    }
+
+    private void releaseOverflow(long reference, long due, List<Message> released) throws IOException {
+        long offset = overflowOffset(reference);
+        ScheduleOverflowFile.Record record = overflow.read(offset);
+        if (record == null || record.state != ScheduleOverflowFile.LIVE) {
+            return;
+        }
+
+        // Records written for a later run of a recurring job carry the original job id.
+        String jobId = getJobId(record);
+        boolean recurring = record.cron != null || record.remaining > 0 || !record.jobId.isEmpty();
+
+        Message message = (Message) overflowFormat.unmarshal(record.message);
+        released.add(createDelivery(message, jobId, recurring));
+
+        long nextDue = -1;
+        int remaining = record.remaining;
+        CronExpression cron = null;
+        if (record.cron != null) {
+            try {
+                cron = CronParser.compile(record.cron);
+            } catch (MessageFormatException e) {
+                throw new IOException(e);
+            }
+            nextDue = cron.getNextFireTime(due);
+        } else if (remaining > 0) {
+            remaining--;
+            nextDue = due + record.period;
+        }
+
+        if (nextDue < 0) {
+            overflow.setState(offset, ScheduleOverflowFile.RELEASED);
+            overflowCount--;
+            return;
+        }
+
+        // The next run keeps the original job id and the old record points at it.
+        long next;
+        if (inMemoryCount < maxInMemoryJobs) {
+            Job job = new Job(message, record.period, remaining, cron);
+            job.jobId = jobId;
+            job.deliveries = 1;
+            job.relocated = true;
+            next = allocate(job);
+            relocated.put(jobId, next);
+            overflowCount--;
+        } else {
+            next = overflowReference(overflow.append(jobId, record.period, remaining, record.cron, record.message));
+        }
+
+        overflow.setForwarded(offset, next);
+        addToHeap(nextDue, next);
+    }
+
+    private Message createDelivery(Message scheduled, String jobId, boolean recurring) throws IOException {
+        Message delivery = scheduled.copy();
+        try {
+            delivery.removeProperty(AMQ_SCHEDULED_DELAY);
+            delivery.removeProperty(AMQ_SCHEDULED_PERIOD);
+            delivery.removeProperty(AMQ_SCHEDULED_REPEAT);
+            delivery.removeProperty(AMQ_SCHEDULED_CRON);
+            delivery.setProperty(AMQ_SCHEDULED_ID, jobId);
+        } catch (JMSException e) {
+            throw new IOException(e);
+        }
+
+        if (recurring) {
+            delivery.setMessageId(new MessageId(producerId, messageSequence.incrementAndGet()));
+        }
+
+        return delivery;
+    }
+
+    private long peekValidDueTime() throws IOException {
+        while (!heap.isEmpty()) {
+            long reference = heap.peekReference();
+            if (reference >= 0 ? lookup(reference) != null : isLiveOverflow(reference)) {
+                return heap.peekTime();
+            }
+
+            // Drop entries for jobs that were cancelled.
+            heap.remove();
+            if (reference < 0 && --overflowHeapEntries == 0 && overflow != null) {
+                overflow.reset();
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isLiveOverflow(long reference) throws IOException {
+        return overflow != null && overflow.getState(overflowOffset(reference)) == ScheduleOverflowFile.LIVE;
+    }
+
+    private void addToHeap(long due, long reference) {
+        boolean earliest = heap.isEmpty() || due < heap.peekTime();
+        heap.add(due, reference);
+        if (reference < 0) {
+            overflowHeapEntries++;
+        }
+        if (earliest) {
+            wakeup.signal();
+        }
+    }
+
+    private boolean shouldOverflow() {
+        return overflowDirectory != null && inMemoryCount >= maxInMemoryJobs;
+    }
+
+    private ScheduleOverflowFile overflow() throws IOException {
+        if (overflow == null) {
+            if (!overflowDirectory.isDirectory() && !overflowDirectory.mkdirs()) {
+                throw new IOException("Cannot create scheduler overflow directory: " + overflowDirectory);
+            }
+
+            File file = new File(overflowDirectory, "scheduler-" + OVERFLOW_FILE_COUNT.incrementAndGet() + "-" + System.nanoTime() + ".overflow");
+            overflow = new ScheduleOverflowFile(file, overflowRegionSize);
+            overflowFormat = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION);
+            overflowFormat.setCacheEnabled(false);
+            overflowFormat.setTightEncodingEnabled(true);
+            overflowFormat.setSizePrefixDisabled(true);
+        }
+
+        return overflow;
+    }
+
+    private String getJobId(ScheduleOverflowFile.Record record) {
+        return record.jobId.isEmpty() ? toJobId(overflowReference(record.offset)) : record.jobId;
+    }
+
+    private long allocate(Job job) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (nextSlot == jobs.length) {
+                int capacity = jobs.length * 2;
+                jobs = Arrays.copyOf(jobs, capacity);
+                generations = Arrays.copyOf(generations, capacity);
+                freeSlots = Arrays.copyOf(freeSlots, capacity);
+            }
+            slot = nextSlot++;
+        }
+
+        jobs[slot] = job;
+        inMemoryCount++;
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    private Job lookup(long reference) {
+        int slot = (int) reference;
+        int generation = (int) (reference >>> 32);
+        if (slot < 0 || slot >= nextSlot || generations[slot] != generation) {
+            return null;
+        }
+        return jobs[slot];
+    }
+
+    private void free(long reference) {
+        int slot = (int) reference;
+        if (jobs[slot].relocated) {
+            relocated.remove(jobs[slot].jobId);
+        }
+        jobs[slot] = null;
+        generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+        freeSlots[freeCount++] = slot;
+        inMemoryCount--;
+    }
+
+    private static long overflowReference(long offset) {
+        return -(offset + 1);
+    }
+
+    private static long overflowOffset(long reference) {
+        return -reference - 1;
+    }
+
+    private String toJobId(long reference) {
+        return schedulerId + ":" + Long.toString(reference, 36);
+    }
+
+    private long fromJobId(String jobId) {
+        if (jobId == null || !jobId.startsWith(schedulerId) || jobId.length() <= schedulerId.length() + 1 ||
+            jobId.charAt(schedulerId.length()) != ':') {
+            return Long.MIN_VALUE;
+        }
+
+        try {
+            return Long.parseLong(jobId.substring(schedulerId.length() + 1), 36);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static String getCron(Message message) throws JMSException {
+        Object value = message.getProperty(AMQ_SCHEDULED_CRON);
+        return value != null ? value.toString().trim() : null;
+    }
+
+    private static long getLong(Message message, String name) throws JMSException {
+        Object value = message.getProperty(name);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw ExceptionSupport.createMessageFormatException(e);
+        }
+    }
+}
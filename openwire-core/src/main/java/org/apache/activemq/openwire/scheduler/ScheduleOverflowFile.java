@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.scheduler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+/**
+ * A memory mapped file that holds scheduled jobs that do not fit in memory.
+ * <p>
+ * Records are appended to fixed size mapped regions and never move.  Each record starts
+ * with a state byte so that a cancelled job, or a recurring job whose next run was written
+ * elsewhere, can be marked in place.  The space is reused once the scheduler no longer
+ * references any record in the file.  This is an overflow area and not a persistent store,
+ * the file is deleted when it is closed.
+ */
+final class ScheduleOverflowFile implements Closeable {
+
+    static final byte LIVE = 0;
+    static final byte CANCELLED = 1;
+    static final byte FORWARDED = 2;
+    static final byte RELEASED = 3;
+
+    // state byte, forward reference and payload length.
+    private static final int HEADER_SIZE = 1 + 8 + 4;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int regionSize;
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+    private long writePosition;
+
+    ScheduleOverflowFile(File file, int regionSize) throws IOException {
+        this.file = file;
+        this.regionSize = regionSize;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.raf.setLength(0);
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * A decoded overflow record.
+     */
+    static final class Record {
+
+        final long offset;
+        final byte state;
+        final long forward;
+        final String jobId;
+        final long period;
+        final int remaining;
+        final String cron;
+        final Buffer message;
+
+        private Record(long offset, byte state, long forward, String jobId, long period, int remaining, String cron, Buffer message) {
+            this.offset = offset;
+            this.state = state;
+            this.forward = forward;
+            this.jobId = jobId;
+            this.period = period;
+            this.remaining = remaining;
+            this.cron = cron;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Appends a job record.
+     *
+     * @return the offset of the new record.
+     *
+     * @throws IOException if the record cannot be written or does not fit in a region.
+     */
+    long append(String jobId, long period, int remaining, String cron, Buffer message) throws IOException {
+        DataByteArrayOutputStream payload = new DataByteArrayOutputStream(message.getLength() + 64);
+        payload.writeUTF(jobId);
+        payload.writeLong(period);
+        payload.writeInt(remaining);
+        payload.writeUTF(cron != null ? cron : "");
+        payload.writeInt(message.getLength());
+        payload.write(message.getData(), message.getOffset(), message.getLength());
+
+        Buffer encoded = payload.toBuffer();
+        int recordSize = HEADER_SIZE + encoded.getLength();
+        if (recordSize > regionSize) {
+            throw new IOException("Scheduled job of " + recordSize + " bytes does not fit in an overflow region of " + regionSize + " bytes");
+        }
+
+        long offset = writePosition;
+        if (offset % regionSize + recordSize > regionSize) {
+            offset = (offset / regionSize + 1) * regionSize;
+        }
+
+        ByteBuffer target = slice(offset);
+        target.put(LIVE);
+        target.putLong(0);
+        target.putInt(encoded.getLength());
+        target.put(encoded.getData(), encoded.getOffset(), encoded.getLength());
+
+        writePosition = offset + recordSize;
+        return offset;
+    }
+
+    /**
+     * @return the record at the given offset or null if no record could be there.
+     */
+    Record read(long offset) throws IOException {
+        if (offset < 0 || offset + HEADER_SIZE > writePosition) {
+            return null;
+        }
+
+        ByteBuffer source = slice(offset);
+        byte state = source.get();
+        long forward = source.getLong();
+        int length = source.getInt();
+        if (length < 0 || offset + HEADER_SIZE + length > writePosition) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        source.get(payload);
+
+        DataByteArrayInputStream in = new DataByteArrayInputStream(payload);
+        String jobId = in.readUTF();
+        long period = in.readLong();
+        int remaining = in.readInt();
+        String cron = in.readUTF();
+        int messageLength = in.readInt();
+        Buffer message = new Buffer(payload, in.getPos(), messageLength);
+
+        return new Record(offset, state, forward, jobId, period, remaining, cron.isEmpty() ? null : cron, message);
+    }
+
+    /**
+     * @return the state of the record at the given offset or -1 if no record could be there.
+     */
+    byte getState(long offset) throws IOException {
+        if (offset < 0 || offset + HEADER_SIZE > writePosition) {
+            return -1;
+        }
+
+        return slice(offset).get();
+    }
+
+    void setState(long offset, byte state) throws IOException {
+        slice(offset).put(state);
+    }
+
+    void setForwarded(long offset, long forward) throws IOException {
+        ByteBuffer target = slice(offset);
+        target.put(FORWARDED);
+        target.putLong(forward);
+    }
+
+    /**
+     * Makes the whole file available for new records, only valid once no live record remains.
+     */
+    void reset() {
+        writePosition = 0;
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        regions.clear();
+        try {
+            channel.close();
+            raf.close();
+        } finally {
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private ByteBuffer slice(long offset) throws IOException {
+        int index = (int) (offset / regionSize);
+        while (regions.size() <= index) {
+            regions.add(channel.map(MapMode.READ_WRITE, (long) regions.size() * regionSize, regionSize));
+        }
+
+        ByteBuffer region = regions.get(index).duplicate();
+        region.position((int) (offset % regionSize));
+        return region;
+    }
+}
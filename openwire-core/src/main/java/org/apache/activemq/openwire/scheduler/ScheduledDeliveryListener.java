@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.scheduler;
+
+import java.util.List;
+
+import org.apache.activemq.openwire.commands.Message;
+
+/**
+ * Receives the batches of messages released by a {@link MessageScheduler} when it is
+ * running its own delivery thread.
+ */
+public interface ScheduledDeliveryListener {
+
+    /**
+     * Called from the scheduler thread with messages that have become due, in due time
+     * order.  The scheduler does not hold its lock while calling the listener.
+     *
+     * @param messages
+     *        the released messages, the list is owned by the listener.
+     */
+    void onScheduledDelivery(List<Message> messages);
+
+}
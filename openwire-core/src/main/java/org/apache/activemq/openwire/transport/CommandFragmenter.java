@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.activemq.openwire.codec.BooleanStream;
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.LastPartialCommand;
+import org.apache.activemq.openwire.commands.PartialCommand;
+
+/**
+ * Splits a command into a series of bounded {@link PartialCommand} fragments as it is
+ * being encoded.
+ * <p>
+ * The encoded bytes are streamed into fragments of at most the configured size which are
+ * handed to a {@link FragmentSink} as soon as each one fills, so the whole command is never
+ * held in a single buffer and the sink is free to interleave other commands with the
+ * fragments.  Every fragment carries the commandId of the original command and the final
+ * fragment is a {@link LastPartialCommand}, a {@link CommandReassembler} on the receiving
+ * side rebuilds the command from them.
+ * <p>
+ * Fragments are encoded using a copy of the given wire format with marshal caching disabled
+ * so that the encoding does not depend on, or modify, the cache state of the connection.
+ */
+public class CommandFragmenter {
+
+    public static final int DEFAULT_FRAGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Receives the fragments of a command in order.
+     */
+    public interface FragmentSink {
+
+        void onFragment(PartialCommand fragment) throws IOException;
+
+    }
+
+    private final OpenWireFormat wireFormat;
+    private final int fragmentSize;
+
+    /**
+     * Creates a fragmenter that produces fragments of {@value #DEFAULT_FRAGMENT_SIZE} bytes.
+     *
+     * @param wireFormat
+     *        the negotiated wire format of the connection.
+     */
+    public CommandFragmenter(OpenWireFormat wireFormat) {
+        this(wireFormat, DEFAULT_FRAGMENT_SIZE);
+    }
+
+    /**
+     * Creates a fragmenter.
+     *
+     * @param wireFormat
+     *        the negotiated wire format of the connection.
+     * @param fragmentSize
+     *        the maximum number of encoded bytes carried by each fragment.
+     */
+    public CommandFragmenter(OpenWireFormat wireFormat, int fragmentSize) {
+        if (fragmentSize <= 0) {
+            throw new IllegalArgumentException("fragmentSize must be greater than zero: " + fragmentSize);
+        }
+
+        this.wireFormat = wireFormat.copy();
+        this.wireFormat.setCacheEnabled(false);
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Encodes the command into fragments which are passed to the sink as they fill.
+     *
+     * @param command
+     *        the command to encode, its commandId identifies the fragments.
+     * @param sink
+     *        the receiver of the fragments.
+     *
+     * @return the number of fragments produced.
+     *
+     * @throws IOException if an error occurs while encoding or from the sink.
+     */
+    public int fragment(Command command, FragmentSink sink) throws IOException {
+        FragmentOutputStream fragments = new FragmentOutputStream(command.getCommandId(), sink);
+        DataOutputStream dataOut = new DataOutputStream(fragments);
+
+        synchronized (wireFormat) {
+            if (wireFormat.isTightEncodingEnabled()) {
+                BooleanStream bs = new BooleanStream();
+                wireFormat.tightMarshal1(command, bs);
+                wireFormat.tightMarshal2(command, dataOut, bs);
+            } else {
+                wireFormat.looseMarshalNestedObject(command, dataOut);
+            }
+        }
+
+        dataOut.flush();
+        return fragments.finish();
+    }
+
+    /**
+     * @return the maximum number of encoded bytes carried by each fragment.
+     */
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /*
+     * Buffers one fragment at a time, a full buffer is only emitted once more data arrives
+     * so the final bytes always travel in the LastPartialCommand.
+     */
+    private final class FragmentOutputStream extends OutputStream {
+
+        private final int commandId;
+        private final FragmentSink sink;
+
+        private byte[] buffer = new byte[fragmentSize];
+        private int position;
+        private int count;
+
+        public FragmentOutputStream(int commandId, FragmentSink sink) {
+            this.commandId = commandId;
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == buffer.length) {
+                emit();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (position == buffer.length) {
+                    emit();
+                }
+
+                int chunk = Math.min(length, buffer.length - position);
+                System.arraycopy(data, offset, buffer, position, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        public int finish() throws IOException {
+            LastPartialCommand last = new LastPartialCommand();
+            last.setCommandId(commandId);
+            last.setData(position == buffer.length ? buffer : Arrays.copyOf(buffer, position));
+            buffer = null;
+            sink.onFragment(last);
+            return ++count;
+        }
+
+        private void emit() throws IOException {
+            PartialCommand partial = new PartialCommand();
+            partial.setCommandId(commandId);
+            partial.setData(buffer);
+            buffer = new byte[fragmentSize];
+            position = 0;
+            count++;
+            sink.onFragment(partial);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.LastPartialCommand;
+import org.apache.activemq.openwire.commands.PartialCommand;
+
+/**
+ * Rebuilds commands from the {@link PartialCommand} fragments produced by a
+ * {@link CommandFragmenter}.
+ * <p>
+ * Fragments are grouped by commandId so the fragments of several commands may be
+ * interleaved with each other and with ordinary commands.  The fragment buffers are kept
+ * as received and decoded in place once the {@link LastPartialCommand} arrives, no single
+ * buffer holding the whole encoded command is ever allocated.  The total number of bytes
+ * buffered for incomplete commands is bounded by a per connection budget, a fragment that
+ * would exceed it causes the command it belongs to be discarded and an IOException thrown.
+ */
+public class CommandReassembler {
+
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 256 * 1024 * 1024;
+
+    private final OpenWireFormat wireFormat;
+    private final long maxBufferedBytes;
+    private final Map<Integer, PendingCommand> pending = new HashMap<Integer, PendingCommand>();
+
+    private long bufferedBytes;
+
+    /**
+     * Creates a reassembler with a budget of {@value #DEFAULT_MAX_BUFFERED_BYTES} bytes.
+     *
+     * @param wireFormat
+     *        the negotiated wire format of the connection.
+     */
+    public CommandReassembler(OpenWireFormat wireFormat) {
+        this(wireFormat, DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    /**
+     * Creates a reassembler.
+     *
+     * @param wireFormat
+     *        the negotiated wire format of the connection.
+     * @param maxBufferedBytes
+     *        the maximum number of bytes buffered for incomplete commands.
+     */
+    public CommandReassembler(OpenWireFormat wireFormat, long maxBufferedBytes) {
+        this.wireFormat = wireFormat.copy();
+        this.wireFormat.setCacheEnabled(false);
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Adds a fragment to the command it belongs to.
+     *
+     * @param fragment
+     *        the fragment read from the connection.
+     *
+     * @return the rebuilt command if the fragment completed it, otherwise null.
+     *
+     * @throws IOException if the memory budget is exceeded or the command cannot be decoded.
+     */
+    public synchronized Object onPartialCommand(PartialCommand fragment) throws IOException {
+        Integer commandId = fragment.getCommandId();
+        byte[] data = fragment.getData();
+        int length = data != null ? data.length : 0;
+
+        PendingCommand command = pending.get(commandId);
+        if (command == null) {
+            command = new PendingCommand();
+            pending.put(commandId, command);
+        }
+
+        if (bufferedBytes + length > maxBufferedBytes) {
+            discard(fragment.getCommandId());
+            throw new IOException("Reassembly of command " + commandId + " exceeds the buffer limit of " + maxBufferedBytes + " bytes");
+        }
+
+        if (length > 0) {
+            command.fragments.add(data);
+            command.size += length;
+            bufferedBytes += length;
+        }
+
+        if (!(fragment instanceof LastPartialCommand)) {
+            return null;
+        }
+
+        pending.remove(commandId);
+        bufferedBytes -= command.size;
+
+        DataInputStream dataIn = new DataInputStream(new FragmentInputStream(command.fragments));
+        synchronized (wireFormat) {
+            if (wireFormat.isTightEncodingEnabled()) {
+                return wireFormat.doUnmarshal(dataIn);
+            } else {
+                return wireFormat.looseUnmarshalNestedObject(dataIn);
+            }
+        }
+    }
+
+    /**
+     * Drops the fragments buffered for a command.
+     *
+     * @param commandId
+     *        the commandId of the incomplete command.
+     *
+     * @return true if fragments were discarded.
+     */
+    public synchronized boolean discard(int commandId) {
+        PendingCommand command = pending.remove(commandId);
+        if (command != null) {
+            bufferedBytes -= command.size;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops all buffered fragments, typically when the connection is closed.
+     */
+    public synchronized void clear() {
+        pending.clear();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * @return the number of commands with fragments waiting for the last fragment.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of bytes buffered for incomplete commands.
+     */
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return the maximum number of bytes buffered for incomplete commands.
+     */
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    private static final class PendingCommand {
+
+        private final List<byte[]> fragments = new ArrayList<byte[]>();
+        private long size;
+
+    }
+
+    private static final class FragmentInputStream extends InputStream {
+
+        private final List<byte[]> fragments;
+        private int index;
+        private int position;
+
+        public FragmentInputStream(List<byte[]> fragments) {
+            this.fragments = fragments;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] current = current();
+            if (current == null) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            byte[] current = current();
+            if (current == null) {
+                return -1;
+            }
+
+            int chunk = Math.min(length, current.length - position);
+            System.arraycopy(current, position, data, offset, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        @Override
+        public int available() throws IOException {
+            byte[] current = current();
+            return current == null ? 0 : current.length - position;
+        }
+
+        private byte[] current() {
+            while (index < fragments.size()) {
+                byte[] current = fragments.get(index);
+                if (position < current.length) {
+                    return current;
+                }
+
+                // Release each fragment once consumed so it can be collected during decoding.
+                fragments.set(index++, null);
+                position = 0;
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One end of a pair of transports that exchange commands within a single JVM.
+ * <p>
+ * In {@link Mode#ENCODED} mode each command is marshalled with the sending end's
+ * OpenWireFormat and unmarshalled by the receiving end's, exactly as it would be on a socket,
+ * while {@link Mode#REFERENCE} mode hands over the command objects themselves so that the
+ * codec is bypassed.  Comparing the two, and either against a socket transport, separates
+ * the cost of the codec, of the hand off between threads and of the network.
+ * <p>
+ * Commands are sent in batches of the configured batch size, with a batch size greater than
+ * one commands are held by the sender until the batch fills or {@link #flush()} is called.  In
+ * ENCODED mode a batch is a single buffer holding the marshalled commands back to back.  With
+ * a queue capacity greater than zero batches are queued for a thread of the receiving end
+ * that delivers them to its listener, a full queue blocks the sender.  With a queue capacity
+ * of zero batches are delivered on a sending thread, one sender at a time, a sender that
+ * finds another delivering leaves its batch for that sender to deliver.  Either way batches
+ * are delivered in the order they were sent and never concurrently, as the receiving
+ * OpenWireFormat requires in ENCODED mode.
+ */
+public class InVMTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InVMTransport.class);
+
+    /**
+     * How commands are passed between the two ends.
+     */
+    public enum Mode {
+
+        /**
+         * Commands are marshalled by the sender and unmarshalled by the receiver.
+         */
+        ENCODED,
+
+        /**
+         * Command objects are handed to the receiver as they were sent.
+         */
+        REFERENCE
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final String name;
+    private final OpenWireFormat wireFormat;
+    private final Mode mode;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicLong commandsSent = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private InVMTransport peer;
+    private TransportListener transportListener;
+    private int batchSize = 1;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    // Batch being filled by senders, guarded by this.
+    private final DataByteArrayOutputStream encoded = new DataByteArrayOutputStream(8192);
+    private List<Object> references = new ArrayList<Object>();
+    private int batched;
+
+    private BlockingQueue<Object> inbound;
+    private Thread receiver;
+
+    // Batches awaiting delivery when there is no receiving thread, guarded by itself.
+    private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+    private boolean delivering;
+
+    /**
+     * Creates one end of a transport pair, use {@link #createPair(Mode, OpenWireFormat, OpenWireFormat)}
+     * to create connected ends.
+     *
+     * @param name
+     *        a name for this end used in thread names and logging.
+     * @param wireFormat
+     *        the OpenWireFormat that marshals the commands sent and unmarshals those received.
+     * @param mode
+     *        how commands are passed to the peer.
+     */
+    public InVMTransport(String name, OpenWireFormat wireFormat, Mode mode) {
+        this.name = name;
+        this.wireFormat = wireFormat;
+        this.mode = mode;
+    }
+
+    /**
+     * Creates two connected transport ends.
+     *
+     * @param mode
+     *        how commands are passed between the ends.
+     * @param localFormat
+     *        the OpenWireFormat of the first end.
+     * @param remoteFormat
+     *        the OpenWireFormat of the second end.
+     *
+     * @return the two ends, the first is the local end and the second the remote end.
+     */
+    public static InVMTransport[] createPair(Mode mode, OpenWireFormat localFormat, OpenWireFormat remoteFormat) {
+        InVMTransport local = new InVMTransport("local", localFormat, mode);
+        InVMTransport remote = new InVMTransport("remote", remoteFormat, mode);
+        local.peer = remote;
+        remote.peer = local;
+        return new InVMTransport[] { local, remote };
+    }
+
+    /**
+     * Starts delivering received commands to the listener.
+     */
+    public void start() {
+        if (peer == null) {
+            throw new IllegalStateException("Transport " + name + " is not connected to a peer");
+        }
+
+        if (started.compareAndSet(false, true)) {
+            if (queueCapacity > 0) {
+                inbound = new ArrayBlockingQueue<Object>(queueCapacity);
+                receiver = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        receiveLoop();
+                    }
+                }, "OpenWire InVM Transport: " + name);
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+        }
+    }
+
+    /**
+     * Stops this end, batches still queued for it are discarded.
+     *
+     * @throws InterruptedException if interrupted while waiting for the receiving thread.
+     */
+    public void stop() throws InterruptedException {
+        if (stopped.compareAndSet(false, true)) {
+            Thread thread = receiver;
+            if (thread != null) {
+                thread.interrupt();
+                if (thread != Thread.currentThread()) {
+                    thread.join();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a command to the peer, the command may be held until the batch is full.
+     *
+     * @param command
+     *        the command to send.
+     *
+     * @throws IOException if the command cannot be marshalled or the transport is stopped.
+     */
+    public void oneway(Object command) throws IOException {
+        Object batch = null;
+        synchronized (this) {
+            checkStarted();
+            if (mode == Mode.ENCODED) {
+                int start = encoded.position();
+                wireFormat.marshal(command, encoded);
+                bytesSent.addAndGet(encoded.position() - start);
+            } else {
+                references.add(command);
+            }
+            commandsSent.incrementAndGet();
+
+            if (++batched >= batchSize) {
+                batch = takeBatch();
+                peer.enqueue(batch);
+            }
+        }
+
+        if (batch != null) {
+            peer.deliverPending();
+        }
+    }
+
+    /**
+     * Sends any commands held in a partially filled batch.
+     *
+     * @throws IOException if the transport is stopped.
+     */
+    public void flush() throws IOException {
+        Object batch;
+        synchronized (this) {
+            checkStarted();
+            batch = batched > 0 ? takeBatch() : null;
+            if (batch != null) {
+                peer.enqueue(batch);
+            }
+        }
+
+        if (batch != null) {
+            peer.deliverPending();
+        }
+    }
+
+    public InVMTransport getPeer() {
+        return peer;
+    }
+
+    public OpenWireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public TransportListener getTransportListener() {
+        return transportListener;
+    }
+
+    public void setTransportListener(TransportListener transportListener) {
+        this.transportListener = transportListener;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *        the number of commands sent together, 1 sends each command as it is written.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity
+     *        the number of batches queued for the receiving thread, zero delivers batches on
+     *        the sending thread.  Must be set before the transport is started.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(0, queueCapacity);
+    }
+
+    /**
+     * @return the number of commands sent to the peer, including those held in a batch.
+     */
+    public long getCommandsSent() {
+        return commandsSent.get();
+    }
+
+    /**
+     * @return the number of commands delivered to this end's listener.
+     */
+    public long getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    /**
+     * @return the number of encoded bytes sent, always zero in REFERENCE mode.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public boolean isStarted() {
+        return started.get() && !stopped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "InVMTransport { " + name + ", " + mode + " }";
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void checkStarted() throws IOException {
+        if (!started.get() || stopped.get()) {
+            throw new IOException("Transport " + name + " is not started");
+        }
+    }
+
+    private Object takeBatch() {
+        batched = 0;
+        if (mode == Mode.ENCODED) {
+            Buffer batch = encoded.toBuffer().deepCopy();
+            encoded.reset();
+            return batch;
+        } else {
+            List<Object> batch = references;
+            references = new ArrayList<Object>(Math.min(batchSize, 1024));
+            return batch;
+        }
+    }
+
+    /*
+     * Called by the peer while it holds its own lock so that batches are queued in the order
+     * they were taken.
+     */
+    private void enqueue(Object batch) throws IOException {
+        if (stopped.get()) {
+            throw new IOException("Transport " + name + " is stopped");
+        }
+
+        BlockingQueue<Object> queue = inbound;
+        if (queue == null) {
+            if (!started.get()) {
+                throw new IOException("Transport " + name + " is not started");
+            }
+            synchronized (pending) {
+                pending.add(batch);
+            }
+            return;
+        }
+
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing for " + name);
+        }
+    }
+
+    /*
+     * Called by the peer after queueing a batch, delivers the pending batches on the calling
+     * thread unless a receiving thread or another sender is already delivering them.
+     */
+    private void deliverPending() throws IOException {
+        if (inbound != null) {
+            return;
+        }
+
+        while (true) {
+            Object batch;
+            synchronized (pending) {
+                if (delivering || pending.isEmpty()) {
+                    return;
+                }
+                delivering = true;
+                batch = pending.poll();
+            }
+
+            try {
+                dispatch(batch);
+            } finally {
+                synchronized (pending) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        List<Object> batches = new ArrayList<Object>();
+        try {
+            while (!stopped.get()) {
+                batches.add(inbound.take());
+                inbound.drainTo(batches);
+                for (Object batch : batches) {
+                    dispatch(batch);
+                }
+                batches.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.trace("Receiver for {} stopped", this);
+        } catch (IOException e) {
+            onException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Object batch) throws IOException {
+        TransportListener listener = transportListener;
+        if (batch instanceof Buffer) {
+            DataByteArrayInputStream in = new DataByteArrayInputStream((Buffer) batch);
+            while (in.available() > 0) {
+                Object command = wireFormat.unmarshal(in);
+                commandsReceived.incrementAndGet();
+                if (listener != null) {
+                    listener.onCommand(command);
+                }
+            }
+        } else {
+            for (Object command : (List<Object>) batch) {
+                commandsReceived.incrementAndGet();
+                if (listener != null) {
+                    listener.onCommand(command);
+                }
+            }
+        }
+    }
+
+    private void onException(IOException error) {
+        TransportListener listener = transportListener;
+        if (listener != null) {
+            try {
+                listener.onException(error);
+            } catch (RuntimeException e) {
+                LOG.debug("Unexpected runtime exception from listener: {}", e.getMessage(), e);
+            }
+        } else {
+            LOG.warn("Transport {} failed: {}", this, error.getMessage());
+        }
+    }
+}
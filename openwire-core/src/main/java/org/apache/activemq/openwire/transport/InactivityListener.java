@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+
+/**
+ * Receives the events generated by an {@link InactivityMonitor} for a monitored connection.
+ * <p>
+ * Events are delivered from the monitor's timer thread so implementations must not block,
+ * any work that could block should be handed off to another thread.
+ */
+public interface InactivityListener {
+
+    /**
+     * Called when nothing has been written to the connection during the last write check
+     * period, the listener should send the given KeepAliveInfo to the remote peer.
+     *
+     * @param keepAlive
+     *        the KeepAliveInfo command that should be written to the connection.
+     */
+    void onKeepAliveRequired(KeepAliveInfo keepAlive);
+
+    /**
+     * Called when nothing has been read from the connection during the last read check
+     * period, the connection should be considered dead and closed.  The connection is no
+     * longer monitored once this event has fired.
+     *
+     * @param error
+     *        an exception that describes the inactivity timeout.
+     */
+    void onInactivityTimeout(InactivityIOException error);
+
+}
@@ -0,0 +1,432 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors any number of connections for read and write inactivity using a single
+ * hashed timer wheel serviced by one thread.
+ * <p>
+ * Each monitored connection is represented by a {@link Registration} whose
+ * {@link Registration#onRead()} and {@link Registration#onWrite()} methods should be
+ * called from the connection's read and write paths.  These methods only set a flag
+ * so they are cheap enough to call for every command.  On each write check period a
+ * connection that has not written anything is asked to send a {@link KeepAliveInfo},
+ * on each read check period a connection that has not read anything is timed out.
+ * <p>
+ * The read check period is the negotiated maximum inactivity duration and the write
+ * check period is one third of that, matching the behaviour of the ActiveMQ broker.
+ */
+public class InactivityMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InactivityMonitor.class);
+
+    public static final long DEFAULT_TICK_DURATION = 100;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private final long tickDuration;
+    private final Registration[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+
+    private final Queue<Registration> pendingAdds = new ConcurrentLinkedQueue<Registration>();
+    private final Queue<Registration> pendingCancels = new ConcurrentLinkedQueue<Registration>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicInteger registrationCount = new AtomicInteger();
+
+    private volatile boolean stopped;
+    private Thread workerThread;
+
+    // Only accessed from the worker thread.
+    private long tick;
+
+    /**
+     * Creates a monitor using the default tick duration of {@value #DEFAULT_TICK_DURATION}
+     * milliseconds and a wheel of {@value #DEFAULT_TICKS_PER_WHEEL} buckets.
+     */
+    public InactivityMonitor() {
+        this(DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * Creates a new monitor.
+     *
+     * @param tickDuration
+     *        the resolution of the timer wheel.
+     * @param unit
+     *        the time unit of the tick duration.
+     * @param ticksPerWheel
+     *        the number of buckets in the wheel, rounded up to a power of two.
+     */
+    public InactivityMonitor(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than zero: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+        }
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new Registration[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Starts the timer thread, registrations made before this call are scheduled once
+     * the thread starts running.
+     */
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            workerThread = new Thread(new Worker(), "OpenWire Inactivity Monitor");
+            workerThread.setDaemon(true);
+            workerThread.start();
+        }
+    }
+
+    /**
+     * Stops the timer thread, no further events are delivered once this method returns.
+     *
+     * @throws InterruptedException if interrupted while waiting for the timer thread to exit.
+     */
+    public void stop() throws InterruptedException {
+        stopped = true;
+        if (workerThread != null && Thread.currentThread() != workerThread) {
+            workerThread.interrupt();
+            workerThread.join();
+        }
+    }
+
+    /**
+     * Registers a connection using the inactivity settings negotiated between the local
+     * and remote WireFormatInfo.  If either side has disabled inactivity monitoring the
+     * returned registration is not monitored.
+     *
+     * @param local
+     *        the WireFormatInfo sent to the remote peer.
+     * @param remote
+     *        the WireFormatInfo received from the remote peer.
+     * @param listener
+     *        the listener that receives the keep alive and timeout events.
+     *
+     * @return the registration used to report activity on the connection.
+     *
+     * @throws IOException if an error occurs while reading the WireFormatInfo properties.
+     */
+    public Registration register(WireFormatInfo local, WireFormatInfo remote, InactivityListener listener) throws IOException {
+        long maxInactivityDuration = Math.min(local.getMaxInactivityDuration(), remote.getMaxInactivityDuration());
+        long initialDelay = Math.min(local.getMaxInactivityDurationInitalDelay(), remote.getMaxInactivityDurationInitalDelay());
+
+        return register(maxInactivityDuration, initialDelay, listener);
+    }
+
+    /**
+     * Registers a connection with the given inactivity settings.
+     *
+     * @param maxInactivityDuration
+     *        the time in milliseconds after which a connection with no reads is timed out,
+     *        a value of zero or less disables monitoring.
+     * @param initialDelay
+     *        the time in milliseconds before the first check is performed.
+     * @param listener
+     *        the listener that receives the keep alive and timeout events.
+     *
+     * @return the registration used to report activity on the connection.
+     */
+    public Registration register(long maxInactivityDuration, long initialDelay, InactivityListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("InactivityListener cannot be null");
+        }
+        if (stopped) {
+            throw new IllegalStateException("The InactivityMonitor has been stopped");
+        }
+
+        Registration registration = new Registration(listener, maxInactivityDuration, initialDelay);
+        if (registration.isMonitored()) {
+            long now = System.nanoTime() - startTime;
+            if (registration.initialDelay > 0) {
+                registration.nextWriteCheck = now + registration.initialDelay;
+                registration.nextReadCheck = now + registration.initialDelay;
+            } else {
+                registration.nextWriteCheck = now + registration.writeCheckTime;
+                registration.nextReadCheck = now + registration.readCheckTime;
+            }
+
+            registrationCount.incrementAndGet();
+            pendingAdds.add(registration);
+        }
+
+        return registration;
+    }
+
+    /**
+     * @return the number of connections currently being monitored.
+     */
+    public int getRegistrationCount() {
+        return registrationCount.get();
+    }
+
+    /*
+     * Places the registration in the bucket for its next check, fromTick is the first tick
+     * whose bucket has not yet been processed.
+     */
+    private void schedule(Registration registration, long fromTick) {
+        long deadline = Math.min(registration.nextReadCheck, registration.nextWriteCheck);
+        long ticks = Math.max(deadline / tickDuration, fromTick);
+
+        registration.rounds = (ticks - fromTick) / wheel.length;
+
+        int index = (int) (ticks & mask);
+        Registration head = wheel[index];
+        registration.bucket = index;
+        registration.prev = null;
+        registration.next = head;
+        if (head != null) {
+            head.prev = registration;
+        }
+        wheel[index] = registration;
+    }
+
+    private void unschedule(Registration registration) {
+        if (registration.bucket >= 0) {
+            unlink(registration.bucket, registration);
+            registrationCount.decrementAndGet();
+        }
+    }
+
+    private void processPending() {
+        Registration registration;
+        while ((registration = pendingCancels.poll()) != null) {
+            unschedule(registration);
+        }
+
+        while ((registration = pendingAdds.poll()) != null) {
+            if (!registration.cancelled) {
+                schedule(registration, tick);
+            } else {
+                registrationCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void expireBucket(int index) {
+        long now = System.nanoTime() - startTime;
+
+        Registration registration = wheel[index];
+        while (registration != null) {
+            Registration next = registration.next;
+            if (registration.rounds > 0) {
+                registration.rounds--;
+            } else {
+                unlink(index, registration);
+                if (!registration.cancelled && check(registration, now)) {
+                    schedule(registration, tick + 1);
+                } else {
+                    registrationCount.decrementAndGet();
+                }
+            }
+            registration = next;
+        }
+    }
+
+    private void unlink(int index, Registration registration) {
+        if (registration.prev != null) {
+            registration.prev.next = registration.next;
+        } else {
+            wheel[index] = registration.next;
+        }
+        if (registration.next != null) {
+            registration.next.prev = registration.prev;
+        }
+
+        registration.prev = null;
+        registration.next = null;
+        registration.bucket = -1;
+    }
+
+    /*
+     * Runs the read and write checks that are due, returns false if the connection timed out.
+     */
+    private boolean check(Registration registration, long now) {
+        if (now >= registration.nextWriteCheck) {
+            if (registration.writeActivity) {
+                registration.writeActivity = false;
+            } else {
+                try {
+                    registration.listener.onKeepAliveRequired(new KeepAliveInfo());
+                } catch (Throwable error) {
+                    LOG.warn("InactivityListener failed to handle keep alive request", error);
+                }
+            }
+            registration.nextWriteCheck = now + registration.writeCheckTime;
+        }
+
+        if (now >= registration.nextReadCheck) {
+            if (registration.readActivity) {
+                registration.readActivity = false;
+            } else {
+                registration.timedOut = true;
+                try {
+                    registration.listener.onInactivityTimeout(new InactivityIOException(
+                        "Channel was inactive for too (>" + TimeUnit.NANOSECONDS.toMillis(registration.readCheckTime) + ") long"));
+                } catch (Throwable error) {
+                    LOG.warn("InactivityListener failed to handle inactivity timeout", error);
+                }
+                return false;
+            }
+            registration.nextReadCheck = now + registration.readCheckTime;
+        }
+
+        return true;
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long deadline = startTime + tickDuration * (tick + 1);
+                long sleepTime = deadline - System.nanoTime();
+                if (sleepTime > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleepTime);
+                    } catch (InterruptedException e) {
+                        if (stopped) {
+                            break;
+                        }
+                        continue;
+                    }
+                }
+
+                processPending();
+                expireBucket((int) (tick & mask));
+                tick++;
+            }
+
+            LOG.trace("InactivityMonitor timer thread exiting");
+        }
+    }
+
+    /**
+     * The handle for a connection registered with the monitor.
+     */
+    public final class Registration {
+
+        private final InactivityListener listener;
+        private final long readCheckTime;
+        private final long writeCheckTime;
+        private final long initialDelay;
+
+        private volatile boolean readActivity;
+        private volatile boolean writeActivity;
+        private volatile boolean cancelled;
+        private volatile boolean timedOut;
+
+        // Only accessed from the worker thread once scheduled.
+        private long nextReadCheck;
+        private long nextWriteCheck;
+        private long rounds;
+        private int bucket = -1;
+        private Registration prev;
+        private Registration next;
+
+        private Registration(InactivityListener listener, long maxInactivityDuration, long initialDelay) {
+            this.listener = listener;
+            if (maxInactivityDuration > 0) {
+                this.readCheckTime = TimeUnit.MILLISECONDS.toNanos(maxInactivityDuration);
+                this.writeCheckTime = maxInactivityDuration > 3 ? readCheckTime / 3 : readCheckTime;
+                this.initialDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, initialDelay));
+            } else {
+                this.readCheckTime = 0;
+                this.writeCheckTime = 0;
+                this.initialDelay = 0;
+            }
+        }
+
+        /**
+         * Records that a command was read from the connection.
+         */
+        public void onRead() {
+            if (!readActivity) {
+                readActivity = true;
+            }
+        }
+
+        /**
+         * Records that a command was written to the connection.
+         */
+        public void onWrite() {
+            if (!writeActivity) {
+                writeActivity = true;
+            }
+        }
+
+        /**
+         * Stops monitoring the connection, no further events are delivered for it once the
+         * timer thread has processed the cancellation.
+         */
+        public void cancel() {
+            if (!cancelled && isMonitored()) {
+                cancelled = true;
+                pendingCancels.add(this);
+            }
+        }
+
+        /**
+         * @return true if this connection is monitored, false if monitoring was disabled.
+         */
+        public boolean isMonitored() {
+            return readCheckTime > 0;
+        }
+
+        /**
+         * @return true if this connection was timed out due to inactivity.
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the read check period in milliseconds.
+         */
+        public long getReadCheckTime() {
+            return TimeUnit.NANOSECONDS.toMillis(readCheckTime);
+        }
+
+        /**
+         * @return the write check period in milliseconds.
+         */
+        public long getWriteCheckTime() {
+            return TimeUnit.NANOSECONDS.toMillis(writeCheckTime);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.DataResponse;
+import org.apache.activemq.openwire.commands.DataStructure;
+import org.apache.activemq.openwire.commands.ExceptionResponse;
+import org.apache.activemq.openwire.commands.IntegerResponse;
+import org.apache.activemq.openwire.commands.Response;
+
+/**
+ * Correlates Response commands with the requests that solicited them.
+ * <p>
+ * A request is registered by calling {@link #request(Command)} before it is written to the
+ * connection, this assigns the next commandId, marks the command as requiring a response
+ * and returns a CompletableFuture that is completed when {@link #onResponse(Response)} is
+ * called with a Response whose correlationId matches.  An ExceptionResponse completes the
+ * future exceptionally with the remote exception.  No thread is blocked waiting on a
+ * response so any number of requests can be pipelined on a single connection.
+ * <p>
+ * Outstanding requests are held in striped open addressing tables keyed by the primitive
+ * commandId.  Requests registered with a timeout are failed with a {@link TimeoutException}
+ * by {@link #expire()} which should be called periodically, for instance from a timer.
+ */
+public class ResponseCorrelator {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    private final AtomicInteger commandIdGenerator = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final RequestTable[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Creates a new correlator using {@value #DEFAULT_STRIPES} lock stripes.
+     */
+    public ResponseCorrelator() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new correlator.
+     *
+     * @param stripes
+     *        the number of independently locked tables, rounded up to a power of two.
+     */
+    public ResponseCorrelator(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be greater than zero: " + stripes);
+        }
+
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+
+        this.stripes = new RequestTable[size];
+        for (int i = 0; i < size; ++i) {
+            this.stripes[i] = new RequestTable(INITIAL_STRIPE_CAPACITY);
+        }
+        this.stripeMask = size - 1;
+    }
+
+    /**
+     * @return the next command Id, command Ids are always greater than zero.
+     */
+    public int nextCommandId() {
+        int commandId;
+        do {
+            commandId = commandIdGenerator.incrementAndGet() & Integer.MAX_VALUE;
+        } while (commandId == 0);
+
+        return commandId;
+    }
+
+    /**
+     * Registers a request that never times out.
+     *
+     * @param command
+     *        the command to send, it is assigned a new commandId and marked as requiring a response.
+     *
+     * @return a future completed when the matching response arrives.
+     */
+    public CompletableFuture<Response> request(Command command) {
+        return register(command, 0);
+    }
+
+    /**
+     * Registers a request that is failed by {@link #expire()} once the timeout elapses.
+     *
+     * @param command
+     *        the command to send, it is assigned a new commandId and marked as requiring a response.
+     * @param timeout
+     *        the time to wait for a response, zero or less waits forever.
+     * @param unit
+     *        the unit of the timeout value.
+     *
+     * @return a future completed when the matching response arrives.
+     */
+    public CompletableFuture<Response> request(Command command, long timeout, TimeUnit unit) {
+        long deadline = 0;
+        if (timeout > 0) {
+            deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (deadline == 0) {
+                deadline = 1;
+            }
+        }
+
+        return register(command, deadline);
+    }
+
+    /**
+     * Registers a request whose answer is a {@link DataResponse}.
+     *
+     * @see #request(Command, long, TimeUnit)
+     */
+    public CompletableFuture<DataStructure> requestData(Command command, long timeout, TimeUnit unit) {
+        return request(command, timeout, unit).thenApply(response -> {
+            if (response instanceof DataResponse) {
+                return ((DataResponse) response).getData();
+            }
+            throw new IllegalStateException("Expected a DataResponse but received: " + response);
+        });
+    }
+
+    /**
+     * Registers a request whose answer is an {@link IntegerResponse}.
+     *
+     * @see #request(Command, long, TimeUnit)
+     */
+    public CompletableFuture<Integer> requestInteger(Command command, long timeout, TimeUnit unit) {
+        return request(command, timeout, unit).thenApply(response -> {
+            if (response instanceof IntegerResponse) {
+                return ((IntegerResponse) response).getResult();
+            }
+            throw new IllegalStateException("Expected an IntegerResponse but received: " + response);
+        });
+    }
+
+    /**
+     * Completes the request that the given response answers.
+     *
+     * @param response
+     *        the response read from the connection.
+     *
+     * @return true if an outstanding request was completed.
+     */
+    public boolean onResponse(Response response) {
+        int correlationId = response.getCorrelationId();
+        RequestTable table = stripes[correlationId & stripeMask];
+
+        CompletableFuture<Response> future;
+        synchronized (table) {
+            future = table.remove(correlationId);
+        }
+
+        if (future == null) {
+            return false;
+        }
+
+        outstanding.decrementAndGet();
+        if (response.isException()) {
+            future.completeExceptionally(((ExceptionResponse) response).getException());
+        } else {
+            future.complete(response);
+        }
+
+        return true;
+    }
+
+    /**
+     * Abandons an outstanding request, typically because sending it failed.
+     *
+     * @param commandId
+     *        the commandId assigned to the request.
+     * @param cause
+     *        the error used to complete the request's future.
+     *
+     * @return true if an outstanding request was removed.
+     */
+    public boolean fail(int commandId, Throwable cause) {
+        RequestTable table = stripes[commandId & stripeMask];
+
+        CompletableFuture<Response> future;
+        synchronized (table) {
+            future = table.remove(commandId);
+        }
+
+        if (future == null) {
+            return false;
+        }
+
+        outstanding.decrementAndGet();
+        future.completeExceptionally(cause);
+        return true;
+    }
+
+    /**
+     * Fails every request whose timeout has elapsed with a {@link TimeoutException}.
+     *
+     * @return the number of requests that were expired.
+     */
+    public int expire() {
+        return expire(System.nanoTime());
+    }
+
+    int expire(long now) {
+        List<CompletableFuture<Response>> expired = new ArrayList<>();
+        for (RequestTable table : stripes) {
+            synchronized (table) {
+                table.removeExpired(now, expired);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            outstanding.addAndGet(-expired.size());
+            for (CompletableFuture<Response> future : expired) {
+                future.completeExceptionally(new TimeoutException("Timed out waiting for response"));
+            }
+        }
+
+        return expired.size();
+    }
+
+    /**
+     * Fails every outstanding request, typically because the connection was lost.
+     *
+     * @param cause
+     *        the error used to complete the outstanding futures.
+     *
+     * @return the number of requests that were failed.
+     */
+    public int failAll(IOException cause) {
+        List<CompletableFuture<Response>> failed = new ArrayList<>();
+        for (RequestTable table : stripes) {
+            synchronized (table) {
+                table.removeAll(failed);
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            outstanding.addAndGet(-failed.size());
+            for (CompletableFuture<Response> future : failed) {
+                future.completeExceptionally(cause);
+            }
+        }
+
+        return failed.size();
+    }
+
+    /**
+     * @return the number of requests awaiting a response.
+     */
+    public int getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    private CompletableFuture<Response> register(Command command, long deadline) {
+        int commandId = nextCommandId();
+        command.setCommandId(commandId);
+        command.setResponseRequired(true);
+
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        RequestTable table = stripes[commandId & stripeMask];
+        synchronized (table) {
+            table.put(commandId, future, deadline);
+        }
+        outstanding.incrementAndGet();
+
+        return future;
+    }
+
+    /*
+     * Open addressing hash table with linear probing keyed by commandId, removal uses
+     * backward shift deletion so the table never accumulates tombstones.
+     */
+    private static final class RequestTable {
+
+        private int[] keys;
+        private long[] deadlines;
+        private Object[] values;
+        private int size;
+        private int mask;
+
+        public RequestTable(int capacity) {
+            allocate(capacity);
+        }
+
+        public void put(int key, CompletableFuture<Response> future, long deadline) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+
+            int index = indexFor(key);
+            while (values[index] != null) {
+                if (keys[index] == key) {
+                    throw new IllegalStateException("Request with commandId " + key + " is already outstanding");
+                }
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = key;
+            values[index] = future;
+            deadlines[index] = deadline;
+            size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        public CompletableFuture<Response> remove(int key) {
+            int index = indexFor(key);
+            while (values[index] != null) {
+                if (keys[index] == key) {
+                    CompletableFuture<Response> future = (CompletableFuture<Response>) values[index];
+                    removeAt(index);
+                    return future;
+                }
+                index = (index + 1) & mask;
+            }
+
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void removeExpired(long now, List<CompletableFuture<Response>> expired) {
+            int index = 0;
+            while (index < values.length) {
+                // Removal can shift a later entry into this slot so only advance when nothing was removed.
+                if (values[index] != null && deadlines[index] != 0 && deadlines[index] - now <= 0) {
+                    expired.add((CompletableFuture<Response>) values[index]);
+                    if (removeAt(index)) {
+                        continue;
+                    }
+                }
+                index++;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public void removeAll(List<CompletableFuture<Response>> removed) {
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] != null) {
+                    removed.add((CompletableFuture<Response>) values[i]);
+                }
+            }
+
+            allocate(INITIAL_STRIPE_CAPACITY);
+        }
+
+        /*
+         * Returns true if an entry was shifted back into the removed slot.
+         */
+        private boolean removeAt(int index) {
+            boolean shiftedIntoIndex = false;
+            int hole = index;
+            int next = (hole + 1) & mask;
+
+            while (values[next] != null) {
+                int home = indexFor(keys[next]);
+                // Move the entry back if the hole lies cyclically between its home slot and its current slot.
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    deadlines[hole] = deadlines[next];
+                    if (hole == index) {
+                        shiftedIntoIndex = true;
+                    }
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+
+            keys[hole] = 0;
+            values[hole] = null;
+            deadlines[hole] = 0;
+            size--;
+
+            return shiftedIntoIndex;
+        }
+
+        private int indexFor(int key) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] oldDeadlines = deadlines;
+
+            allocate(capacity);
+
+            for (int i = 0; i < oldValues.length; ++i) {
+                if (oldValues[i] != null) {
+                    int index = indexFor(oldKeys[i]);
+                    while (values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    deadlines[index] = oldDeadlines[i];
+                    size++;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            deadlines = new long[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import java.io.IOException;
+
+/**
+ * Receives the commands read by a transport and the error that ends it.
+ */
+public interface TransportListener {
+
+    /**
+     * Called with each command received, in the order they were sent.
+     *
+     * @param command
+     *        the command received.
+     */
+    void onCommand(Object command);
+
+    /**
+     * Called when the transport fails and can no longer deliver commands.
+     *
+     * @param error
+     *        an exception describing the failure.
+     */
+    void onException(IOException error);
+
+}
@@ -0,0 +1,369 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import javax.jms.MessageFormatException;
+
+import org.apache.activemq.openwire.utils.CronParser.CronEntry;
+
+/**
+ * A compiled cron expression.
+ * <p>
+ * Each of the five cron fields is reduced to a bit set of the values it allows so that
+ * matching a field is a single mask test and the distance to the next allowed value is a
+ * bit scan.  The next fire time is computed by adding those distances to the start time
+ * with java.time arithmetic, following the same steps as the original CronParser, and
+ * the result is then checked against every field with the search continuing from that
+ * point in the rare cases where it does not match.  Instances are immutable and can be
+ * shared between threads, use {@link CronParser#compile(String)} to obtain a cached instance.
+ */
+public final class CronExpression {
+
+    // A cron entry that can never fire is given up on after this many years.
+    private static final int MAX_YEARS_SEARCHED = 30;
+
+    private static final int MINUTES_END = 60;
+    private static final int HOURS_END = 24;
+    private static final int MONTHS_END = 12;
+    private static final int DAYS_OF_WEEK_END = 6;
+
+    private final String expression;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean daysOfMonthRestricted;
+    private final boolean daysOfWeekRestricted;
+    private final boolean everyMinute;
+
+    private CronExpression(String expression, List<CronEntry> entries) {
+        this.expression = expression;
+        this.minutes = toBits(entries.get(CronParser.MINUTES));
+        this.hours = toBits(entries.get(CronParser.HOURS));
+        this.daysOfMonth = toBits(entries.get(CronParser.DAY_OF_MONTH));
+        this.months = toBits(entries.get(CronParser.MONTH));
+        this.daysOfWeek = toBits(entries.get(CronParser.DAY_OF_WEEK));
+        this.daysOfMonthRestricted = !CronParser.isAll(entries.get(CronParser.DAY_OF_MONTH).token);
+        this.daysOfWeekRestricted = !CronParser.isAll(entries.get(CronParser.DAY_OF_WEEK).token);
+        this.everyMinute = isAll(entries);
+    }
+
+    /**
+     * Parses and validates the given cron entry.
+     *
+     * @param cronEntry
+     *        the five field cron entry to compile.
+     *
+     * @return a new CronExpression for the entry.
+     *
+     * @throws MessageFormatException if a field value is outside of its allowed range.
+     * @throws IllegalArgumentException if the entry does not have five fields.
+     */
+    public static CronExpression parse(String cronEntry) throws MessageFormatException {
+        List<CronEntry> entries = CronParser.buildCronEntries(CronParser.tokenize(cronEntry));
+        for (CronEntry entry : entries) {
+            CronParser.validate(entry);
+        }
+
+        return new CronExpression(cronEntry, entries);
+    }
+
+    /**
+     * @return the cron entry this expression was compiled from.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Computes the next time after the given time at which this expression fires using
+     * the default time zone.
+     *
+     * @param currentTime
+     *        the time to start from in milliseconds since the epoch.
+     *
+     * @return the next fire time in milliseconds since the epoch.
+     *
+     * @throws ArithmeticException if the expression never fires.
+     */
+    public long getNextFireTime(long currentTime) {
+        return getNextFireTime(currentTime, ZoneId.systemDefault());
+    }
+
+    /**
+     * Computes the next time after the given time at which this expression fires.  As with
+     * the original CronParser the result is on the minute but keeps the millisecond within
+     * the second of the given time.
+     *
+     * @param currentTime
+     *        the time to start from in milliseconds since the epoch.
+     * @param zone
+     *        the time zone the expression is evaluated in.
+     *
+     * @return the next fire time in milliseconds since the epoch.
+     *
+     * @throws ArithmeticException if the expression never fires.
+     */
+    public long getNextFireTime(long currentTime, ZoneId zone) {
+        if (everyMinute) {
+            return (currentTime + 60 * 1000) / 60000 * 60000;
+        }
+
+        ZonedDateTime working = Instant.ofEpochMilli(currentTime).atZone(zone).withSecond(0);
+        int lastYear = working.getYear() + MAX_YEARS_SEARCHED;
+
+        while (working.getYear() <= lastYear) {
+            ZonedDateTime candidate = step(working);
+            if (matches(candidate)) {
+                long result = candidate.toInstant().toEpochMilli();
+                if (result <= currentTime) {
+                    break;
+                }
+                return result;
+            }
+
+            // Resume the search from the candidate itself, the step starts one minute on.
+            working = candidate.minusMinutes(1);
+        }
+
+        throw new ArithmeticException("Unable to compute next scheduled exection time.");
+    }
+
+    /**
+     * Computes the next fire time for each of the given start times using the default time zone.
+     *
+     * @param currentTimes
+     *        the times to start from in milliseconds since the epoch.
+     * @param results
+     *        the array that receives the next fire time for each start time.
+     *
+     * @throws ArithmeticException if the expression never fires.
+     */
+    public void getNextFireTimes(long[] currentTimes, long[] results) {
+        getNextFireTimes(currentTimes, results, 0, currentTimes.length);
+    }
+
+    /**
+     * Computes the next fire time for a range of the given start times using the default time
+     * zone.  Start times within the same minute share one computation.
+     *
+     * @param currentTimes
+     *        the times to start from in milliseconds since the epoch.
+     * @param results
+     *        the array that receives the next fire time for each start time.
+     * @param offset
+     *        the index of the first start time to compute.
+     * @param length
+     *        the number of start times to compute.
+     *
+     * @throws ArithmeticException if the expression never fires.
+     */
+    public void getNextFireTimes(long[] currentTimes, long[] results, int offset, int length) {
+        ZoneId zone = ZoneId.systemDefault();
+
+        long lastMinute = Long.MIN_VALUE;
+        long lastResult = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            long currentTime = currentTimes[i];
+            if (everyMinute) {
+                results[i] = getNextFireTime(currentTime, zone);
+                continue;
+            }
+
+            long minute = Math.floorDiv(currentTime, 60000);
+            if (minute != lastMinute) {
+                lastMinute = minute;
+                lastResult = getNextFireTime(minute * 60000, zone);
+            }
+
+            // Only the millisecond within the second of the start time carries into the result.
+            results[i] = lastResult + Math.floorMod(currentTime, 1000);
+        }
+    }
+
+    /**
+     * @param time
+     *        a time in milliseconds since the epoch.
+     * @param zone
+     *        the time zone the expression is evaluated in.
+     *
+     * @return true if the minute containing the given time matches this expression.
+     */
+    public boolean matches(long time, ZoneId zone) {
+        return matches(Instant.ofEpochMilli(time).atZone(zone));
+    }
+
+    @Override
+    public String toString() {
+        return "CronExpression{" + expression + "}";
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private ZonedDateTime step(ZonedDateTime working) {
+        // Start at the top of the next minute, cron is only guaranteed to be run on the minute.
+        working = working.plusMinutes(1);
+
+        working = updateMinutes(working);
+        working = updateHours(working);
+
+        // The day can roll into the next month so it is checked again after the month.
+        working = updateDay(working);
+        working = updateMonth(working);
+        working = updateDay(working);
+
+        // Now the correct hour and minute of the day in question can be chosen.
+        working = updateHours(working);
+        working = updateMinutes(working);
+
+        return working;
+    }
+
+    private ZonedDateTime updateMinutes(ZonedDateTime working) {
+        int current = working.getMinute();
+        if (!isSet(minutes, current)) {
+            working = working.plusMinutes(distanceToNext(minutes, current, 0, MINUTES_END, false));
+        }
+        return working;
+    }
+
+    private ZonedDateTime updateHours(ZonedDateTime working) {
+        int current = working.getHour();
+        if (!isSet(hours, current)) {
+            working = working.plusHours(distanceToNext(hours, current, 0, HOURS_END, false));
+        }
+        return working;
+    }
+
+    private ZonedDateTime updateMonth(ZonedDateTime working) {
+        int current = working.getMonthValue();
+        if (!isSet(months, current)) {
+            working = startOfDay(working.plusMonths(distanceToNext(months, current, 1, MONTHS_END, true)).withDayOfMonth(1));
+        }
+        return working;
+    }
+
+    private ZonedDateTime updateDay(ZonedDateTime working) {
+        int currentDayOfWeek = working.getDayOfWeek().getValue() % 7;
+        int currentDayOfMonth = working.getDayOfMonth();
+
+        boolean dayOfWeekCurrent = isSet(daysOfWeek, currentDayOfWeek);
+        boolean dayOfMonthCurrent = isSet(daysOfMonth, currentDayOfMonth);
+
+        if (matchesDay(dayOfMonthCurrent, dayOfWeekCurrent)) {
+            return working;
+        }
+
+        int nextWeekDay = Integer.MAX_VALUE;
+        int nextCalendarDay = Integer.MAX_VALUE;
+
+        if (!dayOfWeekCurrent) {
+            nextWeekDay = distanceToNext(daysOfWeek, currentDayOfWeek, 0, DAYS_OF_WEEK_END, true);
+        }
+
+        if (!dayOfMonthCurrent) {
+            int lengthOfMonth = working.toLocalDate().lengthOfMonth();
+            int next = nextSetBit(daysOfMonth, currentDayOfMonth + 1, lengthOfMonth);
+            if (next > 0) {
+                nextCalendarDay = next - currentDayOfMonth;
+            } else {
+                nextCalendarDay = lengthOfMonth - currentDayOfMonth + Long.numberOfTrailingZeros(daysOfMonth);
+            }
+        }
+
+        // Since the day changed the clock restarts at the start of the day.
+        return startOfDay(working.plusDays(Math.min(nextWeekDay, nextCalendarDay)));
+    }
+
+    private boolean matches(ZonedDateTime working) {
+        if (!isSet(minutes, working.getMinute()) || !isSet(hours, working.getHour()) || !isSet(months, working.getMonthValue())) {
+            return false;
+        }
+
+        return matchesDay(isSet(daysOfMonth, working.getDayOfMonth()), isSet(daysOfWeek, working.getDayOfWeek().getValue() % 7));
+    }
+
+    private boolean matchesDay(boolean dayOfMonth, boolean dayOfWeek) {
+        // When both day fields are restricted a day matching either one is a match.
+        if (daysOfMonthRestricted && daysOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+
+        return dayOfMonth && dayOfWeek;
+    }
+
+    private static ZonedDateTime startOfDay(ZonedDateTime working) {
+        return working.withHour(0).withMinute(0);
+    }
+
+    private static int distanceToNext(long bits, int current, int start, int end, boolean oneBased) {
+        int next = nextSetBit(bits, current + 1, end);
+        if (next >= 0) {
+            return next - current;
+        }
+
+        int result = end + Long.numberOfTrailingZeros(bits) - start - current;
+
+        // Account for difference of one vs zero based indices.
+        if (oneBased) {
+            result++;
+        }
+
+        return result;
+    }
+
+    private static boolean isSet(long bits, int value) {
+        return (bits & (1L << value)) != 0;
+    }
+
+    private static int nextSetBit(long bits, int from, int max) {
+        if (from > max) {
+            return -1;
+        }
+
+        long remaining = bits & (-1L << from);
+        if (remaining == 0) {
+            return -1;
+        }
+
+        int next = Long.numberOfTrailingZeros(remaining);
+        return next <= max ? next : -1;
+    }
+
+    private static long toBits(CronEntry entry) {
+        long bits = 0;
+        for (Integer value : entry.currentWhen) {
+            bits |= 1L << value;
+        }
+        return bits;
+    }
+
+    private static boolean isAll(List<CronEntry> entries) {
+        for (CronEntry entry : entries) {
+            if (!CronParser.isAll(entry.token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,167 +17,103 @@
 package org.apache.activemq.openwire.utils;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.MessageFormatException;
 
 public class CronParser {
 
     private static final int NUMBER_TOKENS = 5;
-    private static final int MINUTES = 0;
-    private static final int HOURS = 1;
-    private static final int DAY_OF_MONTH = 2;
-    private static final int MONTH = 3;
-    private static final int DAY_OF_WEEK = 4;
-
-    public static long getNextScheduledTime(final String cronEntry, long currentTime) throws MessageFormatException {
-
-        long result = 0;
-
-        if (cronEntry == null || cronEntry.length() == 0) {
-            return result;
-        }
-
-        // Handle the once per minute case "* * * * *"
-        // starting the next event at the top of the minute.
-        if (cronEntry.equals("* * * * *")) {
-            result = currentTime + 60 * 1000;
-            result = result / 60000 * 60000;
-            return result;
-        }
-
-        List<String> list = tokenize(cronEntry);
-        List<CronEntry> entries = buildCronEntries(list);
-        Calendar working = Calendar.getInstance();
-        working.setTimeInMillis(currentTime);
-        working.set(Calendar.SECOND, 0);
-
-        CronEntry minutes = entries.get(MINUTES);
-        CronEntry hours = entries.get(HOURS);
-        CronEntry dayOfMonth = entries.get(DAY_OF_MONTH);
-        CronEntry month = entries.get(MONTH);
-        CronEntry dayOfWeek = entries.get(DAY_OF_WEEK);
-
-        // Start at the top of the next minute, cron is only guaranteed to be
-        // run on the minute.
-        int timeToNextMinute = 60 - working.get(Calendar.SECOND);
-        working.add(Calendar.SECOND, timeToNextMinute);
-
-        // If its already to late in the day this will roll us over to tomorrow
-        // so we'll need to check again when done updating month and day.
-        int currentMinutes = working.get(Calendar.MINUTE);
-        if (!isCurrent(minutes, currentMinutes)) {
-            int nextMinutes = getNext(minutes, currentMinutes);
-            working.add(Calendar.MINUTE, nextMinutes);
-        }
-
-        int currentHours = working.get(Calendar.HOUR_OF_DAY);
-        if (!isCurrent(hours, currentHours)) {
-            int nextHour = getNext(hours, currentHours);
-            working.add(Calendar.HOUR_OF_DAY, nextHour);
-        }
-
-        // We can roll into the next month here which might violate the cron setting
-        // rules so we check once then recheck again after applying the month settings.
-        doUpdateCurrentDay(working, dayOfMonth, dayOfWeek);
-
-        // Start by checking if we are in the right month, if not then calculations
-        // need to start from the beginning of the month to ensure that we don't end
-        // up on the wrong day. (Can happen when DAY_OF_WEEK is set and current time
-        // is ahead of the day of the week to execute on).
-        doUpdateCurrentMonth(working, month);
-
-        // Now Check day of week and day of month together since they can be specified
-        // together in one entry, if both "day of month" and "day of week" are restricted
-        // (not "*"), then either the "day of month" field (3) or the "day of week" field
-        // (5) must match the current day or the Calenday must be advanced.
-        doUpdateCurrentDay(working, dayOfMonth, dayOfWeek);
-
-        // Now we can chose the correct hour and minute of the day in question.
-
-        currentHours = working.get(Calendar.HOUR_OF_DAY);
-        if (!isCurrent(hours, currentHours)) {
-            int nextHour = getNext(hours, currentHours);
-            working.add(Calendar.HOUR_OF_DAY, nextHour);
-        }
-
-        currentMinutes = working.get(Calendar.MINUTE);
-        if (!isCurrent(minutes, currentMinutes)) {
-            int nextMinutes = getNext(minutes, currentMinutes);
-            working.add(Calendar.MINUTE, nextMinutes);
-        }
-
-        result = working.getTimeInMillis();
-
-        if (result <= currentTime) {
-            throw new ArithmeticException("Unable to compute next scheduled exection time.");
+    static final int MINUTES = 0;
+    static final int HOURS = 1;
+    static final int DAY_OF_MONTH = 2;
+    static final int MONTH = 3;
+    static final int DAY_OF_WEEK = 4;
+
+    private static final int MAX_CACHED_EXPRESSIONS = 4096;
+    private static final Map<String, CronExpression> COMPILED = new ConcurrentHashMap<String, CronExpression>();
+
+    /**
+     * Returns the compiled form of the given cron entry, compiled entries are cached by their
+     * expression string so repeated calls for the same entry do not parse it again.
+     *
+     * @param cronEntry
+     *        the five field cron entry to compile.
+     *
+     * @return the compiled CronExpression.
+     *
+     * @throws MessageFormatException if a field value is outside of its allowed range.
+     */
+    public static CronExpression compile(final String cronEntry) throws MessageFormatException {
+        CronExpression compiled = COMPILED.get(cronEntry);
+        if (compiled == null) {
+            compiled = CronExpression.parse(cronEntry);
+            if (COMPILED.size() >= MAX_CACHED_EXPRESSIONS) {
+                COMPILED.clear();
+            }
+            COMPILED.put(cronEntry, compiled);
         }
 
-        return result;
+        return compiled;
     }
 
-    protected static long doUpdateCurrentMonth(Calendar working, CronEntry month) throws MessageFormatException {
-        int currentMonth = working.get(Calendar.MONTH) + 1;
-        if (!isCurrent(month, currentMonth)) {
-            int nextMonth = getNext(month, currentMonth);
-            working.add(Calendar.MONTH, nextMonth);
-
-            // Reset to start of month.
-            resetToStartOfDay(working, 1);
-
-            return working.getTimeInMillis();
+    public static long getNextScheduledTime(final String cronEntry, long currentTime) throws MessageFormatException {
+        if (cronEntry == null || cronEntry.length() == 0) {
+            return 0;
         }
 
-        return 0L;
+        return compile(cronEntry).getNextFireTime(currentTime);
     }
 
-    protected static long doUpdateCurrentDay(Calendar working, CronEntry dayOfMonth, CronEntry dayOfWeek) throws MessageFormatException {
-
-        int currentDayOfWeek = working.get(Calendar.DAY_OF_WEEK) - 1;
-        int currentDayOfMonth = working.get(Calendar.DAY_OF_MONTH);
-
-        // Simplest case, both are unrestricted or both match today otherwise
-        // result must be the closer of the two if both are set, or the next
-        // match to the one that is.
-        if (!isCurrent(dayOfWeek, currentDayOfWeek) || !isCurrent(dayOfMonth, currentDayOfMonth)) {
-
-            int nextWeekDay = Integer.MAX_VALUE;
-            int nextCalendarDay = Integer.MAX_VALUE;
-
-            if (!isCurrent(dayOfWeek, currentDayOfWeek)) {
-                nextWeekDay = getNext(dayOfWeek, currentDayOfWeek);
-            }
+    /**
+     * Computes the next scheduled time for many cron entries at once.  Each run of jobs that
+     * share an expression is computed by a single compiled expression and jobs in that run that
+     * start within the same minute share the computation, so callers rescheduling many jobs
+     * should order them by cron entry and start time.
+     *
+     * @param cronEntries
+     *        the cron entry of each job, a null or empty entry yields zero.
+     * @param currentTimes
+     *        the time to start from for each job in milliseconds since the epoch.
+     * @param results
+     *        the array that receives the next scheduled time of each job.
+     *
+     * @throws MessageFormatException if one of the entries is not valid.
+     */
+    public static void getNextScheduledTimes(final String[] cronEntries, final long[] currentTimes, final long[] results) throws MessageFormatException {
+        if (cronEntries.length != currentTimes.length || results.length < cronEntries.length) {
+            throw new IllegalArgumentException("Cron entries, start times and results must be the same length");
+        }
 
-            if (!isCurrent(dayOfMonth, currentDayOfMonth)) {
-                nextCalendarDay = getNext(dayOfMonth, currentDayOfMonth);
+        int runStart = 0;
+        while (runStart < cronEntries.length) {
+            String cronEntry = cronEntries[runStart];
+            int runEnd = runStart + 1;
+            while (runEnd < cronEntries.length && sameEntry(cronEntry, cronEntries[runEnd])) {
+                runEnd++;
             }
 
-            if (nextWeekDay < nextCalendarDay) {
-                working.add(Calendar.DAY_OF_WEEK, nextWeekDay);
+            if (cronEntry == null || cronEntry.length() == 0) {
+                Arrays.fill(results, runStart, runEnd, 0L);
             } else {
-                working.add(Calendar.DAY_OF_MONTH, nextCalendarDay);
+                compile(cronEntry).getNextFireTimes(currentTimes, results, runStart, runEnd - runStart);
             }
 
-            // Since the day changed, we restart the clock at the start of the day
-            // so that the next time will either be at 12am + value of hours and
-            // minutes pattern.
-            resetToStartOfDay(working, working.get(Calendar.DAY_OF_MONTH));
-
-            return working.getTimeInMillis();
+            runStart = runEnd;
         }
+    }
 
-        return 0L;
+    private static boolean sameEntry(String entry, String other) {
+        return entry == null ? other == null : entry.equals(other);
     }
 
     public static void validate(final String cronEntry) throws MessageFormatException {
-        List<String> list = tokenize(cronEntry);
-        List<CronEntry> entries = buildCronEntries(list);
-        for (CronEntry e : entries) {
-            validate(e);
-        }
+        compile(cronEntry);
     }
 
     static void validate(final CronEntry entry) throws MessageFormatException {
@@ -222,13 +158,6 @@ public class CronParser {
         return result;
     }
 
-    protected static void resetToStartOfDay(Calendar target, int day) {
-        target.set(Calendar.DAY_OF_MONTH, day);
-        target.set(Calendar.HOUR_OF_DAY, 0);
-        target.set(Calendar.MINUTE, 0);
-        target.set(Calendar.SECOND, 0);
-    }
-
     static List<String> tokenize(String cron) throws IllegalArgumentException {
         StringTokenizer tokenize = new StringTokenizer(cron);
         List<String> result = new ArrayList<String>();
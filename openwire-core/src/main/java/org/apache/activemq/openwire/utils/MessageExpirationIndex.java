@@ -0,0 +1,486 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+
+/**
+ * Indexes pending messages by their expiration time so that the expired ones can be found
+ * without scanning every message.
+ * <p>
+ * Messages with an expiration are placed in a hashed wheel of buckets that each cover one
+ * tick of time, messages expiring beyond the span of the wheel are held in buckets sorted by
+ * tick and moved into the wheel as it advances.  Draining the messages that expired before a
+ * given time visits only the buckets for the elapsed ticks, and only the entries of the bucket
+ * holding the drain time are checked one by one, so the cost is proportional to the number
+ * of expired messages rather than the number of pending messages.
+ * <p>
+ * The index also remembers the order the messages were added in, which is expected to be the
+ * order they are held by the caller.  Expired messages that are adjacent in that order are
+ * acknowledged together by {@link #drainExpiredAcks(long, ConsumerId)} using EXPIRED_ACK_TYPE
+ * range acks.  Messages that never expire should also be added so that a range never spans a
+ * message that has not expired, they take part in the ordering only.
+ */
+public class MessageExpirationIndex {
+
+    public static final long DEFAULT_TICK_DURATION = 100;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 1024;
+    public static final int DEFAULT_MAX_ACK_RANGE = 1000;
+
+    private static final Comparator<Entry> ADDED_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            return Long.compare(entry1.sequence, entry2.sequence);
+        }
+    };
+
+    private final long tickDuration;
+    private final Entry[] wheel;
+    private final int mask;
+    private final TreeMap<Long, Entry> future = new TreeMap<Long, Entry>();
+    private final Map<MessageId, Entry> entries = new HashMap<MessageId, Entry>();
+
+    // The first tick still held in the wheel, the wheel spans ticks [baseTick, baseTick + wheel.length).
+    private long baseTick;
+    private int wheelCount;
+    private int futureCount;
+
+    // Every indexed message in the order it was added.
+    private Entry first;
+    private Entry last;
+    private long sequence;
+
+    private int maxAckRange = DEFAULT_MAX_ACK_RANGE;
+
+    /**
+     * Creates an index using a tick of {@value #DEFAULT_TICK_DURATION} milliseconds and a
+     * wheel of {@value #DEFAULT_TICKS_PER_WHEEL} buckets that starts at the current time.
+     */
+    public MessageExpirationIndex() {
+        this(DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates an index with the given wheel configuration.
+     *
+     * @param tickDuration
+     *        the span of time covered by each bucket.
+     * @param unit
+     *        the time unit of the tick duration.
+     * @param ticksPerWheel
+     *        the number of buckets in the wheel, rounded up to a power of two.
+     * @param startTime
+     *        the time in milliseconds the wheel starts at, messages that expired before
+     *        this time are drained on the first call to drain.
+     */
+    public MessageExpirationIndex(long tickDuration, TimeUnit unit, int ticksPerWheel, long startTime) {
+        if (unit.toMillis(tickDuration) <= 0) {
+            throw new IllegalArgumentException("tickDuration must be at least one millisecond: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+        }
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.tickDuration = unit.toMillis(tickDuration);
+        this.wheel = new Entry[size];
+        this.mask = size - 1;
+        this.baseTick = Math.max(0, startTime) / this.tickDuration;
+    }
+
+    /**
+     * Adds a message to the index, a message already indexed with the same MessageId is
+     * replaced and moves to the end of the added order.
+     *
+     * @param message
+     *        the message to index.
+     */
+    public synchronized void add(Message message) {
+        MessageId messageId = message.getMessageId();
+        if (messageId == null) {
+            throw new IllegalArgumentException("Cannot index a message without a MessageId");
+        }
+
+        Entry entry = new Entry(message, message.getExpiration(), sequence++);
+        Entry replaced = entries.put(messageId, entry);
+        if (replaced != null) {
+            unlinkBucket(replaced);
+            unlinkOrder(replaced);
+        }
+
+        linkOrder(entry);
+        if (entry.expiration > 0) {
+            linkBucket(entry, Math.max(baseTick, entry.expiration / tickDuration));
+        }
+    }
+
+    /**
+     * Removes a message from the index, for example once it has been consumed.
+     *
+     * @param messageId
+     *        the id of the message to remove.
+     *
+     * @return the removed message or null if the message was not indexed.
+     */
+    public synchronized Message remove(MessageId messageId) {
+        Entry entry = entries.remove(messageId);
+        if (entry == null) {
+            return null;
+        }
+
+        unlinkBucket(entry);
+        unlinkOrder(entry);
+        return entry.message;
+    }
+
+    /**
+     * Removes and returns every indexed message that expired before the given time.
+     *
+     * @param now
+     *        the current time in milliseconds, a message is expired when its expiration
+     *        is earlier than this time.
+     *
+     * @return the expired messages, ordered by expiration tick.
+     */
+    public synchronized List<Message> drainExpired(long now) {
+        List<Entry> expired = drain(now);
+        List<Message> messages = new ArrayList<Message>(expired.size());
+        for (Entry entry : expired) {
+            unlinkOrder(entry);
+            messages.add(entry.message);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Removes every indexed message that expired before the given time and returns the
+     * EXPIRED_ACK_TYPE acks that acknowledge them.  Expired messages that are adjacent in
+     * the added order and share a destination are covered by a single range ack of at most
+     * the configured maximum range of messages.
+     *
+     * @param now
+     *        the current time in milliseconds, a message is expired when its expiration
+     *        is earlier than this time.
+     * @param consumerId
+     *        the consumer the acks are sent for.
+     *
+     * @return the acks for the expired messages in added order, empty if none expired.
+     */
+    public synchronized List<MessageAck> drainExpiredAcks(long now, ConsumerId consumerId) {
+        List<Entry> expired = drain(now);
+        List<MessageAck> acks = new ArrayList<MessageAck>();
+        if (expired.isEmpty()) {
+            return acks;
+        }
+
+        Collections.sort(expired, ADDED_ORDER);
+
+        // Adjacency is checked before any expired entry leaves the added order.
+        Entry rangeStart = null;
+        Entry previous = null;
+        int count = 0;
+        for (Entry entry : expired) {
+            if (rangeStart != null &&
+                (previous.after != entry || count >= maxAckRange || !isSameDestination(rangeStart, entry))) {
+
+                acks.add(createAck(consumerId, rangeStart, previous, count));
+                rangeStart = null;
+            }
+
+            if (rangeStart == null) {
+                rangeStart = entry;
+                count = 0;
+            }
+
+            previous = entry;
+            count++;
+        }
+        acks.add(createAck(consumerId, rangeStart, previous, count));
+
+        for (Entry entry : expired) {
+            unlinkOrder(entry);
+        }
+
+        return acks;
+    }
+
+    /**
+     * @return the time in milliseconds of the earliest expiration held, or -1 if no message
+     *         in the index expires.  The result is only accurate to the tick duration.
+     */
+    public synchronized long getNextExpirationTime() {
+        if (wheelCount > 0) {
+            for (long tick = baseTick; tick < baseTick + wheel.length; ++tick) {
+                if (wheel[(int) (tick & mask)] != null) {
+                    return tick * tickDuration;
+                }
+            }
+        }
+
+        return futureCount > 0 ? future.firstKey() * tickDuration : -1;
+    }
+
+    /**
+     * @param messageId
+     *        the id of the message to check.
+     *
+     * @return true if the message is held in the index.
+     */
+    public synchronized boolean contains(MessageId messageId) {
+        return entries.containsKey(messageId);
+    }
+
+    /**
+     * @return the number of messages in the index.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of messages in the index that have an expiration.
+     */
+    public synchronized int getExpiringCount() {
+        return wheelCount + futureCount;
+    }
+
+    /**
+     * Removes every message from the index.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        future.clear();
+        for (int i = 0; i < wheel.length; ++i) {
+            wheel[i] = null;
+        }
+        wheelCount = 0;
+        futureCount = 0;
+        first = null;
+        last = null;
+    }
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    public int getTicksPerWheel() {
+        return wheel.length;
+    }
+
+    public int getMaxAckRange() {
+        return maxAckRange;
+    }
+
+    /**
+     * @param maxAckRange
+     *        the largest number of messages covered by a single expired ack.
+     */
+    public void setMaxAckRange(int maxAckRange) {
+        this.maxAckRange = Math.max(1, maxAckRange);
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private static final class Entry {
+
+        final Message message;
+        final long expiration;
+        final long sequence;
+
+        // The bucket this entry is linked into.
+        long tick;
+        Entry prev;
+        Entry next;
+
+        // The added order of the index.
+        Entry before;
+        Entry after;
+
+        Entry(Message message, long expiration, long sequence) {
+            this.message = message;
+            this.expiration = expiration;
+            this.sequence = sequence;
+        }
+    }
+
+    private List<Entry> drain(long now) {
+        List<Entry> expired = new ArrayList<Entry>();
+        long nowTick = Math.max(0, now) / tickDuration;
+
+        while (wheelCount + futureCount > 0 && baseTick <= nowTick) {
+            if (wheelCount == 0) {
+                // Nothing left in the wheel, jump straight to the next occupied tick.
+                advanceTo(Math.min(nowTick, future.firstKey()));
+                if (wheelCount == 0) {
+                    break;
+                }
+            }
+
+            int index = (int) (baseTick & mask);
+            Entry entry = wheel[index];
+            while (entry != null) {
+                Entry next = entry.next;
+                // Only the bucket holding the current time can contain messages that have not expired.
+                if (baseTick < nowTick || entry.expiration < now) {
+                    unlinkBucket(entry);
+                    entries.remove(entry.message.getMessageId());
+                    expired.add(entry);
+                }
+                entry = next;
+            }
+
+            if (baseTick == nowTick || wheel[index] != null) {
+                break;
+            }
+
+            advanceTo(baseTick + 1);
+        }
+
+        return expired;
+    }
+
+    private void advanceTo(long tick) {
+        baseTick = tick;
+
+        // Move the far buckets that are now within the span of the wheel.
+        long horizon = baseTick + wheel.length;
+        Iterator<Map.Entry<Long, Entry>> iterator = future.headMap(horizon).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Entry> bucket = iterator.next();
+            iterator.remove();
+
+            Entry entry = bucket.getValue();
+            while (entry != null) {
+                Entry next = entry.next;
+                futureCount--;
+                linkBucket(entry, bucket.getKey());
+                entry = next;
+            }
+        }
+    }
+
+    private void linkBucket(Entry entry, long tick) {
+        entry.tick = tick;
+        entry.prev = null;
+        if (tick < baseTick + wheel.length) {
+            int index = (int) (tick & mask);
+            entry.next = wheel[index];
+            wheel[index] = entry;
+            wheelCount++;
+        } else {
+            entry.next = future.put(tick, entry);
+            futureCount++;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+    }
+
+    private void unlinkBucket(Entry entry) {
+        if (entry.expiration <= 0) {
+            return;
+        }
+
+        boolean inWheel = entry.tick < baseTick + wheel.length;
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (inWheel) {
+            wheel[(int) (entry.tick & mask)] = entry.next;
+        } else if (entry.next != null) {
+            future.put(entry.tick, entry.next);
+        } else {
+            future.remove(entry.tick);
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+
+        if (inWheel) {
+            wheelCount--;
+        } else {
+            futureCount--;
+        }
+
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private void linkOrder(Entry entry) {
+        entry.before = last;
+        if (last != null) {
+            last.after = entry;
+        } else {
+            first = entry;
+        }
+        last = entry;
+    }
+
+    private void unlinkOrder(Entry entry) {
+        if (entry.before != null) {
+            entry.before.after = entry.after;
+        } else {
+            first = entry.after;
+        }
+
+        if (entry.after != null) {
+            entry.after.before = entry.before;
+        } else {
+            last = entry.before;
+        }
+
+        entry.before = null;
+        entry.after = null;
+    }
+
+    private static boolean isSameDestination(Entry entry1, Entry entry2) {
+        OpenWireDestination destination = entry1.message.getDestination();
+        return destination == null ? entry2.message.getDestination() == null : destination.equals(entry2.message.getDestination());
+    }
+
+    private static MessageAck createAck(ConsumerId consumerId, Entry first, Entry last, int count) {
+        MessageAck ack = new MessageAck();
+        ack.setAckType(MessageAck.EXPIRED_ACK_TYPE);
+        ack.setConsumerId(consumerId);
+        ack.setDestination(last.message.getDestination());
+        ack.setFirstMessageId(first.message.getMessageId());
+        ack.setLastMessageId(last.message.getMessageId());
+        ack.setMessageCount(count);
+        return ack;
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.TransactionId;
+
+/**
+ * Coalesces the acknowledgements for an OpenWireConsumer into range acks.
+ * <p>
+ * Every dispatch received for the consumer is reported with {@link #delivered(MessageDispatch)}
+ * and once processed with {@link #consumed(MessageDispatch)}.  Consumed messages that are
+ * contiguous in delivery order are collected into a single STANDARD_ACK_TYPE MessageAck with
+ * the first and last MessageId and the message count, the ack is sent when the number of
+ * pending messages, their total size or the time since the first one was consumed exceeds
+ * the configured thresholds.  A message consumed out of order is acknowledged on its own with
+ * an INDIVIDUAL_ACK_TYPE ack after the pending range is sent.
+ * <p>
+ * Poison and redelivered acks always flush the pending range first so that a range never
+ * spans a message that was not consumed.  Optionally a DELIVERED_ACK_TYPE ack covering the
+ * unconsumed messages is sent each time a number of messages have been delivered so the broker
+ * can extend the prefetch window before the consumed messages are acknowledged.
+ * <p>
+ * The time threshold is only checked when this class is called, an application that can go
+ * quiet should call {@link #flushIfDue()} periodically.
+ */
+public class OpenWireAckAggregator {
+
+    /**
+     * The sink used to send the acks produced by the aggregator.
+     */
+    public interface AckSender {
+
+        void sendAck(MessageAck ack) throws IOException;
+
+    }
+
+    public static final long DEFAULT_MAX_PENDING_TIME = 300;
+
+    private final OpenWireConsumer consumer;
+    private final AckSender sender;
+
+    // Messages delivered and not yet acknowledged in delivery order.
+    private final ArrayDeque<MessageDispatch> delivered = new ArrayDeque<MessageDispatch>();
+
+    private int maxPendingAcks;
+    private long maxPendingBytes;
+    private long maxPendingTime = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_PENDING_TIME);
+    private int deliveredAckThreshold;
+    private TransactionId transactionId;
+
+    private MessageDispatch firstPending;
+    private MessageDispatch lastPending;
+    private int pendingCount;
+    private long pendingBytes;
+    private long pendingSince;
+
+    private int unreportedDeliveries;
+
+    /**
+     * Creates a new aggregator for the given consumer, the pending ack count threshold
+     * defaults to half of the consumer's prefetch size.
+     *
+     * @param consumer
+     *        the consumer whose messages are being acknowledged.
+     * @param sender
+     *        the sink that the generated MessageAck commands are written to.
+     */
+    public OpenWireAckAggregator(OpenWireConsumer consumer, AckSender sender) {
+        this.consumer = consumer;
+        this.sender = sender;
+        this.maxPendingAcks = Math.max(1, consumer.getPrefetchSize() / 2);
+    }
+
+    /**
+     * Records that a message was delivered to the consumer.
+     *
+     * @param dispatch
+     *        the dispatch that carried the message.
+     *
+     * @throws IOException if an error occurs while sending a delivered ack.
+     */
+    public synchronized void delivered(MessageDispatch dispatch) throws IOException {
+        delivered.addLast(dispatch);
+
+        if (deliveredAckThreshold > 0 && ++unreportedDeliveries >= deliveredAckThreshold) {
+            // Covers every message still outstanding so the range always starts at a message the broker has in flight.
+            MessageAck ack = createAck(MessageAck.DELIVERED_ACK_TYPE, delivered.peekFirst(), dispatch, delivered.size());
+            unreportedDeliveries = 0;
+            sender.sendAck(ack);
+        }
+    }
+
+    /**
+     * Records that a delivered message was consumed, this may send an ack for the
+     * pending range if one of the thresholds is exceeded.
+     *
+     * @param dispatch
+     *        the dispatch that carried the consumed message.
+     *
+     * @throws IOException if an error occurs while sending an ack.
+     */
+    public synchronized void consumed(MessageDispatch dispatch) throws IOException {
+        if (delivered.peekFirst() == dispatch) {
+            delivered.pollFirst();
+
+            if (firstPending == null) {
+                firstPending = dispatch;
+                pendingSince = System.nanoTime();
+            }
+            lastPending = dispatch;
+            pendingCount++;
+            pendingBytes += dispatch.getMessage() != null ? dispatch.getMessage().getSize() : 0;
+
+            if (isFlushRequired(System.nanoTime())) {
+                flush();
+            }
+        } else {
+            removeDelivered(dispatch);
+            flush();
+            sender.sendAck(createAck(MessageAck.INDIVIDUAL_ACK_TYPE, dispatch, dispatch, 1));
+        }
+    }
+
+    /**
+     * Sends a REDELIVERED_ACK_TYPE ack for a message that will be redelivered, the message
+     * remains delivered and is expected to be consumed or poisoned later.  The ack covers
+     * the single message, the redelivery count is recorded on the message itself.
+     *
+     * @param dispatch
+     *        the dispatch that carried the message being redelivered.
+     * @param redeliveryCount
+     *        the number of times the message has now been redelivered.
+     *
+     * @throws IOException if an error occurs while sending an ack.
+     */
+    public synchronized void redelivered(MessageDispatch dispatch, int redeliveryCount) throws IOException {
+        flush();
+        dispatch.getMessage().setRedeliveryCounter(redeliveryCount);
+        sender.sendAck(createAck(MessageAck.REDELIVERED_ACK_TYPE, dispatch, dispatch, 1));
+    }
+
+    /**
+     * Sends a POSION_ACK_TYPE ack for a message that could not be processed.
+     *
+     * @param dispatch
+     *        the dispatch that carried the poisoned message.
+     * @param cause
+     *        the reason the message was poisoned, can be null.
+     *
+     * @throws IOException if an error occurs while sending an ack.
+     */
+    public synchronized void poisoned(MessageDispatch dispatch, Throwable cause) throws IOException {
+        removeDelivered(dispatch);
+        flush();
+        MessageAck ack = createAck(MessageAck.POSION_ACK_TYPE, dispatch, dispatch, 1);
+        ack.setPoisonCause(cause);
+        sender.sendAck(ack);
+    }
+
+    /**
+     * Sends the pending range ack if one exists.
+     *
+     * @throws IOException if an error occurs while sending an ack.
+     */
+    public synchronized void flush() throws IOException {
+        if (pendingCount > 0) {
+            MessageAck ack = createAck(MessageAck.STANDARD_ACK_TYPE, firstPending, lastPending, pendingCount);
+            firstPending = null;
+            lastPending = null;
+            pendingCount = 0;
+            pendingBytes = 0;
+            sender.sendAck(ack);
+        }
+    }
+
+    /**
+     * Sends the pending range ack if it has been pending longer than the configured time.
+     *
+     * @return true if an ack was sent.
+     *
+     * @throws IOException if an error occurs while sending an ack.
+     */
+    public synchronized boolean flushIfDue() throws IOException {
+        if (pendingCount > 0 && maxPendingTime > 0 && System.nanoTime() - pendingSince >= maxPendingTime) {
+            flush();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the number of consumed messages waiting to be acknowledged.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the total size of the consumed messages waiting to be acknowledged.
+     */
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the number of delivered messages that have not been consumed.
+     */
+    public synchronized int getDeliveredCount() {
+        return delivered.size();
+    }
+
+    public OpenWireConsumer getConsumer() {
+        return consumer;
+    }
+
+    public int getMaxPendingAcks() {
+        return maxPendingAcks;
+    }
+
+    /**
+     * @param maxPendingAcks
+     *        the number of consumed messages that triggers a range ack, 1 acks every message.
+     */
+    public void setMaxPendingAcks(int maxPendingAcks) {
+        this.maxPendingAcks = Math.max(1, maxPendingAcks);
+    }
+
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * @param maxPendingBytes
+     *        the total size of consumed messages that triggers a range ack, zero or less disables.
+     */
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public long getMaxPendingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxPendingTime);
+    }
+
+    /**
+     * @param maxPendingTime
+     *        the time in milliseconds a consumed message can wait before the range is
+     *        acknowledged, zero or less disables.
+     */
+    public void setMaxPendingTime(long maxPendingTime) {
+        this.maxPendingTime = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxPendingTime));
+    }
+
+    public int getDeliveredAckThreshold() {
+        return deliveredAckThreshold;
+    }
+
+    /**
+     * @param deliveredAckThreshold
+     *        the number of deliveries that triggers a delivered ack, zero or less disables.
+     */
+    public void setDeliveredAckThreshold(int deliveredAckThreshold) {
+        this.deliveredAckThreshold = deliveredAckThreshold;
+    }
+
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @param transactionId
+     *        the transaction that generated acks are part of, or null when not transacted.
+     */
+    public void setTransactionId(TransactionId transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    private boolean isFlushRequired(long now) {
+        return pendingCount >= maxPendingAcks ||
+               (maxPendingBytes > 0 && pendingBytes >= maxPendingBytes) ||
+               (maxPendingTime > 0 && now - pendingSince >= maxPendingTime);
+    }
+
+    private void removeDelivered(MessageDispatch dispatch) {
+        Iterator<MessageDispatch> iterator = delivered.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == dispatch) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    private MessageAck createAck(byte ackType, MessageDispatch first, MessageDispatch last, int count) {
+        MessageAck ack = new MessageAck();
+        ack.setAckType(ackType);
+        ack.setConsumerId(consumer.getConsumerId());
+        ack.setDestination(last.getDestination());
+        ack.setFirstMessageId(first.getMessage().getMessageId());
+        ack.setLastMessageId(last.getMessage().getMessageId());
+        ack.setMessageCount(count);
+        ack.setTransactionId(transactionId);
+        return ack;
+    }
+}
@@ -96,6 +96,34 @@ public class OpenWireConsumer extends ConsumerInfo {
         return this.copy();
     }
 
+    /**
+     * Factory method for creating an ack aggregator that batches the acknowledgements
+     * for messages dispatched to this consumer.
+     *
+     * @param sender
+     *        the sink that the aggregated MessageAck commands are written to.
+     *
+     * @return a new OpenWireAckAggregator for this consumer.
+     */
+    public OpenWireAckAggregator createAckAggregator(OpenWireAckAggregator.AckSender sender) {
+        return new OpenWireAckAggregator(this, sender);
+    }
+
+    /**
+     * Factory method for creating a buffer that hands the dispatches for this consumer from
+     * the transport thread to the consuming thread, sized from the prefetch size.
+     *
+     * @param pullSender
+     *        the sink for MessagePull commands, required when the prefetch size is zero.
+     * @param waitStrategy
+     *        how the consuming thread waits for dispatches to arrive.
+     *
+     * @return a new OpenWirePrefetchBuffer for this consumer.
+     */
+    public OpenWirePrefetchBuffer createPrefetchBuffer(OpenWirePrefetchBuffer.PullSender pullSender, OpenWirePrefetchBuffer.WaitStrategy waitStrategy) {
+        return new OpenWirePrefetchBuffer(this, pullSender, waitStrategy);
+    }
+
     /**
      * Factory method for creating a RemoveInfo command that can be used to remove this
      * consumer instance from the Broker.
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.UnknownHostException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -27,19 +29,37 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Generator for Globally unique Strings.
+ * <p>
+ * Id generation does not lock, each calling thread reserves a block of sequence
+ * values from the shared counter and then encodes its Ids into a reusable buffer
+ * so that the only allocation per Id is the resulting String.  Ids generated from
+ * a single thread are always increasing, Ids generated from different threads are
+ * unique but are not ordered relative to one another.
+ * <p>
+ * By default the unique stub for this JVM is derived by binding a server socket
+ * and resolving the local host name.  Setting the {@link #PROPERTY_IDGENERATOR_FAST_STARTUP}
+ * system property to true derives the stub from the clock and a random value instead
+ * which avoids any network access or delay during class initialization.
  */
 public class OpenWireIdGenerator {
 
     private static final Logger LOG = LoggerFactory.getLogger(OpenWireIdGenerator.class);
     private static final String UNIQUE_STUB;
-    private static int instanceCount;
+    private static final AtomicInteger instanceCount = new AtomicInteger();
     private static String hostName;
 
-    private String seed;
-    private final AtomicLong sequence = new AtomicLong(1);
-    private int length;
-
     public static final String PROPERTY_IDGENERATOR_PORT = "activemq.idgenerator.port";
+    public static final String PROPERTY_IDGENERATOR_FAST_STARTUP = "activemq.idgenerator.fastStartup";
+
+    /**
+     * The number of sequence values a thread reserves from the shared sequence at a time.
+     */
+    public static final int SEQUENCE_BLOCK_SIZE = 64;
+
+    private final String seed;
+    private final String sanitizedSeed;
+    private final AtomicLong sequence = new AtomicLong(1);
+    private final ThreadLocal<IdBuffer> buffers = new ThreadLocal<IdBuffer>();
 
     static {
         String stub = "";
@@ -54,39 +74,11 @@ public class OpenWireIdGenerator {
         }
 
         if (canAccessSystemProps) {
-            int idGeneratorPort = 0;
-            ServerSocket ss = null;
-            try {
-                idGeneratorPort = Integer.parseInt(System.getProperty(PROPERTY_IDGENERATOR_PORT, "0"));
-                LOG.trace("Using port {}", idGeneratorPort);
-                hostName = getLocalHostName();
-                ss = new ServerSocket(idGeneratorPort);
-                stub = "-" + ss.getLocalPort() + "-" + System.currentTimeMillis() + "-";
-                Thread.sleep(100);
-            } catch (Exception e) {
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("could not generate unique stub by using DNS and binding to local port", e);
-                } else {
-                    LOG.warn("could not generate unique stub by using DNS and binding to local port: {} {}", e.getClass().getCanonicalName(), e.getMessage());
-                }
-
-                // Restore interrupted state so higher level code can deal with
-                // it.
-                if (e instanceof InterruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-            } finally {
-                if (ss != null) {
-                    try {
-                        ss.close();
-                    } catch (IOException ioe) {
-                        if (LOG.isTraceEnabled()) {
-                            LOG.trace("Closing the server socket failed", ioe);
-                        } else {
-                            LOG.warn("Closing the server socket failed" + " due " + ioe.getMessage());
-                        }
-                    }
-                }
+            if (Boolean.getBoolean(PROPERTY_IDGENERATOR_FAST_STARTUP)) {
+                hostName = getLocalHostNameFromEnvironment();
+                stub = generateFastStartupStub();
+            } else {
+                stub = generateSocketStub();
             }
         }
 
@@ -106,10 +98,8 @@ public class OpenWireIdGenerator {
      * Construct an IdGenerator
      */
     public OpenWireIdGenerator(String prefix) {
-        synchronized (UNIQUE_STUB) {
-            this.seed = prefix + UNIQUE_STUB + (instanceCount++) + ":";
-            this.length = this.seed.length() + ("" + Long.MAX_VALUE).length();
-        }
+        this.seed = prefix + UNIQUE_STUB + instanceCount.getAndIncrement() + ":";
+        this.sanitizedSeed = sanitize(seed);
     }
 
     public OpenWireIdGenerator() {
@@ -131,11 +121,8 @@ public class OpenWireIdGenerator {
      *
      * @return a unique id
      */
-    public synchronized String generateId() {
-        StringBuilder sb = new StringBuilder(length);
-        sb.append(seed);
-        sb.append(sequence.getAndIncrement());
-        return sb.toString();
+    public String generateId() {
+        return getBuffer().encode(seed);
     }
 
     public static String sanitizeHostName(String hostName) {
@@ -166,11 +153,7 @@ public class OpenWireIdGenerator {
      * @return a unique id
      */
     public String generateSanitizedId() {
-        String result = generateId();
-        result = result.replace(':', '-');
-        result = result.replace('_', '-');
-        result = result.replace('.', '-');
-        return result;
+        return getBuffer().encode(sanitizedSeed);
     }
 
     /**
@@ -233,6 +216,94 @@ public class OpenWireIdGenerator {
         return result;
     }
 
+    private IdBuffer getBuffer() {
+        IdBuffer buffer = buffers.get();
+        if (buffer == null) {
+            buffer = new IdBuffer(sequence, seed.length() + 20);
+            buffers.set(buffer);
+        }
+
+        return buffer;
+    }
+
+    private static String sanitize(String value) {
+        String result = value;
+        result = result.replace(':', '-');
+        result = result.replace('_', '-');
+        result = result.replace('.', '-');
+        return result;
+    }
+
+    /**
+     * Creates the unique stub by binding a local port, the port number along with
+     * the current time distinguishes this JVM from others on the same host.
+     */
+    private static String generateSocketStub() {
+        String stub = "";
+        int idGeneratorPort = 0;
+        ServerSocket ss = null;
+        try {
+            idGeneratorPort = Integer.parseInt(System.getProperty(PROPERTY_IDGENERATOR_PORT, "0"));
+            LOG.trace("Using port {}", idGeneratorPort);
+            hostName = getLocalHostName();
+            ss = new ServerSocket(idGeneratorPort);
+            stub = "-" + ss.getLocalPort() + "-" + System.currentTimeMillis() + "-";
+            Thread.sleep(100);
+        } catch (Exception e) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("could not generate unique stub by using DNS and binding to local port", e);
+            } else {
+                LOG.warn("could not generate unique stub by using DNS and binding to local port: {} {}", e.getClass().getCanonicalName(), e.getMessage());
+            }
+
+            // Restore interrupted state so higher level code can deal with
+            // it.
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            if (ss != null) {
+                try {
+                    ss.close();
+                } catch (IOException ioe) {
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Closing the server socket failed", ioe);
+                    } else {
+                        LOG.warn("Closing the server socket failed" + " due " + ioe.getMessage());
+                    }
+                }
+            }
+        }
+
+        return stub;
+    }
+
+    /**
+     * Creates the unique stub without any network access, 63 random bits taken from a
+     * {@link UUID#randomUUID() random UUID}, which is seeded by SecureRandom, take the place
+     * of the port number so that JVMs started in the same millisecond do not collide.
+     */
+    static String generateFastStartupStub() {
+        UUID random = UUID.randomUUID();
+        long entropy = (random.getMostSignificantBits() ^ random.getLeastSignificantBits()) & Long.MAX_VALUE;
+
+        return "-" + entropy + "-" + System.currentTimeMillis() + "-";
+    }
+
+    private static String getLocalHostNameFromEnvironment() {
+        String host = null;
+        try {
+            host = System.getenv("HOSTNAME");
+            if (host == null || host.isEmpty()) {
+                host = System.getenv("COMPUTERNAME");
+            }
+        } catch (SecurityException se) {
+            LOG.trace("Cannot read the host name from the environment", se);
+        }
+
+        return host == null || host.isEmpty() ? null : host;
+    }
+
     private static String getLocalHostName() throws UnknownHostException {
         try {
             return (InetAddress.getLocalHost()).getHostName();
@@ -247,4 +318,38 @@ public class OpenWireIdGenerator {
             throw uhe;
         }
     }
+
+    /**
+     * Per thread state holding the reserved block of sequence values and the
+     * buffer used to encode the Ids.
+     * <p>
+     * This holds no reference back to the generator, the ThreadLocal is the key of
+     * the thread's map entry so a reference to it from the value would keep every
+     * discarded generator alive for as long as the threads that used it.
+     */
+    private static final class IdBuffer {
+
+        private final AtomicLong sequence;
+        private final StringBuilder builder;
+
+        private long next;
+        private long limit;
+
+        public IdBuffer(AtomicLong sequence, int capacity) {
+            this.sequence = sequence;
+            this.builder = new StringBuilder(capacity);
+        }
+
+        public String encode(String prefix) {
+            if (next == limit) {
+                next = sequence.getAndAdd(SEQUENCE_BLOCK_SIZE);
+                limit = next + SEQUENCE_BLOCK_SIZE;
+            }
+
+            builder.setLength(0);
+            builder.append(prefix);
+            builder.append(next++);
+            return builder.toString();
+        }
+    }
 }
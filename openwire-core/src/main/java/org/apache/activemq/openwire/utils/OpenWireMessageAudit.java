@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.ProducerId;
+
+/**
+ * Detects duplicate and out of order messages using the ProducerId and producer sequence id
+ * carried in each MessageId, such as the messages replayed to a consumer after a failover.
+ * <p>
+ * For every producer the audit keeps a sliding window of the most recent sequence ids as a
+ * bitset, the window moves forward as higher sequence ids are seen.  A sequence id that has
+ * already been seen within the window is a duplicate, as is any sequence id that has fallen
+ * behind the window since it can no longer be told apart from a replay.
+ * <p>
+ * Producers are spread over a number of independently locked stripes so that concurrent
+ * checks for different producers do not contend, and each stripe evicts its least recently
+ * used producer once it holds its share of the maximum number of audited producers.
+ */
+public class OpenWireMessageAudit {
+
+    public static final int DEFAULT_WINDOW_SIZE = 2048;
+    public static final int DEFAULT_MAX_PRODUCERS = 64;
+    public static final int DEFAULT_STRIPES = 16;
+
+    private final int windowSize;
+    private final int maxProducers;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * Creates an audit with a window of {@value #DEFAULT_WINDOW_SIZE} sequence ids for at most
+     * {@value #DEFAULT_MAX_PRODUCERS} producers.
+     */
+    public OpenWireMessageAudit() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_PRODUCERS);
+    }
+
+    /**
+     * Creates an audit using the default number of lock stripes.
+     *
+     * @param windowSize
+     *        the number of recent sequence ids remembered per producer, rounded up to a
+     *        multiple of 64.
+     * @param maxProducers
+     *        the number of producers audited before the least recently used are evicted.
+     */
+    public OpenWireMessageAudit(int windowSize, int maxProducers) {
+        this(windowSize, maxProducers, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates an audit.
+     *
+     * @param windowSize
+     *        the number of recent sequence ids remembered per producer, rounded up to a
+     *        multiple of 64.
+     * @param maxProducers
+     *        the number of producers audited before the least recently used are evicted.
+     * @param stripes
+     *        the number of lock stripes, rounded up to a power of two and limited so that
+     *        every stripe can hold at least one producer.
+     */
+    public OpenWireMessageAudit(int windowSize, int maxProducers, int stripes) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be greater than zero: " + windowSize);
+        }
+        if (maxProducers <= 0) {
+            throw new IllegalArgumentException("maxProducers must be greater than zero: " + maxProducers);
+        }
+        if (stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("stripes must be between 1 and 2^16: " + stripes);
+        }
+
+        int size = 1;
+        while (size < stripes && size < maxProducers) {
+            size <<= 1;
+        }
+        if (size > maxProducers) {
+            size >>>= 1;
+        }
+
+        this.windowSize = ((windowSize + 63) >>> 6) << 6;
+        this.maxProducers = maxProducers;
+        this.stripes = new Stripe[size];
+        this.mask = size - 1;
+
+        int perStripe = maxProducers / size;
+        for (int i = 0; i < size; ++i) {
+            this.stripes[i] = new Stripe(i < maxProducers % size ? perStripe + 1 : perStripe);
+        }
+    }
+
+    /**
+     * Records the given message as seen and reports if it had been seen before.
+     *
+     * @param messageId
+     *        the id of the message to check.
+     *
+     * @return true if the message is a duplicate or too old to be audited.
+     */
+    public boolean isDuplicate(MessageId messageId) {
+        ProducerId producerId = messageId.getProducerId();
+        if (producerId == null) {
+            return false;
+        }
+
+        Stripe stripe = stripeFor(producerId);
+        synchronized (stripe) {
+            Window window = stripe.get(producerId);
+            if (window == null) {
+                window = new Window(windowSize);
+                stripe.put(producerId, window);
+            }
+
+            return window.record(messageId.getProducerSequenceId());
+        }
+    }
+
+    /**
+     * Checks, without recording it, if the given message is the newest seen for its producer.
+     *
+     * @param messageId
+     *        the id of the message to check.
+     *
+     * @return true if no message with an equal or higher sequence id has been seen from the producer.
+     */
+    public boolean isInOrder(MessageId messageId) {
+        ProducerId producerId = messageId.getProducerId();
+        if (producerId == null) {
+            return true;
+        }
+
+        Stripe stripe = stripeFor(producerId);
+        synchronized (stripe) {
+            Window window = stripe.get(producerId);
+            return window == null || window.isEmpty() || messageId.getProducerSequenceId() > window.highest;
+        }
+    }
+
+    /**
+     * Forgets that the given message was seen so that a redelivery of it is not reported as a
+     * duplicate, for example when the transaction that consumed it is rolled back.
+     *
+     * @param messageId
+     *        the id of the message to forget.
+     */
+    public void rollback(MessageId messageId) {
+        ProducerId producerId = messageId.getProducerId();
+        if (producerId == null) {
+            return;
+        }
+
+        Stripe stripe = stripeFor(producerId);
+        synchronized (stripe) {
+            Window window = stripe.get(producerId);
+            if (window != null) {
+                window.clear(messageId.getProducerSequenceId());
+            }
+        }
+    }
+
+    /**
+     * Stops auditing the given producer, for example once it has been closed.
+     *
+     * @param producerId
+     *        the producer to forget.
+     */
+    public void removeProducer(ProducerId producerId) {
+        Stripe stripe = stripeFor(producerId);
+        synchronized (stripe) {
+            stripe.remove(producerId);
+        }
+    }
+
+    /**
+     * @return the number of producers currently audited.
+     */
+    public int getProducerCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Forgets every audited producer.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMaxProducers() {
+        return maxProducers;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private Stripe stripeFor(ProducerId producerId) {
+        int hash = producerId.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & mask];
+    }
+
+    private static final class Stripe extends LinkedHashMap<ProducerId, Window> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ProducerId, Window> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /*
+     * Bitset over the sequence ids (highest - size, highest], the bit for a sequence id is at
+     * the sequence id modulo the size so the window slides by clearing the bits it passes over.
+     */
+    private static final class Window {
+
+        private final long[] bits;
+        private final int size;
+
+        long highest = -1;
+
+        Window(int size) {
+            this.bits = new long[size >>> 6];
+            this.size = size;
+        }
+
+        boolean isEmpty() {
+            return highest < 0;
+        }
+
+        boolean record(long sequenceId) {
+            if (sequenceId < 0) {
+                return false;
+            }
+
+            if (sequenceId > highest) {
+                advance(sequenceId);
+                set(sequenceId);
+                return false;
+            }
+
+            if (sequenceId <= highest - size) {
+                return true;
+            }
+
+            if (isSet(sequenceId)) {
+                return true;
+            }
+
+            set(sequenceId);
+            return false;
+        }
+
+        void clear(long sequenceId) {
+            if (sequenceId >= 0 && sequenceId <= highest && sequenceId > highest - size) {
+                bits[index(sequenceId)] &= ~(1L << sequenceId);
+            }
+        }
+
+        private void advance(long sequenceId) {
+            if (highest < 0 || sequenceId - highest >= size) {
+                Arrays.fill(bits, 0L);
+            } else {
+                for (long cleared = highest + 1; cleared <= sequenceId; ) {
+                    // Clear whole words where possible, the window is a multiple of 64 bits.
+                    int offset = (int) (cleared & 63);
+                    if (offset == 0 && sequenceId - cleared >= 63) {
+                        bits[index(cleared)] = 0L;
+                        cleared += 64;
+                    } else {
+                        bits[index(cleared)] &= ~(1L << cleared);
+                        cleared++;
+                    }
+                }
+            }
+
+            highest = sequenceId;
+        }
+
+        private boolean isSet(long sequenceId) {
+            return (bits[index(sequenceId)] & (1L << sequenceId)) != 0;
+        }
+
+        private void set(long sequenceId) {
+            bits[index(sequenceId)] |= 1L << sequenceId;
+        }
+
+        private int index(long sequenceId) {
+            return (int) ((sequenceId % size) >>> 6);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+
+/**
+ * Hands the MessageDispatch commands for a consumer from the thread reading the transport to
+ * the thread consuming the messages.
+ * <p>
+ * The buffer is a bounded ring with a single producer and a single consumer, the transport
+ * thread calls {@link #offer(MessageDispatch)} and one consuming thread calls the poll, take
+ * and drain methods.  Neither side takes a lock, a waiting consumer either spins or parks
+ * according to the chosen {@link WaitStrategy}.  The ring holds the consumer's prefetch size
+ * rounded up to a power of two, the broker never has more than the prefetch in flight so an
+ * offer only fails if the prefetch was exceeded.
+ * <p>
+ * A consumer with a prefetch of zero receives messages only when it asks for them.  When its
+ * buffer is found empty a MessagePull is sent through the {@link PullSender}, and another is
+ * not sent until the broker answers.  A pull that times out on the broker is answered with a
+ * MessageDispatch without a message which is returned to the consumer like any other.
+ */
+public class OpenWirePrefetchBuffer {
+
+    /**
+     * The sink used to send the MessagePull commands of a zero prefetch consumer.
+     */
+    public interface PullSender {
+
+        void sendPull(MessagePull pull) throws IOException;
+
+    }
+
+    /**
+     * How the consuming thread waits for a dispatch to arrive.
+     */
+    public enum WaitStrategy {
+
+        /**
+         * Busy spin, yielding the processor between checks.  Lowest latency at the cost of a
+         * processor while waiting.
+         */
+        SPIN,
+
+        /**
+         * Spin briefly then park until the transport thread signals an arrival.
+         */
+        PARK
+    }
+
+    private static final int PARK_SPINS = 128;
+
+    private final ConsumerInfo consumer;
+    private final PullSender pullSender;
+    private final WaitStrategy waitStrategy;
+
+    private final MessageDispatch[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer's view of the consumer index and the consumer's view of the producer index.
+    private long cachedHead;
+    private long cachedTail;
+
+    private volatile Thread waiter;
+    private volatile boolean pullOutstanding;
+    private volatile boolean closed;
+    private long pullTimeout;
+
+    /**
+     * Creates a buffer for the given consumer that parks while waiting.
+     *
+     * @param consumer
+     *        the consumer whose dispatches are buffered.
+     * @param pullSender
+     *        the sink for MessagePull commands, can be null if the prefetch is not zero.
+     */
+    public OpenWirePrefetchBuffer(ConsumerInfo consumer, PullSender pullSender) {
+        this(consumer, pullSender, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a buffer for the given consumer.
+     *
+     * @param consumer
+     *        the consumer whose dispatches are buffered.
+     * @param pullSender
+     *        the sink for MessagePull commands, can be null if the prefetch is not zero.
+     * @param waitStrategy
+     *        how the consuming thread waits for dispatches.
+     */
+    public OpenWirePrefetchBuffer(ConsumerInfo consumer, PullSender pullSender, WaitStrategy waitStrategy) {
+        if (consumer.getPrefetchSize() <= 0 && pullSender == null) {
+            throw new IllegalArgumentException("A PullSender is required for a consumer with a prefetch of zero");
+        }
+        if (consumer.getPrefetchSize() > 1 << 30) {
+            throw new IllegalArgumentException("Prefetch size is too large for a prefetch buffer: " + consumer.getPrefetchSize());
+        }
+
+        int size = 1;
+        while (size < consumer.getPrefetchSize()) {
+            size <<= 1;
+        }
+
+        this.consumer = consumer;
+        this.pullSender = pullSender;
+        this.waitStrategy = waitStrategy;
+        this.ring = new MessageDispatch[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a dispatch received for the consumer, called only from the transport thread.
+     *
+     * @param dispatch
+     *        the dispatch to buffer.
+     *
+     * @return false if the buffer is full or closed and the dispatch was not added.
+     */
+    public boolean offer(MessageDispatch dispatch) {
+        if (closed) {
+            return false;
+        }
+
+        long index = tail.get();
+        if (index - cachedHead >= ring.length) {
+            cachedHead = head.get();
+            if (index - cachedHead >= ring.length) {
+                return false;
+            }
+        }
+
+        ring[(int) index & mask] = dispatch;
+        tail.set(index + 1);
+
+        // Cleared only once the dispatch is visible, a consumer that saw the flag clear while
+        // the buffer was still empty would otherwise send a second pull.
+        pullOutstanding = false;
+
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the next dispatch without waiting, a zero prefetch consumer sends a pull when
+     * nothing is buffered.
+     *
+     * @return the next dispatch or null if none is buffered.
+     *
+     * @throws IOException if a MessagePull cannot be sent.
+     */
+    public MessageDispatch poll() throws IOException {
+        MessageDispatch dispatch = dequeue();
+        if (dispatch == null) {
+            requestPull();
+        }
+
+        return dispatch;
+    }
+
+    /**
+     * Removes the next dispatch, waiting up to the given time for one to arrive.
+     *
+     * @param timeout
+     *        the longest time to wait.
+     * @param unit
+     *        the unit of the timeout.
+     *
+     * @return the next dispatch or null if none arrived in time or the buffer was closed.
+     *
+     * @throws IOException if a MessagePull cannot be sent.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public MessageDispatch poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        return await(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Removes the next dispatch, waiting for one to arrive.
+     *
+     * @return the next dispatch or null if the buffer was closed.
+     *
+     * @throws IOException if a MessagePull cannot be sent.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public MessageDispatch take() throws IOException, InterruptedException {
+        return await(0, false);
+    }
+
+    /**
+     * Removes up to the given number of buffered dispatches without waiting.
+     *
+     * @param target
+     *        the collection that receives the dispatches.
+     * @param maxDispatches
+     *        the largest number of dispatches to remove.
+     *
+     * @return the number of dispatches removed.
+     *
+     * @throws IOException if a MessagePull cannot be sent.
+     */
+    public int drainTo(Collection<? super MessageDispatch> target, int maxDispatches) throws IOException {
+        long index = head.get();
+        long available = Math.min(tail.get() - index, maxDispatches);
+        for (long i = 0; i < available; ++i) {
+            int slot = (int) (index + i) & mask;
+            target.add(ring[slot]);
+            ring[slot] = null;
+        }
+        head.lazySet(index + available);
+
+        if (available == 0) {
+            requestPull();
+        }
+
+        return (int) available;
+    }
+
+    /**
+     * Closes the buffer, waking a waiting consumer, and discards the buffered dispatches.
+     */
+    public void close() {
+        closed = true;
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    /**
+     * @return the number of buffered dispatches.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public ConsumerInfo getConsumer() {
+        return consumer;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return true if a MessagePull has been sent and not yet answered.
+     */
+    public boolean isPullOutstanding() {
+        return pullOutstanding;
+    }
+
+    public long getPullTimeout() {
+        return pullTimeout;
+    }
+
+    /**
+     * @param pullTimeout
+     *        the timeout placed in MessagePull commands, zero waits on the broker until a message
+     *        is available and -1 asks for an immediate answer.
+     */
+    public void setPullTimeout(long pullTimeout) {
+        this.pullTimeout = pullTimeout;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private MessageDispatch dequeue() {
+        if (closed) {
+            return null;
+        }
+
+        long index = head.get();
+        if (index >= cachedTail) {
+            cachedTail = tail.get();
+            if (index >= cachedTail) {
+                return null;
+            }
+        }
+
+        int slot = (int) index & mask;
+        MessageDispatch dispatch = ring[slot];
+        ring[slot] = null;
+        head.lazySet(index + 1);
+        return dispatch;
+    }
+
+    private MessageDispatch await(long deadline, boolean timed) throws IOException, InterruptedException {
+        MessageDispatch dispatch;
+        int spins = 0;
+        while (!closed) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            dispatch = dequeue();
+            if (dispatch != null) {
+                return dispatch;
+            }
+
+            requestPull();
+
+            long remaining = deadline - System.nanoTime();
+            if (timed && remaining <= 0) {
+                return null;
+            }
+
+            if (waitStrategy == WaitStrategy.SPIN || spins < PARK_SPINS) {
+                spins++;
+                Thread.yield();
+                continue;
+            }
+
+            // Publish the waiter before the final check so an arrival after it unparks us.
+            waiter = Thread.currentThread();
+            try {
+                if (isEmpty() && !closed) {
+                    if (timed) {
+                        LockSupport.parkNanos(this, remaining);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+            } finally {
+                waiter = null;
+            }
+        }
+
+        return null;
+    }
+
+    private void requestPull() throws IOException {
+        if (consumer.getPrefetchSize() > 0 || pullOutstanding || closed) {
+            return;
+        }
+
+        MessagePull pull = new MessagePull();
+        pull.configure(consumer);
+        pull.setTimeout(pullTimeout);
+        pullOutstanding = true;
+        try {
+            pullSender.sendPull(pull);
+        } catch (IOException e) {
+            pullOutstanding = false;
+            throw e;
+        }
+    }
+}
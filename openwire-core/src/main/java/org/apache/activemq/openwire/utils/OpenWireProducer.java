@@ -111,6 +111,16 @@ public class OpenWireProducer extends ProducerInfo {
         return this.copy();
     }
 
+    /**
+     * Factory method for creating a send window that tracks this producer's outstanding
+     * bytes using the configured window size.
+     *
+     * @return a new OpenWireProducerWindow for this producer.
+     */
+    public OpenWireProducerWindow createProducerWindow() {
+        return new OpenWireProducerWindow(this);
+    }
+
     /**
      * Factory method for creating a RemoveInfo command that can be used to remove this
      * producer instance from the Broker.
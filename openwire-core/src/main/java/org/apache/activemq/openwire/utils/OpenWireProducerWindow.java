@@ -0,0 +1,433 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.ProducerAck;
+import org.apache.activemq.openwire.commands.ProducerId;
+
+/**
+ * Tracks the send window of a producer using the ProducerAck commands returned by the broker.
+ * <p>
+ * Before an asynchronous send the producer reserves the size of the message, as reported by
+ * {@link Message#getSize()}, from the window and the broker returns that credit in the size
+ * field of a ProducerAck once the message has been handled.  As with the ActiveMQ client a
+ * message may be sent whenever the outstanding bytes are below the window size so a single
+ * message larger than the window can still be sent.  A window size of zero or less disables
+ * flow control and every reservation succeeds immediately.
+ * <p>
+ * Callers can either block on {@link #acquire(Message)}, poll with {@link #tryAcquire(Message)}
+ * or register for notification with {@link #acquireAsync(Message)}.  Asynchronous waiters are
+ * granted credit in the order they asked for it and ahead of blocked threads.
+ */
+public class OpenWireProducerWindow {
+
+    private final ProducerId producerId;
+    private final int windowSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+
+    private long outstandingBytes;
+    private long peakOutstandingBytes;
+    private long acquiredMessages;
+    private long acquiredBytes;
+    private long releasedBytes;
+    private long blockedAcquires;
+    private long blockedTime;
+    private int blockedThreads;
+
+    /**
+     * Creates a window for the given producer using its configured window size.
+     *
+     * @param producer
+     *        the producer whose sends are being tracked.
+     */
+    public OpenWireProducerWindow(OpenWireProducer producer) {
+        this(producer.getProducerId(), producer.getWindowSize());
+    }
+
+    /**
+     * Creates a window for the given producer.
+     *
+     * @param producerId
+     *        the Id of the producer, ProducerAcks for other producers are ignored.
+     * @param windowSize
+     *        the number of bytes that can be outstanding, zero or less disables flow control.
+     */
+    public OpenWireProducerWindow(ProducerId producerId, int windowSize) {
+        this.producerId = producerId;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reserves credit for the message if the window is not full.
+     *
+     * @param message
+     *        the message about to be sent.
+     *
+     * @return true if credit was reserved and the message can be sent.
+     */
+    public boolean tryAcquire(Message message) {
+        int size = message.getSize();
+
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && hasSpace()) {
+                reserve(size);
+                return true;
+            }
+
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until credit for the message can be reserved.
+     *
+     * @param message
+     *        the message about to be sent.
+     *
+     * @throws InterruptedException if interrupted while waiting for credit.
+     */
+    public void acquire(Message message) throws InterruptedException {
+        acquire(message, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Blocks until credit for the message can be reserved or the timeout elapses.
+     *
+     * @param message
+     *        the message about to be sent.
+     * @param timeout
+     *        the maximum time to wait, a negative value waits forever.
+     * @param unit
+     *        the unit of the timeout value.
+     *
+     * @return true if credit was reserved, false if the timeout elapsed.
+     *
+     * @throws InterruptedException if interrupted while waiting for credit.
+     */
+    public boolean acquire(Message message, long timeout, TimeUnit unit) throws InterruptedException {
+        int size = message.getSize();
+
+        lock.lockInterruptibly();
+        try {
+            if (waiters.isEmpty() && hasSpace()) {
+                reserve(size);
+                return true;
+            }
+
+            if (timeout == 0) {
+                return false;
+            }
+
+            long start = System.nanoTime();
+            long remaining = unit.toNanos(timeout);
+            blockedAcquires++;
+            blockedThreads++;
+            try {
+                while (!waiters.isEmpty() || !hasSpace()) {
+                    if (timeout < 0) {
+                        spaceAvailable.await();
+                    } else {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = spaceAvailable.awaitNanos(remaining);
+                    }
+                }
+            } finally {
+                blockedThreads--;
+                blockedTime += System.nanoTime() - start;
+            }
+
+            reserve(size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves credit for the message without blocking the caller.  The returned future
+     * is completed once the credit is reserved, immediately if the window has space.
+     *
+     * @param message
+     *        the message about to be sent.
+     *
+     * @return a future completed when the message can be sent.
+     */
+    public CompletableFuture<Void> acquireAsync(Message message) {
+        int size = message.getSize();
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && hasSpace()) {
+                reserve(size);
+            } else {
+                blockedAcquires++;
+                waiters.add(new Waiter(future, size, System.nanoTime()));
+                return future;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        future.complete(null);
+        return future;
+    }
+
+    /**
+     * Returns credit to the window.
+     *
+     * @param ack
+     *        a ProducerAck received from the broker.
+     *
+     * @return true if the ack was for this producer and credit was returned.
+     */
+    public boolean onProducerAck(ProducerAck ack) {
+        if (producerId != null && !producerId.equals(ack.getProducerId())) {
+            return false;
+        }
+
+        release(ack.getSize());
+        return true;
+    }
+
+    /**
+     * Returns credit to the window, for instance when a send fails and no ProducerAck
+     * will arrive for the message.
+     *
+     * @param size
+     *        the number of bytes to return.
+     */
+    public void release(int size) {
+        List<CompletableFuture<Void>> granted = null;
+
+        lock.lock();
+        try {
+            outstandingBytes = Math.max(0, outstandingBytes - size);
+            releasedBytes += size;
+
+            while (!waiters.isEmpty() && hasSpace()) {
+                Waiter waiter = waiters.poll();
+                reserve(waiter.size);
+                blockedTime += System.nanoTime() - waiter.start;
+                if (granted == null) {
+                    granted = new ArrayList<CompletableFuture<Void>>();
+                }
+                granted.add(waiter.future);
+            }
+
+            if (blockedThreads > 0 && waiters.isEmpty() && hasSpace()) {
+                spaceAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Complete outside the lock so dependent actions can send without deadlocking.
+        if (granted != null) {
+            for (CompletableFuture<Void> future : granted) {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * @return the Id of the producer this window belongs to.
+     */
+    public ProducerId getProducerId() {
+        return producerId;
+    }
+
+    /**
+     * @return the configured window size in bytes.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return true if the window is full and new sends must wait for credit.
+     */
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return !hasSpace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes sent that have not been acknowledged.
+     */
+    public long getOutstandingBytes() {
+        lock.lock();
+        try {
+            return outstandingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest number of outstanding bytes seen.
+     */
+    public long getPeakOutstandingBytes() {
+        lock.lock();
+        try {
+            return peakOutstandingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the fraction of the window in use, zero when flow control is disabled.
+     */
+    public double getUtilization() {
+        if (windowSize <= 0) {
+            return 0.0;
+        }
+
+        lock.lock();
+        try {
+            return (double) outstandingBytes / windowSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages that reserved credit.
+     */
+    public long getAcquiredMessages() {
+        lock.lock();
+        try {
+            return acquiredMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total bytes reserved.
+     */
+    public long getAcquiredBytes() {
+        lock.lock();
+        try {
+            return acquiredBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total bytes returned by ProducerAcks or explicit releases.
+     */
+    public long getReleasedBytes() {
+        lock.lock();
+        try {
+            return releasedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of reservations that had to wait for credit.
+     */
+    public long getBlockedAcquires() {
+        lock.lock();
+        try {
+            return blockedAcquires;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total time in milliseconds reservations spent waiting for credit.
+     */
+    public long getBlockedTime() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(blockedTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of asynchronous reservations waiting for credit.
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OpenWireProducerWindow{producerId=" + producerId + ", windowSize=" + windowSize +
+               ", outstandingBytes=" + getOutstandingBytes() + "}";
+    }
+
+    private boolean hasSpace() {
+        return windowSize <= 0 || outstandingBytes < windowSize;
+    }
+
+    private void reserve(int size) {
+        if (windowSize > 0) {
+            outstandingBytes += size;
+            peakOutstandingBytes = Math.max(peakOutstandingBytes, outstandingBytes);
+        }
+        acquiredMessages++;
+        acquiredBytes += size;
+    }
+
+    private static final class Waiter {
+
+        private final CompletableFuture<Void> future;
+        private final int size;
+        private final long start;
+
+        public Waiter(CompletableFuture<Void> future, int size, long start) {
+            this.future = future;
+            this.size = size;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Recorded when compressing or decompressing a message body takes longer than the configured threshold.
+ */
+@Name(CompressionEvent.NAME)
+@Label("OpenWire Message Compression")
+@Description("A message body that was compressed or decompressed")
+@Category({ "ActiveMQ", "OpenWire" })
+@Threshold("1 ms")
+final class CompressionEvent extends Event {
+
+    static final String NAME = "org.apache.activemq.openwire.MessageCompression";
+
+    @Label("Operation")
+    @Description("Either compress or decompress")
+    String operation;
+
+    @Label("Command Type")
+    @Description("The data structure type of the message")
+    byte commandType;
+
+    @Label("Command")
+    String command;
+
+    @Label("Input Size")
+    @Description("The size of the message body before the operation")
+    @DataAmount
+    int inputSize;
+
+    @Label("Output Size")
+    @Description("The size of the message body after the operation")
+    @DataAmount
+    int outputSize;
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base for the events recorded when a single frame is marshalled or unmarshalled.
+ */
+@Category({ "ActiveMQ", "OpenWire" })
+@StackTrace(false)
+abstract class FrameEvent extends Event {
+
+    @Label("Version")
+    @Description("The OpenWire version of the wire format")
+    int version;
+
+    @Label("Command Type")
+    @Description("The data structure type of the command")
+    byte commandType;
+
+    @Label("Command")
+    String command;
+
+    @Label("Frame Size")
+    @Description("The frame size including any size prefix, -1 if not known")
+    @DataAmount
+    int frameSize;
+}
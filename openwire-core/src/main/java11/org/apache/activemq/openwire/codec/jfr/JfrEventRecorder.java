@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec.jfr;
+
+import org.apache.activemq.openwire.codec.OpenWireEventRecorder;
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.DataStructure;
+
+import jdk.jfr.EventType;
+
+/**
+ * An {@link OpenWireEventRecorder} that emits Java Flight Recorder events.
+ * <p>
+ * Slow marshal, unmarshal and compression events are subject to the usual JFR threshold
+ * setting of each event type.  Large frame events are recorded for frames at or above a
+ * size threshold which defaults to the value of the {@value #LARGE_FRAME_THRESHOLD_PROPERTY}
+ * system property, or 1 MB when that is not set.  A frame read without a size prefix has no
+ * known size, so is recorded with a size of -1 and never as a large frame when unmarshalled.
+ */
+public class JfrEventRecorder implements OpenWireEventRecorder {
+
+    public static final String LARGE_FRAME_THRESHOLD_PROPERTY = "org.apache.activemq.openwire.jfr.largeFrameThreshold";
+    public static final long DEFAULT_LARGE_FRAME_THRESHOLD = 1024 * 1024;
+
+    private static final EventType LARGE_FRAME_TYPE = EventType.getEventType(LargeFrameEvent.class);
+
+    private volatile long largeFrameThreshold = Long.getLong(LARGE_FRAME_THRESHOLD_PROPERTY, DEFAULT_LARGE_FRAME_THRESHOLD);
+
+    @Override
+    public Object beginMarshal() {
+        FrameMarshalEvent event = new FrameMarshalEvent();
+        if (!event.isEnabled() && !LARGE_FRAME_TYPE.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endMarshal(Object token, int version, DataStructure command, int frameSize) {
+        FrameMarshalEvent event = (FrameMarshalEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            populate(event, version, command, frameSize);
+            event.commit();
+        }
+
+        recordLargeFrame("marshal", version, command, frameSize);
+    }
+
+    @Override
+    public Object beginUnmarshal() {
+        FrameUnmarshalEvent event = new FrameUnmarshalEvent();
+        if (!event.isEnabled() && !LARGE_FRAME_TYPE.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endUnmarshal(Object token, int version, DataStructure command, int frameSize) {
+        FrameUnmarshalEvent event = (FrameUnmarshalEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            populate(event, version, command, frameSize);
+            event.commit();
+        }
+
+        recordLargeFrame("unmarshal", version, command, frameSize);
+    }
+
+    @Override
+    public Object beginCompression() {
+        CompressionEvent event = new CompressionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endCompression(Object token, DataStructure message, boolean compress, int inputSize, int outputSize) {
+        CompressionEvent event = (CompressionEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = compress ? "compress" : "decompress";
+            event.commandType = message.getDataStructureType();
+            event.command = message.getClass().getSimpleName();
+            event.inputSize = inputSize;
+            event.outputSize = outputSize;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginRenegotiation() {
+        RenegotiationEvent event = new RenegotiationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endRenegotiation(Object token, int previousVersion, OpenWireFormat format) {
+        RenegotiationEvent event = (RenegotiationEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.previousVersion = previousVersion;
+            event.version = format.getVersion();
+            event.cacheEnabled = format.isCacheEnabled();
+            event.tightEncodingEnabled = format.isTightEncodingEnabled();
+            event.sizePrefixDisabled = format.isSizePrefixDisabled();
+            event.stackTraceEnabled = format.isStackTraceEnabled();
+            event.maxFrameSize = format.getMaxFrameSize();
+            event.commit();
+        }
+    }
+
+    public long getLargeFrameThreshold() {
+        return largeFrameThreshold;
+    }
+
+    /**
+     * @param largeFrameThreshold
+     *        the frame size in bytes at or above which a large frame event is recorded.
+     */
+    public void setLargeFrameThreshold(long largeFrameThreshold) {
+        this.largeFrameThreshold = largeFrameThreshold;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void recordLargeFrame(String direction, int version, DataStructure command, int frameSize) {
+        if (frameSize >= largeFrameThreshold) {
+            LargeFrameEvent event = new LargeFrameEvent();
+            if (event.shouldCommit()) {
+                populate(event, version, command, frameSize);
+                event.direction = direction;
+                event.commit();
+            }
+        }
+    }
+
+    private static void populate(FrameEvent event, int version, DataStructure command, int frameSize) {
+        event.version = version;
+        event.commandType = command != null ? command.getDataStructureType() : 0;
+        event.command = command != null ? command.getClass().getSimpleName() : "null";
+        event.frameSize = frameSize;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when a wire format renegotiates its settings with those offered by the remote peer.
+ */
+@Name(RenegotiationEvent.NAME)
+@Label("OpenWire Wire Format Renegotiation")
+@Description("The settings agreed when a wire format was renegotiated")
+@Category({ "ActiveMQ", "OpenWire" })
+final class RenegotiationEvent extends Event {
+
+    static final String NAME = "org.apache.activemq.openwire.Renegotiation";
+
+    @Label("Previous Version")
+    int previousVersion;
+
+    @Label("Version")
+    int version;
+
+    @Label("Cache Enabled")
+    boolean cacheEnabled;
+
+    @Label("Tight Encoding Enabled")
+    boolean tightEncodingEnabled;
+
+    @Label("Size Prefix Disabled")
+    boolean sizePrefixDisabled;
+
+    @Label("Stack Trace Enabled")
+    boolean stackTraceEnabled;
+
+    @Label("Max Frame Size")
+    @DataAmount
+    long maxFrameSize;
+}
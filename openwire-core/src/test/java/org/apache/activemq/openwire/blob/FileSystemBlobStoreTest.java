@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.apache.activemq.openwire.commands.OpenWireBlobMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the FileSystemBlobStore
+ */
+public class FileSystemBlobStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private FileSystemBlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("blobs");
+        store = new FileSystemBlobStore(directory);
+    }
+
+    @Test
+    public void testStoreAndRead() throws Exception {
+        byte[] payload = createPayload(300 * 1024, 1);
+        String blobId = store.store(new ByteArrayInputStream(payload));
+
+        assertTrue(store.exists(blobId));
+        assertEquals(payload.length, store.size(blobId));
+        assertEquals(1, store.getReferenceCount(blobId));
+        assertArrayEquals(payload, readFully(store.openInputStream(blobId)));
+
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(1000, store.transferTo(blobId, 100, 1000, Channels.newChannel(transferred)));
+        assertArrayEquals(slice(payload, 100, 1000), transferred.toByteArray());
+
+        ByteBuffer mapped = store.map(blobId, 2000, 500);
+        assertTrue(mapped.isReadOnly());
+        byte[] region = new byte[500];
+        mapped.get(region);
+        assertArrayEquals(slice(payload, 2000, 500), region);
+    }
+
+    @Test
+    public void testIdenticalContentIsStoredOnce() throws Exception {
+        byte[] payload = createPayload(4096, 2);
+        String first = store.store(new ByteArrayInputStream(payload));
+        String second = store.store(new ByteArrayInputStream(payload));
+        String other = store.store(new ByteArrayInputStream(createPayload(4096, 3)));
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(2, store.getReferenceCount(first));
+        assertEquals(1, store.getReferenceCount(other));
+    }
+
+    @Test
+    public void testBlobDeletedWhenLastReferenceReleased() throws Exception {
+        String blobId = store.store(new ByteArrayInputStream(createPayload(1024, 4)));
+        assertEquals(2, store.retain(blobId));
+
+        assertEquals(1, store.release(blobId));
+        assertTrue(store.exists(blobId));
+        assertEquals(0, store.release(blobId));
+        assertFalse(store.exists(blobId));
+
+        assertEquals(0, store.release(blobId));
+        assertEquals(0, store.retain(blobId));
+
+        try {
+            store.openInputStream(blobId);
+            fail("Should not be able to open a deleted blob");
+        } catch (FileNotFoundException ex) {
+        }
+    }
+
+    @Test
+    public void testReferenceCountsSurviveRestart() throws Exception {
+        byte[] payload = createPayload(1024, 5);
+        String blobId = store.store(new ByteArrayInputStream(payload));
+        store.retain(blobId);
+
+        FileSystemBlobStore reopened = new FileSystemBlobStore(directory);
+        assertEquals(2, reopened.getReferenceCount(blobId));
+        assertEquals(1, reopened.release(blobId));
+        assertArrayEquals(payload, readFully(reopened.openInputStream(blobId)));
+    }
+
+    @Test
+    public void testEmptyBlob() throws Exception {
+        String blobId = store.store(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, store.size(blobId));
+        assertEquals(0, readFully(store.openInputStream(blobId)).length);
+    }
+
+    @Test
+    public void testBlobIdFromURL() throws Exception {
+        String blobId = store.store(new ByteArrayInputStream(createPayload(16, 6)));
+        URL url = store.getURL(blobId);
+
+        assertEquals(blobId, store.getBlobId(url));
+        assertNull(store.getBlobId(new URL("http://localhost/" + blobId)));
+        assertNull(store.getBlobId(folder.newFile(blobId).toURI().toURL()));
+    }
+
+    @Test
+    public void testInvalidBlobIdRejected() throws Exception {
+        try {
+            store.exists("../../etc/passwd");
+            fail("Should reject ids that are not digests");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testBlobMessageUsesStore() throws Exception {
+        byte[] payload = createPayload(8192, 7);
+        String blobId = store.store(new ByteArrayInputStream(payload));
+
+        OpenWireBlobMessage message = new OpenWireBlobMessage();
+        message.setBlob(store, blobId);
+
+        OpenWireBlobMessage copy = message.copy();
+        assertEquals(2, store.getReferenceCount(blobId));
+        assertArrayEquals(payload, readFully(copy.getInputStream()));
+
+        // Deleting the same message twice releases its reference once.
+        message.deleteFile();
+        message.deleteFile();
+        assertEquals(1, store.getReferenceCount(blobId));
+        assertArrayEquals(payload, readFully(copy.getInputStream()));
+
+        copy.deleteFile();
+        assertFalse(store.exists(blobId));
+    }
+
+    private static byte[] readFully(InputStream stream) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] slice(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+
+    private static byte[] createPayload(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.broker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.codec.OpenWireFormatFactory;
+import org.apache.activemq.openwire.commands.BrokerInfo;
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.OpenWireTopic;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.transport.InVMTransport;
+import org.apache.activemq.openwire.transport.TransportListener;
+import org.apache.activemq.openwire.utils.OpenWireConnection;
+import org.apache.activemq.openwire.utils.OpenWireConsumer;
+import org.apache.activemq.openwire.utils.OpenWireProducer;
+import org.apache.activemq.openwire.utils.OpenWireSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the StubBroker
+ */
+public class StubBrokerTest {
+
+    private StubBroker broker;
+    private OpenWireConnection connection;
+    private OpenWireSession session;
+    private OpenWireProducer producer;
+    private int commandId;
+
+    @Before
+    public void setUp() {
+        broker = new StubBroker("test-broker");
+        connection = new OpenWireConnection();
+        session = connection.createOpenWireSession();
+        producer = session.createOpenWireProducer();
+    }
+
+    @After
+    public void tearDown() {
+        broker.stop();
+    }
+
+    @Test
+    public void testHandshake() throws Exception {
+        Client client = connect(InVMTransport.Mode.ENCODED);
+
+        assertEquals("test-broker", client.brokerInfo.getBrokerName());
+        assertEquals(broker.getBrokerId(), client.brokerInfo.getBrokerId());
+        assertEquals(1, broker.getConnectionCount());
+    }
+
+    @Test
+    public void testResponseRequired() throws Exception {
+        Client client = connect(InVMTransport.Mode.ENCODED);
+
+        Command info = connection.createConnectionInfo();
+        info.setCommandId(42);
+        info.setResponseRequired(true);
+        client.send(info);
+
+        Response response = client.receive(Response.class);
+        assertEquals(42, response.getCorrelationId());
+    }
+
+    @Test
+    public void testQueueDispatchHonoursPrefetch() throws Exception {
+        OpenWireQueue queue = new OpenWireQueue("TEST.QUEUE");
+        Client client = connect(InVMTransport.Mode.ENCODED);
+        openSession(client);
+
+        OpenWireConsumer consumer = session.createOpenWireConsumer();
+        ConsumerInfo info = consumer.createConsumerInfo(queue);
+        info.setPrefetchSize(2);
+        client.send(info);
+
+        for (int i = 0; i < 5; ++i) {
+            client.send(createMessage(queue));
+        }
+
+        MessageDispatch first = client.receive(MessageDispatch.class);
+        MessageDispatch second = client.receive(MessageDispatch.class);
+        assertNull(client.poll(100));
+        assertEquals(3, broker.getPendingCount(queue));
+        assertTrue(first.getMessage().getBrokerInTime() > 0);
+        assertTrue(first.getMessage().getBrokerOutTime() >= first.getMessage().getBrokerInTime());
+
+        MessageAck ack = new MessageAck(first, MessageAck.STANDARD_ACK_TYPE, 2);
+        ack.setFirstMessageId(first.getMessage().getMessageId());
+        ack.setLastMessageId(second.getMessage().getMessageId());
+        client.send(ack);
+
+        client.receive(MessageDispatch.class);
+        client.receive(MessageDispatch.class);
+        assertEquals(1, broker.getPendingCount(queue));
+        assertEquals(5, broker.getMessagesReceived());
+        assertEquals(4, broker.getMessagesDispatched());
+    }
+
+    @Test
+    public void testTopicWildcardFanOut() throws Exception {
+        Client client = connect(InVMTransport.Mode.REFERENCE);
+        openSession(client);
+
+        ConsumerInfo wildcard = session.createOpenWireConsumer().createConsumerInfo(new OpenWireTopic("PRICES.>"));
+        ConsumerInfo exact = session.createOpenWireConsumer().createConsumerInfo(new OpenWireTopic("PRICES.STOCK"));
+        ConsumerInfo other = session.createOpenWireConsumer().createConsumerInfo(new OpenWireTopic("ORDERS"));
+        client.send(wildcard);
+        client.send(exact);
+        client.request(other);
+        assertEquals(3, broker.getTopicSubscriptionCount());
+
+        Message sent = createMessage(new OpenWireTopic("PRICES.STOCK"));
+        client.send(sent);
+
+        MessageDispatch first = client.receive(MessageDispatch.class);
+        MessageDispatch second = client.receive(MessageDispatch.class);
+        Set<Object> consumers = new HashSet<Object>();
+        consumers.add(first.getConsumerId());
+        consumers.add(second.getConsumerId());
+        assertNull(client.poll(100));
+        assertTrue(consumers.contains(wildcard.getConsumerId()));
+        assertTrue(consumers.contains(exact.getConsumerId()));
+
+        // Each subscriber is dispatched its own copy and the producer's message is left as sent.
+        assertNotSame(first.getMessage(), second.getMessage());
+        assertNotSame(sent, first.getMessage());
+        assertTrue(first.getMessage().getBrokerOutTime() > 0);
+        assertEquals(0, sent.getBrokerInTime());
+        assertEquals(0, sent.getBrokerOutTime());
+
+        client.request(session.createRemoveInfo());
+        client.send(createMessage(new OpenWireTopic("PRICES.STOCK")));
+        assertNull(client.poll(100));
+        assertEquals(0, broker.getTopicSubscriptionCount());
+    }
+
+    @Test
+    public void testPullWithoutWaitOnEmptyQueue() throws Exception {
+        OpenWireQueue queue = new OpenWireQueue("TEST.PULL");
+        Client client = connect(InVMTransport.Mode.ENCODED);
+        openSession(client);
+
+        ConsumerInfo info = session.createOpenWireConsumer().createConsumerInfo(queue);
+        info.setPrefetchSize(0);
+        client.send(info);
+
+        MessagePull pull = new MessagePull();
+        pull.configure(info);
+        pull.setTimeout(-1);
+        client.send(pull);
+
+        MessageDispatch empty = client.receive(MessageDispatch.class);
+        assertEquals(info.getConsumerId(), empty.getConsumerId());
+        assertNull(empty.getMessage());
+
+        client.send(createMessage(queue));
+        assertNull(client.poll(100));
+
+        pull.setTimeout(0);
+        client.send(pull);
+        assertNotNull(client.receive(MessageDispatch.class).getMessage());
+    }
+
+    @Test
+    public void testSocketConnection() throws Exception {
+        OpenWireQueue queue = new OpenWireQueue("TEST.SOCKET");
+        int port = broker.bind(0);
+
+        OpenWireFormat format = new OpenWireFormatFactory().createWireFormat();
+        Socket socket = new Socket("localhost", port);
+        try {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            format.marshal(format.getPreferedWireFormatInfo(), out);
+            WireFormatInfo brokerFormat = (WireFormatInfo) format.unmarshal(in);
+            format.renegotiateWireFormat(brokerFormat);
+            BrokerInfo brokerInfo = (BrokerInfo) format.unmarshal(in);
+            assertEquals("test-broker", brokerInfo.getBrokerName());
+            assertEquals("tcp://localhost:" + port, brokerInfo.getBrokerURL());
+
+            format.marshal(connection.createConnectionInfo(), out);
+            format.marshal(session.createSessionInfo(), out);
+            ConsumerInfo info = session.createOpenWireConsumer().createConsumerInfo(queue);
+            info.setPrefetchSize(10);
+            format.marshal(info, out);
+
+            Message message = createMessage(queue);
+            message.setResponseRequired(true);
+            format.marshal(message, out);
+
+            // Routed before the send is answered.
+            MessageDispatch dispatch = (MessageDispatch) format.unmarshal(in);
+            assertEquals(message.getMessageId(), dispatch.getMessage().getMessageId());
+
+            Response response = (Response) format.unmarshal(in);
+            assertEquals(message.getCommandId(), response.getCorrelationId());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void openSession(Client client) throws IOException {
+        client.send(connection.createConnectionInfo());
+        client.send(session.createSessionInfo());
+        client.send(producer.createProducerInfo());
+    }
+
+    private Message createMessage(OpenWireDestination destination) throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setCommandId(++commandId);
+        message.setMessageId(producer.getNextMessageId());
+        message.setProducerId(producer.getProducerId());
+        message.setDestination(destination);
+        message.setText("message-" + commandId);
+        return message;
+    }
+
+    private Client connect(InVMTransport.Mode mode) throws Exception {
+        Client client = new Client(mode);
+        client.brokerInfo = client.receive(BrokerInfo.class);
+        return client;
+    }
+
+    /**
+     * A client end of an in-VM connection that negotiates its format as commands arrive.
+     */
+    private class Client implements TransportListener {
+
+        private final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+        private final OpenWireFormat format = new OpenWireFormatFactory().createWireFormat();
+        private final InVMTransport transport;
+        private BrokerInfo brokerInfo;
+
+        Client(InVMTransport.Mode mode) throws IOException {
+            transport = broker.connect(mode, format);
+            transport.setTransportListener(this);
+            transport.start();
+            transport.oneway(format.getPreferedWireFormatInfo());
+        }
+
+        @Override
+        public void onCommand(Object command) {
+            if (command instanceof WireFormatInfo) {
+                try {
+                    format.renegotiateWireFormat((WireFormatInfo) command);
+                } catch (IOException e) {
+                    onException(e);
+                }
+            }
+            received.add(command);
+        }
+
+        @Override
+        public void onException(IOException error) {
+            received.add(error);
+        }
+
+        void send(Object command) throws IOException {
+            transport.oneway(command);
+        }
+
+        void request(Command command) throws Exception {
+            command.setCommandId(++commandId);
+            command.setResponseRequired(true);
+            transport.oneway(command);
+            assertEquals(command.getCommandId(), receive(Response.class).getCorrelationId());
+        }
+
+        Object poll(long timeout) throws InterruptedException {
+            return received.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        <T> T receive(Class<T> type) throws InterruptedException {
+            Object command;
+            do {
+                command = received.poll(5, TimeUnit.SECONDS);
+                assertNotNull("No " + type.getSimpleName() + " received", command);
+            } while (command instanceof WireFormatInfo && type != WireFormatInfo.class);
+
+            assertTrue("Expected " + type.getSimpleName() + " but got " + command, type.isInstance(command));
+            return type.cast(command);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import org.apache.activemq.openwire.commands.CommandTypes;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the DirectContentBuffer and the off heap message content paths.
+ */
+public class DirectContentBufferTest {
+
+    private final byte[] payload = createPayload(150 * 1024);
+
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new DirectBufferPool(16 * 1024, 64);
+    }
+
+    @Test
+    public void testTightUnmarshalIntoDirectContent() throws Exception {
+        doTestUnmarshalIntoDirectContent(true);
+    }
+
+    @Test
+    public void testLooseUnmarshalIntoDirectContent() throws Exception {
+        doTestUnmarshalIntoDirectContent(false);
+    }
+
+    @Test
+    public void testSmallContentStaysOnHeap() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true);
+        wireFormat.setDirectContentThreshold(payload.length + 1);
+
+        Message received = roundTrip(wireFormat, createMessage(new Buffer(payload)));
+        assertNull(received.getBodySource());
+        assertArrayEquals(payload, received.getContent().toByteArray());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testCopyRetainsContent() throws Exception {
+        Message received = roundTrip(createWireFormat(true), createMessage(new Buffer(payload)));
+        DirectContentBuffer content = (DirectContentBuffer) received.getBodySource();
+
+        Message copy = received.copy();
+        assertSame(content, copy.getBodySource());
+        assertEquals(2, content.getReferenceCount());
+
+        received.clearBody();
+        assertEquals(1, content.getReferenceCount());
+        assertArrayEquals(payload, copy.getContent().toByteArray());
+
+        copy.clearBody();
+        assertEquals(0, content.getReferenceCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testHeapCopiesOfDirectContentAreNotRetained() throws Exception {
+        OpenWireBytesMessage message = createMessage(new Buffer(payload));
+        message.compress();
+
+        Message received = roundTrip(createWireFormat(true), message);
+        DirectContentBuffer content = (DirectContentBuffer) received.getBodySource();
+        assertTrue(received.isCompressed());
+
+        assertFalse(received.getContent() == received.getContent());
+        assertArrayEquals(payload, received.decompress().toByteArray());
+        assertSame(content, received.getBodySource());
+        assertEquals(1, content.getReferenceCount());
+
+        received.clearBody();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testDirectContentCanBeMarshalledAgain() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true);
+        Message received = roundTrip(wireFormat, createMessage(new Buffer(payload)));
+        Message forwarded = roundTrip(wireFormat, received);
+
+        assertArrayEquals(payload, forwarded.getContent().toByteArray());
+
+        received.clearBody();
+        forwarded.clearBody();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testTextMessageDecodedFromDirectContent() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(false);
+        wireFormat.setDirectContentThreshold(1);
+
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setText("Off heap text");
+
+        OpenWireTextMessage received = (OpenWireTextMessage) roundTrip(wireFormat, message);
+        assertTrue(received.getBodySource() instanceof DirectContentBuffer);
+        assertEquals("Off heap text", received.getText());
+        assertNull(received.getBodySource());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void testMoveContentOffHeap() throws Exception {
+        OpenWireBytesMessage message = createMessage(new Buffer(payload));
+        assertTrue(message.moveContentOffHeap(pool));
+        assertTrue(message.getBodySource() instanceof DirectContentBuffer);
+        assertEquals(payload.length, message.getBodySource().getLength());
+        assertArrayEquals(payload, message.getContent().toByteArray());
+
+        message.setContent(new Buffer(payload));
+        assertEquals(0, pool.getOutstandingCount());
+        assertFalse(new OpenWireBytesMessage().moveContentOffHeap(pool));
+    }
+
+    @Test
+    public void testSegmentsReturnedToPool() throws Exception {
+        DirectContentBuffer content = DirectContentBuffer.copyOf(pool, new Buffer(payload));
+        int segments = (payload.length + pool.getSegmentSize() - 1) / pool.getSegmentSize();
+        assertEquals(segments, pool.getOutstandingCount());
+
+        content.release();
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(segments, pool.getPooledCount());
+
+        DirectContentBuffer.copyOf(pool, new Buffer(payload)).release();
+        assertEquals(segments, pool.getAllocatedCount());
+
+        try {
+            content.release();
+            fail("Should not be able to release content twice");
+        } catch (IllegalStateException ex) {
+        }
+
+        try {
+            content.retain();
+            fail("Should not be able to retain released content");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    private void doTestUnmarshalIntoDirectContent(boolean tight) throws Exception {
+        Message received = roundTrip(createWireFormat(tight), createMessage(new Buffer(payload)));
+
+        assertTrue(received.getBodySource() instanceof DirectContentBuffer);
+        assertEquals(payload.length, received.getBodySource().getLength());
+        assertArrayEquals(payload, received.getContent().toByteArray());
+        assertTrue(pool.getOutstandingCount() > 0);
+
+        received.clearBody();
+        assertNull(received.getBodySource());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    private Message roundTrip(OpenWireFormat wireFormat, Message message) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(bytes);
+        wireFormat.marshal(message, dataOut);
+        dataOut.close();
+
+        return (Message) wireFormat.unmarshal(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private OpenWireBytesMessage createMessage(Buffer content) {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setContent(content);
+        return message;
+    }
+
+    private OpenWireFormat createWireFormat(boolean tight) {
+        OpenWireFormat wireFormat = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        wireFormat.setTightEncodingEnabled(tight);
+        wireFormat.setCacheEnabled(false);
+        wireFormat.setDirectContentPool(pool);
+        return wireFormat;
+    }
+
+    private static byte[] createPayload(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.apache.activemq.openwire.commands.CommandTypes;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the MessageBodySource implementations and their use by the Message marshallers.
+ */
+public class MessageBodySourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] payload = createPayload(200 * 1024);
+
+    @Test
+    public void testInputStreamSourceTight() throws Exception {
+        doTestRoundTrip(true, new InputStreamBodySource(new ByteArrayInputStream(payload), payload.length));
+    }
+
+    @Test
+    public void testInputStreamSourceLoose() throws Exception {
+        doTestRoundTrip(false, new InputStreamBodySource(new ByteArrayInputStream(payload), payload.length));
+    }
+
+    @Test
+    public void testFileChannelSource() throws Exception {
+        File file = folder.newFile("body.dat");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[16]);
+            raf.write(payload);
+            raf.write(new byte[16]);
+
+            FileChannel channel = raf.getChannel();
+            long position = channel.position();
+            MessageBodySource source = new FileChannelBodySource(channel, 16, payload.length);
+            doTestRoundTrip(true, source);
+            doTestRoundTrip(false, source);
+            assertEquals(position, channel.position());
+        }
+    }
+
+    @Test
+    public void testByteBufferSource() throws Exception {
+        ByteBuffer first = ByteBuffer.wrap(payload, 0, 1000);
+        ByteBuffer second = ByteBuffer.allocateDirect(payload.length - 1000);
+        second.put(payload, 1000, payload.length - 1000);
+        second.flip();
+
+        MessageBodySource source = new ByteBufferBodySource(first, second);
+        assertEquals(payload.length, source.getLength());
+
+        doTestRoundTrip(true, source);
+        doTestRoundTrip(false, source);
+        assertEquals(0, first.position());
+        assertEquals(0, second.position());
+    }
+
+    @Test
+    public void testEmptySource() throws Exception {
+        OpenWireBytesMessage received = doTestRoundTrip(true, new ByteBufferBodySource());
+        assertEquals(0, received.getContent().getLength());
+    }
+
+    @Test
+    public void testTruncatedInputStreamFails() throws Exception {
+        OpenWireBytesMessage message = createMessage(
+            new InputStreamBodySource(new ByteArrayInputStream(payload, 0, 100), payload.length));
+        try {
+            createWireFormat(true).marshal(message, new DataOutputStream(new ByteArrayOutputStream()));
+            fail("Should fail when the stream ends before the declared length");
+        } catch (IOException ex) {
+        }
+    }
+
+    @Test
+    public void testContentAndSourceAreExclusive() throws Exception {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        message.setContent(new Buffer(payload));
+
+        MessageBodySource source = new ByteBufferBodySource(ByteBuffer.wrap(payload));
+        message.setBodySource(source);
+        assertNull(message.getContent());
+        assertSame(source, message.getBodySource());
+        assertSame(source, message.copy().getBodySource());
+
+        message.compress();
+        assertSame(source, message.getBodySource());
+
+        message.setContent(new Buffer(payload));
+        assertNull(message.getBodySource());
+    }
+
+    @Test
+    public void testSizeIncludesSourceLength() throws Exception {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        message.setBodySource(new ByteBufferBodySource(ByteBuffer.wrap(payload)));
+        assertEquals(Message.DEFAULT_MINIMUM_MESSAGE_SIZE + payload.length, message.getSize());
+    }
+
+    private OpenWireBytesMessage doTestRoundTrip(boolean tight, MessageBodySource source) throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(tight);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(bytes);
+        wireFormat.marshal(createMessage(source), dataOut);
+        dataOut.close();
+
+        Object result = wireFormat.unmarshal(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        OpenWireBytesMessage received = (OpenWireBytesMessage) result;
+        if (source.getLength() > 0) {
+            assertArrayEquals(payload, received.getContent().toByteArray());
+        }
+        return received;
+    }
+
+    private OpenWireBytesMessage createMessage(MessageBodySource source) {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setBodySource(source);
+        return message;
+    }
+
+    private OpenWireFormat createWireFormat(boolean tight) {
+        OpenWireFormat wireFormat = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        wireFormat.setTightEncodingEnabled(tight);
+        wireFormat.setCacheEnabled(false);
+        return wireFormat;
+    }
+
+    private static byte[] createPayload(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.activemq.openwire.commands.CommandTypes;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.ProducerId;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWireFormatStatistics
+ */
+public class OpenWireFormatStatisticsTest {
+
+    private OpenWireFormatStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new OpenWireFormatStatistics();
+    }
+
+    @Test
+    public void testNoListenerByDefault() {
+        assertNull(new OpenWireFormat().getListener());
+        assertNull(new OpenWireFormatFactory().createWireFormat().getListener());
+
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setListener(statistics);
+        OpenWireFormat format = factory.createWireFormat();
+        assertSame(statistics, format.getListener());
+        assertNull(format.copy().getListener());
+    }
+
+    @Test
+    public void testTightEncodingFrameAndCacheStatistics() throws Exception {
+        OpenWireFormat encoder = createFormat(true);
+        OpenWireFormat decoder = createFormat(true);
+        encoder.setListener(statistics);
+        decoder.setListener(statistics);
+
+        Buffer first = encoder.marshal(createMessage("first"));
+        long misses = statistics.getMarshallCacheMisses();
+        long hits = statistics.getMarshallCacheHits();
+        assertTrue(misses > 0);
+
+        // Every cached field of the second message repeats one already written.
+        Buffer second = encoder.marshal(createMessage("second message body"));
+        assertEquals(misses, statistics.getMarshallCacheMisses());
+        assertTrue(statistics.getMarshallCacheHits() > hits);
+        assertTrue(statistics.getMarshallCacheHitRatio() > 0.5);
+
+        assertEquals(2, statistics.getFramesMarshalled(CommandTypes.OPENWIRE_TEXT_MESSAGE));
+        assertEquals(first.length + second.length, statistics.getBytesMarshalled(CommandTypes.OPENWIRE_TEXT_MESSAGE));
+        assertEquals(Math.max(first.length, second.length), statistics.getLargestMarshalledFrame());
+        assertEquals(2, statistics.getFramesMarshalled());
+
+        decoder.unmarshal(first);
+        decoder.unmarshal(second);
+
+        assertEquals(2, statistics.getFramesUnmarshalled(CommandTypes.OPENWIRE_TEXT_MESSAGE));
+        assertEquals(first.length + second.length, statistics.getBytesUnmarshalled());
+        assertEquals(Math.max(first.length, second.length), statistics.getLargestUnmarshalledFrame());
+        assertEquals(2, sum(statistics.getEncodeTimeHistogram()));
+        assertEquals(2, sum(statistics.getDecodeTimeHistogram()));
+
+        String[] summary = statistics.getCommandTypeSummary();
+        assertEquals(1, summary.length);
+        assertTrue(summary[0].startsWith("OPENWIRE_TEXT_MESSAGE{framesOut=2"));
+    }
+
+    @Test
+    public void testLooseEncodingWithoutSizePrefixToStream() throws Exception {
+        OpenWireFormat observed = createFormat(false);
+        OpenWireFormat plain = createFormat(false);
+        observed.setSizePrefixDisabled(true);
+        plain.setSizePrefixDisabled(true);
+        observed.setListener(statistics);
+
+        ByteArrayOutputStream observedBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+        observed.marshal(createMessage("loose"), new DataOutputStream(observedBytes));
+        plain.marshal(createMessage("loose"), new DataOutputStream(plainBytes));
+        observed.marshal(null, new DataOutputStream(observedBytes));
+        plain.marshal(null, new DataOutputStream(plainBytes));
+
+        // Observing the format must not change what is written.
+        assertArrayEquals(plainBytes.toByteArray(), observedBytes.toByteArray());
+        assertEquals(observedBytes.size(), statistics.getBytesMarshalled());
+        assertEquals(1, statistics.getFramesMarshalled(CommandTypes.NULL));
+
+        OpenWireFormat decoder = createFormat(false);
+        decoder.setSizePrefixDisabled(true);
+        decoder.setListener(statistics);
+        decoder.unmarshal(new DataInputStream(new ByteArrayInputStream(observedBytes.toByteArray())));
+
+        // Without a size prefix the frame size read from a stream is not known.
+        assertEquals(1, statistics.getFramesUnmarshalled(CommandTypes.OPENWIRE_TEXT_MESSAGE));
+        assertEquals(0, statistics.getBytesUnmarshalled());
+    }
+
+    @Test
+    public void testMarshalCacheEvictions() throws Exception {
+        OpenWireFormat format = createFormat(true);
+        format.setListener(statistics);
+
+        int added = 0;
+        while (statistics.getMarshallCacheEvictions() == 0) {
+            format.addToMarshallCache(new OpenWireQueue("TEST." + added++));
+            format.runMarshallCacheEvictionSweep();
+        }
+
+        assertEquals(added, statistics.getMarshallCacheMisses());
+        assertEquals(1, statistics.getMarshallCacheEvictions());
+        assertEquals(0, statistics.getMarshallCacheHits());
+    }
+
+    @Test
+    public void testPercentilesAndReset() {
+        for (int i = 0; i < 99; ++i) {
+            statistics.onMarshal(CommandTypes.MESSAGE_ACK, 10, 100);
+        }
+        statistics.onMarshal(CommandTypes.MESSAGE_ACK, 20, 100000);
+
+        assertEquals(127, statistics.getEncodeTimePercentile(50));
+        assertEquals(127, statistics.getEncodeTimePercentile(99));
+        assertEquals(131071, statistics.getEncodeTimePercentile(100));
+        assertEquals(0, statistics.getDecodeTimePercentile(99));
+        assertEquals(1010, statistics.getBytesMarshalled(CommandTypes.MESSAGE_ACK));
+        assertEquals(20, statistics.getLargestMarshalledFrame());
+
+        statistics.reset();
+        assertEquals(0, statistics.getFramesMarshalled());
+        assertEquals(0, statistics.getLargestMarshalledFrame());
+        assertEquals(0, statistics.getEncodeTimePercentile(100));
+        assertEquals(0, statistics.getCommandTypeSummary().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        statistics.getEncodeTimePercentile(101);
+    }
+
+    @Test
+    public void testJmxRegistration() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = statistics.register("test-connection");
+        try {
+            assertTrue(server.isRegistered(name));
+            assertEquals(OpenWireFormatStatistics.DEFAULT_DOMAIN, name.getDomain());
+
+            statistics.onUnmarshal(CommandTypes.MESSAGE_DISPATCH, 128, 1000);
+            assertEquals(1L, server.getAttribute(name, "FramesUnmarshalled"));
+            assertEquals(128L, server.getAttribute(name, "LargestUnmarshalledFrame"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "FramesUnmarshalled"));
+        } finally {
+            statistics.unregister();
+        }
+
+        assertFalse(server.isRegistered(name));
+        assertNull(statistics.getObjectName());
+    }
+
+    private OpenWireFormat createFormat(boolean tight) {
+        OpenWireFormat format = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        format.setCacheEnabled(true);
+        format.setTightEncodingEnabled(tight);
+        return format;
+    }
+
+    private OpenWireTextMessage createMessage(String text) throws Exception {
+        ProducerId producerId = new ProducerId("test:1:1:1");
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setProducerId(producerId);
+        message.setMessageId(new MessageId(producerId, text.length()));
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setText(text);
+        return message;
+    }
+
+    private long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.activemq.openwire.commands;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -126,6 +127,16 @@ public class OpenWireDestinationTest {
         doTestDestinationOptions(new OpenWireTempTopic("TEST:1?k1=v1&k2=v2"));
     }
 
+    @Test
+    public void testDestinationPaths() {
+        assertTrue(Arrays.equals(new String[] { "A", "B", "C" }, new OpenWireTopic("A.B.C").getDestinationPaths()));
+        assertTrue(Arrays.equals(new String[] { "A", "", "C", "" }, new OpenWireTopic("A..C.").getDestinationPaths()));
+        assertTrue(Arrays.equals(new String[] { "SINGLE" }, new OpenWireQueue("SINGLE").getDestinationPaths()));
+
+        // Destinations with the same name share the cached segments.
+        assertSame(new OpenWireTopic("SHARED.PATH").getDestinationPaths(), new OpenWireQueue("SHARED.PATH").getDestinationPaths());
+    }
+
     private void doTestDestinationOptions(OpenWireDestination destination) throws IOException {
         Map<String, String> options = destination.getOptions();
         assertNotNull(options);
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ConsumerInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.RemoveInfo;
+import org.junit.Test;
+
+/**
+ * Tests for the ConsumerDispatcher
+ */
+public class ConsumerDispatcherTest {
+
+    private final OpenWireQueue queue = new OpenWireQueue("TEST");
+    private long sequence;
+
+    @Test
+    public void testRoundRobinWithinPrefetch() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+        ConsumerInfo consumer1 = createConsumer(1, 2, 0, false);
+        ConsumerInfo consumer2 = createConsumer(2, 2, 0, false);
+        dispatcher.addConsumer(consumer1);
+        dispatcher.addConsumer(consumer2);
+
+        List<ConsumerId> order = new ArrayList<ConsumerId>();
+        MessageDispatch dispatch;
+        while ((dispatch = dispatcher.dispatch(createMessage())) != null) {
+            order.add(dispatch.getConsumerId());
+            assertEquals(queue, dispatch.getDestination());
+        }
+
+        assertEquals(4, order.size());
+        assertEquals(consumer1.getConsumerId(), order.get(0));
+        assertEquals(consumer2.getConsumerId(), order.get(1));
+        assertEquals(consumer1.getConsumerId(), order.get(2));
+        assertEquals(consumer2.getConsumerId(), order.get(3));
+        assertEquals(4, dispatcher.getInFlightCount());
+
+        dispatcher.acknowledge(createAck(consumer2, MessageAck.STANDARD_ACK_TYPE, 2));
+        assertEquals(2, dispatcher.getInFlightCount());
+        assertEquals(consumer2.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        assertEquals(consumer2.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        assertNull(dispatcher.dispatch(createMessage()));
+    }
+
+    @Test
+    public void testDeliveredAckDoesNotReleaseCredit() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+        ConsumerInfo consumer = createConsumer(1, 1, 0, false);
+        dispatcher.addConsumer(consumer);
+
+        dispatcher.dispatch(createMessage());
+        dispatcher.acknowledge(createAck(consumer, MessageAck.DELIVERED_ACK_TYPE, 1));
+        assertNull(dispatcher.dispatch(createMessage()));
+
+        dispatcher.acknowledge(createAck(consumer, MessageAck.POSION_ACK_TYPE, 1));
+        assertEquals(1, dispatcher.getSubscription(consumer.getConsumerId()).getAcknowledgedCount());
+        assertEquals(consumer.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+    }
+
+    @Test
+    public void testPriorityPolicyPrefersHigherPriority() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher(new PriorityDispatchPolicy());
+        ConsumerInfo low = createConsumer(1, 10, 1, false);
+        ConsumerInfo high = createConsumer(2, 3, 5, false);
+        dispatcher.addConsumer(low);
+        dispatcher.addConsumer(high);
+
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(high.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        }
+        assertEquals(low.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+
+        dispatcher.acknowledge(createAck(high, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+        assertEquals(high.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+    }
+
+    @Test
+    public void testExclusiveConsumerOwnsDispatch() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+        ConsumerInfo shared = createConsumer(1, 10, 0, false);
+        ConsumerInfo exclusive1 = createConsumer(2, 1, 0, true);
+        ConsumerInfo exclusive2 = createConsumer(3, 10, 0, true);
+        dispatcher.addConsumer(shared);
+        dispatcher.addConsumer(exclusive1);
+        dispatcher.addConsumer(exclusive2);
+
+        assertSame(dispatcher.getSubscription(exclusive1.getConsumerId()), dispatcher.getExclusiveOwner());
+        assertEquals(exclusive1.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        assertNull(dispatcher.dispatch(createMessage()));
+
+        dispatcher.process(new RemoveInfo(exclusive1.getConsumerId()));
+        assertEquals(0, dispatcher.getInFlightCount());
+        assertEquals(exclusive2.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+
+        dispatcher.removeConsumer(exclusive2.getConsumerId());
+        assertNull(dispatcher.getExclusiveOwner());
+        assertEquals(shared.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        assertEquals(1, dispatcher.getConsumerCount());
+    }
+
+    @Test
+    public void testPullConsumer() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+        ConsumerInfo consumer = createConsumer(1, 0, 0, false);
+        dispatcher.addConsumer(consumer);
+        assertNull(dispatcher.dispatch(createMessage()));
+
+        MessagePull pull = new MessagePull();
+        pull.configure(consumer);
+        dispatcher.pull(pull);
+
+        assertEquals(consumer.getConsumerId(), dispatcher.dispatch(createMessage()).getConsumerId());
+        assertNull(dispatcher.dispatch(createMessage()));
+
+        dispatcher.acknowledge(createAck(consumer, MessageAck.STANDARD_ACK_TYPE, 1));
+        assertNull(dispatcher.dispatch(createMessage()));
+    }
+
+    @Test
+    public void testBatchDispatchFromPendingQueue() {
+        ConsumerDispatcher dispatcher = new ConsumerDispatcher();
+        int consumers = 1000;
+        for (int i = 0; i < consumers; ++i) {
+            dispatcher.addConsumer(createConsumer(i + 1, 5, 0, false));
+        }
+
+        PriorityMessageQueue pending = new PriorityMessageQueue();
+        for (int i = 0; i < 6000; ++i) {
+            pending.offer(createMessage());
+        }
+
+        List<MessageDispatch> dispatches = new ArrayList<MessageDispatch>();
+        assertEquals(2000, dispatcher.dispatch(pending, dispatches, 2000));
+        assertEquals(5000, 2000 + dispatcher.dispatch(pending, dispatches, Integer.MAX_VALUE));
+        assertEquals(5000, dispatches.size());
+        assertEquals(1000, pending.size());
+
+        for (int i = 0; i < consumers; ++i) {
+            ConsumerId consumerId = new ConsumerId("test:1:" + (i + 1));
+            assertEquals(5, dispatcher.getSubscription(consumerId).getDispatchedCount());
+        }
+    }
+
+    private ConsumerInfo createConsumer(long id, int prefetch, int priority, boolean exclusive) {
+        ConsumerInfo info = new ConsumerInfo(new ConsumerId("test:1:" + id));
+        info.setDestination(queue);
+        info.setPrefetchSize(prefetch);
+        info.setPriority((byte) priority);
+        info.setExclusive(exclusive);
+        return info;
+    }
+
+    private MessageAck createAck(ConsumerInfo consumer, byte type, int count) {
+        MessageAck ack = new MessageAck();
+        ack.setConsumerId(consumer.getConsumerId());
+        ack.setDestination(queue);
+        ack.setAckType(type);
+        ack.setMessageCount(count);
+        return ack;
+    }
+
+    private Message createMessage() {
+        OpenWireMessage message = new OpenWireMessage();
+        message.setMessageId(new MessageId("ID:test:1:1:1", ++sequence));
+        message.setDestination(queue);
+        return message;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTopic;
+import org.junit.Test;
+
+/**
+ * Tests for the DestinationTrie
+ */
+public class DestinationTrieTest {
+
+    @Test
+    public void testExactAndWildcardMatches() {
+        DestinationTrie<String> trie = new DestinationTrie<String>();
+        trie.subscribe(new OpenWireTopic("A.B.C"), "exact");
+        trie.subscribe(new OpenWireTopic("A.*.C"), "any-child");
+        trie.subscribe(new OpenWireTopic("A.>"), "any-descendent");
+        trie.subscribe(new OpenWireTopic("*.*"), "two-segments");
+        trie.subscribe(new OpenWireTopic("B.>"), "other");
+        assertEquals(5, trie.size());
+
+        assertEquals(set("exact", "any-child", "any-descendent"), trie.get(new OpenWireTopic("A.B.C")));
+        assertEquals(set("any-child", "any-descendent"), trie.get(new OpenWireTopic("A.X.C")));
+        assertEquals(set("any-descendent", "two-segments"), trie.get(new OpenWireTopic("A.B")));
+        assertEquals(set("any-descendent"), trie.get(new OpenWireTopic("A.B.C.D")));
+        assertEquals(set("any-descendent"), trie.get(new OpenWireTopic("A")));
+        assertEquals(set(), trie.get(new OpenWireTopic("C.D.E")));
+    }
+
+    @Test
+    public void testDestinationTypesAreSeparate() {
+        DestinationTrie<String> trie = new DestinationTrie<String>();
+        trie.subscribe(new OpenWireQueue("ORDERS.>"), "queue");
+        trie.subscribe(new OpenWireTopic("ORDERS.>"), "topic");
+
+        assertEquals(set("queue"), trie.get(new OpenWireQueue("ORDERS.NEW")));
+        assertEquals(set("topic"), trie.get(new OpenWireTopic("ORDERS.NEW")));
+    }
+
+    @Test
+    public void testCompositeDestinations() {
+        DestinationTrie<String> trie = new DestinationTrie<String>();
+        assertTrue(trie.subscribe(new OpenWireTopic("A.*,B.C"), "composite"));
+        trie.subscribe(new OpenWireTopic("B.C"), "single");
+        assertEquals(3, trie.size());
+
+        assertEquals(set("composite"), trie.get(new OpenWireTopic("A.X")));
+        assertEquals(set("composite", "single"), trie.get(new OpenWireTopic("A.X,B.C")));
+
+        List<String> matches = new ArrayList<String>();
+        assertEquals(3, trie.match(new OpenWireTopic("A.X,B.C"), matches));
+        assertEquals(3, matches.size());
+
+        assertTrue(trie.unsubscribe(new OpenWireTopic("A.*,B.C"), "composite"));
+        assertEquals(set("single"), trie.get(new OpenWireTopic("A.X,B.C")));
+    }
+
+    @Test
+    public void testSubscribeAndUnsubscribe() {
+        DestinationTrie<String> trie = new DestinationTrie<String>();
+        OpenWireTopic pattern = new OpenWireTopic("A.*.>");
+        assertTrue(trie.subscribe(pattern, "one"));
+        assertFalse(trie.subscribe(pattern, "one"));
+        assertTrue(trie.subscribe(pattern, "two"));
+        assertEquals(2, trie.size());
+
+        assertFalse(trie.unsubscribe(new OpenWireTopic("A.B.>"), "one"));
+        assertFalse(trie.unsubscribe(pattern, "three"));
+        assertTrue(trie.unsubscribe(pattern, "one"));
+        assertEquals(set("two"), trie.get(new OpenWireTopic("A.B.C")));
+
+        assertTrue(trie.unsubscribe(pattern, "two"));
+        assertEquals(0, trie.size());
+        assertEquals(set(), trie.get(new OpenWireTopic("A.B.C")));
+
+        assertTrue(trie.subscribe(pattern, "one"));
+        assertEquals(set("one"), trie.get(new OpenWireTopic("A.B.C")));
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertEquals(set(), trie.get(new OpenWireTopic("A.B.C")));
+    }
+
+    @Test
+    public void testMatchesAgreeWithScan() {
+        Random random = new Random(7);
+        String[] segments = { "A", "B", "C", "*", ">" };
+        DestinationTrie<String> trie = new DestinationTrie<String>();
+        List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < 2000; ++i) {
+            String pattern = randomName(random, segments);
+            patterns.add(pattern);
+            trie.subscribe(new OpenWireTopic(pattern), pattern);
+        }
+
+        for (int i = 0; i < 500; ++i) {
+            String name = randomName(random, new String[] { "A", "B", "C" });
+            Set<String> expected = new HashSet<String>();
+            for (String pattern : patterns) {
+                if (matches(pattern.split("\\."), name.split("\\."))) {
+                    expected.add(pattern);
+                }
+            }
+
+            assertEquals(name, expected, trie.get(new OpenWireTopic(name)));
+        }
+    }
+
+    @Test
+    public void testMatchWhileUpdating() throws Exception {
+        final DestinationTrie<Integer> trie = new DestinationTrie<Integer>();
+        final AtomicBoolean done = new AtomicBoolean();
+        trie.subscribe(new OpenWireTopic("STOCKS.>"), -1);
+
+        Thread updater = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; ++i) {
+                    OpenWireTopic pattern = new OpenWireTopic("STOCKS." + (i % 50) + ".*");
+                    trie.subscribe(pattern, i);
+                    trie.unsubscribe(pattern, i);
+                }
+                done.set(true);
+            }
+        });
+        updater.start();
+
+        OpenWireDestination destination = new OpenWireTopic("STOCKS.7.IBM");
+        List<Integer> matches = new ArrayList<Integer>();
+        while (!done.get()) {
+            matches.clear();
+            trie.match(destination, matches);
+            assertTrue(matches.contains(-1));
+        }
+        updater.join();
+
+        assertEquals(1, trie.size());
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static String randomName(Random random, String[] segments) {
+        int length = 1 + random.nextInt(4);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            if (i > 0) {
+                name.append('.');
+            }
+            name.append(segments[random.nextInt(segments.length)]);
+        }
+        return name.toString();
+    }
+
+    private static boolean matches(String[] pattern, String[] name) {
+        for (int i = 0; i < pattern.length; ++i) {
+            if (">".equals(pattern[i])) {
+                return name.length >= i;
+            }
+            if (i >= name.length || (!"*".equals(pattern[i]) && !pattern[i].equals(name[i]))) {
+                return false;
+            }
+        }
+        return pattern.length == name.length;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.junit.Test;
+
+/**
+ * Tests for the PriorityMessageQueue
+ */
+public class PriorityMessageQueueTest {
+
+    private final OpenWireQueue queue = new OpenWireQueue("TEST");
+    private long sequence;
+
+    @Test
+    public void testStrictPriorityOrder() {
+        PriorityMessageQueue pending = new PriorityMessageQueue();
+        assertTrue(pending.isEmpty());
+        assertEquals(-1, pending.getHighestPriority());
+        assertNull(pending.poll());
+
+        List<Message> low = new ArrayList<Message>();
+        List<Message> high = new ArrayList<Message>();
+        for (int i = 0; i < 5; ++i) {
+            low.add(createMessage(1));
+            high.add(createMessage(8));
+            pending.offer(low.get(i));
+            pending.offer(high.get(i));
+        }
+
+        assertEquals(10, pending.size());
+        assertEquals(5, pending.size(8));
+        assertEquals(8, pending.getHighestPriority());
+
+        for (int i = 0; i < 5; ++i) {
+            assertSame(high.get(i), pending.poll());
+        }
+        assertEquals(1, pending.getHighestPriority());
+        for (int i = 0; i < 5; ++i) {
+            assertSame(low.get(i), pending.poll());
+        }
+
+        assertNull(pending.poll());
+        assertTrue(pending.isEmpty());
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void testFairPolicyServesLowerPriorities() {
+        PriorityMessageQueue pending = new PriorityMessageQueue(true);
+        assertTrue(pending.isFair());
+        for (int i = 0; i < 100; ++i) {
+            pending.offer(createMessage(9));
+            pending.offer(createMessage(0));
+        }
+
+        // A round serves priority 9 ten times and priority 0 once.
+        int lowServed = 0;
+        for (int i = 0; i < 22; ++i) {
+            if (pending.poll().getPriority() == 0) {
+                lowServed++;
+            }
+        }
+        assertEquals(2, lowServed);
+    }
+
+    @Test
+    public void testDrainToDispatches() {
+        PriorityMessageQueue pending = new PriorityMessageQueue();
+        for (int i = 0; i < 10; ++i) {
+            pending.offer(createMessage(i));
+        }
+
+        ConsumerId consumerId = new ConsumerId("test:1:1");
+        List<MessageDispatch> dispatches = new ArrayList<MessageDispatch>();
+        assertEquals(4, pending.drainTo(dispatches, consumerId, 4));
+        assertEquals(4, dispatches.size());
+        for (int i = 0; i < 4; ++i) {
+            MessageDispatch dispatch = dispatches.get(i);
+            assertEquals(consumerId, dispatch.getConsumerId());
+            assertEquals(queue, dispatch.getDestination());
+            assertEquals(9 - i, dispatch.getMessage().getPriority());
+        }
+
+        List<Message> rest = new ArrayList<Message>();
+        assertEquals(6, pending.drainTo(rest, 100));
+        assertEquals(5, rest.get(0).getPriority());
+        assertTrue(pending.isEmpty());
+
+        pending.offer(createMessage(4));
+        pending.clear();
+        assertTrue(pending.isEmpty());
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final PriorityMessageQueue pending = new PriorityMessageQueue();
+        final int producers = 4;
+        final int perProducer = 20000;
+        final ConcurrentHashMap<MessageId, Boolean> received = new ConcurrentHashMap<MessageId, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch producing = new CountDownLatch(producers);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; ++p) {
+            final int producer = p;
+            threads.add(new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; ++i) {
+                        OpenWireMessage message = new OpenWireMessage();
+                        message.setMessageId(new MessageId("ID:producer-" + producer + ":1:1:1", i));
+                        message.setPriority((byte) (i % 10));
+                        pending.offer(message);
+                    }
+                    producing.countDown();
+                }
+            }));
+        }
+
+        for (int c = 0; c < 2; ++c) {
+            threads.add(new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    while (producing.getCount() > 0 || !pending.isEmpty()) {
+                        Message message = pending.poll();
+                        if (message != null && received.put(message.getMessageId(), Boolean.TRUE) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, received.size());
+        assertEquals(0, pending.size());
+    }
+
+    private Message createMessage(int priority) {
+        OpenWireMessage message = new OpenWireMessage();
+        message.setMessageId(new MessageId("ID:test:1:1:1", ++sequence));
+        message.setDestination(queue);
+        message.setPriority((byte) priority);
+        return message;
+    }
+}
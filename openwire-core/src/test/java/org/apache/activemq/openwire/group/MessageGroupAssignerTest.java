@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.activemq.openwire.commands.ConnectionId;
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.RemoveInfo;
+import org.apache.activemq.openwire.commands.SessionId;
+import org.junit.Test;
+
+/**
+ * Tests for the MessageGroupAssigner
+ */
+public class MessageGroupAssignerTest {
+
+    private final ConsumerId consumer1 = new ConsumerId("conn1:1:1");
+    private final ConsumerId consumer2 = new ConsumerId("conn1:2:1");
+    private final ConsumerId consumer3 = new ConsumerId("conn2:1:1");
+
+    @Test
+    public void testGroupStaysWithOwner() {
+        MessageGroupAssigner assigner = new MessageGroupAssigner();
+
+        Message first = createMessage("A", 1);
+        assertEquals(consumer1, assigner.assign(first, consumer1));
+        assertTrue(first.isJMSXGroupFirstForConsumer());
+
+        Message second = createMessage("A", 2);
+        assertEquals(consumer1, assigner.assign(second, consumer2));
+        assertFalse(second.isJMSXGroupFirstForConsumer());
+
+        assertEquals(consumer2, assigner.assign(createMessage(null, 0), consumer2));
+        assertEquals(1, assigner.getGroupCount());
+    }
+
+    @Test
+    public void testGroupClosedBySequence() {
+        MessageGroupAssigner assigner = new MessageGroupAssigner();
+        assigner.assign(createMessage("A", 1), consumer1);
+
+        assertEquals(consumer1, assigner.assign(createMessage("A", MessageGroupAssigner.CLOSE_GROUP_SEQUENCE), consumer2));
+        assertNull(assigner.getOwner("A"));
+
+        Message reopened = createMessage("A", 1);
+        assertEquals(consumer2, assigner.assign(reopened, consumer2));
+        assertTrue(reopened.isJMSXGroupFirstForConsumer());
+    }
+
+    @Test
+    public void testConsumerRemovalRebalancesGroups() {
+        MessageGroupAssigner assigner = new MessageGroupAssigner(new CachedMessageGroupMap(100));
+        assigner.assign(createMessage("A", 1), consumer1);
+        assigner.assign(createMessage("B", 1), consumer2);
+
+        assertEquals(1, assigner.process(new RemoveInfo(consumer1)));
+        assertNull(assigner.getOwner("A"));
+        assertEquals(consumer2, assigner.getOwner("B"));
+
+        Message moved = createMessage("A", 2);
+        assertEquals(consumer2, assigner.assign(moved, consumer2));
+        assertTrue(moved.isJMSXGroupFirstForConsumer());
+        assertEquals(0, assigner.removeConsumer(consumer1));
+    }
+
+    @Test
+    public void testSessionAndConnectionRemoval() {
+        MessageGroupAssigner assigner = new MessageGroupAssigner();
+        assigner.assign(createMessage("A", 1), consumer1);
+        assigner.assign(createMessage("B", 1), consumer2);
+        assigner.assign(createMessage("C", 1), consumer3);
+
+        assertEquals(1, assigner.process(new RemoveInfo(new SessionId(new ConnectionId("conn1"), 2))));
+        assertNull(assigner.getOwner("B"));
+
+        assertEquals(1, assigner.process(new RemoveInfo(new ConnectionId("conn1"))));
+        assertNull(assigner.getOwner("A"));
+        assertEquals(consumer3, assigner.getOwner("C"));
+
+        assigner.clear();
+        assertEquals(0, assigner.getGroupCount());
+    }
+
+    private Message createMessage(String groupId, int sequence) {
+        OpenWireMessage message = new OpenWireMessage();
+        message.setGroupID(groupId);
+        message.setGroupSequence(sequence);
+        return message;
+    }
+}
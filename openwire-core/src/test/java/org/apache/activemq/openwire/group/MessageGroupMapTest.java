@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.junit.Test;
+
+/**
+ * Tests for the MessageGroupMap implementations
+ */
+public class MessageGroupMapTest {
+
+    private final ConsumerId consumer1 = new ConsumerId("test:1:1");
+    private final ConsumerId consumer2 = new ConsumerId("test:1:2");
+
+    @Test
+    public void testSimpleMap() {
+        doTestAssignAndRemove(new SimpleMessageGroupMap());
+    }
+
+    @Test
+    public void testHashBucket() {
+        doTestAssignAndRemove(new MessageGroupHashBucket(4096));
+    }
+
+    @Test
+    public void testCachedMap() {
+        doTestAssignAndRemove(new CachedMessageGroupMap(100));
+    }
+
+    @Test
+    public void testHashBucketSharesOwnerWithinBucket() {
+        MessageGroupHashBucket map = new MessageGroupHashBucket(1);
+        map.put("A", consumer1);
+        map.put("B", consumer2);
+
+        assertEquals(consumer2, map.get("A"));
+        assertEquals(1, map.size());
+
+        assertEquals(consumer2, map.removeGroup("A"));
+        assertNull(map.get("B"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testCachedMapEvictsLeastRecentlyUsed() {
+        CachedMessageGroupMap map = new CachedMessageGroupMap(2);
+        map.put("A", consumer1);
+        map.put("B", consumer1);
+        assertEquals(consumer1, map.get("A"));
+
+        map.put("C", consumer2);
+        assertEquals(2, map.size());
+        assertEquals(1, map.getEvictions());
+        assertNull(map.get("B"));
+        assertEquals(consumer1, map.get("A"));
+        assertEquals(consumer2, map.get("C"));
+    }
+
+    @Test
+    public void testSimpleMapReassignedGroupLeavesPreviousOwner() {
+        SimpleMessageGroupMap map = new SimpleMessageGroupMap();
+        map.put("A", consumer1);
+        map.put("B", consumer1);
+        map.put("A", consumer2);
+        map.put("A", consumer2);
+
+        assertEquals(1, map.removeConsumer(consumer1));
+        assertNull(map.get("B"));
+        assertEquals(consumer2, map.get("A"));
+
+        assertEquals(consumer2, map.removeGroup("A"));
+        assertEquals(0, map.removeConsumer(consumer2));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testFactory() {
+        assertTrue(MessageGroupMapFactory.create("simple") instanceof SimpleMessageGroupMap);
+        assertTrue(MessageGroupMapFactory.create("bucket") instanceof MessageGroupHashBucket);
+        assertTrue(MessageGroupMapFactory.create("CACHED") instanceof CachedMessageGroupMap);
+        assertEquals("cached", MessageGroupMapFactory.create("cached").getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFactoryUnknownType() {
+        MessageGroupMapFactory.create("unknown");
+    }
+
+    private void doTestAssignAndRemove(MessageGroupMap map) {
+        for (int i = 0; i < 20; ++i) {
+            map.put("group-" + i, i % 2 == 0 ? consumer1 : consumer2);
+        }
+
+        int assigned = map.size();
+        assertTrue(assigned > 0);
+        assertEquals(consumer1, map.get("group-0"));
+        assertEquals(consumer2, map.get("group-1"));
+
+        assertEquals(consumer1, map.removeGroup("group-0"));
+        assertNull(map.get("group-0"));
+
+        int released = map.removeConsumer(consumer2);
+        assertTrue(released > 0);
+        assertEquals(assigned - 1 - released, map.size());
+        assertNull(map.get("group-1"));
+        assertEquals(consumer1, map.get("group-2"));
+
+        map.removeAll();
+        assertEquals(0, map.size());
+        assertNull(map.get("group-2"));
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.scheduler;
+
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_CRON;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_DELAY;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_ID;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_PERIOD;
+import static org.apache.activemq.openwire.codec.OpenWireConstants.AMQ_SCHEDULED_REPEAT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.utils.CronParser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the MessageScheduler
+ */
+public class MessageSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageScheduler scheduler = new MessageScheduler();
+    private long sequence;
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testDelayedMessage() throws Exception {
+        OpenWireTextMessage message = createMessage("delayed");
+        message.setProperty(AMQ_SCHEDULED_DELAY, 1000L);
+        assertTrue(MessageScheduler.isScheduled(message));
+
+        String jobId = scheduler.schedule(message, 0);
+        assertEquals(1, scheduler.getScheduledCount());
+        assertEquals(1000, scheduler.getNextDueTime());
+        assertTrue(scheduler.releaseDue(999).isEmpty());
+
+        List<Message> released = scheduler.releaseDue(1000);
+        assertEquals(1, released.size());
+
+        Message delivered = released.get(0);
+        assertEquals(message.getMessageId(), delivered.getMessageId());
+        assertEquals("delayed", ((OpenWireTextMessage) delivered).getText());
+        assertEquals(jobId, delivered.getProperty(AMQ_SCHEDULED_ID));
+        assertNull(delivered.getProperty(AMQ_SCHEDULED_DELAY));
+        assertFalse(MessageScheduler.isScheduled(delivered));
+
+        assertEquals(0, scheduler.getScheduledCount());
+        assertEquals(-1, scheduler.getNextDueTime());
+    }
+
+    @Test
+    public void testRepeatedMessage() throws Exception {
+        OpenWireTextMessage message = createMessage("repeated");
+        message.setProperty(AMQ_SCHEDULED_DELAY, "100");
+        message.setProperty(AMQ_SCHEDULED_PERIOD, 50);
+        message.setProperty(AMQ_SCHEDULED_REPEAT, 2);
+
+        scheduler.schedule(message, 0);
+
+        Set<MessageId> ids = new HashSet<MessageId>();
+        for (long time : new long[] { 100, 150, 200 }) {
+            assertTrue(scheduler.releaseDue(time - 1).isEmpty());
+            List<Message> released = scheduler.releaseDue(time);
+            assertEquals(1, released.size());
+            assertTrue(ids.add(released.get(0).getMessageId()));
+        }
+
+        assertEquals(0, scheduler.getScheduledCount());
+        assertTrue(scheduler.releaseDue(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testCronMessage() throws Exception {
+        OpenWireTextMessage message = createMessage("cron");
+        message.setProperty(AMQ_SCHEDULED_CRON, "*/5 * * * *");
+
+        long now = System.currentTimeMillis();
+        scheduler.schedule(message, now);
+
+        long first = CronParser.getNextScheduledTime("*/5 * * * *", now);
+        assertEquals(first, scheduler.getNextDueTime());
+        assertEquals(1, scheduler.releaseDue(first).size());
+
+        long second = CronParser.getNextScheduledTime("*/5 * * * *", first);
+        assertEquals(second, scheduler.getNextDueTime());
+        assertEquals(1, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testReleasedInBatchesInDueOrder() throws Exception {
+        scheduler.setMaxBatchSize(4);
+        for (int i = 0; i < 10; ++i) {
+            OpenWireTextMessage message = createMessage("message-" + i);
+            message.setProperty(AMQ_SCHEDULED_DELAY, (long) (10 - i) / 2);
+            scheduler.schedule(message, 0);
+        }
+
+        List<String> order = new ArrayList<String>();
+        int batches = 0;
+        List<Message> batch;
+        while (!(batch = scheduler.releaseDue(100)).isEmpty()) {
+            assertTrue(batch.size() <= 4);
+            batches++;
+            for (Message message : batch) {
+                order.add(((OpenWireTextMessage) message).getText());
+            }
+        }
+
+        assertEquals(3, batches);
+        assertEquals(10, order.size());
+        assertEquals("message-9", order.get(0));
+        assertEquals("message-7", order.get(1));
+        assertEquals("message-0", order.get(9));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        OpenWireTextMessage message = createMessage("cancelled");
+        message.setProperty(AMQ_SCHEDULED_DELAY, 10L);
+        String jobId = scheduler.schedule(message, 0);
+
+        assertTrue(scheduler.cancel(jobId));
+        assertFalse(scheduler.cancel(jobId));
+        assertFalse(scheduler.cancel("not-a-job"));
+        assertEquals(0, scheduler.getScheduledCount());
+        assertEquals(-1, scheduler.getNextDueTime());
+        assertTrue(scheduler.releaseDue(100).isEmpty());
+    }
+
+    @Test
+    public void testOverflowToMappedFile() throws Exception {
+        scheduler.setOverflowDirectory(folder.newFolder("overflow"));
+        scheduler.setMaxInMemoryJobs(2);
+        scheduler.setOverflowRegionSize(4096);
+
+        List<String> jobIds = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            OpenWireTextMessage message = createMessage("message-" + i);
+            message.setProperty(AMQ_SCHEDULED_DELAY, (long) 100 + i);
+            if (i == 5) {
+                message.setProperty(AMQ_SCHEDULED_PERIOD, 1000L);
+                message.setProperty(AMQ_SCHEDULED_REPEAT, 1);
+            }
+            jobIds.add(scheduler.schedule(message, 0));
+        }
+
+        assertEquals(20, scheduler.getScheduledCount());
+        assertEquals(18, scheduler.getOverflowCount());
+        assertTrue(scheduler.cancel(jobIds.get(7)));
+
+        List<Message> released = scheduler.releaseDue(200);
+        assertEquals(19, released.size());
+        for (int i = 0, expected = 0; i < released.size(); ++i, ++expected) {
+            if (expected == 7) {
+                expected++;
+            }
+            Message message = released.get(i);
+            assertEquals("message-" + expected, ((OpenWireTextMessage) message).getText());
+            assertEquals(jobIds.get(expected), message.getProperty(AMQ_SCHEDULED_ID));
+        }
+
+        // The repeat of the overflowed recurring job keeps its job id and can be cancelled.
+        assertEquals(1, scheduler.getScheduledCount());
+        assertEquals(1105, scheduler.getNextDueTime());
+        assertTrue(scheduler.cancel(jobIds.get(5)));
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testOverflowRepeatStaysInOverflow() throws Exception {
+        scheduler.setOverflowDirectory(folder.newFolder("overflow"));
+        scheduler.setMaxInMemoryJobs(0);
+
+        OpenWireTextMessage message = createMessage("repeated");
+        message.setProperty(AMQ_SCHEDULED_PERIOD, 10L);
+        message.setProperty(AMQ_SCHEDULED_REPEAT, 3);
+        String jobId = scheduler.schedule(message, 0);
+
+        Set<MessageId> ids = new HashSet<MessageId>();
+        for (long time = 0; time <= 30; time += 10) {
+            List<Message> released = scheduler.releaseDue(time);
+            assertEquals(1, released.size());
+            assertEquals(jobId, released.get(0).getProperty(AMQ_SCHEDULED_ID));
+            assertTrue(ids.add(released.get(0).getMessageId()));
+        }
+
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testListenerReceivesBatches() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(5);
+        scheduler = new MessageScheduler(new ScheduledDeliveryListener() {
+
+            @Override
+            public void onScheduledDelivery(List<Message> messages) {
+                for (int i = 0; i < messages.size(); ++i) {
+                    delivered.countDown();
+                }
+            }
+        });
+        scheduler.start();
+
+        for (int i = 0; i < 5; ++i) {
+            OpenWireTextMessage message = createMessage("message-" + i);
+            message.setProperty(AMQ_SCHEDULED_DELAY, 50L);
+            scheduler.schedule(message);
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    private OpenWireTextMessage createMessage(String text) throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setMessageId(new MessageId("ID:test:1:1:1", ++sequence));
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setText(text);
+        return message;
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.LastPartialCommand;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.PartialCommand;
+import org.apache.activemq.openwire.utils.OpenWireConnection;
+import org.apache.activemq.openwire.utils.OpenWireProducer;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the CommandFragmenter and CommandReassembler
+ */
+public class CommandFragmenterTest {
+
+    private static final int FRAGMENT_SIZE = 16 * 1024;
+
+    private OpenWireProducer producer;
+
+    @Before
+    public void setUp() {
+        producer = new OpenWireConnection().createOpenWireSession().createOpenWireProducer();
+    }
+
+    @Test
+    public void testRoundTripTightEncoding() throws Exception {
+        doTestRoundTrip(true);
+    }
+
+    @Test
+    public void testRoundTripLooseEncoding() throws Exception {
+        doTestRoundTrip(false);
+    }
+
+    private void doTestRoundTrip(boolean tight) throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(tight);
+        byte[] payload = createPayload(FRAGMENT_SIZE * 10 + 17);
+        OpenWireBytesMessage message = createMessage(payload, 42);
+
+        List<PartialCommand> fragments = fragment(wireFormat, message);
+        assertTrue(fragments.size() > 10);
+        for (int i = 0; i < fragments.size(); ++i) {
+            PartialCommand fragment = fragments.get(i);
+            assertEquals(42, fragment.getCommandId());
+            assertTrue(fragment.getData().length <= FRAGMENT_SIZE);
+            assertEquals(i == fragments.size() - 1, fragment instanceof LastPartialCommand);
+        }
+
+        CommandReassembler reassembler = new CommandReassembler(wireFormat);
+        Object result = null;
+        for (PartialCommand fragment : fragments) {
+            // Send each fragment through the codec as it would travel on the wire.
+            PartialCommand received = (PartialCommand) wireFormat.unmarshal(wireFormat.marshal(fragment));
+            result = reassembler.onPartialCommand(received);
+        }
+
+        assertTrue(result instanceof OpenWireBytesMessage);
+        OpenWireBytesMessage copy = (OpenWireBytesMessage) result;
+        assertEquals(message.getMessageId(), copy.getMessageId());
+        assertArrayEquals(payload, copy.getBodyBytes());
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void testInterleavedCommands() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true);
+        byte[] payload1 = createPayload(FRAGMENT_SIZE * 3);
+        byte[] payload2 = createPayload(FRAGMENT_SIZE * 4);
+
+        List<PartialCommand> fragments1 = fragment(wireFormat, createMessage(payload1, 1));
+        List<PartialCommand> fragments2 = fragment(wireFormat, createMessage(payload2, 2));
+
+        CommandReassembler reassembler = new CommandReassembler(wireFormat);
+        List<Object> results = new ArrayList<Object>();
+        int max = Math.max(fragments1.size(), fragments2.size());
+        for (int i = 0; i < max; ++i) {
+            if (i < fragments1.size()) {
+                Object result = reassembler.onPartialCommand(fragments1.get(i));
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            if (i < fragments2.size()) {
+                Object result = reassembler.onPartialCommand(fragments2.get(i));
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+        }
+
+        assertEquals(2, results.size());
+        assertArrayEquals(payload1, ((OpenWireBytesMessage) results.get(0)).getBodyBytes());
+        assertArrayEquals(payload2, ((OpenWireBytesMessage) results.get(1)).getBodyBytes());
+    }
+
+    @Test
+    public void testBufferLimitExceeded() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true);
+        List<PartialCommand> fragments = fragment(wireFormat, createMessage(createPayload(FRAGMENT_SIZE * 4), 7));
+
+        CommandReassembler reassembler = new CommandReassembler(wireFormat, FRAGMENT_SIZE * 2);
+        assertNull(reassembler.onPartialCommand(fragments.get(0)));
+        assertNull(reassembler.onPartialCommand(fragments.get(1)));
+        try {
+            reassembler.onPartialCommand(fragments.get(2));
+            fail("Should have exceeded the buffer limit");
+        } catch (IOException expected) {
+        }
+
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void testSmallCommandIsSingleFragment() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true);
+        List<PartialCommand> fragments = fragment(wireFormat, createMessage(createPayload(10), 3));
+
+        assertEquals(1, fragments.size());
+        assertTrue(fragments.get(0) instanceof LastPartialCommand);
+        Object result = new CommandReassembler(wireFormat).onPartialCommand(fragments.get(0));
+        assertTrue(result instanceof OpenWireBytesMessage);
+    }
+
+    private List<PartialCommand> fragment(OpenWireFormat wireFormat, OpenWireBytesMessage message) throws IOException {
+        final List<PartialCommand> fragments = new ArrayList<PartialCommand>();
+        CommandFragmenter fragmenter = new CommandFragmenter(wireFormat, FRAGMENT_SIZE);
+        int count = fragmenter.fragment(message, new CommandFragmenter.FragmentSink() {
+
+            @Override
+            public void onFragment(PartialCommand fragment) throws IOException {
+                fragments.add(fragment);
+            }
+        });
+
+        assertEquals(count, fragments.size());
+        return fragments;
+    }
+
+    private OpenWireFormat createWireFormat(boolean tight) {
+        OpenWireFormat wireFormat = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION);
+        wireFormat.setTightEncodingEnabled(tight);
+        wireFormat.setCacheEnabled(true);
+        return wireFormat;
+    }
+
+    private OpenWireBytesMessage createMessage(byte[] payload, int commandId) throws Exception {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        message.setCommandId(commandId);
+        message.setMessageId(producer.getNextMessageId());
+        message.setProducerId(producer.getProducerId());
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setContent(new Buffer(payload));
+        return message;
+    }
+
+    private byte[] createPayload(int size) {
+        byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.transport.InVMTransport.Mode;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the InVMTransport
+ */
+public class InVMTransportTest {
+
+    private InVMTransport local;
+    private InVMTransport remote;
+
+    @After
+    public void tearDown() throws Exception {
+        if (local != null) {
+            local.stop();
+            remote.stop();
+        }
+    }
+
+    @Test
+    public void testEncodedRoundTrip() throws Exception {
+        createPair(Mode.ENCODED, 1, InVMTransport.DEFAULT_QUEUE_CAPACITY);
+        Receiver receiver = new Receiver(10);
+        remote.setTransportListener(receiver);
+        start();
+
+        for (int i = 0; i < 10; ++i) {
+            local.oneway(createMessage(i));
+        }
+
+        assertTrue(receiver.await());
+        for (int i = 0; i < 10; ++i) {
+            OpenWireTextMessage received = (OpenWireTextMessage) receiver.commands.get(i);
+            assertEquals("message-" + i, received.getText());
+            assertEquals(new MessageId("ID:test:1:1:1", i), received.getMessageId());
+        }
+
+        assertTrue(local.getBytesSent() > 0);
+        assertEquals(10, local.getCommandsSent());
+        assertEquals(10, remote.getCommandsReceived());
+    }
+
+    @Test
+    public void testReferencesPassedThrough() throws Exception {
+        createPair(Mode.REFERENCE, 1, 0);
+        Receiver receiver = new Receiver(1);
+        remote.setTransportListener(receiver);
+        start();
+
+        OpenWireTextMessage message = createMessage(1);
+        local.oneway(message);
+
+        // Delivered on the sending thread when there is no queue.
+        assertEquals(1, receiver.commands.size());
+        assertSame(message, receiver.commands.get(0));
+        assertEquals(0, local.getBytesSent());
+    }
+
+    @Test
+    public void testBatchesHeldUntilFull() throws Exception {
+        createPair(Mode.ENCODED, 4, 0);
+        Receiver receiver = new Receiver(6);
+        remote.setTransportListener(receiver);
+        start();
+
+        for (int i = 0; i < 3; ++i) {
+            local.oneway(createMessage(i));
+        }
+        assertEquals(0, receiver.commands.size());
+
+        local.oneway(createMessage(3));
+        assertEquals(4, receiver.commands.size());
+
+        local.oneway(createMessage(4));
+        local.oneway(createMessage(5));
+        assertEquals(4, receiver.commands.size());
+        local.flush();
+        assertEquals(6, receiver.commands.size());
+
+        for (int i = 0; i < 6; ++i) {
+            OpenWireTextMessage received = (OpenWireTextMessage) receiver.commands.get(i);
+            assertEquals("message-" + i, received.getText());
+        }
+    }
+
+    @Test
+    public void testBothDirections() throws Exception {
+        createPair(Mode.REFERENCE, 2, 16);
+        Receiver atRemote = new Receiver(2);
+        Receiver atLocal = new Receiver(2);
+        remote.setTransportListener(atRemote);
+        local.setTransportListener(atLocal);
+        start();
+
+        OpenWireTextMessage request = createMessage(1);
+        local.oneway(request);
+        local.oneway(request);
+        remote.oneway(createMessage(2));
+        remote.flush();
+        remote.oneway(createMessage(3));
+        remote.flush();
+
+        assertTrue(atRemote.await());
+        assertTrue(atLocal.await());
+        assertSame(request, atRemote.commands.get(0));
+        assertNotSame(atLocal.commands.get(0), atLocal.commands.get(1));
+    }
+
+    @Test
+    public void testConcurrentSendersDeliveredInOrderOnSendingThreads() throws Exception {
+        doTestConcurrentSendersDeliveredInOrder(0);
+    }
+
+    @Test
+    public void testConcurrentSendersDeliveredInOrderOnReceivingThread() throws Exception {
+        doTestConcurrentSendersDeliveredInOrder(16);
+    }
+
+    @Test
+    public void testSendRequiresStart() throws Exception {
+        createPair(Mode.ENCODED, 1, 0);
+        try {
+            local.oneway(createMessage(1));
+            fail("Should not send before start");
+        } catch (IOException e) {
+        }
+
+        start();
+        local.stop();
+        try {
+            local.oneway(createMessage(1));
+            fail("Should not send after stop");
+        } catch (IOException e) {
+        }
+    }
+
+    private void doTestConcurrentSendersDeliveredInOrder(int queueCapacity) throws Exception {
+        final int senders = 4;
+        final int messages = 500;
+
+        // The marshal cache only decodes correctly if frames arrive in the order they were
+        // written, the senders share destinations so one sender's frames refer to entries
+        // another sender's frames added to the cache.
+        createPair(Mode.ENCODED, 3, queueCapacity);
+        local.getWireFormat().setCacheEnabled(true);
+        remote.getWireFormat().setCacheEnabled(true);
+        Receiver receiver = new Receiver(senders * messages);
+        remote.setTransportListener(receiver);
+        start();
+
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < senders; ++i) {
+            final int sender = i;
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < messages; ++j) {
+                            OpenWireTextMessage message = createMessage(j);
+                            message.setMessageId(new MessageId("ID:test:1:1:" + sender, j));
+                            message.setDestination(new OpenWireQueue("TEST." + (j / 2)));
+                            local.oneway(message);
+                        }
+                        local.flush();
+                    } catch (Throwable error) {
+                        errors.add(error);
+                    }
+                }
+            }, "Sender " + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(receiver.await());
+        assertEquals(senders * messages, receiver.commands.size());
+
+        long[] expected = new long[senders];
+        for (Object command : receiver.commands) {
+            OpenWireTextMessage received = (OpenWireTextMessage) command;
+            int sender = (int) received.getMessageId().getProducerId().getValue();
+            long sequence = received.getMessageId().getProducerSequenceId();
+            assertEquals(expected[sender]++, sequence);
+            assertEquals(new OpenWireQueue("TEST." + (sequence / 2)), received.getDestination());
+            assertEquals("message-" + sequence, received.getText());
+        }
+    }
+
+    private void createPair(Mode mode, int batchSize, int queueCapacity) {
+        InVMTransport[] pair = InVMTransport.createPair(mode, new OpenWireFormat(), new OpenWireFormat());
+        local = pair[0];
+        remote = pair[1];
+        assertSame(remote, local.getPeer());
+        for (InVMTransport transport : pair) {
+            transport.setBatchSize(batchSize);
+            transport.setQueueCapacity(queueCapacity);
+        }
+    }
+
+    private void start() {
+        local.start();
+        remote.start();
+    }
+
+    private OpenWireTextMessage createMessage(int sequence) throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setMessageId(new MessageId("ID:test:1:1:1", sequence));
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setText("message-" + sequence);
+        return message;
+    }
+
+    private static class Receiver implements TransportListener {
+
+        final List<Object> commands = new CopyOnWriteArrayList<Object>();
+        final CountDownLatch done;
+
+        Receiver(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onCommand(Object command) {
+            commands.add(command);
+            done.countDown();
+        }
+
+        @Override
+        public void onException(IOException error) {
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
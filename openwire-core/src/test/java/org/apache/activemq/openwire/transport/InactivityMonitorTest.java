@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.transport.InactivityMonitor.Registration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the hashed wheel based InactivityMonitor
+ */
+public class InactivityMonitorTest {
+
+    private InactivityMonitor monitor;
+
+    @Before
+    public void setUp() {
+        monitor = new InactivityMonitor(10, TimeUnit.MILLISECONDS, 8);
+        monitor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        monitor.stop();
+    }
+
+    @Test(timeout = 30000)
+    public void testKeepAliveRequestedWhenNoWrites() throws Exception {
+        final CountDownLatch keepAlives = new CountDownLatch(2);
+        Registration registration = monitor.register(300, 0, new TestListener() {
+
+            @Override
+            public void onKeepAliveRequired(KeepAliveInfo keepAlive) {
+                keepAlives.countDown();
+            }
+        });
+
+        assertEquals(100, registration.getWriteCheckTime());
+        assertEquals(300, registration.getReadCheckTime());
+
+        // Keep reading so that we never time out.
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (keepAlives.getCount() > 0 && System.currentTimeMillis() < deadline) {
+            registration.onRead();
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        assertEquals(0, keepAlives.getCount());
+        assertFalse(registration.isTimedOut());
+        registration.cancel();
+    }
+
+    @Test(timeout = 30000)
+    public void testNoKeepAliveWhenWriting() throws Exception {
+        final AtomicInteger keepAlives = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+        Registration registration = monitor.register(150, 0, new TestListener() {
+
+            @Override
+            public void onKeepAliveRequired(KeepAliveInfo keepAlive) {
+                keepAlives.incrementAndGet();
+            }
+
+            @Override
+            public void onInactivityTimeout(InactivityIOException error) {
+                timeouts.incrementAndGet();
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            registration.onRead();
+            registration.onWrite();
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+
+        assertEquals(0, keepAlives.get());
+        assertEquals(0, timeouts.get());
+        assertEquals(1, monitor.getRegistrationCount());
+        registration.cancel();
+    }
+
+    @Test(timeout = 30000)
+    public void testTimeoutWhenNoReads() throws Exception {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        Registration registration = monitor.register(100, 50, new TestListener() {
+
+            @Override
+            public void onInactivityTimeout(InactivityIOException error) {
+                timedOut.countDown();
+            }
+        });
+
+        assertTrue(timedOut.await(10, TimeUnit.SECONDS));
+        assertTrue(registration.isTimedOut());
+        assertTrue(waitForRegistrationCount(0));
+    }
+
+    @Test(timeout = 30000)
+    public void testDeadlineBeyondOneWheelRotation() throws Exception {
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final AtomicInteger elapsed = new AtomicInteger();
+
+        // Wheel covers 80ms so the first check needs multiple rounds.
+        monitor.register(400, 0, new TestListener() {
+
+            @Override
+            public void onInactivityTimeout(InactivityIOException error) {
+                elapsed.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                timedOut.countDown();
+            }
+        });
+
+        assertTrue(timedOut.await(10, TimeUnit.SECONDS));
+        assertTrue("Timed out too early: " + elapsed.get(), elapsed.get() >= 400);
+    }
+
+    @Test(timeout = 30000)
+    public void testCancelStopsMonitoring() throws Exception {
+        final AtomicInteger events = new AtomicInteger();
+        Registration registration = monitor.register(60, 0, new InactivityListener() {
+
+            @Override
+            public void onKeepAliveRequired(KeepAliveInfo keepAlive) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void onInactivityTimeout(InactivityIOException error) {
+                events.incrementAndGet();
+            }
+        });
+
+        registration.cancel();
+        assertTrue(waitForRegistrationCount(0));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(0, events.get());
+    }
+
+    @Test
+    public void testDisabledByWireFormatInfo() throws Exception {
+        WireFormatInfo local = new WireFormatInfo();
+        local.setMaxInactivityDuration(30000);
+        local.setMaxInactivityDurationInitalDelay(10000);
+        WireFormatInfo remote = new WireFormatInfo();
+        remote.setMaxInactivityDuration(0);
+        remote.setMaxInactivityDurationInitalDelay(10000);
+
+        Registration registration = monitor.register(local, remote, new TestListener());
+        assertFalse(registration.isMonitored());
+        assertEquals(0, monitor.getRegistrationCount());
+    }
+
+    @Test
+    public void testNegotiatedFromWireFormatInfo() throws Exception {
+        WireFormatInfo local = new WireFormatInfo();
+        local.setMaxInactivityDuration(30000);
+        local.setMaxInactivityDurationInitalDelay(10000);
+        WireFormatInfo remote = new WireFormatInfo();
+        remote.setMaxInactivityDuration(15000);
+        remote.setMaxInactivityDurationInitalDelay(20000);
+
+        Registration registration = monitor.register(local, remote, new TestListener());
+        assertTrue(registration.isMonitored());
+        assertEquals(15000, registration.getReadCheckTime());
+        assertEquals(5000, registration.getWriteCheckTime());
+        registration.cancel();
+    }
+
+    private boolean waitForRegistrationCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (System.currentTimeMillis() < deadline) {
+            if (monitor.getRegistrationCount() == expected) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return false;
+    }
+
+    private static class TestListener implements InactivityListener {
+
+        @Override
+        public void onKeepAliveRequired(KeepAliveInfo keepAlive) {
+        }
+
+        @Override
+        public void onInactivityTimeout(InactivityIOException error) {
+        }
+    }
+}
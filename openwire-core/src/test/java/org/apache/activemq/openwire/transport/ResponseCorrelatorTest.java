@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.activemq.openwire.commands.ConnectionId;
+import org.apache.activemq.openwire.commands.DataResponse;
+import org.apache.activemq.openwire.commands.DataStructure;
+import org.apache.activemq.openwire.commands.ExceptionResponse;
+import org.apache.activemq.openwire.commands.IntegerResponse;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.commands.SessionInfo;
+import org.junit.Test;
+
+/**
+ * Tests for the ResponseCorrelator
+ */
+public class ResponseCorrelatorTest {
+
+    private final ResponseCorrelator correlator = new ResponseCorrelator(4);
+
+    @Test
+    public void testRequestAssignsCommandId() {
+        SessionInfo info1 = new SessionInfo();
+        SessionInfo info2 = new SessionInfo();
+
+        correlator.request(info1);
+        correlator.request(info2);
+
+        assertTrue(info1.isResponseRequired());
+        assertTrue(info2.isResponseRequired());
+        assertTrue(info1.getCommandId() > 0);
+        assertNotEquals(info1.getCommandId(), info2.getCommandId());
+        assertEquals(2, correlator.getOutstandingCount());
+    }
+
+    @Test
+    public void testResponseCompletesFuture() throws Exception {
+        SessionInfo info = new SessionInfo();
+        CompletableFuture<Response> future = correlator.request(info);
+
+        Response response = new Response();
+        response.setCorrelationId(info.getCommandId());
+
+        assertTrue(correlator.onResponse(response));
+        assertSame(response, future.get());
+        assertEquals(0, correlator.getOutstandingCount());
+
+        // A second response for the same Id is ignored.
+        assertFalse(correlator.onResponse(response));
+    }
+
+    @Test
+    public void testExceptionResponseFailsFuture() throws Exception {
+        SessionInfo info = new SessionInfo();
+        CompletableFuture<Response> future = correlator.request(info);
+
+        IllegalStateException error = new IllegalStateException("failed");
+        ExceptionResponse response = new ExceptionResponse(error);
+        response.setCorrelationId(info.getCommandId());
+        correlator.onResponse(response);
+
+        try {
+            future.get();
+            fail("Should have thrown");
+        } catch (ExecutionException ex) {
+            assertSame(error, ex.getCause());
+        }
+    }
+
+    @Test
+    public void testDataAndIntegerResponses() throws Exception {
+        SessionInfo info1 = new SessionInfo();
+        SessionInfo info2 = new SessionInfo();
+
+        CompletableFuture<DataStructure> data = correlator.requestData(info1, 0, TimeUnit.SECONDS);
+        CompletableFuture<Integer> integer = correlator.requestInteger(info2, 0, TimeUnit.SECONDS);
+
+        ConnectionId payload = new ConnectionId("test");
+        DataResponse dataResponse = new DataResponse(payload);
+        dataResponse.setCorrelationId(info1.getCommandId());
+        IntegerResponse integerResponse = new IntegerResponse(42);
+        integerResponse.setCorrelationId(info2.getCommandId());
+
+        correlator.onResponse(integerResponse);
+        correlator.onResponse(dataResponse);
+
+        assertSame(payload, data.get());
+        assertEquals(42, integer.get().intValue());
+    }
+
+    @Test
+    public void testExpireTimedOutRequests() throws Exception {
+        CompletableFuture<Response> timed = correlator.request(new SessionInfo(), 1, TimeUnit.MILLISECONDS);
+        CompletableFuture<Response> untimed = correlator.request(new SessionInfo());
+
+        assertEquals(1, correlator.expire(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(1, correlator.getOutstandingCount());
+
+        try {
+            timed.get();
+            fail("Should have thrown");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertFalse(untimed.isDone());
+    }
+
+    @Test
+    public void testFailAll() throws Exception {
+        List<CompletableFuture<Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            futures.add(correlator.request(new SessionInfo()));
+        }
+
+        IOException error = new IOException("Connection lost");
+        assertEquals(100, correlator.failAll(error));
+        assertEquals(0, correlator.getOutstandingCount());
+
+        for (CompletableFuture<Response> future : futures) {
+            assertTrue(future.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testManyOutstandingRequestsAnsweredOutOfOrder() throws Exception {
+        final int count = 10000;
+        List<SessionInfo> requests = new ArrayList<>(count);
+        List<CompletableFuture<Response>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            SessionInfo info = new SessionInfo();
+            // Give half the requests a timeout so that expiry has to skip over live entries.
+            if (i % 2 == 0) {
+                futures.add(correlator.request(info, 1, TimeUnit.MILLISECONDS));
+            } else {
+                futures.add(correlator.request(info));
+            }
+            requests.add(info);
+        }
+
+        assertEquals(count / 2, correlator.expire(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+
+        List<Integer> order = new ArrayList<>(count);
+        for (int i = 1; i < count; i += 2) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(42));
+
+        for (int i : order) {
+            Response response = new Response();
+            response.setCorrelationId(requests.get(i).getCommandId());
+            assertTrue(correlator.onResponse(response));
+        }
+
+        assertEquals(0, correlator.getOutstandingCount());
+        for (int i = 0; i < count; ++i) {
+            assertTrue(futures.get(i).isDone());
+            assertEquals(i % 2 == 0, futures.get(i).isCompletedExceptionally());
+        }
+    }
+}
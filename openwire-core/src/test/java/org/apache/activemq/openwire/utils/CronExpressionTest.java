@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import javax.jms.MessageFormatException;
+
+import org.junit.Test;
+
+/**
+ * Tests for the compiled CronExpression and the CronParser cache and bulk API.
+ */
+public class CronExpressionTest {
+
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    @Test
+    public void testMinuteAndHourFields() throws Exception {
+        CronExpression cron = CronExpression.parse("*/15 9-17 * * *");
+
+        assertNext(cron, "2016-05-10T09:00:00", "2016-05-10T09:15");
+        assertNext(cron, "2016-05-10T09:45:00", "2016-05-10T10:00");
+        assertNext(cron, "2016-05-10T17:45:00", "2016-05-11T09:00");
+        assertNext(cron, "2016-05-10T08:59:00", "2016-05-10T09:00");
+    }
+
+    @Test
+    public void testMonthRollsIntoNextYear() throws Exception {
+        CronExpression cron = CronExpression.parse("30 8 1 3 *");
+
+        assertNext(cron, "2016-02-10T12:00:00", "2016-03-01T08:30");
+        assertNext(cron, "2016-03-01T08:30:00", "2017-03-01T08:30");
+    }
+
+    @Test
+    public void testLeapDay() throws Exception {
+        CronExpression cron = CronExpression.parse("0 0 29 2 *");
+        assertNext(cron, "2017-01-01T00:00:00", "2020-02-29T00:00");
+    }
+
+    @Test
+    public void testDayOfMonthOrDayOfWeek() throws Exception {
+        // Friday or the 13th, 2016-05-10 is a Tuesday.
+        CronExpression cron = CronExpression.parse("0 12 13 * 5");
+
+        assertNext(cron, "2016-05-10T00:00:00", "2016-05-13T12:00");
+        assertNext(cron, "2016-05-13T12:00:00", "2016-05-20T12:00");
+
+        // Sunday only, with the day of month unrestricted.
+        cron = CronExpression.parse("0 0 ? * 0");
+        assertNext(cron, "2016-05-10T00:00:00", "2016-05-15T00:00");
+    }
+
+    @Test
+    public void testMillisecondsWithinSecondAreKept() throws Exception {
+        CronExpression cron = CronExpression.parse("0 1 * * *");
+        long start = toMillis("2016-05-10T17:10:42") + 123;
+        assertEquals(toMillis("2016-05-11T01:00:00") + 123, cron.getNextFireTime(start, UTC));
+    }
+
+    @Test
+    public void testEveryMinute() throws Exception {
+        CronExpression cron = CronExpression.parse("* * * * *");
+        assertNext(cron, "2016-05-10T23:59:59", "2016-05-11T00:00");
+    }
+
+    @Test
+    public void testNeverFiring() throws Exception {
+        CronExpression cron = CronExpression.parse("0 0 31 2 *");
+        try {
+            cron.getNextFireTime(toMillis("2016-01-01T00:00:00"), UTC);
+            fail("Should not find a fire time for February 31st");
+        } catch (ArithmeticException ex) {
+        }
+    }
+
+    @Test
+    public void testInvalidField() throws Exception {
+        try {
+            CronExpression.parse("0 0 32 * *");
+            fail("Should not accept day of month 32");
+        } catch (MessageFormatException ex) {
+        }
+    }
+
+    @Test
+    public void testCompileIsCached() throws Exception {
+        assertSame(CronParser.compile("5 4 * * 1-5"), CronParser.compile("5 4 * * 1-5"));
+    }
+
+    @Test
+    public void testBulkNextScheduledTimes() throws Exception {
+        long start = System.currentTimeMillis();
+        String[] entries = new String[] { "*/5 * * * *", "*/5 * * * *", "0 3 * * *", null, "*/5 * * * *" };
+        long[] times = new long[] { start, start + 1000, start, start, start + 3600000 };
+        long[] results = new long[entries.length];
+
+        CronParser.getNextScheduledTimes(entries, times, results);
+
+        for (int i = 0; i < entries.length; ++i) {
+            long expected = entries[i] == null ? 0 : CronParser.getNextScheduledTime(entries[i], times[i]);
+            assertEquals("Result for job " + i, expected, results[i]);
+        }
+    }
+
+    @Test
+    public void testBulkNextFireTimes() throws Exception {
+        CronExpression cron = CronParser.compile("0 */2 * * *");
+        long start = toMillis("2016-05-10T00:30:00");
+        long[] times = new long[] { start, start + 1000, start + 3600000 };
+        long[] results = new long[times.length];
+
+        cron.getNextFireTimes(times, results);
+
+        for (int i = 0; i < times.length; ++i) {
+            assertEquals(cron.getNextFireTime(times[i]), results[i]);
+        }
+    }
+
+    private static void assertNext(CronExpression cron, String from, String expected) {
+        long next = cron.getNextFireTime(toMillis(from), UTC);
+        assertEquals(ZonedDateTime.of(LocalDateTime.parse(expected), UTC), ZonedDateTime.ofInstant(Instant.ofEpochMilli(next), UTC));
+    }
+
+    private static long toMillis(String time) {
+        return LocalDateTime.parse(time).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.junit.Test;
+
+/**
+ * Tests for the MessageExpirationIndex
+ */
+public class MessageExpirationIndexTest {
+
+    private final ConsumerId consumerId = new ConsumerId("test:1:1");
+    private final OpenWireQueue queue = new OpenWireQueue("TEST.QUEUE");
+    private long sequence;
+
+    @Test
+    public void testDrainOnlyExpiredMessages() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 8, 0);
+        Message early = createMessage(queue, 15);
+        Message late = createMessage(queue, 25);
+        Message never = createMessage(queue, 0);
+        index.add(early);
+        index.add(late);
+        index.add(never);
+
+        assertEquals(3, index.size());
+        assertEquals(2, index.getExpiringCount());
+        assertEquals(10, index.getNextExpirationTime());
+
+        assertTrue(index.drainExpired(15).isEmpty());
+
+        List<Message> expired = index.drainExpired(16);
+        assertEquals(1, expired.size());
+        assertSame(early, expired.get(0));
+        assertFalse(index.contains(early.getMessageId()));
+
+        expired = index.drainExpired(1000);
+        assertEquals(1, expired.size());
+        assertSame(late, expired.get(0));
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.getExpiringCount());
+        assertEquals(-1, index.getNextExpirationTime());
+        assertTrue(index.drainExpired(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testMessagesBeyondTheWheel() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 4, 0);
+        Message far = createMessage(queue, 10000);
+        Message farther = createMessage(queue, 10005);
+        Message near = createMessage(queue, 20);
+        index.add(far);
+        index.add(farther);
+        index.add(near);
+
+        assertEquals(20, index.getNextExpirationTime());
+        assertEquals(1, index.drainExpired(5000).size());
+        assertEquals(10000, index.getNextExpirationTime());
+
+        assertTrue(index.drainExpired(10000).isEmpty());
+        List<Message> expired = index.drainExpired(10006);
+        assertEquals(2, expired.size());
+        assertTrue(expired.contains(far));
+        assertTrue(expired.contains(farther));
+    }
+
+    @Test
+    public void testMessagesExpiredBeforeStart() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 4, 1000);
+        Message expired = createMessage(queue, 5);
+        index.add(expired);
+
+        List<Message> drained = index.drainExpired(1000);
+        assertEquals(1, drained.size());
+        assertSame(expired, drained.get(0));
+    }
+
+    @Test
+    public void testRemove() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 4, 0);
+        Message near = createMessage(queue, 5);
+        Message far = createMessage(queue, 500);
+        index.add(near);
+        index.add(far);
+
+        assertSame(near, index.remove(near.getMessageId()));
+        assertSame(far, index.remove(far.getMessageId()));
+        assertNull(index.remove(far.getMessageId()));
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.getExpiringCount());
+        assertTrue(index.drainExpired(1000).isEmpty());
+    }
+
+    @Test
+    public void testDrainMatchesScan() {
+        Random random = new Random(42);
+        MessageExpirationIndex index = new MessageExpirationIndex(7, TimeUnit.MILLISECONDS, 16, 0);
+        List<Message> pending = new ArrayList<Message>();
+        for (int i = 0; i < 5000; ++i) {
+            Message message = createMessage(queue, random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(2000));
+            index.add(message);
+            pending.add(message);
+        }
+
+        for (int i = 0; i < 500; ++i) {
+            index.remove(pending.remove(random.nextInt(pending.size())).getMessageId());
+        }
+
+        for (long now = 0; now <= 2100; now += 1 + random.nextInt(150)) {
+            Set<MessageId> expected = new HashSet<MessageId>();
+            for (Message message : pending) {
+                if (message.getExpiration() > 0 && message.getExpiration() < now) {
+                    expected.add(message.getMessageId());
+                }
+            }
+
+            Set<MessageId> drained = new HashSet<MessageId>();
+            for (Message message : index.drainExpired(now)) {
+                drained.add(message.getMessageId());
+                pending.remove(message);
+            }
+
+            assertEquals(expected, drained);
+            assertEquals(pending.size(), index.size());
+        }
+    }
+
+    @Test
+    public void testExpiredAcksCoverAdjacentMessages() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 8, 0);
+        List<Message> messages = new ArrayList<Message>();
+        for (int i = 0; i < 5; ++i) {
+            messages.add(createMessage(queue, 10 + i));
+        }
+        // Does not expire and so splits the expired messages into two ranges.
+        messages.add(createMessage(queue, 0));
+        for (int i = 0; i < 3; ++i) {
+            messages.add(createMessage(queue, 50 - i));
+        }
+        for (Message message : messages) {
+            index.add(message);
+        }
+
+        List<MessageAck> acks = index.drainExpiredAcks(100, consumerId);
+        assertEquals(2, acks.size());
+        assertAck(acks.get(0), messages.get(0), messages.get(4), 5);
+        assertAck(acks.get(1), messages.get(6), messages.get(8), 3);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testExpiredAcksSplitOnDestinationAndRange() {
+        MessageExpirationIndex index = new MessageExpirationIndex(10, TimeUnit.MILLISECONDS, 8, 0);
+        index.setMaxAckRange(2);
+
+        OpenWireQueue other = new OpenWireQueue("OTHER.QUEUE");
+        List<Message> messages = new ArrayList<Message>();
+        messages.add(createMessage(queue, 10));
+        messages.add(createMessage(queue, 10));
+        messages.add(createMessage(queue, 10));
+        messages.add(createMessage(other, 10));
+        for (Message message : messages) {
+            index.add(message);
+        }
+
+        List<MessageAck> acks = index.drainExpiredAcks(100, consumerId);
+        assertEquals(3, acks.size());
+        assertAck(acks.get(0), messages.get(0), messages.get(1), 2);
+        assertAck(acks.get(1), messages.get(2), messages.get(2), 1);
+        assertAck(acks.get(2), messages.get(3), messages.get(3), 1);
+        assertEquals(other, acks.get(2).getDestination());
+
+        assertTrue(index.drainExpiredAcks(200, consumerId).isEmpty());
+    }
+
+    private void assertAck(MessageAck ack, Message first, Message last, int count) {
+        assertEquals(MessageAck.EXPIRED_ACK_TYPE, ack.getAckType());
+        assertEquals(consumerId, ack.getConsumerId());
+        assertEquals(first.getMessageId(), ack.getFirstMessageId());
+        assertEquals(last.getMessageId(), ack.getLastMessageId());
+        assertEquals(count, ack.getMessageCount());
+    }
+
+    private Message createMessage(OpenWireQueue destination, long expiration) {
+        OpenWireMessage message = new OpenWireMessage();
+        message.setMessageId(new MessageId("ID:producer:1:1:1", ++sequence));
+        message.setDestination(destination);
+        message.setExpiration(expiration);
+        return message;
+    }
+}
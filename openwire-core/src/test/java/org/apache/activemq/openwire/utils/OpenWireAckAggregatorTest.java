@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWireAckAggregator
+ */
+public class OpenWireAckAggregatorTest {
+
+    private final List<MessageAck> acks = new ArrayList<MessageAck>();
+
+    private OpenWireProducer producer;
+    private OpenWireConsumer consumer;
+    private OpenWireAckAggregator aggregator;
+    private OpenWireQueue queue = new OpenWireQueue("TEST");
+
+    @Before
+    public void setUp() {
+        OpenWireConnection connection = new OpenWireConnection();
+        OpenWireSession session = connection.createOpenWireSession();
+        producer = session.createOpenWireProducer();
+        consumer = session.createOpenWireConsumer();
+        consumer.setPrefetchSize(10);
+
+        aggregator = consumer.createAckAggregator(new OpenWireAckAggregator.AckSender() {
+
+            @Override
+            public void sendAck(MessageAck ack) throws IOException {
+                acks.add(ack);
+            }
+        });
+        aggregator.setMaxPendingTime(0);
+    }
+
+    @Test
+    public void testDefaultThresholdFromPrefetch() {
+        assertEquals(5, aggregator.getMaxPendingAcks());
+    }
+
+    @Test
+    public void testInOrderConsumptionCoalescedIntoRangeAck() throws Exception {
+        List<MessageDispatch> dispatches = deliver(7);
+        for (MessageDispatch dispatch : dispatches) {
+            aggregator.consumed(dispatch);
+        }
+
+        assertEquals(1, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(4), 5);
+        assertEquals(2, aggregator.getPendingCount());
+
+        aggregator.flush();
+        assertEquals(2, acks.size());
+        assertRangeAck(acks.get(1), MessageAck.STANDARD_ACK_TYPE, dispatches.get(5), dispatches.get(6), 2);
+        assertEquals(0, aggregator.getPendingCount());
+        assertEquals(0, aggregator.getDeliveredCount());
+    }
+
+    @Test
+    public void testByteThreshold() throws Exception {
+        aggregator.setMaxPendingAcks(100);
+        List<MessageDispatch> dispatches = deliver(3);
+        long size = dispatches.get(0).getMessage().getSize();
+        aggregator.setMaxPendingBytes(size * 2);
+
+        aggregator.consumed(dispatches.get(0));
+        assertTrue(acks.isEmpty());
+        aggregator.consumed(dispatches.get(1));
+        assertEquals(1, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(1), 2);
+    }
+
+    @Test
+    public void testTimeThreshold() throws Exception {
+        aggregator.setMaxPendingAcks(100);
+        aggregator.setMaxPendingTime(10);
+        List<MessageDispatch> dispatches = deliver(2);
+
+        aggregator.consumed(dispatches.get(0));
+        assertFalse(aggregator.flushIfDue());
+        TimeUnit.MILLISECONDS.sleep(20);
+        assertTrue(aggregator.flushIfDue());
+        assertEquals(1, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(0), 1);
+    }
+
+    @Test
+    public void testOutOfOrderConsumptionSendsIndividualAck() throws Exception {
+        List<MessageDispatch> dispatches = deliver(3);
+
+        aggregator.consumed(dispatches.get(0));
+        aggregator.consumed(dispatches.get(2));
+
+        assertEquals(2, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(0), 1);
+        assertRangeAck(acks.get(1), MessageAck.INDIVIDUAL_ACK_TYPE, dispatches.get(2), dispatches.get(2), 1);
+
+        aggregator.consumed(dispatches.get(1));
+        aggregator.flush();
+        assertRangeAck(acks.get(2), MessageAck.STANDARD_ACK_TYPE, dispatches.get(1), dispatches.get(1), 1);
+    }
+
+    @Test
+    public void testPoisonAckFlushesPendingRange() throws Exception {
+        List<MessageDispatch> dispatches = deliver(4);
+        IOException cause = new IOException("Bad message");
+
+        aggregator.consumed(dispatches.get(0));
+        aggregator.consumed(dispatches.get(1));
+        aggregator.poisoned(dispatches.get(2), cause);
+
+        assertEquals(2, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(1), 2);
+        assertRangeAck(acks.get(1), MessageAck.POSION_ACK_TYPE, dispatches.get(2), dispatches.get(2), 1);
+        assertSame(cause, acks.get(1).getPoisonCause());
+
+        // Message after the poisoned one starts a new range.
+        aggregator.consumed(dispatches.get(3));
+        aggregator.flush();
+        assertRangeAck(acks.get(2), MessageAck.STANDARD_ACK_TYPE, dispatches.get(3), dispatches.get(3), 1);
+    }
+
+    @Test
+    public void testRedeliveredAckKeepsMessageDelivered() throws Exception {
+        List<MessageDispatch> dispatches = deliver(2);
+
+        aggregator.consumed(dispatches.get(0));
+        aggregator.redelivered(dispatches.get(1), 2);
+
+        assertEquals(2, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.STANDARD_ACK_TYPE, dispatches.get(0), dispatches.get(0), 1);
+        assertRangeAck(acks.get(1), MessageAck.REDELIVERED_ACK_TYPE, dispatches.get(1), dispatches.get(1), 1);
+        assertEquals(2, dispatches.get(1).getMessage().getRedeliveryCounter());
+        assertEquals(1, aggregator.getDeliveredCount());
+
+        aggregator.consumed(dispatches.get(1));
+        aggregator.flush();
+        assertRangeAck(acks.get(2), MessageAck.STANDARD_ACK_TYPE, dispatches.get(1), dispatches.get(1), 1);
+    }
+
+    @Test
+    public void testDeliveredAcks() throws Exception {
+        aggregator.setDeliveredAckThreshold(3);
+        List<MessageDispatch> dispatches = deliver(3);
+
+        assertEquals(1, acks.size());
+        assertRangeAck(acks.get(0), MessageAck.DELIVERED_ACK_TYPE, dispatches.get(0), dispatches.get(2), 3);
+
+        aggregator.consumed(dispatches.get(0));
+        dispatches.addAll(deliver(3));
+
+        assertEquals(2, acks.size());
+        assertRangeAck(acks.get(1), MessageAck.DELIVERED_ACK_TYPE, dispatches.get(1), dispatches.get(5), 5);
+    }
+
+    private List<MessageDispatch> deliver(int count) throws IOException {
+        List<MessageDispatch> dispatches = new ArrayList<MessageDispatch>();
+        for (int i = 0; i < count; ++i) {
+            OpenWireTextMessage message = new OpenWireTextMessage();
+            message.setMessageId(producer.getNextMessageId());
+            message.setDestination(queue);
+
+            MessageDispatch dispatch = new MessageDispatch();
+            dispatch.setConsumerId(consumer.getConsumerId());
+            dispatch.setDestination(queue);
+            dispatch.setMessage(message);
+
+            aggregator.delivered(dispatch);
+            dispatches.add(dispatch);
+        }
+
+        return dispatches;
+    }
+
+    private void assertRangeAck(MessageAck ack, byte type, MessageDispatch first, MessageDispatch last, int count) {
+        assertEquals(type, ack.getAckType());
+        assertEquals(consumer.getConsumerId(), ack.getConsumerId());
+        assertEquals(queue, ack.getDestination());
+        assertEquals(first.getMessage().getMessageId(), ack.getFirstMessageId());
+        assertEquals(last.getMessage().getMessageId(), ack.getLastMessageId());
+        assertEquals(count, ack.getMessageCount());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWireIdGenerator class.
+ */
+public class OpenWireIdGeneratorTest {
+
+    @Test
+    public void testSequenceIncreasesFromSingleThread() {
+        OpenWireIdGenerator generator = new OpenWireIdGenerator("ID:test");
+
+        long last = 0;
+        for (int i = 0; i < OpenWireIdGenerator.SEQUENCE_BLOCK_SIZE * 3; ++i) {
+            String id = generator.generateId();
+            long sequence = OpenWireIdGenerator.getSequenceFromId(id);
+            assertEquals(last + 1, sequence);
+            last = sequence;
+        }
+    }
+
+    @Test
+    public void testSeedIsSharedByGeneratedIds() {
+        OpenWireIdGenerator generator = new OpenWireIdGenerator("ID:test");
+
+        String id1 = generator.generateId();
+        String id2 = generator.generateId();
+
+        assertTrue(id1.startsWith("ID:test-"));
+        assertEquals(OpenWireIdGenerator.getSeedFromId(id1), OpenWireIdGenerator.getSeedFromId(id2));
+        assertTrue(OpenWireIdGenerator.compare(id1, id2) < 0);
+    }
+
+    @Test
+    public void testGeneratorsHaveDistinctSeeds() {
+        OpenWireIdGenerator generator1 = new OpenWireIdGenerator();
+        OpenWireIdGenerator generator2 = new OpenWireIdGenerator();
+
+        String seed1 = OpenWireIdGenerator.getSeedFromId(generator1.generateId());
+        String seed2 = OpenWireIdGenerator.getSeedFromId(generator2.generateId());
+
+        assertFalse(seed1.equals(seed2));
+    }
+
+    @Test
+    public void testSanitizedId() {
+        OpenWireIdGenerator generator = new OpenWireIdGenerator("ID:some.host_name");
+
+        String id = generator.generateSanitizedId();
+        assertFalse(id.contains(":"));
+        assertFalse(id.contains("."));
+        assertFalse(id.contains("_"));
+        assertTrue(id.startsWith("ID-some-host-name-"));
+    }
+
+    @Test
+    public void testFastStartupStub() {
+        String stub = OpenWireIdGenerator.generateFastStartupStub();
+
+        assertTrue(stub.startsWith("-"));
+        assertTrue(stub.endsWith("-"));
+        String[] parts = stub.substring(1, stub.length() - 1).split("-");
+        assertEquals(2, parts.length);
+        assertTrue(Long.parseLong(parts[0]) >= 0);
+        assertTrue(Long.parseLong(parts[1]) > 0);
+    }
+
+    @Test(timeout = 60000)
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final OpenWireIdGenerator generator = new OpenWireIdGenerator("ID:test");
+        final int threadCount = 8;
+        final int idsPerThread = 10000;
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; ++i) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Set<String> local = new HashSet<String>();
+                    for (int j = 0; j < idsPerThread; ++j) {
+                        local.add(generator.generateId());
+                    }
+                    ids.addAll(local);
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(threadCount * idsPerThread, ids.size());
+    }
+
+    @Test(timeout = 60000)
+    public void testDiscardedGeneratorIsNotRetainedByThread() throws Exception {
+        OpenWireIdGenerator generator = new OpenWireIdGenerator("ID:test");
+        generator.generateId();
+
+        WeakReference<OpenWireIdGenerator> reference = new WeakReference<OpenWireIdGenerator>(generator);
+        generator = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; ++i) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+
+        assertNull(reference.get());
+    }
+}
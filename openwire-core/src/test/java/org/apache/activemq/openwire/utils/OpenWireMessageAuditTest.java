@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.ProducerId;
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWireMessageAudit
+ */
+public class OpenWireMessageAuditTest {
+
+    private final ProducerId producer1 = new ProducerId("ID:test-1:1:1:1");
+    private final ProducerId producer2 = new ProducerId("ID:test-2:1:1:1");
+    private final ProducerId producer3 = new ProducerId("ID:test-3:1:1:1");
+
+    @Test
+    public void testDuplicateDetected() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit();
+        for (int i = 1; i <= 100; ++i) {
+            assertFalse(audit.isDuplicate(new MessageId(producer1, i)));
+        }
+        for (int i = 1; i <= 100; ++i) {
+            assertTrue(audit.isDuplicate(new MessageId(producer1, i)));
+        }
+
+        assertFalse(audit.isDuplicate(new MessageId(producer2, 1)));
+        assertEquals(2, audit.getProducerCount());
+    }
+
+    @Test
+    public void testOutOfOrderWithinWindow() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit(128, 10);
+        assertFalse(audit.isDuplicate(new MessageId(producer1, 100)));
+
+        MessageId late = new MessageId(producer1, 50);
+        assertFalse(audit.isInOrder(late));
+        assertFalse(audit.isDuplicate(late));
+        assertTrue(audit.isDuplicate(late));
+
+        assertTrue(audit.isInOrder(new MessageId(producer1, 101)));
+        assertTrue(audit.isInOrder(new MessageId(producer2, 1)));
+    }
+
+    @Test
+    public void testBehindWindowIsDuplicate() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit(64, 10);
+        assertEquals(64, audit.getWindowSize());
+
+        assertFalse(audit.isDuplicate(new MessageId(producer1, 1)));
+        assertFalse(audit.isDuplicate(new MessageId(producer1, 100)));
+        assertFalse(audit.isDuplicate(new MessageId(producer1, 37)));
+        assertTrue(audit.isDuplicate(new MessageId(producer1, 36)));
+    }
+
+    @Test
+    public void testWindowSlidesOverSeenIds() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit(64, 10);
+        for (int i = 0; i < 64; ++i) {
+            assertFalse(audit.isDuplicate(new MessageId(producer1, i)));
+        }
+
+        // Each id shares its bit with the id 64 earlier that has now left the window.
+        for (int i = 64; i < 1000; i += 3) {
+            assertFalse(audit.isDuplicate(new MessageId(producer1, i)));
+            assertTrue(audit.isDuplicate(new MessageId(producer1, i)));
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit();
+        MessageId messageId = new MessageId(producer1, 5);
+        assertFalse(audit.isDuplicate(messageId));
+        assertTrue(audit.isDuplicate(messageId));
+
+        audit.rollback(messageId);
+        assertFalse(audit.isDuplicate(messageId));
+        assertTrue(audit.isDuplicate(messageId));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedProducerEvicted() {
+        OpenWireMessageAudit audit = new OpenWireMessageAudit(64, 2, 1);
+        assertFalse(audit.isDuplicate(new MessageId(producer1, 1)));
+        assertFalse(audit.isDuplicate(new MessageId(producer2, 1)));
+        assertTrue(audit.isDuplicate(new MessageId(producer1, 1)));
+
+        assertFalse(audit.isDuplicate(new MessageId(producer3, 1)));
+        assertEquals(2, audit.getProducerCount());
+
+        assertTrue(audit.isDuplicate(new MessageId(producer1, 1)));
+        assertFalse(audit.isDuplicate(new MessageId(producer2, 1)));
+
+        audit.removeProducer(producer2);
+        audit.clear();
+        assertEquals(0, audit.getProducerCount());
+    }
+
+    @Test
+    public void testConcurrentChecks() throws Exception {
+        final OpenWireMessageAudit audit = new OpenWireMessageAudit(4096, 64);
+        final int threads = 4;
+        final int messages = 20000;
+        final AtomicInteger unique = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; ++t) {
+            Thread worker = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    // Every thread offers the same ids, each must be reported unique exactly once.
+                    for (int i = 0; i < messages; ++i) {
+                        ProducerId producerId = (i & 1) == 0 ? producer1 : producer2;
+                        if (!audit.isDuplicate(new MessageId(producerId, i >> 1))) {
+                            unique.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(messages, unique.get());
+    }
+}
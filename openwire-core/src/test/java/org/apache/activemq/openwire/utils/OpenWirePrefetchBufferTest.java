@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.MessagePull;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.utils.OpenWirePrefetchBuffer.WaitStrategy;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWirePrefetchBuffer
+ */
+public class OpenWirePrefetchBufferTest {
+
+    private final List<MessagePull> pulls = new CopyOnWriteArrayList<MessagePull>();
+    private final OpenWirePrefetchBuffer.PullSender pullSender = new OpenWirePrefetchBuffer.PullSender() {
+
+        @Override
+        public void sendPull(MessagePull pull) throws IOException {
+            pulls.add(pull);
+        }
+    };
+
+    private OpenWireConsumer consumer;
+    private OpenWireQueue queue = new OpenWireQueue("TEST");
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        OpenWireConnection connection = new OpenWireConnection();
+        OpenWireSession session = connection.createOpenWireSession();
+        consumer = session.createOpenWireConsumer();
+        consumer.setDestination(queue);
+    }
+
+    @Test
+    public void testCapacityFromPrefetch() throws Exception {
+        consumer.setPrefetchSize(5);
+        OpenWirePrefetchBuffer buffer = consumer.createPrefetchBuffer(null, WaitStrategy.PARK);
+        assertEquals(8, buffer.getCapacity());
+
+        List<MessageDispatch> offered = new ArrayList<MessageDispatch>();
+        for (int i = 0; i < 8; ++i) {
+            MessageDispatch dispatch = createDispatch();
+            offered.add(dispatch);
+            assertTrue(buffer.offer(dispatch));
+        }
+        assertFalse(buffer.offer(createDispatch()));
+        assertEquals(8, buffer.size());
+
+        assertSame(offered.get(0), buffer.poll());
+        assertTrue(buffer.offer(createDispatch()));
+
+        List<MessageDispatch> drained = new ArrayList<MessageDispatch>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(offered.subList(1, 4), drained);
+        assertEquals(5, buffer.drainTo(drained, 100));
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        assertTrue(pulls.isEmpty());
+    }
+
+    @Test
+    public void testZeroPrefetchSendsPulls() throws Exception {
+        consumer.setPrefetchSize(0);
+        OpenWirePrefetchBuffer buffer = consumer.createPrefetchBuffer(pullSender, WaitStrategy.SPIN);
+        buffer.setPullTimeout(-1);
+        assertEquals(1, buffer.getCapacity());
+
+        assertNull(buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(1, pulls.size());
+        assertEquals(consumer.getConsumerId(), pulls.get(0).getConsumerId());
+        assertEquals(queue, pulls.get(0).getDestination());
+        assertEquals(-1, pulls.get(0).getTimeout());
+        assertTrue(buffer.isPullOutstanding());
+
+        MessageDispatch dispatch = createDispatch();
+        assertTrue(buffer.offer(dispatch));
+        assertFalse(buffer.isPullOutstanding());
+        assertSame(dispatch, buffer.poll());
+
+        assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(2, pulls.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroPrefetchRequiresPullSender() {
+        consumer.setPrefetchSize(0);
+        consumer.createPrefetchBuffer(null, WaitStrategy.PARK);
+    }
+
+    @Test
+    public void testPollTimesOut() throws Exception {
+        consumer.setPrefetchSize(10);
+        OpenWirePrefetchBuffer buffer = consumer.createPrefetchBuffer(null, WaitStrategy.PARK);
+        long start = System.nanoTime();
+        assertNull(buffer.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testCloseWakesWaiter() throws Exception {
+        consumer.setPrefetchSize(10);
+        final OpenWirePrefetchBuffer buffer = consumer.createPrefetchBuffer(null, WaitStrategy.PARK);
+        Thread closer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                buffer.close();
+            }
+        });
+        closer.start();
+
+        assertNull(buffer.take());
+        assertTrue(buffer.isClosed());
+        assertFalse(buffer.offer(createDispatch()));
+        closer.join();
+    }
+
+    @Test
+    public void testHandOffWithPark() throws Exception {
+        doTestHandOff(WaitStrategy.PARK);
+    }
+
+    @Test
+    public void testHandOffWithSpin() throws Exception {
+        doTestHandOff(WaitStrategy.SPIN);
+    }
+
+    private void doTestHandOff(WaitStrategy waitStrategy) throws Exception {
+        consumer.setPrefetchSize(16);
+        final OpenWirePrefetchBuffer buffer = consumer.createPrefetchBuffer(null, waitStrategy);
+        final int count = 100000;
+        final List<MessageDispatch> offered = new ArrayList<MessageDispatch>(count);
+        for (int i = 0; i < count; ++i) {
+            offered.add(createDispatch());
+        }
+
+        Thread transport = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (MessageDispatch dispatch : offered) {
+                    while (!buffer.offer(dispatch)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        transport.start();
+
+        List<MessageDispatch> received = new ArrayList<MessageDispatch>(count);
+        while (received.size() < count) {
+            MessageDispatch dispatch = buffer.poll(10, TimeUnit.SECONDS);
+            assertTrue(dispatch != null);
+            received.add(dispatch);
+            buffer.drainTo(received, count - received.size());
+        }
+        transport.join();
+
+        for (int i = 0; i < count; ++i) {
+            assertSame(offered.get(i), received.get(i));
+        }
+    }
+
+    private MessageDispatch createDispatch() {
+        OpenWireMessage message = new OpenWireMessage();
+        message.setMessageId(new MessageId("ID:test:1:1:1", ++sequence));
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(consumer.getConsumerId());
+        dispatch.setDestination(queue);
+        dispatch.setMessage(message);
+        return dispatch;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.ProducerAck;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWireProducerWindow
+ */
+public class OpenWireProducerWindowTest {
+
+    private OpenWireProducer producer;
+    private Message message;
+    private int size;
+
+    @Before
+    public void setUp() throws Exception {
+        OpenWireSession session = new OpenWireConnection().createOpenWireSession();
+        producer = session.createOpenWireProducer();
+
+        OpenWireBytesMessage bytes = new OpenWireBytesMessage();
+        bytes.setBodyBytes(new byte[1000]);
+        message = bytes;
+        size = message.getSize();
+    }
+
+    @Test
+    public void testTryAcquireUntilFull() {
+        producer.setWindowSize(size * 2);
+        OpenWireProducerWindow window = producer.createProducerWindow();
+
+        assertTrue(window.tryAcquire(message));
+        assertTrue(window.tryAcquire(message));
+        assertFalse(window.tryAcquire(message));
+        assertTrue(window.isFull());
+        assertEquals(size * 2, window.getOutstandingBytes());
+        assertEquals(1.0, window.getUtilization(), 0.001);
+
+        assertTrue(window.onProducerAck(new ProducerAck(producer.getProducerId(), size)));
+        assertFalse(window.isFull());
+        assertTrue(window.tryAcquire(message));
+        assertEquals(3, window.getAcquiredMessages());
+        assertEquals(size * 2, window.getPeakOutstandingBytes());
+    }
+
+    @Test
+    public void testMessageLargerThanWindowCanBeSent() {
+        producer.setWindowSize(10);
+        OpenWireProducerWindow window = producer.createProducerWindow();
+
+        assertTrue(window.tryAcquire(message));
+        assertFalse(window.tryAcquire(message));
+    }
+
+    @Test
+    public void testDisabledWindowNeverBlocks() {
+        producer.setWindowSize(0);
+        OpenWireProducerWindow window = producer.createProducerWindow();
+
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(window.tryAcquire(message));
+        }
+        assertEquals(0, window.getOutstandingBytes());
+        assertEquals(0.0, window.getUtilization(), 0.0);
+    }
+
+    @Test
+    public void testAckForOtherProducerIgnored() {
+        producer.setWindowSize(size);
+        OpenWireProducerWindow window = producer.createProducerWindow();
+        OpenWireProducer other = producer.getParent().createOpenWireProducer();
+
+        window.tryAcquire(message);
+        assertFalse(window.onProducerAck(new ProducerAck(other.getProducerId(), size)));
+        assertTrue(window.isFull());
+    }
+
+    @Test
+    public void testAsyncAcquireCompletedByAck() {
+        producer.setWindowSize(size);
+        OpenWireProducerWindow window = producer.createProducerWindow();
+
+        CompletableFuture<Void> first = window.acquireAsync(message);
+        CompletableFuture<Void> second = window.acquireAsync(message);
+        CompletableFuture<Void> third = window.acquireAsync(message);
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(2, window.getWaitingCount());
+
+        window.onProducerAck(new ProducerAck(producer.getProducerId(), size));
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        window.onProducerAck(new ProducerAck(producer.getProducerId(), size));
+        assertTrue(third.isDone());
+        assertEquals(0, window.getWaitingCount());
+        assertEquals(2, window.getBlockedAcquires());
+    }
+
+    @Test(timeout = 30000)
+    public void testBlockingAcquire() throws Exception {
+        producer.setWindowSize(size);
+        final OpenWireProducerWindow window = producer.createProducerWindow();
+
+        window.acquire(message);
+        assertFalse(window.acquire(message, 10, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread sender = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    window.acquire(message);
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        sender.start();
+
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+        window.onProducerAck(new ProducerAck(producer.getProducerId(), size));
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        assertEquals(size, window.getOutstandingBytes());
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.openwire.codec.OpenWireEvents;
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.codec.OpenWireFormatFactory;
+import org.apache.activemq.openwire.commands.CommandTypes;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for the JfrEventRecorder
+ */
+public class JfrEventRecorderTest {
+
+    // The recorder is only on the runtime class path so its names are repeated here.
+    private static final String RECORDER = "org.apache.activemq.openwire.codec.jfr.JfrEventRecorder";
+    private static final String FRAME_MARSHAL = "org.apache.activemq.openwire.FrameMarshal";
+    private static final String FRAME_UNMARSHAL = "org.apache.activemq.openwire.FrameUnmarshal";
+    private static final String LARGE_FRAME = "org.apache.activemq.openwire.LargeFrame";
+    private static final String COMPRESSION = "org.apache.activemq.openwire.MessageCompression";
+    private static final String RENEGOTIATION = "org.apache.activemq.openwire.Renegotiation";
+    private static final long LARGE_FRAME_THRESHOLD = 1024 * 1024;
+
+    private Recording recording;
+    private List<RecordedEvent> events;
+
+    @Before
+    public void setUp() {
+        assertEquals(RECORDER, OpenWireEvents.getRecorder().getClass().getName());
+
+        recording = new Recording();
+        recording.enable(FRAME_MARSHAL).withThreshold(Duration.ZERO);
+        recording.enable(FRAME_UNMARSHAL).withThreshold(Duration.ZERO);
+        recording.enable(LARGE_FRAME);
+        recording.enable(COMPRESSION).withThreshold(Duration.ZERO);
+        recording.enable(RENEGOTIATION).withThreshold(Duration.ZERO);
+        recording.start();
+    }
+
+    @After
+    public void tearDown() {
+        recording.close();
+    }
+
+    @Test
+    public void testNothingBegunWithoutRecording() {
+        recording.close();
+        assertNull(OpenWireEvents.getRecorder().beginMarshal());
+        assertNull(OpenWireEvents.getRecorder().beginUnmarshal());
+        assertNull(OpenWireEvents.getRecorder().beginCompression());
+        assertNull(OpenWireEvents.getRecorder().beginRenegotiation());
+    }
+
+    @Test
+    public void testFrameEvents() throws Exception {
+        OpenWireFormat format = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        Buffer frame = format.marshal(createMessage("frame"));
+        format.unmarshal(frame);
+
+        readEvents();
+        RecordedEvent marshal = single(FRAME_MARSHAL);
+        assertEquals(CommandTypes.PROTOCOL_VERSION, marshal.getInt("version"));
+        assertEquals(CommandTypes.OPENWIRE_TEXT_MESSAGE, marshal.getByte("commandType"));
+        assertEquals("OpenWireTextMessage", marshal.getString("command"));
+        assertEquals(frame.length, marshal.getInt("frameSize"));
+
+        RecordedEvent unmarshal = single(FRAME_UNMARSHAL);
+        assertEquals(CommandTypes.OPENWIRE_TEXT_MESSAGE, unmarshal.getByte("commandType"));
+        assertEquals(frame.length, unmarshal.getInt("frameSize"));
+
+        assertTrue(named(LARGE_FRAME).isEmpty());
+    }
+
+    @Test
+    public void testLargeFrameEvents() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= LARGE_FRAME_THRESHOLD) {
+            text.append("0123456789abcdef");
+        }
+
+        OpenWireFormat format = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        Buffer frame = format.marshal(createMessage(text.toString()));
+        format.unmarshal(frame);
+
+        readEvents();
+        List<RecordedEvent> large = named(LARGE_FRAME);
+        assertEquals(2, large.size());
+        assertEquals("marshal", large.get(0).getString("direction"));
+        assertEquals("unmarshal", large.get(1).getString("direction"));
+        assertEquals(frame.length, large.get(0).getInt("frameSize"));
+        assertEquals(CommandTypes.OPENWIRE_TEXT_MESSAGE, large.get(1).getByte("commandType"));
+    }
+
+    @Test
+    public void testLargeFrameEventWithoutSizePrefix() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= LARGE_FRAME_THRESHOLD) {
+            text.append("0123456789abcdef");
+        }
+
+        OpenWireFormat format = new OpenWireFormat(CommandTypes.PROTOCOL_VERSION);
+        format.setTightEncodingEnabled(false);
+        format.setSizePrefixDisabled(true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        format.marshal(createMessage(text.toString()), out);
+        out.close();
+
+        readEvents();
+        RecordedEvent marshal = single(FRAME_MARSHAL);
+        assertEquals(bytes.size(), marshal.getInt("frameSize"));
+        List<RecordedEvent> large = named(LARGE_FRAME);
+        assertEquals(1, large.size());
+        assertEquals(bytes.size(), large.get(0).getInt("frameSize"));
+    }
+
+    @Test
+    public void testCompressionEvents() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            text.append("compressible ");
+        }
+
+        OpenWireTextMessage message = createMessage(text.toString());
+        message.compress();
+        int compressedSize = message.getContent().getLength();
+        int uncompressedSize = message.decompress().getLength();
+
+        readEvents();
+        List<RecordedEvent> compression = named(COMPRESSION);
+        assertEquals(2, compression.size());
+        assertEquals("compress", compression.get(0).getString("operation"));
+        assertEquals(uncompressedSize, compression.get(0).getInt("inputSize"));
+        assertEquals(compressedSize, compression.get(0).getInt("outputSize"));
+        assertEquals("decompress", compression.get(1).getString("operation"));
+        assertEquals(compressedSize, compression.get(1).getInt("inputSize"));
+        assertEquals(uncompressedSize, compression.get(1).getInt("outputSize"));
+        assertEquals(CommandTypes.OPENWIRE_TEXT_MESSAGE, compression.get(1).getByte("commandType"));
+    }
+
+    @Test
+    public void testRenegotiationEvent() throws Exception {
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setCacheEnabled(false);
+        OpenWireFormat format = factory.createWireFormat();
+
+        WireFormatInfo info = new WireFormatInfo();
+        info.setVersion(9);
+        info.setTightEncodingEnabled(true);
+        format.renegotiateWireFormat(info);
+
+        readEvents();
+        RecordedEvent event = single(RENEGOTIATION);
+        assertEquals(factory.getVersion(), event.getInt("previousVersion"));
+        assertEquals(9, event.getInt("version"));
+        assertEquals(false, event.getBoolean("cacheEnabled"));
+        assertEquals(true, event.getBoolean("tightEncodingEnabled"));
+        assertEquals(format.getMaxFrameSize(), event.getLong("maxFrameSize"));
+    }
+
+    private OpenWireTextMessage createMessage(String text) throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setDestination(new OpenWireQueue("TEST"));
+        message.setText(text);
+        return message;
+    }
+
+    private void readEvents() throws Exception {
+        recording.stop();
+        Path file = Files.createTempFile("openwire", ".jfr");
+        try {
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private List<RecordedEvent> named(String name) {
+        List<RecordedEvent> result = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                result.add(event);
+            }
+        }
+
+        return result;
+    }
+
+    private RecordedEvent single(String name) {
+        List<RecordedEvent> result = named(name);
+        assertEquals(1, result.size());
+        return result.get(0);
+    }
+}
@@ -380,7 +380,9 @@ public class MarshallingGenerator extends MultiSourceGenerator {
         String setter = property.getSetter().getSimpleName();
         String type = property.getType().getSimpleName();
 
-        if (type.equals("boolean")) {
+        if (isMessageContent(property)) {
+            out.println("        tightUnmarshalContent(wireFormat, info, dataIn, bs);");
+        } else if (type.equals("boolean")) {
             out.println("        info." + setter + "(bs.readBoolean());");
         } else if (type.equals("byte")) {
             out.println("        info." + setter + "(dataIn.readByte());");
@@ -448,7 +450,9 @@ public class MarshallingGenerator extends MultiSourceGenerator {
             String type = propertyType.getSimpleName();
             String getter = "info." + property.getGetter().getSimpleName() + "()";
 
-            if (type.equals("boolean")) {
+            if (isMessageContent(property)) {
+                out.println("        rc += tightMarshalContent1(info, bs);");
+            } else if (type.equals("boolean")) {
                 out.println("        bs.writeBoolean(" + getter + ");");
             } else if (type.equals("byte")) {
                 baseSize += 1;
@@ -497,7 +501,9 @@ public class MarshallingGenerator extends MultiSourceGenerator {
             String type = propertyType.getSimpleName();
             String getter = "info." + property.getGetter().getSimpleName() + "()";
 
-            if (type.equals("boolean")) {
+            if (isMessageContent(property)) {
+                out.println("        tightMarshalContent2(info, dataOut, bs);");
+            } else if (type.equals("boolean")) {
                 out.println("        bs.readBoolean();");
             } else if (type.equals("byte")) {
                 out.println("        dataOut.writeByte(" + getter + ");");
@@ -545,7 +551,9 @@ public class MarshallingGenerator extends MultiSourceGenerator {
             String type = propertyType.getSimpleName();
             String getter = "info." + property.getGetter().getSimpleName() + "()";
 
-            if (type.equals("boolean")) {
+            if (isMessageContent(property)) {
+                out.println("        looseMarshalContent(wireFormat, info, dataOut);");
+            } else if (type.equals("boolean")) {
                 out.println("        dataOut.writeBoolean(" + getter + ");");
             } else if (type.equals("byte")) {
                 out.println("        dataOut.writeByte(" + getter + ");");
@@ -604,7 +612,9 @@ public class MarshallingGenerator extends MultiSourceGenerator {
         String setter = property.getSetter().getSimpleName();
         String type = property.getType().getSimpleName();
 
-        if (type.equals("boolean")) {
+        if (isMessageContent(property)) {
+            out.println("        looseUnmarshalContent(wireFormat, info, dataIn);");
+        } else if (type.equals("boolean")) {
             out.println("        info." + setter + "(dataIn.readBoolean());");
         } else if (type.equals("byte")) {
             out.println("        info." + setter + "(dataIn.readByte());");
@@ -663,6 +673,16 @@ public class MarshallingGenerator extends MultiSourceGenerator {
         }
     }
 
+    /**
+     * Returns true if the property is the body of a Message.  The body is not marshaled
+     * as a plain byte sequence, it may be streamed from a MessageBodySource when sent or
+     * read into an off heap buffer when received, so the generated code delegates to the
+     * content methods of BaseDataStreamMarshaller which handle each of those forms.
+     */
+    protected boolean isMessageContent(JProperty property) {
+        return getJclass().getSimpleName().equals("Message") && property.getGetter().getSimpleName().equals("getContent");
+    }
+
     /**
      * Returns whether or not the given annotation has a mandatory flag on it or
      * not
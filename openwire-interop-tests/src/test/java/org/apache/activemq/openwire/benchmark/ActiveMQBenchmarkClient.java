@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.benchmark;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.Command;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConnectionInfo;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.ConsumerInfo;
+import org.apache.activemq.command.ExceptionResponse;
+import org.apache.activemq.command.KeepAliveInfo;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.ProducerInfo;
+import org.apache.activemq.command.RemoveInfo;
+import org.apache.activemq.command.Response;
+import org.apache.activemq.command.SessionId;
+import org.apache.activemq.command.SessionInfo;
+import org.apache.activemq.command.ShutdownInfo;
+import org.apache.activemq.command.WireFormatInfo;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.openwire.OpenWireFormatFactory;
+import org.apache.activemq.util.IdGenerator;
+
+/**
+ * Benchmark client that uses the codec and commands built into the ActiveMQ client.
+ * <p>
+ * Without an ActiveMQConnection the text message cannot compress its body while the
+ * content is stored, so compression is requested through Message.compress() instead.
+ */
+public class ActiveMQBenchmarkClient extends BenchmarkClient {
+
+    private static final IdGenerator ID_GENERATOR = new IdGenerator("ID:benchmark");
+
+    private final OpenWireFormat wireFormat;
+    private final ConnectionId connectionId = new ConnectionId(ID_GENERATOR.generateId());
+    private final SessionId sessionId = new SessionId(connectionId, 1);
+
+    private long producerIds;
+    private long consumerIds;
+    private long messageIds;
+
+    private ProducerId producerId;
+    private ActiveMQQueue producerDestination;
+    private ConsumerId consumerId;
+
+    public ActiveMQBenchmarkClient(int version, boolean cacheEnabled, boolean tightEncodingEnabled, boolean compression) {
+        super(compression);
+
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setVersion(version);
+        factory.setCacheEnabled(cacheEnabled);
+        factory.setTightEncodingEnabled(tightEncodingEnabled);
+
+        this.wireFormat = (OpenWireFormat) factory.createWireFormat();
+    }
+
+    @Override
+    public String getName() {
+        return "activemq";
+    }
+
+    @Override
+    protected void writeCommand(Object command, DataOutput out) throws IOException {
+        wireFormat.marshal(command, out);
+    }
+
+    @Override
+    protected Object readCommand(DataInput in) throws IOException {
+        return wireFormat.unmarshal(in);
+    }
+
+    @Override
+    protected void onCommand(Object command) throws IOException {
+        if (command instanceof MessageDispatch) {
+            if (((MessageDispatch) command).getMessage() != null) {
+                onDispatch(command);
+            }
+        } else if (command instanceof Response) {
+            Response response = (Response) command;
+            Throwable error = null;
+            if (response instanceof ExceptionResponse) {
+                error = ((ExceptionResponse) response).getException();
+            }
+            onResponse(response.getCorrelationId(), error);
+        } else if (command instanceof WireFormatInfo) {
+            wireFormat.renegotiateWireFormat((WireFormatInfo) command);
+            onNegotiated();
+        } else if (command instanceof KeepAliveInfo) {
+            if (((KeepAliveInfo) command).isResponseRequired()) {
+                oneway(new KeepAliveInfo());
+            }
+        }
+    }
+
+    @Override
+    protected void prepareRequest(Object command, int commandId) {
+        ((Command) command).setCommandId(commandId);
+        ((Command) command).setResponseRequired(true);
+    }
+
+    @Override
+    protected Object createWireFormatInfo() {
+        return wireFormat.getPreferedWireFormatInfo();
+    }
+
+    @Override
+    protected Object createConnectionInfo() {
+        ConnectionInfo info = new ConnectionInfo(connectionId);
+        info.setClientId(connectionId.getValue());
+        return info;
+    }
+
+    @Override
+    protected Object createSessionInfo() {
+        return new SessionInfo(sessionId);
+    }
+
+    @Override
+    protected Object createProducer(String queue) {
+        producerId = new ProducerId(sessionId, ++producerIds);
+        producerDestination = new ActiveMQQueue(queue);
+
+        ProducerInfo info = new ProducerInfo(producerId);
+        info.setDestination(producerDestination);
+        return info;
+    }
+
+    @Override
+    protected Object createMessage(String text) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setText(text);
+        if (compression) {
+            message.compress();
+        }
+        message.setTimestamp(System.currentTimeMillis());
+        message.setMessageId(new MessageId(producerId, ++messageIds));
+        message.setProducerId(producerId);
+        message.setDestination(producerDestination);
+        message.onSend();
+        return message;
+    }
+
+    @Override
+    protected Object createConsumer(String queue, int prefetch) {
+        consumerId = new ConsumerId(sessionId, ++consumerIds);
+
+        ConsumerInfo info = new ConsumerInfo(consumerId);
+        info.setDestination(new ActiveMQQueue(queue));
+        info.setPrefetchSize(prefetch);
+        return info;
+    }
+
+    @Override
+    protected Object createAck(Object firstDispatch, Object lastDispatch, int count) {
+        MessageAck ack = new MessageAck((MessageDispatch) lastDispatch, MessageAck.STANDARD_ACK_TYPE, count);
+        ack.setFirstMessageId(((MessageDispatch) firstDispatch).getMessage().getMessageId());
+        return ack;
+    }
+
+    @Override
+    protected String readText(Object dispatch) throws Exception {
+        return ((ActiveMQTextMessage) ((MessageDispatch) dispatch).getMessage()).getText();
+    }
+
+    @Override
+    protected Object createRemoveProducer() {
+        return new RemoveInfo(producerId);
+    }
+
+    @Override
+    protected Object createRemoveConsumer() {
+        return new RemoveInfo(consumerId);
+    }
+
+    @Override
+    protected Object createRemoveConnection() {
+        return new RemoveInfo(connectionId);
+    }
+
+    @Override
+    protected Object createShutdown() {
+        return new ShutdownInfo();
+    }
+}
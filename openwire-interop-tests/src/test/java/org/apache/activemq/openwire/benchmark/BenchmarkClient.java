@@ -0,0 +1,390 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.benchmark;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.transport.tcp.TcpBufferedInputStream;
+import org.apache.activemq.transport.tcp.TcpBufferedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for the clients driven by the throughput benchmark.
+ * <p>
+ * The socket handling, request correlation and the timed scenarios all live here
+ * so that the OpenWire and ActiveMQ clients pay exactly the same transport costs,
+ * subclasses only supply the codec and the command objects they send.
+ */
+public abstract class BenchmarkClient implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkClient.class);
+
+    protected static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int SOCKET_BUFFER_SIZE = 64 * 1024;
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    // Stay well below the broker's default max page size of 200, otherwise the queue
+    // stops paging in messages while it waits for acks that are never sent.
+    private static final int MAX_ACK_BATCH = 100;
+
+    protected final boolean compression;
+
+    private final Map<Integer, CompletableFuture<Void>> requests = new ConcurrentHashMap<Integer, CompletableFuture<Void>>();
+    private final BlockingQueue<Object> dispatched = new LinkedBlockingQueue<Object>();
+    private final CountDownLatch negotiated = new CountDownLatch(1);
+    private final AtomicInteger commandIds = new AtomicInteger();
+    private final Object writeLock = new Object();
+
+    private Socket socket;
+    private DataOutputStream dataOut;
+    private DataInputStream dataIn;
+    private Thread reader;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    protected BenchmarkClient(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return a short name for this client used when reporting results.
+     */
+    public abstract String getName();
+
+    /**
+     * Connects to the broker, negotiates the wire format and registers the
+     * connection and session used by the scenarios.
+     *
+     * @param remoteLocation
+     *        the URI of the broker's OpenWire transport connector.
+     *
+     * @throws Exception if the connection could not be established.
+     */
+    public void connect(URI remoteLocation) throws Exception {
+        socket = new Socket(remoteLocation.getHost(), remoteLocation.getPort());
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+        socket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+
+        dataIn = new DataInputStream(new TcpBufferedInputStream(socket.getInputStream(), IO_BUFFER_SIZE));
+        dataOut = new DataOutputStream(new TcpBufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE));
+
+        // The broker sends its WireFormatInfo straight away, ours must be written before
+        // the reader can renegotiate the codec underneath it.
+        oneway(createWireFormatInfo());
+
+        reader = new Thread(this, "Benchmark reader: " + getName());
+        reader.setDaemon(true);
+        reader.start();
+
+        if (!negotiated.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out waiting for the broker WireFormatInfo");
+        }
+
+        request(createConnectionInfo());
+        request(createSessionInfo());
+    }
+
+    /**
+     * Removes the connection from the broker and closes the socket.
+     *
+     * @throws Exception if an error occurs while shutting down.
+     */
+    public void close() throws Exception {
+        try {
+            if (failure == null && socket != null) {
+                request(createRemoveConnection());
+                closed = true;
+                oneway(createShutdown());
+            }
+        } finally {
+            closed = true;
+            if (socket != null) {
+                socket.close();
+            }
+            if (reader != null) {
+                reader.join(TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Sends count messages asynchronously, the last one is sent as a request so the
+     * elapsed time covers the broker accepting every message.  The recorded latency
+     * is the time spent in each send call, marshaling and writing the frame.
+     *
+     * @param queue
+     *        the name of the queue to send to.
+     * @param text
+     *        the body of each text message.
+     * @param count
+     *        the number of messages to send.
+     *
+     * @return the result of the run.
+     *
+     * @throws Exception if an error occurs while sending.
+     */
+    public BenchmarkResult produce(String queue, String text, int count) throws Exception {
+        request(createProducer(queue));
+
+        long[] latencies = new long[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count - 1; ++i) {
+            long sent = System.nanoTime();
+            oneway(createMessage(text));
+            latencies[i] = System.nanoTime() - sent;
+        }
+        long sent = System.nanoTime();
+        request(createMessage(text));
+        latencies[count - 1] = System.nanoTime() - sent;
+        long elapsed = System.nanoTime() - start;
+
+        request(createRemoveProducer());
+        return new BenchmarkResult(count, elapsed, latencies);
+    }
+
+    /**
+     * Consumes count messages that were previously sent to the queue, the body of
+     * each message is decoded and checked and acknowledgements are sent each time
+     * half of the prefetch window, or at most one hundred messages, has been consumed.
+     *
+     * @param queue
+     *        the name of the queue to consume from.
+     * @param text
+     *        the body each message is expected to carry.
+     * @param count
+     *        the number of messages to consume.
+     * @param prefetch
+     *        the prefetch size of the consumer.
+     *
+     * @return the result of the run.
+     *
+     * @throws Exception if an error occurs while consuming.
+     */
+    public BenchmarkResult consume(String queue, String text, int count, int prefetch) throws Exception {
+        int batchSize = Math.max(1, Math.min(prefetch / 2, MAX_ACK_BATCH));
+
+        long start = System.nanoTime();
+        request(createConsumer(queue, prefetch));
+
+        Object first = null;
+        int pending = 0;
+        for (int i = 1; i <= count; ++i) {
+            Object dispatch = receive(text);
+            if (first == null) {
+                first = dispatch;
+            }
+            if (++pending == batchSize || i == count) {
+                oneway(createAck(first, dispatch, pending));
+                first = null;
+                pending = 0;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        request(createRemoveConsumer());
+        return new BenchmarkResult(count, elapsed, null);
+    }
+
+    /**
+     * Sends count messages one at a time to a queue this client also consumes from,
+     * the recorded latency runs from the start of each send until the message has
+     * been dispatched back and its body decoded.
+     *
+     * @param queue
+     *        the name of the queue to send to and consume from.
+     * @param text
+     *        the body of each text message.
+     * @param count
+     *        the number of round trips to make.
+     *
+     * @return the result of the run.
+     *
+     * @throws Exception if an error occurs while sending or consuming.
+     */
+    public BenchmarkResult roundTrip(String queue, String text, int count) throws Exception {
+        request(createProducer(queue));
+        request(createConsumer(queue, 1));
+
+        long[] latencies = new long[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            long sent = System.nanoTime();
+            oneway(createMessage(text));
+            Object dispatch = receive(text);
+            latencies[i] = System.nanoTime() - sent;
+            oneway(createAck(dispatch, dispatch, 1));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        request(createRemoveConsumer());
+        request(createRemoveProducer());
+        return new BenchmarkResult(count, elapsed, latencies);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                onCommand(readCommand(dataIn));
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOG.debug("{} client failed: {}", getName(), e.getMessage());
+                failure = e;
+            }
+        } catch (Throwable e) {
+            failure = new IOException("Unexpected error: " + e, e);
+        } finally {
+            for (CompletableFuture<Void> request : requests.values()) {
+                request.completeExceptionally(new IOException("Connection closed"));
+            }
+            requests.clear();
+        }
+    }
+
+    //----- Codec and command hooks ------------------------------------------//
+
+    protected abstract void writeCommand(Object command, DataOutput out) throws IOException;
+
+    protected abstract Object readCommand(DataInput in) throws IOException;
+
+    /**
+     * Handles a command read from the broker, implementations call back into
+     * {@link #onNegotiated()}, {@link #onResponse(int, Throwable)} and
+     * {@link #onDispatch(Object)} as appropriate.
+     *
+     * @param command
+     *        the unmarshaled command.
+     *
+     * @throws IOException if an error occurs while handling the command.
+     */
+    protected abstract void onCommand(Object command) throws IOException;
+
+    protected abstract void prepareRequest(Object command, int commandId);
+
+    protected abstract Object createWireFormatInfo();
+
+    protected abstract Object createConnectionInfo();
+
+    protected abstract Object createSessionInfo();
+
+    protected abstract Object createProducer(String queue);
+
+    protected abstract Object createMessage(String text) throws Exception;
+
+    protected abstract Object createConsumer(String queue, int prefetch);
+
+    protected abstract Object createAck(Object firstDispatch, Object lastDispatch, int count);
+
+    protected abstract String readText(Object dispatch) throws Exception;
+
+    protected abstract Object createRemoveProducer();
+
+    protected abstract Object createRemoveConsumer();
+
+    protected abstract Object createRemoveConnection();
+
+    protected abstract Object createShutdown();
+
+    //----- Callbacks for the reader thread ----------------------------------//
+
+    protected void onNegotiated() {
+        negotiated.countDown();
+    }
+
+    protected void onResponse(int correlationId, Throwable error) {
+        CompletableFuture<Void> request = requests.remove(correlationId);
+        if (request != null) {
+            if (error != null) {
+                request.completeExceptionally(error);
+            } else {
+                request.complete(null);
+            }
+        }
+    }
+
+    protected void onDispatch(Object dispatch) {
+        dispatched.add(dispatch);
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    protected void oneway(Object command) throws IOException {
+        checkFailed();
+        synchronized (writeLock) {
+            writeCommand(command, dataOut);
+            dataOut.flush();
+        }
+    }
+
+    private void request(Object command) throws IOException {
+        int commandId = commandIds.incrementAndGet();
+        CompletableFuture<Void> response = new CompletableFuture<Void>();
+        requests.put(commandId, response);
+        prepareRequest(command, commandId);
+        oneway(command);
+
+        try {
+            response.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Request " + command.getClass().getSimpleName() + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            requests.remove(commandId);
+            throw new IOException("Timed out waiting for response to " + command.getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for response", e);
+        }
+    }
+
+    private Object receive(String expected) throws Exception {
+        Object dispatch = dispatched.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        if (dispatch == null) {
+            checkFailed();
+            throw new IOException("Timed out waiting for a message dispatch");
+        }
+        if (!expected.equals(readText(dispatch))) {
+            throw new IOException("Dispatched message body does not match the sent body");
+        }
+        return dispatch;
+    }
+
+    private void checkFailed() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
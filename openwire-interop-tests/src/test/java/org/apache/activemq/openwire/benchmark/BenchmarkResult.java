@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a single timed benchmark scenario.
+ */
+public class BenchmarkResult {
+
+    private final int count;
+    private final long elapsedNanos;
+    private final long[] latencies;
+
+    /**
+     * @param count
+     *        the number of messages processed in the run.
+     * @param elapsedNanos
+     *        the wall clock time the run took in nanoseconds.
+     * @param latencies
+     *        the per message latencies in nanoseconds or null if none were recorded.
+     */
+    public BenchmarkResult(int count, long elapsedNanos, long[] latencies) {
+        this.count = count;
+        this.elapsedNanos = elapsedNanos;
+        if (latencies != null) {
+            this.latencies = Arrays.copyOf(latencies, latencies.length);
+            Arrays.sort(this.latencies);
+        } else {
+            this.latencies = null;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the number of messages processed per second.
+     */
+    public double getThroughput() {
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+    }
+
+    public boolean hasLatencies() {
+        return latencies != null && latencies.length > 0;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded values fall.
+     *
+     * @param percentile
+     *        the percentile to return, between 0 and 100.
+     *
+     * @return the latency in microseconds or -1 if no latencies were recorded.
+     */
+    public double getLatencyPercentile(double percentile) {
+        if (!hasLatencies()) {
+            return -1;
+        }
+
+        int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+        index = Math.max(0, Math.min(latencies.length - 1, index));
+        return latencies[index] / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%.0f msg/s", getThroughput()));
+        if (hasLatencies()) {
+            builder.append(String.format(" (p50 %.1f us, p99 %.1f us, max %.1f us)",
+                getLatencyPercentile(50), getLatencyPercentile(99), getLatencyPercentile(100)));
+        }
+        return builder.toString();
+    }
+}
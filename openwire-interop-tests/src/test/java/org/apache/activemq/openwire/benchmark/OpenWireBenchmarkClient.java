@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.benchmark;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.codec.OpenWireFormatFactory;
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.ConnectionInfo;
+import org.apache.activemq.openwire.commands.ExceptionResponse;
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.commands.ShutdownInfo;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.utils.OpenWireConnection;
+import org.apache.activemq.openwire.utils.OpenWireConsumer;
+import org.apache.activemq.openwire.utils.OpenWireProducer;
+import org.apache.activemq.openwire.utils.OpenWireSession;
+
+/**
+ * Benchmark client that uses the codec and commands from this library.
+ */
+public class OpenWireBenchmarkClient extends BenchmarkClient {
+
+    private final OpenWireFormat wireFormat;
+    private final OpenWireConnection connection = new OpenWireConnection();
+    private final OpenWireSession session = connection.createOpenWireSession();
+
+    private OpenWireProducer producer;
+    private OpenWireQueue producerDestination;
+    private OpenWireConsumer consumer;
+
+    public OpenWireBenchmarkClient(int version, boolean cacheEnabled, boolean tightEncodingEnabled, boolean compression) {
+        super(compression);
+
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setVersion(version);
+        factory.setCacheEnabled(cacheEnabled);
+        factory.setTightEncodingEnabled(tightEncodingEnabled);
+
+        this.wireFormat = factory.createWireFormat();
+    }
+
+    @Override
+    public String getName() {
+        return "openwire";
+    }
+
+    @Override
+    protected void writeCommand(Object command, DataOutput out) throws IOException {
+        wireFormat.marshal(command, out);
+    }
+
+    @Override
+    protected Object readCommand(DataInput in) throws IOException {
+        return wireFormat.unmarshal(in);
+    }
+
+    @Override
+    protected void onCommand(Object command) throws IOException {
+        if (command instanceof MessageDispatch) {
+            if (((MessageDispatch) command).getMessage() != null) {
+                onDispatch(command);
+            }
+        } else if (command instanceof Response) {
+            Response response = (Response) command;
+            Throwable error = null;
+            if (response instanceof ExceptionResponse) {
+                error = ((ExceptionResponse) response).getException();
+            }
+            onResponse(response.getCorrelationId(), error);
+        } else if (command instanceof WireFormatInfo) {
+            wireFormat.renegotiateWireFormat((WireFormatInfo) command);
+            onNegotiated();
+        } else if (command instanceof KeepAliveInfo) {
+            if (((KeepAliveInfo) command).isResponseRequired()) {
+                oneway(new KeepAliveInfo());
+            }
+        }
+    }
+
+    @Override
+    protected void prepareRequest(Object command, int commandId) {
+        ((Command) command).setCommandId(commandId);
+        ((Command) command).setResponseRequired(true);
+    }
+
+    @Override
+    protected Object createWireFormatInfo() {
+        return wireFormat.getPreferedWireFormatInfo();
+    }
+
+    @Override
+    protected Object createConnectionInfo() {
+        ConnectionInfo info = connection.createConnectionInfo();
+        info.setClientId(connection.getConnectionId().getValue());
+        return info;
+    }
+
+    @Override
+    protected Object createSessionInfo() {
+        return session.createSessionInfo();
+    }
+
+    @Override
+    protected Object createProducer(String queue) {
+        producer = session.createOpenWireProducer();
+        producerDestination = new OpenWireQueue(queue);
+        return producer.createProducerInfo(producerDestination);
+    }
+
+    @Override
+    protected Object createMessage(String text) throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        message.setUseCompression(compression);
+        message.setText(text);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setMessageId(producer.getNextMessageId());
+        message.setProducerId(producer.getProducerId());
+        message.setDestination(producerDestination);
+        message.onSend();
+        return message;
+    }
+
+    @Override
+    protected Object createConsumer(String queue, int prefetch) {
+        consumer = session.createOpenWireConsumer();
+        consumer.setPrefetchSize(prefetch);
+        return consumer.createConsumerInfo(new OpenWireQueue(queue));
+    }
+
+    @Override
+    protected Object createAck(Object firstDispatch, Object lastDispatch, int count) {
+        MessageAck ack = new MessageAck((MessageDispatch) lastDispatch, MessageAck.STANDARD_ACK_TYPE, count);
+        ack.setFirstMessageId(((MessageDispatch) firstDispatch).getMessage().getMessageId());
+        return ack;
+    }
+
+    @Override
+    protected String readText(Object dispatch) throws Exception {
+        return ((OpenWireTextMessage) ((MessageDispatch) dispatch).getMessage()).getText();
+    }
+
+    @Override
+    protected Object createRemoveProducer() {
+        return producer.createRemoveInfo();
+    }
+
+    @Override
+    protected Object createRemoveConsumer() {
+        return consumer.createRemoveInfo();
+    }
+
+    @Override
+    protected Object createRemoveConnection() {
+        return connection.createRemoveInfo();
+    }
+
+    @Override
+    protected Object createShutdown() {
+        return new ShutdownInfo();
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.apache.log4j.Level;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares end-to-end producer, consumer and round trip performance of this library's
+ * codec against the codec built into the ActiveMQ client, both talking to the same
+ * embedded broker over the same socket handling.
+ * <p>
+ * A normal build only runs a short smoke pass over two configurations so the benchmark
+ * keeps working, the full matrix of wire versions, cache, tight encoding and compression
+ * settings is run with:
+ * <pre>
+ * mvn test -pl openwire-interop-tests -Dtest=OpenWireThroughputBenchmarkTest -Dopenwire.benchmark=true
+ * </pre>
+ * The following system properties tune the run:
+ * <ul>
+ *   <li>openwire.benchmark.versions - comma separated wire versions to run, default all.</li>
+ *   <li>openwire.benchmark.messages - messages per scenario, default 10000.</li>
+ *   <li>openwire.benchmark.warmup - warm up messages per scenario, default 2000.</li>
+ *   <li>openwire.benchmark.payloadSize - text message body size, default 1024.</li>
+ *   <li>openwire.benchmark.minRatio - fails a scenario when this library's throughput
+ *       is below the given fraction of the ActiveMQ client's, disabled by default.</li>
+ * </ul>
+ * Results are logged and written to target/openwire-benchmark.csv.
+ */
+@RunWith(Parameterized.class)
+public class OpenWireThroughputBenchmarkTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenWireThroughputBenchmarkTest.class);
+
+    public static final String BENCHMARK_PROPERTY = "openwire.benchmark";
+    public static final String VERSIONS_PROPERTY = "openwire.benchmark.versions";
+    public static final String MESSAGES_PROPERTY = "openwire.benchmark.messages";
+    public static final String WARMUP_PROPERTY = "openwire.benchmark.warmup";
+    public static final String PAYLOAD_SIZE_PROPERTY = "openwire.benchmark.payloadSize";
+    public static final String MIN_RATIO_PROPERTY = "openwire.benchmark.minRatio";
+
+    private static final boolean FULL_RUN = Boolean.getBoolean(BENCHMARK_PROPERTY);
+    private static final int MESSAGES = Integer.getInteger(MESSAGES_PROPERTY, FULL_RUN ? 10000 : 500);
+    private static final int WARMUP = Integer.getInteger(WARMUP_PROPERTY, FULL_RUN ? 2000 : 100);
+    private static final int PAYLOAD_SIZE = Integer.getInteger(PAYLOAD_SIZE_PROPERTY, 1024);
+    private static final double MIN_RATIO = Double.parseDouble(System.getProperty(MIN_RATIO_PROPERTY, "0"));
+    private static final int PREFETCH = 1000;
+
+    private static final String CSV_HEADER =
+        "scenario,version,cache,tight,compression,client,messages,payload,msgPerSec,p50Micros,p99Micros,maxMicros";
+
+    private static final List<String> RESULTS = new ArrayList<String>();
+    private static final AtomicInteger QUEUE_IDS = new AtomicInteger();
+
+    private static BrokerService brokerService;
+    private static URI connectionURI;
+    private static Level brokerLogLevel;
+
+    private final int version;
+    private final boolean cacheEnabled;
+    private final boolean tightEncodingEnabled;
+    private final boolean compression;
+    private final String payload = createPayload(PAYLOAD_SIZE);
+
+    public OpenWireThroughputBenchmarkTest(int version, boolean cacheEnabled, boolean tightEncodingEnabled, boolean compression) {
+        this.version = version;
+        this.cacheEnabled = cacheEnabled;
+        this.tightEncodingEnabled = tightEncodingEnabled;
+        this.compression = compression;
+    }
+
+    @Parameters(name = "v{0} cache={1} tight={2} compression={3}")
+    public static Collection<Object[]> data() {
+        List<Object[]> configurations = new ArrayList<Object[]>();
+        if (!FULL_RUN) {
+            configurations.add(new Object[] { 11, true, true, false });
+            configurations.add(new Object[] { 11, false, false, true });
+            return configurations;
+        }
+
+        for (String version : System.getProperty(VERSIONS_PROPERTY, "1,2,3,4,5,6,7,8,9,10,11").split(",")) {
+            for (boolean cacheEnabled : new boolean[] { true, false }) {
+                for (boolean tightEncodingEnabled : new boolean[] { true, false }) {
+                    for (boolean compression : new boolean[] { false, true }) {
+                        configurations.add(new Object[] {
+                            Integer.valueOf(version.trim()), cacheEnabled, tightEncodingEnabled, compression });
+                    }
+                }
+            }
+        }
+
+        return configurations;
+    }
+
+    @BeforeClass
+    public static void startBroker() throws Exception {
+        // The broker logs every message at debug level which would dominate the timings.
+        org.apache.log4j.Logger brokerLog = org.apache.log4j.Logger.getLogger("org.apache.activemq.broker");
+        brokerLogLevel = brokerLog.getLevel();
+        brokerLog.setLevel(Level.INFO);
+
+        brokerService = new BrokerService();
+        brokerService.setPersistent(false);
+        brokerService.setAdvisorySupport(false);
+        brokerService.setUseJmx(false);
+
+        TransportConnector connector = brokerService.addConnector("tcp://0.0.0.0:0");
+        brokerService.start();
+        brokerService.waitUntilStarted();
+
+        connectionURI = connector.getPublishableConnectURI();
+        LOG.debug("Using openwire port: {}", connectionURI);
+    }
+
+    @AfterClass
+    public static void stopBroker() throws Exception {
+        try {
+            if (brokerService != null) {
+                brokerService.stop();
+                brokerService.waitUntilStopped();
+            }
+        } finally {
+            org.apache.log4j.Logger.getLogger("org.apache.activemq.broker").setLevel(brokerLogLevel);
+            writeResults();
+        }
+    }
+
+    @Test(timeout = 600000)
+    public void testProducerAndConsumerThroughput() throws Exception {
+        BenchmarkResult[] activemq = produceAndConsume(createActiveMQClient());
+        BenchmarkResult[] openwire = produceAndConsume(createOpenWireClient());
+
+        report("producer", openwire[0], activemq[0]);
+        report("consumer", openwire[1], activemq[1]);
+    }
+
+    @Test(timeout = 600000)
+    public void testRoundTripThroughputAndLatency() throws Exception {
+        BenchmarkResult activemq = roundTrip(createActiveMQClient());
+        BenchmarkResult openwire = roundTrip(createOpenWireClient());
+
+        report("roundtrip", openwire, activemq);
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private BenchmarkClient createOpenWireClient() {
+        return new OpenWireBenchmarkClient(version, cacheEnabled, tightEncodingEnabled, compression);
+    }
+
+    private BenchmarkClient createActiveMQClient() {
+        return new ActiveMQBenchmarkClient(version, cacheEnabled, tightEncodingEnabled, compression);
+    }
+
+    private BenchmarkResult[] produceAndConsume(BenchmarkClient client) throws Exception {
+        client.connect(connectionURI);
+        try {
+            String queue = nextQueueName(client);
+            client.produce(queue, payload, WARMUP);
+            client.consume(queue, payload, WARMUP, PREFETCH);
+
+            BenchmarkResult produced = client.produce(queue, payload, MESSAGES);
+            BenchmarkResult consumed = client.consume(queue, payload, MESSAGES, PREFETCH);
+            return new BenchmarkResult[] { produced, consumed };
+        } finally {
+            client.close();
+        }
+    }
+
+    private BenchmarkResult roundTrip(BenchmarkClient client) throws Exception {
+        client.connect(connectionURI);
+        try {
+            String queue = nextQueueName(client);
+            client.roundTrip(queue, payload, WARMUP);
+            return client.roundTrip(queue, payload, MESSAGES);
+        } finally {
+            client.close();
+        }
+    }
+
+    private void report(String scenario, BenchmarkResult openwire, BenchmarkResult activemq) {
+        double ratio = openwire.getThroughput() / activemq.getThroughput();
+        LOG.info("{} v{} cache={} tight={} compression={}: openwire {}, activemq {}, ratio {}",
+            scenario, version, cacheEnabled, tightEncodingEnabled, compression, openwire, activemq,
+            String.format(Locale.ROOT, "%.2f", ratio));
+
+        record(scenario, "openwire", openwire);
+        record(scenario, "activemq", activemq);
+
+        if (MIN_RATIO > 0) {
+            assertTrue(scenario + " throughput ratio " + ratio + " is below " + MIN_RATIO, ratio >= MIN_RATIO);
+        }
+    }
+
+    private void record(String scenario, String client, BenchmarkResult result) {
+        synchronized (RESULTS) {
+            RESULTS.add(String.format(Locale.ROOT, "%s,%d,%b,%b,%b,%s,%d,%d,%.1f,%.1f,%.1f,%.1f",
+                scenario, version, cacheEnabled, tightEncodingEnabled, compression, client,
+                result.getCount(), PAYLOAD_SIZE, result.getThroughput(), result.getLatencyPercentile(50),
+                result.getLatencyPercentile(99), result.getLatencyPercentile(100)));
+        }
+    }
+
+    private static void writeResults() throws Exception {
+        synchronized (RESULTS) {
+            if (RESULTS.isEmpty()) {
+                return;
+            }
+
+            File file = new File("target", "openwire-benchmark.csv");
+            file.getParentFile().mkdirs();
+            PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                writer.println(CSV_HEADER);
+                for (String line : RESULTS) {
+                    writer.println(line);
+                }
+            } finally {
+                writer.close();
+            }
+
+            LOG.info("Wrote benchmark results to {}", file.getAbsolutePath());
+            RESULTS.clear();
+        }
+    }
+
+    private static String nextQueueName(BenchmarkClient client) {
+        return "benchmark." + client.getName() + "." + QUEUE_IDS.incrementAndGet();
+    }
+
+    private static String createPayload(int size) {
+        String words = "The quick brown fox jumps over the lazy dog while the broker keeps dispatching. ";
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append(words);
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+}
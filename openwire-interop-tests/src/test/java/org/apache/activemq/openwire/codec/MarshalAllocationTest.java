@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.codec;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import org.apache.activemq.openwire.commands.DataStructure;
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.MessageId;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.ProducerId;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.utils.OpenWireConnection;
+import org.apache.activemq.openwire.utils.OpenWireConsumer;
+import org.apache.activemq.openwire.utils.OpenWireProducer;
+import org.apache.activemq.openwire.utils.OpenWireSession;
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Guards the marshal and unmarshal paths against allocation regressions.
+ * <p>
+ * For each command type the bytes allocated by the current thread per marshal and per
+ * unmarshal are measured with tight and loose encoding and compared to the budgets recorded
+ * in the allocation-budgets.properties resource of the version's test package.  After an
+ * intended change in allocation the budgets are re-recorded by running the tests with
+ * -Dopenwire.allocation.record=true, which writes new budget files to the target directory
+ * in place of failing.
+ * <p>
+ * Object layout, String internals and escape analysis differ between Java releases so the
+ * measured values are only comparable on the release the budgets were recorded with.  Each
+ * budget file names that release in its {@value #JAVA_VERSION_KEY} entry and the tests are
+ * skipped on any other release, as they are on a VM without compressed object pointers.
+ */
+public abstract class MarshalAllocationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MarshalAllocationTest.class);
+
+    public static final String RECORD_PROPERTY = "openwire.allocation.record";
+    public static final String BUDGETS_RESOURCE = "allocation-budgets.properties";
+    public static final String JAVA_VERSION_KEY = "java.specification.version";
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 2000;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int BUDGET_HEADROOM = 64;
+
+    private static final boolean RECORDING = Boolean.getBoolean(RECORD_PROPERTY);
+    private static final Map<String, Long> RECORDED = new TreeMap<String, Long>();
+    private static final String[] LICENSE_HEADER = {
+        "## ---------------------------------------------------------------------------",
+        "## Licensed to the Apache Software Foundation (ASF) under one or more",
+        "## contributor license agreements.  See the NOTICE file distributed with",
+        "## this work for additional information regarding copyright ownership.",
+        "## The ASF licenses this file to You under the Apache License, Version 2.0",
+        "## (the \"License\"); you may not use this file except in compliance with",
+        "## the License.  You may obtain a copy of the License at",
+        "##",
+        "## http://www.apache.org/licenses/LICENSE-2.0",
+        "##",
+        "## Unless required by applicable law or agreed to in writing, software",
+        "## distributed under the License is distributed on an \"AS IS\" BASIS,",
+        "## WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.",
+        "## See the License for the specific language governing permissions and",
+        "## limitations under the License.",
+        "## ---------------------------------------------------------------------------" };
+
+    private static com.sun.management.ThreadMXBean threadBean;
+    private static int recordedVersion;
+
+    private final OpenWireConnection connection = new OpenWireConnection();
+    private final OpenWireSession session = connection.createOpenWireSession();
+    private final OpenWireProducer producer = session.createOpenWireProducer();
+    private final OpenWireConsumer consumer = session.createOpenWireConsumer();
+    private final OpenWireQueue queue = new OpenWireQueue("TEST.ALLOCATION");
+
+    // Holds the last result so that the measured work cannot be optimized away.
+    private Object sink;
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public abstract int getVersion();
+
+    @BeforeClass
+    public static void checkAllocationCounters() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        // Budgets are recorded with compressed object pointers, without them every object grows.
+        HotSpotDiagnosticMXBean diagnostics = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        assumeTrue(diagnostics != null && Boolean.parseBoolean(diagnostics.getVMOption("UseCompressedOops").getValue()));
+    }
+
+    @AfterClass
+    public static void writeRecordedBudgets() throws IOException {
+        if (RECORDING && !RECORDED.isEmpty()) {
+            File file = new File("target", "allocation-budgets-v" + recordedVersion + ".properties");
+            PrintWriter out = new PrintWriter(new FileWriter(file));
+            try {
+                for (String line : LICENSE_HEADER) {
+                    out.println(line);
+                }
+                out.println();
+                out.println("# Allocation budgets in bytes per operation for OpenWire v" + recordedVersion + ", see MarshalAllocationTest.");
+                out.println(JAVA_VERSION_KEY + "=" + System.getProperty(JAVA_VERSION_KEY));
+                for (Map.Entry<String, Long> entry : RECORDED.entrySet()) {
+                    out.println(entry.getKey() + "=" + entry.getValue());
+                }
+            } finally {
+                out.close();
+            }
+
+            LOG.info("Recorded allocation budgets to {}", file.getAbsolutePath());
+            RECORDED.clear();
+        }
+    }
+
+    @Test
+    public void testTextMessageAllocation() throws Exception {
+        OpenWireTextMessage message = createTextMessage();
+        checkBudgets("OpenWireTextMessage", message);
+    }
+
+    @Test
+    public void testBytesMessageAllocation() throws Exception {
+        OpenWireBytesMessage message = new OpenWireBytesMessage();
+        populate(message);
+        message.setBodyBytes(new byte[1024]);
+        checkBudgets("OpenWireBytesMessage", message);
+    }
+
+    @Test
+    public void testMessageDispatchAllocation() throws Exception {
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(consumer.getConsumerId());
+        dispatch.setDestination(queue);
+        dispatch.setMessage(createTextMessage());
+        dispatch.setRedeliveryCounter(1);
+        checkBudgets("MessageDispatch", dispatch);
+    }
+
+    @Test
+    public void testMessageAckAllocation() throws Exception {
+        OpenWireTextMessage message = createTextMessage();
+        MessageAck ack = new MessageAck(message, MessageAck.STANDARD_ACK_TYPE, 10);
+        ack.setConsumerId(consumer.getConsumerId());
+        ack.setFirstMessageId(message.getMessageId());
+        checkBudgets("MessageAck", ack);
+    }
+
+    @Test
+    public void testResponseAllocation() throws Exception {
+        Response response = new Response();
+        response.setCorrelationId(42);
+        checkBudgets("Response", response);
+    }
+
+    @Test
+    public void testKeepAliveInfoAllocation() throws Exception {
+        checkBudgets("KeepAliveInfo", new KeepAliveInfo());
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private OpenWireTextMessage createTextMessage() throws Exception {
+        OpenWireTextMessage message = new OpenWireTextMessage();
+        populate(message);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1024) {
+            text.append("allocation budget ");
+        }
+        message.setText(text.toString());
+        return message;
+    }
+
+    private void populate(Message message) throws Exception {
+        ProducerId producerId = producer.getProducerId();
+        message.setProducerId(producerId);
+        message.setMessageId(new MessageId(producerId, 1));
+        message.setDestination(queue);
+        message.setPersistent(true);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setProperty("region", "emea");
+        message.setProperty("sequence", 1);
+    }
+
+    private void checkBudgets(String name, DataStructure command) throws Exception {
+        Properties budgets = loadBudgets();
+        if (!RECORDING) {
+            String recordedOn = budgets.getProperty(JAVA_VERSION_KEY);
+            String runningOn = System.getProperty(JAVA_VERSION_KEY);
+            assumeTrue("Budgets were recorded on Java " + recordedOn + " not " + runningOn, runningOn.equals(recordedOn));
+        }
+        List<String> violations = new ArrayList<String>();
+
+        for (boolean tight : new boolean[] { true, false }) {
+            String prefix = name + (tight ? ".tight" : ".loose");
+
+            final OpenWireFormat encoder = createFormat(tight);
+            final OpenWireFormat decoder = createFormat(tight);
+            final DataStructure marshalled = command;
+
+            // The first frame primes the marshal caches of both formats, the frames that follow
+            // only refer to cached values just as they would on an established connection.
+            decoder.unmarshal(encoder.marshal(marshalled));
+            final Buffer frame = encoder.marshal(marshalled);
+            assertNotNull(decoder.unmarshal(frame));
+
+            long marshal = measure(new Operation() {
+
+                @Override
+                public void run() throws Exception {
+                    sink = encoder.marshal(marshalled);
+                }
+            });
+            long unmarshal = measure(new Operation() {
+
+                @Override
+                public void run() throws Exception {
+                    sink = decoder.unmarshal(frame);
+                }
+            });
+
+            check(budgets, prefix + ".marshal", marshal, violations);
+            check(budgets, prefix + ".unmarshal", unmarshal, violations);
+        }
+
+        assertTrue("Allocation budgets exceeded for OpenWire v" + getVersion() + ": " + violations, violations.isEmpty());
+    }
+
+    private void check(Properties budgets, String key, long measured, List<String> violations) {
+        LOG.info("OpenWire v{} {} allocates {} bytes", getVersion(), key, measured);
+
+        if (RECORDING) {
+            recordedVersion = getVersion();
+            RECORDED.put(key, budgetFor(measured));
+            return;
+        }
+
+        String budget = budgets.getProperty(key);
+        if (budget == null) {
+            violations.add(key + " has no recorded budget (measured " + measured + ")");
+        } else if (measured > Long.parseLong(budget)) {
+            violations.add(key + " allocated " + measured + " bytes, budget is " + budget);
+        }
+    }
+
+    /*
+     * The measured values repeat exactly from run to run, the small fixed headroom allows for
+     * a few objects of difference in JIT state without letting a new per message buffer pass.
+     */
+    private static long budgetFor(long measured) {
+        return ((measured + 7) & ~7L) + BUDGET_HEADROOM;
+    }
+
+    private long measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            operation.run();
+        }
+
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        long lowest = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; ++round) {
+            long start = allocatedBytes();
+            for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+                operation.run();
+            }
+            long allocated = allocatedBytes() - start - overhead;
+            lowest = Math.min(lowest, allocated / MEASURED_ITERATIONS);
+        }
+
+        return lowest;
+    }
+
+    private static long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private OpenWireFormat createFormat(boolean tight) {
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setVersion(getVersion());
+        factory.setTightEncodingEnabled(tight);
+        factory.setCacheEnabled(true);
+
+        OpenWireFormat format = factory.createWireFormat();
+        format.setTightEncodingEnabled(tight);
+        format.setCacheEnabled(true);
+        return format;
+    }
+
+    private Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        InputStream in = getClass().getResourceAsStream(BUDGETS_RESOURCE);
+        if (in != null) {
+            try {
+                budgets.load(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        return budgets;
+    }
+}
@@ -19,12 +19,12 @@ package org.apache.activemq.openwire.codec;
 import java.io.IOException;
 import java.net.URI;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 
 import javax.jms.JMSException;
 import javax.management.MalformedObjectNameException;
@@ -43,6 +43,7 @@ import org.apache.activemq.openwire.commands.MessageDispatch;
 import org.apache.activemq.openwire.commands.Response;
 import org.apache.activemq.openwire.commands.ShutdownInfo;
 import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.transport.ResponseCorrelator;
 import org.apache.activemq.openwire.util.TcpTransport;
 import org.apache.activemq.openwire.util.TransportListener;
 import org.junit.After;
@@ -75,10 +76,7 @@ public abstract class OpenWireInteropTestSupport implements TransportListener {
     private WireFormatInfo remoteWireformatInfo;
     private BrokerInfo remoteInfo;
     private Exception failureCause;
-    private final AtomicInteger requestIdGenerator = new AtomicInteger(1);
-
-    private final Map<Integer, CountDownLatch> requestMap =
-        new ConcurrentHashMap<Integer, CountDownLatch>();
+    private final ResponseCorrelator correlator = new ResponseCorrelator();
 
     protected Command latest;
     protected final Queue<Message> messages = new LinkedList<Message>();
@@ -131,12 +129,17 @@ public abstract class OpenWireInteropTestSupport implements TransportListener {
     }
 
     protected boolean request(Command command, long timeout, TimeUnit units) throws Exception {
-        command.setCommandId(requestIdGenerator.getAndIncrement());
-        command.setResponseRequired(true);
-        CountDownLatch complete = new CountDownLatch(1);
-        requestMap.put(new Integer(command.getCommandId()), complete);
+        CompletableFuture<Response> response = correlator.request(command);
         transport.oneway(command);
-        return complete.await(timeout, units);
+        try {
+            response.get(timeout, units);
+        } catch (ExecutionException e) {
+            LOG.debug("Request {} failed: {}", command.getCommandId(), e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            correlator.fail(command.getCommandId(), e);
+            return false;
+        }
+        return true;
     }
 
     protected boolean awaitConnected(long time, TimeUnit unit) throws InterruptedException {
@@ -169,10 +172,7 @@ public abstract class OpenWireInteropTestSupport implements TransportListener {
                 Response response = (Response) command;
                 this.latest = response;
                 LOG.info("Received response for request: {}, response = {}", response.getCorrelationId(), latest);
-                CountDownLatch done = requestMap.get(response.getCorrelationId());
-                if (done != null) {
-                    done.countDown();
-                }
+                correlator.onResponse(response);
             } else if (command instanceof MessageDispatch) {
                 LOG.info("Received new MessageDispatch: {}", command);
                 MessageDispatch dispatch = (MessageDispatch) command;
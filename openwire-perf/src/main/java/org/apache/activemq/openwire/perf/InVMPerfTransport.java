@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.IOException;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.transport.InVMTransport;
+import org.apache.activemq.openwire.transport.TransportListener;
+
+/**
+ * A PerfTransport over the client end of an InVMTransport pair.
+ */
+final class InVMPerfTransport implements PerfTransport {
+
+    private final InVMTransport transport;
+
+    InVMPerfTransport(InVMTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public void start(TransportListener listener) throws IOException {
+        transport.setTransportListener(listener);
+        transport.start();
+    }
+
+    @Override
+    public void oneway(Object command) throws IOException {
+        transport.oneway(command);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        transport.flush();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            transport.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public OpenWireFormat getWireFormat() {
+        return transport.getWireFormat();
+    }
+
+    @Override
+    public String toString() {
+        return transport.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.util.Arrays;
+
+/**
+ * Records the distribution of non-negative values, such as latencies, in a fixed amount of
+ * memory while keeping a bounded relative error at every magnitude.
+ * <p>
+ * Values below the sub-bucket count are counted exactly, larger values fall into buckets
+ * whose width doubles with each power of two so that every bucket spans a constant fraction
+ * of the values it holds, the scheme used by HDR histograms.  With the default precision
+ * a value read back is within 1/64th of the value recorded.
+ * <p>
+ * A histogram is not thread safe, each recording thread keeps its own and they are added
+ * together once recording has finished.
+ */
+public class LatencyHistogram {
+
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    private final int precisionBits;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final long[] counts;
+
+    private long totalCount;
+    private long totalValue;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+
+    /**
+     * Creates a histogram with the default precision.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param precisionBits
+     *        the number of significant bits kept for each value, between 2 and 16.
+     */
+    public LatencyHistogram(int precisionBits) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException("Precision bits must be between 2 and 16: " + precisionBits);
+        }
+
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.counts = new long[subBucketCount + (64 - precisionBits) * subBucketHalfCount];
+    }
+
+    /**
+     * Records a value, negative values as can come from unsynchronized clocks are recorded as zero.
+     *
+     * @param value
+     *        the value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts[indexOf(value)]++;
+        totalCount++;
+        totalValue += value;
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Adds the values recorded by another histogram of the same precision to this one.
+     *
+     * @param other
+     *        the histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("Cannot add a histogram with precision " + other.precisionBits +
+                                               " to one with precision " + precisionBits);
+        }
+
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * @param percentile
+     *        the percentile wanted, from 0 to 100.
+     *
+     * @return the largest value equivalent to the value at the percentile, or zero if empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        double requested = Math.min(Math.max(percentile, 0.0), 100.0);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(requested / 100.0 * totalCount));
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    /**
+     * @return the number of values recorded.
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return the smallest value recorded, or zero if empty.
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    /**
+     * @return the largest value recorded, or zero if empty.
+     */
+    public long getMax() {
+        return maxValue;
+    }
+
+    /**
+     * @return the mean of the values recorded, or zero if empty.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalValue / totalCount;
+    }
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    /**
+     * Discards every value recorded.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalValue = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+
+        // Keep the top precisionBits of the value, the shift is its bucket.
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (precisionBits - 1);
+        int subBucket = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * subBucketHalfCount + (subBucket - subBucketHalfCount);
+    }
+
+    private long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+
+        int offset = index - subBucketCount;
+        int shift = offset / subBucketHalfCount + 1;
+        long subBucket = offset % subBucketHalfCount + subBucketHalfCount;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
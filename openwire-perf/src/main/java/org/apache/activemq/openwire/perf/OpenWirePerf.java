@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.openwire.broker.StubBroker;
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.codec.OpenWireFormatFactory;
+import org.apache.activemq.openwire.transport.InVMTransport;
+
+/**
+ * A load generator that drives connections, sessions, producers and consumers built on the
+ * OpenWire utilities at a broker and reports the throughput and latency seen.
+ * <p>
+ * The broker may be a remote broker reached at {@code tcp://host:port} or a StubBroker
+ * started in this JVM and reached over a socket or an in-VM transport, which compares the
+ * cost of the codec and wire options on the local hardware with the broker taken out of the
+ * picture.  By default producers send for a warmup period and then for the measured duration,
+ * with {@code --messages} each producer sends that many messages and the whole run is measured.
+ * <p>
+ * The build packages the tool together with its dependencies in a runnable jar:
+ *
+ * <pre>
+ * java -jar openwire-perf-&lt;version&gt;-jar-with-dependencies.jar --broker=vm --producers=4 --message-size=256 --tight-encoding=false
+ * </pre>
+ */
+public class OpenWirePerf {
+
+    private static final long DRAIN_TIMEOUT = 10000;
+
+    private final PerfOptions options;
+    private final PrintStream out;
+    private final PerfStats stats = new PerfStats();
+
+    /**
+     * Creates a load generator.
+     *
+     * @param options
+     *        the settings of the run.
+     * @param out
+     *        the stream progress reports are written to, or null for none.
+     */
+    public OpenWirePerf(PerfOptions options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        PerfOptions options;
+        try {
+            options = PerfOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(PerfOptions.usage());
+            System.exit(1);
+            return;
+        }
+
+        try {
+            PerfResult result = new OpenWirePerf(options, System.out).run();
+            result.print(System.out);
+        } catch (Exception e) {
+            System.err.println("Run failed: " + e);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Runs the load, returning once every connection is closed.
+     *
+     * @return the measured results.
+     *
+     * @throws Exception if a connection cannot be made or fails during the run.
+     */
+    public PerfResult run() throws Exception {
+        StubBroker broker = null;
+        List<PerfConnection> connections = new ArrayList<PerfConnection>();
+        List<Thread> producers = new ArrayList<Thread>();
+        try {
+            if (options.isEmbeddedBroker()) {
+                broker = new StubBroker("openwire-perf");
+                broker.setWireFormatFactory(createWireFormatFactory());
+            }
+
+            int port = 0;
+            if (PerfOptions.STUB_BROKER.equals(options.getBroker())) {
+                port = broker.bind(0);
+            }
+
+            for (int i = 0; i < options.getConnections(); ++i) {
+                PerfConnection connection = new PerfConnection(options, createTransport(broker, port), stats);
+                connections.add(connection);
+                connection.start();
+            }
+
+            for (int i = 0; i < connections.size(); ++i) {
+                List<Runnable> tasks = connections.get(i).getProducerTasks();
+                for (int j = 0; j < tasks.size(); ++j) {
+                    Thread producer = new Thread(tasks.get(j), "OpenWire Perf Producer: " + i + "-" + j);
+                    producer.setDaemon(true);
+                    producers.add(producer);
+                }
+            }
+
+            long elapsed = options.getMessages() > 0 ? runCount(producers) : runTimed(producers);
+            checkFailure();
+
+            LatencyHistogram endToEnd = new LatencyHistogram();
+            LatencyHistogram toBroker = new LatencyHistogram();
+            LatencyHistogram inBroker = new LatencyHistogram();
+            LatencyHistogram toConsumer = new LatencyHistogram();
+            for (PerfConnection connection : connections) {
+                connection.collect(endToEnd, toBroker, inBroker, toConsumer);
+            }
+
+            return new PerfResult(options, elapsed, stats.getMeasuredSent(), stats.getMeasuredReceived(),
+                                  endToEnd, toBroker, inBroker, toConsumer);
+        } finally {
+            stats.stop();
+            for (Thread producer : producers) {
+                producer.join(DRAIN_TIMEOUT);
+            }
+            for (PerfConnection connection : connections) {
+                connection.stop();
+            }
+            if (broker != null) {
+                broker.stop();
+            }
+        }
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private long runTimed(List<Thread> producers) throws Exception {
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        report(options.getWarmup());
+        checkFailure();
+
+        stats.startMeasuring();
+        long start = System.nanoTime();
+        report(options.getDuration());
+        stats.stopMeasuring();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        stats.stop();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        return elapsed;
+    }
+
+    private long runCount(List<Thread> producers) throws Exception {
+        stats.startMeasuring();
+        long start = System.nanoTime();
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Wait until no more messages arrive.
+        long expected = getExpectedDeliveries();
+        long last = -1;
+        long idleSince = System.nanoTime();
+        while (stats.getReceived() < expected && stats.getFailure() == null &&
+               System.nanoTime() - idleSince < TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT)) {
+
+            long received = stats.getReceived();
+            if (received != last) {
+                last = received;
+                idleSince = System.nanoTime();
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        stats.stopMeasuring();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private long getExpectedDeliveries() {
+        long consumers = (long) options.getConnections() * options.getSessions() * options.getConsumers();
+        if (consumers == 0) {
+            return 0;
+        }
+
+        return options.isTopic() ? stats.getSent() * consumers : stats.getSent();
+    }
+
+    private void report(long period) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(period);
+        long interval = options.getReportInterval() > 0 && out != null ? options.getReportInterval() : period;
+        long lastSent = stats.getSent();
+        long lastReceived = stats.getReceived();
+
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0 && stats.getFailure() == null) {
+            long wait = Math.min(TimeUnit.MILLISECONDS.toNanos(interval), remaining);
+            TimeUnit.NANOSECONDS.sleep(wait);
+
+            if (out != null && options.getReportInterval() > 0) {
+                long sent = stats.getSent();
+                long received = stats.getReceived();
+                double seconds = wait / 1e9;
+                out.println(String.format(Locale.ENGLISH, "%s sent %.0f msgs/s, received %.0f msgs/s",
+                    stats.isMeasuring() ? "[measure]" : "[warmup] ",
+                    (sent - lastSent) / seconds, (received - lastReceived) / seconds));
+                lastSent = sent;
+                lastReceived = received;
+            }
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        Throwable failure = stats.getFailure();
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private OpenWireFormatFactory createWireFormatFactory() {
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        factory.setVersion(options.getWireVersion());
+        factory.setTightEncodingEnabled(options.isTightEncoding());
+        factory.setCacheEnabled(options.isCacheEnabled());
+        // Keep alive traffic would only disturb the measurements.
+        factory.setMaxInactivityDuration(0);
+        return factory;
+    }
+
+    private PerfTransport createTransport(StubBroker broker, int port) throws Exception {
+        OpenWireFormat wireFormat = createWireFormatFactory().createWireFormat();
+        if (PerfOptions.VM_BROKER.equals(options.getBroker()) || PerfOptions.VM_REFERENCE_BROKER.equals(options.getBroker())) {
+            InVMTransport.Mode mode = PerfOptions.VM_BROKER.equals(options.getBroker()) ?
+                InVMTransport.Mode.ENCODED : InVMTransport.Mode.REFERENCE;
+            InVMTransport transport = broker.connect(mode, wireFormat);
+            transport.setBatchSize(options.getBatchSize());
+            // Room for every prefetched dispatch so the broker never blocks on this end.
+            int prefetched = options.getSessions() * options.getConsumers() * options.getPrefetch();
+            transport.setQueueCapacity(Math.max(InVMTransport.DEFAULT_QUEUE_CAPACITY, prefetched + 64));
+            return new InVMPerfTransport(transport);
+        } else if (PerfOptions.STUB_BROKER.equals(options.getBroker())) {
+            return new SocketPerfTransport("localhost", port, wireFormat);
+        } else {
+            URI uri = new URI(options.getBroker());
+            return new SocketPerfTransport(uri.getHost(), uri.getPort(), wireFormat);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.commands.BrokerInfo;
+import org.apache.activemq.openwire.commands.Command;
+import org.apache.activemq.openwire.commands.ConsumerId;
+import org.apache.activemq.openwire.commands.ExceptionResponse;
+import org.apache.activemq.openwire.commands.KeepAliveInfo;
+import org.apache.activemq.openwire.commands.Message;
+import org.apache.activemq.openwire.commands.MessageAck;
+import org.apache.activemq.openwire.commands.MessageDispatch;
+import org.apache.activemq.openwire.commands.OpenWireBytesMessage;
+import org.apache.activemq.openwire.commands.OpenWireDestination;
+import org.apache.activemq.openwire.commands.OpenWireMapMessage;
+import org.apache.activemq.openwire.commands.OpenWireMessage;
+import org.apache.activemq.openwire.commands.OpenWireQueue;
+import org.apache.activemq.openwire.commands.OpenWireTextMessage;
+import org.apache.activemq.openwire.commands.OpenWireTopic;
+import org.apache.activemq.openwire.commands.Response;
+import org.apache.activemq.openwire.commands.ShutdownInfo;
+import org.apache.activemq.openwire.commands.WireFormatInfo;
+import org.apache.activemq.openwire.transport.TransportListener;
+import org.apache.activemq.openwire.utils.OpenWireAckAggregator;
+import org.apache.activemq.openwire.utils.OpenWireConnection;
+import org.apache.activemq.openwire.utils.OpenWireConsumer;
+import org.apache.activemq.openwire.utils.OpenWireProducer;
+import org.apache.activemq.openwire.utils.OpenWireSession;
+
+/**
+ * One connection of a load generator run with its sessions, producers and consumers.
+ * <p>
+ * Consumers are driven by the transport thread, which records the latency of every message
+ * received while measuring and acknowledges it through an OpenWireAckAggregator.  Each
+ * producer is a task run on a thread of its own.
+ */
+final class PerfConnection implements TransportListener {
+
+    private static final long REQUEST_TIMEOUT = 30000;
+
+    private final PerfOptions options;
+    private final PerfTransport transport;
+    private final PerfStats stats;
+    private final OpenWireConnection connection = new OpenWireConnection();
+    private final OpenWireDestination destination;
+    private final AtomicInteger nextCommandId = new AtomicInteger();
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final Map<Integer, PendingRequest> requests = new ConcurrentHashMap<Integer, PendingRequest>();
+    private final Map<ConsumerId, OpenWireAckAggregator> aggregators = new ConcurrentHashMap<ConsumerId, OpenWireAckAggregator>();
+    private final List<Runnable> producerTasks = new ArrayList<Runnable>();
+
+    // Message content shared by every message sent, only read once created.
+    private final byte[] payload;
+    private final String textPayload;
+    private final String[] propertyNames;
+
+    // Guarded by this, recorded on the transport thread and read once the run is over.
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram toBroker = new LatencyHistogram();
+    private final LatencyHistogram inBroker = new LatencyHistogram();
+    private final LatencyHistogram toConsumer = new LatencyHistogram();
+
+    private volatile BrokerInfo brokerInfo;
+
+    PerfConnection(PerfOptions options, PerfTransport transport, PerfStats stats) {
+        this.options = options;
+        this.transport = transport;
+        this.stats = stats;
+
+        if (options.isTopic()) {
+            destination = new OpenWireTopic(options.getDestination());
+        } else {
+            destination = new OpenWireQueue(options.getDestination());
+        }
+
+        // Random letters so that compression sees realistic rather than trivial content.
+        Random random = new Random(options.getMessageSize());
+        char[] text = new char[options.getMessageSize()];
+        payload = new byte[options.getMessageSize()];
+        for (int i = 0; i < payload.length; ++i) {
+            text[i] = (char) ('a' + random.nextInt(26));
+            payload[i] = (byte) text[i];
+        }
+        textPayload = new String(text);
+
+        propertyNames = new String[options.getProperties()];
+        for (int i = 0; i < propertyNames.length; ++i) {
+            propertyNames[i] = "perfProperty" + i;
+        }
+    }
+
+    /**
+     * Connects, negotiates the wire format and registers the sessions, consumers and producers.
+     *
+     * @throws Exception if the broker cannot be reached or refuses a registration.
+     */
+    void start() throws Exception {
+        transport.start(this);
+        transport.oneway(transport.getWireFormat().getPreferedWireFormatInfo());
+        transport.flush();
+        if (!connected.await(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new IOException("No BrokerInfo received from " + transport);
+        }
+
+        request(connection.createConnectionInfo());
+        for (int i = 0; i < options.getSessions(); ++i) {
+            OpenWireSession session = connection.createOpenWireSession();
+            request(session.createSessionInfo());
+
+            for (int j = 0; j < options.getConsumers(); ++j) {
+                OpenWireConsumer consumer = session.createOpenWireConsumer();
+                consumer.setPrefetchSize(options.getPrefetch());
+                if (options.isTopic() && options.isEmbeddedBroker()) {
+                    // The StubBroker does not hold topic consumers to their prefetch, acks
+                    // would only add traffic that can block the transport thread.
+                    request(consumer.createConsumerInfo(destination));
+                    continue;
+                }
+
+                aggregators.put(consumer.getConsumerId(), consumer.createAckAggregator(new OpenWireAckAggregator.AckSender() {
+
+                    @Override
+                    public void sendAck(MessageAck ack) throws IOException {
+                        transport.oneway(ack);
+                        transport.flush();
+                    }
+                }));
+                request(consumer.createConsumerInfo(destination));
+            }
+
+            for (int j = 0; j < options.getProducers(); ++j) {
+                final OpenWireProducer producer = session.createOpenWireProducer();
+                request(producer.createProducerInfo(destination));
+                producerTasks.add(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        produce(producer);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Removes the connection from the broker and closes the transport.
+     */
+    void stop() {
+        try {
+            transport.oneway(connection.createRemoveInfo());
+            transport.oneway(new ShutdownInfo());
+            transport.flush();
+        } catch (IOException e) {
+            // Closed by the broker already.
+        } finally {
+            transport.stop();
+        }
+    }
+
+    List<Runnable> getProducerTasks() {
+        return producerTasks;
+    }
+
+    BrokerInfo getBrokerInfo() {
+        return brokerInfo;
+    }
+
+    /**
+     * Adds the latencies recorded by this connection to the given histograms.
+     */
+    synchronized void collect(LatencyHistogram endToEnd, LatencyHistogram toBroker, LatencyHistogram inBroker, LatencyHistogram toConsumer) {
+        endToEnd.add(this.endToEnd);
+        toBroker.add(this.toBroker);
+        inBroker.add(this.inBroker);
+        toConsumer.add(this.toConsumer);
+    }
+
+    @Override
+    public void onCommand(Object command) {
+        try {
+            if (command instanceof MessageDispatch) {
+                onDispatch((MessageDispatch) command);
+            } else if (command instanceof Response) {
+                Response response = (Response) command;
+                PendingRequest request = requests.remove(response.getCorrelationId());
+                if (request != null) {
+                    request.complete(response);
+                }
+            } else if (command instanceof WireFormatInfo) {
+                OpenWireFormat wireFormat = transport.getWireFormat();
+                synchronized (wireFormat) {
+                    wireFormat.renegotiateWireFormat((WireFormatInfo) command);
+                }
+            } else if (command instanceof BrokerInfo) {
+                brokerInfo = (BrokerInfo) command;
+                connected.countDown();
+            } else if (command instanceof KeepAliveInfo && ((KeepAliveInfo) command).isResponseRequired()) {
+                KeepAliveInfo keepAlive = (KeepAliveInfo) command;
+                keepAlive.setResponseRequired(false);
+                transport.oneway(keepAlive);
+                transport.flush();
+            }
+        } catch (IOException e) {
+            onException(e);
+        }
+    }
+
+    @Override
+    public void onException(IOException error) {
+        if (!stats.isStopping()) {
+            stats.failed(error);
+        }
+        for (PendingRequest request : requests.values()) {
+            request.complete(new ExceptionResponse(error));
+        }
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void onDispatch(MessageDispatch dispatch) throws IOException {
+        Message message = dispatch.getMessage();
+        if (message == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (stats.received(message.getTimestamp())) {
+            synchronized (this) {
+                endToEnd.record(now - message.getTimestamp());
+                if (message.getBrokerInTime() != 0 && message.getBrokerOutTime() != 0) {
+                    toBroker.record(message.getBrokerInTime() - message.getTimestamp());
+                    inBroker.record(message.getBrokerOutTime() - message.getBrokerInTime());
+                    toConsumer.record(now - message.getBrokerOutTime());
+                }
+            }
+        }
+
+        OpenWireAckAggregator aggregator = aggregators.get(dispatch.getConsumerId());
+        if (aggregator != null) {
+            aggregator.delivered(dispatch);
+            aggregator.consumed(dispatch);
+        }
+    }
+
+    private void produce(OpenWireProducer producer) {
+        long limit = options.getMessages();
+        long interval = options.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / options.getRate() : 0;
+        long start = System.nanoTime();
+        int unflushed = 0;
+
+        try {
+            for (long sent = 0; !stats.isStopping() && (limit == 0 || sent < limit); ++sent) {
+                if (interval > 0) {
+                    long delay = start + sent * interval - System.nanoTime();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                }
+
+                Message message = createMessage(producer);
+                if (options.isSyncSend()) {
+                    request(message);
+                } else {
+                    transport.oneway(message);
+                    if (++unflushed >= options.getBatchSize()) {
+                        transport.flush();
+                        unflushed = 0;
+                    }
+                }
+                stats.sent();
+            }
+
+            transport.flush();
+        } catch (Exception e) {
+            stats.failed(e);
+        }
+    }
+
+    private Message createMessage(OpenWireProducer producer) throws Exception {
+        OpenWireMessage message;
+        switch (options.getMessageType()) {
+            case TEXT:
+                OpenWireTextMessage text = new OpenWireTextMessage();
+                text.setUseCompression(options.isCompression());
+                text.setText(textPayload);
+                message = text;
+                break;
+            case MAP:
+                OpenWireMapMessage map = new OpenWireMapMessage();
+                map.setUseCompression(options.isCompression());
+                map.setObject("payload", payload);
+                message = map;
+                break;
+            default:
+                OpenWireBytesMessage bytes = new OpenWireBytesMessage();
+                bytes.setUseCompression(options.isCompression());
+                bytes.setPayload(payload);
+                message = bytes;
+                break;
+        }
+
+        for (String name : propertyNames) {
+            message.setProperty(name, name);
+        }
+
+        message.setCommandId(nextCommandId.incrementAndGet());
+        message.setProducerId(producer.getProducerId());
+        message.setMessageId(producer.getNextMessageId());
+        message.setDestination(destination);
+        message.setPersistent(options.isPersistent());
+        message.setTimestamp(System.currentTimeMillis());
+        return message;
+    }
+
+    private void request(Command command) throws Exception {
+        PendingRequest request = new PendingRequest();
+        command.setCommandId(nextCommandId.incrementAndGet());
+        command.setResponseRequired(true);
+        requests.put(command.getCommandId(), request);
+
+        transport.oneway(command);
+        transport.flush();
+
+        Response response = request.await(REQUEST_TIMEOUT);
+        if (response == null) {
+            requests.remove(command.getCommandId());
+            throw new IOException("No response to " + command.getClass().getSimpleName() + " from " + transport);
+        } else if (response.isException()) {
+            Throwable cause = ((ExceptionResponse) response).getException();
+            throw new IOException("Request failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static final class PendingRequest {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Response response;
+
+        void complete(Response response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        Response await(long timeout) throws InterruptedException {
+            done.await(timeout, TimeUnit.MILLISECONDS);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.util.Locale;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+
+/**
+ * The settings of a load generator run, parsed from {@code --name=value} arguments.
+ */
+public class PerfOptions {
+
+    /**
+     * Runs against a StubBroker started in this JVM and reached over a socket.
+     */
+    public static final String STUB_BROKER = "stub";
+
+    /**
+     * Runs against a StubBroker started in this JVM and reached through an in-VM transport
+     * that marshals every command.
+     */
+    public static final String VM_BROKER = "vm";
+
+    /**
+     * Runs against a StubBroker started in this JVM and reached through an in-VM transport
+     * that hands over command objects without marshalling them.
+     */
+    public static final String VM_REFERENCE_BROKER = "vm-reference";
+
+    /**
+     * The message bodies a run can send.
+     */
+    public enum MessageType {
+        TEXT, BYTES, MAP
+    }
+
+    private String broker = STUB_BROKER;
+    private int connections = 1;
+    private int sessions = 1;
+    private int producers = 1;
+    private int consumers = 1;
+    private String destination = "openwire.perf";
+    private boolean topic;
+    private MessageType messageType = MessageType.BYTES;
+    private int messageSize = 1024;
+    private int properties;
+    private boolean compression;
+    private boolean persistent;
+    private boolean syncSend;
+    private boolean tightEncoding = true;
+    private boolean cacheEnabled = true;
+    private int wireVersion = OpenWireFormat.DEFAULT_WIRE_VERSION;
+    private int prefetch = 1000;
+    private int batchSize = 1;
+    private long messages;
+    private long rate;
+    private long warmup = 2000;
+    private long duration = 10000;
+    private long reportInterval = 1000;
+
+    /**
+     * Parses the options of a run.
+     *
+     * @param args
+     *        arguments of the form {@code --name=value}, a boolean option may be given as
+     *        {@code --name} alone.
+     *
+     * @return the parsed options.
+     *
+     * @throws IllegalArgumentException if an argument is unknown or its value is invalid.
+     */
+    public static PerfOptions parse(String... args) {
+        PerfOptions options = new PerfOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Options must be given as --name=value: " + arg);
+            }
+
+            int separator = arg.indexOf('=');
+            String name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+            String value = separator < 0 ? "true" : arg.substring(separator + 1);
+            options.set(name, value);
+        }
+
+        options.validate();
+        return options;
+    }
+
+    /**
+     * @return a description of every option and its default.
+     */
+    public static String usage() {
+        PerfOptions defaults = new PerfOptions();
+        StringBuilder usage = new StringBuilder();
+        usage.append("Usage: OpenWirePerf [--option=value]...\n");
+        usage.append("  --broker=URI           ").append("tcp://host:port, stub, vm or vm-reference (").append(defaults.broker).append(")\n");
+        usage.append("  --connections=N        connections opened (").append(defaults.connections).append(")\n");
+        usage.append("  --sessions=N           sessions per connection (").append(defaults.sessions).append(")\n");
+        usage.append("  --producers=N          producers per session (").append(defaults.producers).append(")\n");
+        usage.append("  --consumers=N          consumers per session (").append(defaults.consumers).append(")\n");
+        usage.append("  --destination=NAME     destination used by every client (").append(defaults.destination).append(")\n");
+        usage.append("  --topic                use a topic rather than a queue\n");
+        usage.append("  --message-type=TYPE    text, bytes or map (").append(defaults.messageType.name().toLowerCase(Locale.ENGLISH)).append(")\n");
+        usage.append("  --message-size=BYTES   size of each message body (").append(defaults.messageSize).append(")\n");
+        usage.append("  --properties=N         string properties set on each message (").append(defaults.properties).append(")\n");
+        usage.append("  --compression          compress message bodies\n");
+        usage.append("  --persistent           send persistent messages\n");
+        usage.append("  --sync-send            wait for a response to every message sent\n");
+        usage.append("  --tight-encoding=BOOL  prefer tight encoding (").append(defaults.tightEncoding).append(")\n");
+        usage.append("  --cache=BOOL           prefer the marshalling cache (").append(defaults.cacheEnabled).append(")\n");
+        usage.append("  --wire-version=N       preferred OpenWire version (").append(defaults.wireVersion).append(")\n");
+        usage.append("  --prefetch=N           consumer prefetch size (").append(defaults.prefetch).append(")\n");
+        usage.append("  --batch-size=N         messages a producer sends between flushes (").append(defaults.batchSize).append(")\n");
+        usage.append("  --messages=N           messages per producer measured in full, 0 runs for the warmup and duration (").append(defaults.messages).append(")\n");
+        usage.append("  --rate=N               messages per second per producer, 0 is unlimited (").append(defaults.rate).append(")\n");
+        usage.append("  --warmup=MS            time before measuring starts (").append(defaults.warmup).append(")\n");
+        usage.append("  --duration=MS          time measured (").append(defaults.duration).append(")\n");
+        usage.append("  --report-interval=MS   time between progress reports, 0 for none (").append(defaults.reportInterval).append(")\n");
+        return usage.toString();
+    }
+
+    /**
+     * @return true if the run uses a StubBroker started in this JVM.
+     */
+    public boolean isEmbeddedBroker() {
+        return STUB_BROKER.equals(broker) || VM_BROKER.equals(broker) || VM_REFERENCE_BROKER.equals(broker);
+    }
+
+    @Override
+    public String toString() {
+        return "broker=" + broker + ", connections=" + connections + ", sessions=" + sessions +
+               ", producers=" + producers + ", consumers=" + consumers +
+               ", destination=" + (topic ? "topic://" : "queue://") + destination +
+               ", message-type=" + messageType.name().toLowerCase(Locale.ENGLISH) + ", message-size=" + messageSize +
+               ", properties=" + properties + ", compression=" + compression + ", persistent=" + persistent +
+               ", sync-send=" + syncSend + ", tight-encoding=" + tightEncoding + ", cache=" + cacheEnabled +
+               ", wire-version=" + wireVersion + ", prefetch=" + prefetch + ", batch-size=" + batchSize;
+    }
+
+    //----- Property accessors -----------------------------------------------//
+
+    public String getBroker() {
+        return broker;
+    }
+
+    public void setBroker(String broker) {
+        this.broker = broker;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(int sessions) {
+        this.sessions = sessions;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    public void setConsumers(int consumers) {
+        this.consumers = consumers;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public boolean isTopic() {
+        return topic;
+    }
+
+    public void setTopic(boolean topic) {
+        this.topic = topic;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
+    }
+
+    public void setMessageType(MessageType messageType) {
+        this.messageType = messageType;
+    }
+
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    public int getProperties() {
+        return properties;
+    }
+
+    public void setProperties(int properties) {
+        this.properties = properties;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    public boolean isSyncSend() {
+        return syncSend;
+    }
+
+    public void setSyncSend(boolean syncSend) {
+        this.syncSend = syncSend;
+    }
+
+    public boolean isTightEncoding() {
+        return tightEncoding;
+    }
+
+    public void setTightEncoding(boolean tightEncoding) {
+        this.tightEncoding = tightEncoding;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public int getWireVersion() {
+        return wireVersion;
+    }
+
+    public void setWireVersion(int wireVersion) {
+        this.wireVersion = wireVersion;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public long getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(long warmup) {
+        this.warmup = warmup;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private void set(String name, String value) {
+        try {
+            switch (name) {
+                case "broker": broker = value; break;
+                case "connections": connections = Integer.parseInt(value); break;
+                case "sessions": sessions = Integer.parseInt(value); break;
+                case "producers": producers = Integer.parseInt(value); break;
+                case "consumers": consumers = Integer.parseInt(value); break;
+                case "destination": destination = value; break;
+                case "topic": topic = parseBoolean(value); break;
+                case "message-type": messageType = MessageType.valueOf(value.toUpperCase(Locale.ENGLISH)); break;
+                case "message-size": messageSize = Integer.parseInt(value); break;
+                case "properties": properties = Integer.parseInt(value); break;
+                case "compression": compression = parseBoolean(value); break;
+                case "persistent": persistent = parseBoolean(value); break;
+                case "sync-send": syncSend = parseBoolean(value); break;
+                case "tight-encoding": tightEncoding = parseBoolean(value); break;
+                case "cache": cacheEnabled = parseBoolean(value); break;
+                case "wire-version": wireVersion = Integer.parseInt(value); break;
+                case "prefetch": prefetch = Integer.parseInt(value); break;
+                case "batch-size": batchSize = Integer.parseInt(value); break;
+                case "messages": messages = Long.parseLong(value); break;
+                case "rate": rate = Long.parseLong(value); break;
+                case "warmup": warmup = Long.parseLong(value); break;
+                case "duration": duration = Long.parseLong(value); break;
+                case "report-interval": reportInterval = Long.parseLong(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Expected true or false: " + value);
+    }
+
+    private void validate() {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("Connections must be positive: " + connections);
+        }
+        if (sessions <= 0) {
+            throw new IllegalArgumentException("Sessions must be positive: " + sessions);
+        }
+        if (producers < 0 || consumers < 0) {
+            throw new IllegalArgumentException("Producers and consumers cannot be negative");
+        }
+        if (messageSize < 0 || properties < 0) {
+            throw new IllegalArgumentException("Message size and properties cannot be negative");
+        }
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Prefetch must be positive: " + prefetch);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        if (!isEmbeddedBroker() && !broker.startsWith("tcp://")) {
+            throw new IllegalArgumentException("Broker must be tcp://host:port, stub, vm or vm-reference: " + broker);
+        }
+    }
+}
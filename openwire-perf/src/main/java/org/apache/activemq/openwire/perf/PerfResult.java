@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * The throughput and latencies measured by a load generator run.
+ * <p>
+ * Latencies are in milliseconds, the resolution of the message timestamps they are taken
+ * from.  The end to end latency runs from the producer's timestamp to the consumer's receipt
+ * and is broken down into the time taken to reach the broker, the time spent in the broker
+ * and the time taken to reach the consumer using the broker in and out times.  Hops that
+ * cross machines depend on their clocks being synchronized.
+ */
+public class PerfResult {
+
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+
+    private final PerfOptions options;
+    private final long elapsed;
+    private final long sent;
+    private final long received;
+    private final LatencyHistogram endToEnd;
+    private final LatencyHistogram toBroker;
+    private final LatencyHistogram inBroker;
+    private final LatencyHistogram toConsumer;
+
+    PerfResult(PerfOptions options, long elapsed, long sent, long received,
+               LatencyHistogram endToEnd, LatencyHistogram toBroker, LatencyHistogram inBroker, LatencyHistogram toConsumer) {
+        this.options = options;
+        this.elapsed = elapsed;
+        this.sent = sent;
+        this.received = received;
+        this.endToEnd = endToEnd;
+        this.toBroker = toBroker;
+        this.inBroker = inBroker;
+        this.toConsumer = toConsumer;
+    }
+
+    /**
+     * Writes the results in a form meant to be read and compared between runs.
+     *
+     * @param out
+     *        the stream written to.
+     */
+    public void print(PrintStream out) {
+        out.println("Options:      " + options);
+        out.println(String.format(Locale.ENGLISH, "Measured:     %.3f s", elapsed / 1000.0));
+        out.println(String.format(Locale.ENGLISH, "Sent:         %d msgs, %.0f msgs/s, %.2f MB/s",
+            sent, getSendRate(), getSendRate() * options.getMessageSize() / (1024 * 1024)));
+        out.println(String.format(Locale.ENGLISH, "Received:     %d msgs, %.0f msgs/s, %.2f MB/s",
+            received, getReceiveRate(), getReceiveRate() * options.getMessageSize() / (1024 * 1024)));
+
+        StringBuilder header = new StringBuilder("Latency (ms)  ");
+        header.append(String.format(Locale.ENGLISH, "%10s", "mean"));
+        for (double percentile : PERCENTILES) {
+            header.append(String.format(Locale.ENGLISH, "%10s", "p" + format(percentile)));
+        }
+        header.append(String.format(Locale.ENGLISH, "%10s", "max"));
+        out.println(header);
+
+        print(out, "end to end", endToEnd);
+        print(out, "to broker", toBroker);
+        print(out, "in broker", inBroker);
+        print(out, "to consumer", toConsumer);
+    }
+
+    public PerfOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the time measured in milliseconds.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the number of messages sent while measuring.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of messages sent while measuring that were received.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return messages sent per second while measuring.
+     */
+    public double getSendRate() {
+        return elapsed > 0 ? sent * 1000.0 / elapsed : 0;
+    }
+
+    /**
+     * @return messages received per second while measuring.
+     */
+    public double getReceiveRate() {
+        return elapsed > 0 ? received * 1000.0 / elapsed : 0;
+    }
+
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEnd;
+    }
+
+    public LatencyHistogram getToBrokerLatency() {
+        return toBroker;
+    }
+
+    public LatencyHistogram getInBrokerLatency() {
+        return inBroker;
+    }
+
+    public LatencyHistogram getToConsumerLatency() {
+        return toConsumer;
+    }
+
+    //----- Internal implementation ------------------------------------------//
+
+    private static void print(PrintStream out, String name, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder(String.format(Locale.ENGLISH, "  %-12s", name));
+        line.append(String.format(Locale.ENGLISH, "%10.2f", histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ENGLISH, "%10d", histogram.getValueAtPercentile(percentile)));
+        }
+        line.append(String.format(Locale.ENGLISH, "%10d", histogram.getMax()));
+        out.println(line);
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
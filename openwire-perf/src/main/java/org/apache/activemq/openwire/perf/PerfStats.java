@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by every connection of a run, updated by the producer and transport threads.
+ */
+final class PerfStats {
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder measuredSent = new LongAdder();
+    private final LongAdder measuredReceived = new LongAdder();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+    private volatile long measureStart = Long.MAX_VALUE;
+
+    void sent() {
+        sent.increment();
+        if (measuring) {
+            measuredSent.increment();
+        }
+    }
+
+    /**
+     * @return true if the message was received while measuring and its latency should be recorded.
+     */
+    boolean received(long timestamp) {
+        received.increment();
+        if (measuring && timestamp >= measureStart) {
+            measuredReceived.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    void failed(Throwable error) {
+        failure.compareAndSet(null, error);
+        stopping = true;
+    }
+
+    void startMeasuring() {
+        measureStart = System.currentTimeMillis();
+        measuring = true;
+    }
+
+    void stopMeasuring() {
+        measuring = false;
+    }
+
+    void stop() {
+        stopping = true;
+    }
+
+    boolean isMeasuring() {
+        return measuring;
+    }
+
+    boolean isStopping() {
+        return stopping;
+    }
+
+    long getSent() {
+        return sent.sum();
+    }
+
+    long getReceived() {
+        return received.sum();
+    }
+
+    long getMeasuredSent() {
+        return measuredSent.sum();
+    }
+
+    long getMeasuredReceived() {
+        return measuredReceived.sum();
+    }
+
+    Throwable getFailure() {
+        return failure.get();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.IOException;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.transport.TransportListener;
+
+/**
+ * Carries the commands of one load generator connection.
+ */
+interface PerfTransport {
+
+    /**
+     * Connects and starts delivering received commands to the listener.
+     *
+     * @param listener
+     *        the listener that received commands are delivered to.
+     *
+     * @throws IOException if the connection cannot be made.
+     */
+    void start(TransportListener listener) throws IOException;
+
+    /**
+     * Sends a command, it may be buffered until {@link #flush()} is called.
+     *
+     * @param command
+     *        the command to send.
+     *
+     * @throws IOException if the command cannot be sent.
+     */
+    void oneway(Object command) throws IOException;
+
+    /**
+     * Sends any buffered commands.
+     *
+     * @throws IOException if the commands cannot be sent.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Closes the connection.
+     */
+    void stop();
+
+    /**
+     * @return the OpenWireFormat that marshals this connection's commands.
+     */
+    OpenWireFormat getWireFormat();
+}
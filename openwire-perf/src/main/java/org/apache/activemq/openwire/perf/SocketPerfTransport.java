@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.activemq.openwire.codec.OpenWireFormat;
+import org.apache.activemq.openwire.transport.TransportListener;
+
+/**
+ * A PerfTransport over a socket, commands are marshalled into a buffer by the sending thread
+ * and written when the buffer fills or is flushed, a reader thread unmarshals the commands
+ * received.
+ */
+final class SocketPerfTransport implements PerfTransport {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final OpenWireFormat wireFormat;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    private Socket socket;
+    private DataOutputStream out;
+
+    SocketPerfTransport(String host, int port, OpenWireFormat wireFormat) {
+        this.host = host;
+        this.port = port;
+        this.wireFormat = wireFormat;
+    }
+
+    @Override
+    public void start(final TransportListener listener) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while (!stopped.get()) {
+                        listener.onCommand(wireFormat.unmarshal(in));
+                    }
+                } catch (IOException e) {
+                    if (!stopped.get()) {
+                        listener.onException(e);
+                    }
+                }
+            }
+        }, "OpenWire Perf Reader: " + socket.getLocalSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public synchronized void oneway(Object command) throws IOException {
+        wireFormat.marshal(command, out);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void stop() {
+        if (stopped.compareAndSet(false, true) && socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more is sent or received either way.
+            }
+        }
+    }
+
+    @Override
+    public OpenWireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "tcp://" + host + ":" + port;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(50, histogram.getValueAtPercentile(50.0));
+        assertEquals(99, histogram.getValueAtPercentile(99.0));
+        assertEquals(100, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testLargeValuesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = { 1000, 123456, 98765432L, Long.MAX_VALUE / 3 };
+
+        for (long value : values) {
+            histogram.reset();
+            histogram.record(value);
+
+            long read = histogram.getValueAtPercentile(50.0);
+            assertTrue("Value " + value + " read back as " + read, read <= value);
+            assertTrue("Value " + value + " read back as " + read, value - read <= value / 64);
+        }
+
+        histogram.reset();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testNegativeValuesRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < 90; ++i) {
+            first.record(10);
+        }
+        for (int i = 0; i < 10; ++i) {
+            second.record(5000);
+        }
+
+        first.add(second);
+        assertEquals(100, first.getCount());
+        assertEquals(10, first.getMin());
+        assertEquals(5000, first.getMax());
+        assertEquals(10, first.getValueAtPercentile(90.0));
+        assertEquals(5000, first.getValueAtPercentile(91.0), 5000 / 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDifferentPrecision() {
+        new LatencyHistogram(7).add(new LatencyHistogram(8));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.perf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for the OpenWirePerf load generator
+ */
+public class OpenWirePerfTest {
+
+    @Test
+    public void testParseOptions() {
+        PerfOptions options = PerfOptions.parse("--broker=vm", "--connections=2", "--topic",
+            "--message-type=text", "--message-size=64", "--tight-encoding=false", "--wire-version=9");
+
+        assertEquals(PerfOptions.VM_BROKER, options.getBroker());
+        assertEquals(2, options.getConnections());
+        assertTrue(options.isTopic());
+        assertEquals(PerfOptions.MessageType.TEXT, options.getMessageType());
+        assertEquals(64, options.getMessageSize());
+        assertFalse(options.isTightEncoding());
+        assertEquals(9, options.getWireVersion());
+        assertTrue(options.isEmbeddedBroker());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOption() {
+        PerfOptions.parse("--no-such-option=1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBroker() {
+        PerfOptions.parse("--broker=http://localhost");
+    }
+
+    @Test(timeout = 60000)
+    public void testQueueOverInVMTransport() throws Exception {
+        PerfResult result = run("--broker=vm", "--producers=2", "--consumers=2", "--messages=500",
+                                "--message-type=text", "--properties=2", "--compression");
+
+        assertEquals(1000, result.getSent());
+        assertEquals(1000, result.getReceived());
+        assertEquals(1000, result.getEndToEndLatency().getCount());
+        assertEquals(1000, result.getInBrokerLatency().getCount());
+    }
+
+    @Test(timeout = 60000)
+    public void testTopicByReference() throws Exception {
+        PerfResult result = run("--broker=vm-reference", "--topic", "--consumers=3", "--messages=200",
+                                "--message-type=map");
+
+        assertEquals(200, result.getSent());
+        assertEquals(600, result.getReceived());
+    }
+
+    @Test(timeout = 60000)
+    public void testOverSocketWithLooseEncoding() throws Exception {
+        PerfResult result = run("--broker=stub", "--connections=2", "--messages=300", "--batch-size=10",
+                                "--tight-encoding=false", "--cache=false", "--wire-version=6");
+
+        assertEquals(600, result.getSent());
+        assertEquals(600, result.getReceived());
+    }
+
+    @Test(timeout = 60000)
+    public void testTimedRun() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PerfOptions options = PerfOptions.parse("--broker=vm", "--warmup=200", "--duration=500",
+                                                "--report-interval=100", "--rate=2000");
+        PerfResult result = new OpenWirePerf(options, new PrintStream(output)).run();
+        result.print(new PrintStream(output));
+
+        assertTrue(result.getSent() > 0);
+        assertTrue(result.getReceived() > 0);
+        assertTrue(result.getSendRate() < 4000);
+        assertTrue(output.toString().contains("[measure]"));
+        assertTrue(output.toString().contains("end to end"));
+    }
+
+    private PerfResult run(String... args) throws Exception {
+        return new OpenWirePerf(PerfOptions.parse(args), null).run();
+    }
+}